@@ -49,6 +49,8 @@ CREATE UNIQUE INDEX certificatedata_idx12 ON CertificateData (serialNumber, issu
 -- Keyfactor Gateway Connector for Keyfactor Remote trying to query/page through 1.5 mill certs with the REST Api on a Hardware Appliance (even 2020XL)
 CREATE INDEX certificatedata_idx15 ON CertificateData (issuerDN,notBefore);
 CREATE INDEX certificatedata_idx16 ON CertificateData (issuerDN,revocationDate);
+-- Needed when database.certsearchindex.enabled=true or ocsp.statusindex.enabled=true in a cluster, to find certificates stored or revoked by other nodes
+-- CREATE INDEX certificatedata_idx17 ON CertificateData (updateTime);
 
 CREATE INDEX historydata_idx1 ON CertReqHistoryData (username);
 CREATE INDEX historydata_idx3 ON CertReqHistoryData (serialNumber);
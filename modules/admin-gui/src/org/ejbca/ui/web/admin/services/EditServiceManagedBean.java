@@ -46,6 +46,7 @@ import org.ejbca.core.model.services.workers.CRLDownloadWorker;
 import org.ejbca.core.model.services.workers.CRLUpdateWorker;
 import org.ejbca.core.model.services.workers.CertificateExpirationNotifierWorker;
 import org.ejbca.core.model.services.workers.HsmKeepAliveWorker;
+import org.ejbca.core.model.services.workers.OcspPreProductionWorker;
 import org.ejbca.core.model.services.workers.PreCertificateRevocationWorkerConstants;
 import org.ejbca.core.model.services.workers.PublishQueueProcessWorker;
 import org.ejbca.core.model.services.workers.RenewCAWorker;
@@ -67,6 +68,7 @@ import org.ejbca.ui.web.admin.services.servicetypes.HsmKeepAliveWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.PreCertificateRevocationWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.IntervalType;
 import org.ejbca.ui.web.admin.services.servicetypes.MailActionType;
+import org.ejbca.ui.web.admin.services.servicetypes.OcspPreProductionWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.PeriodicalIntervalType;
 import org.ejbca.ui.web.admin.services.servicetypes.PublishQueueWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.RenewCAWorkerType;
@@ -276,6 +278,9 @@ public class EditServiceManagedBean extends BaseManagedBean {
         if ((cp != null) && cp.equals(HsmKeepAliveWorker.class.getName())) {
             ret = HsmKeepAliveWorkerType.NAME;
         }
+        if ((cp != null) && cp.equals(OcspPreProductionWorker.class.getName())) {
+            ret = OcspPreProductionWorkerType.NAME;
+        }
         if ((cp != null) && cp.equals(PreCertificateRevocationWorkerConstants.WORKER_CLASS)) {
             ret = PreCertificateRevocationWorkerType.NAME;
         }
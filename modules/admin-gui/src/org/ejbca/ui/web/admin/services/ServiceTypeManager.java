@@ -28,6 +28,7 @@ import org.ejbca.ui.web.admin.services.servicetypes.HsmKeepAliveWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.PreCertificateRevocationWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.MailActionType;
 import org.ejbca.ui.web.admin.services.servicetypes.NoActionType;
+import org.ejbca.ui.web.admin.services.servicetypes.OcspPreProductionWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.PeriodicalIntervalType;
 import org.ejbca.ui.web.admin.services.servicetypes.PublishQueueWorkerType;
 import org.ejbca.ui.web.admin.services.servicetypes.RenewCAWorkerType;
@@ -72,6 +73,7 @@ public class ServiceTypeManager implements Serializable {
         registerServiceType(new RolloverWorkerType());
         registerServiceType(new PublishQueueWorkerType());
         registerServiceType(new HsmKeepAliveWorkerType());
+        registerServiceType(new OcspPreProductionWorkerType());
         // Enterprise Edition workers that don't use the custom worker framework
         final ServiceType[] eeWorkerTypes = { new PreCertificateRevocationWorkerType() };
         for (final ServiceType eeWorkerType : eeWorkerTypes) {
@@ -0,0 +1,35 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.admin.services.servicetypes;
+
+import org.ejbca.core.model.services.workers.OcspPreProductionWorker;
+
+/**
+ * Worker type of the service that produces new OCSP responses before the pre-produced responses expire.
+ *
+ * @version $Id$
+ */
+public class OcspPreProductionWorkerType extends BaseWorkerType {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String NAME = "OCSPPREPRODUCTIONWORKER";
+
+    public OcspPreProductionWorkerType() {
+        super(ServiceTypeUtil.OCSPPREPRODUCTIONWORKER_SUB_PAGE, NAME, true, OcspPreProductionWorker.class.getName());
+        // No action available for this worker
+        addCompatibleActionTypeName(NoActionType.NAME);
+        // Only periodical interval available for this worker
+        addCompatibleIntervalTypeName(PeriodicalIntervalType.NAME);
+    }
+}
@@ -33,6 +33,7 @@ public final class ServiceTypeUtil {
     public static final String CUSTOMINTERVAL_SUB_PAGE = "custominterval.xhtml";
     public static final String CUSTOMACTION_SUB_PAGE = "customaction.xhtml";
     public static final String CRLUPDATEWORKER_SUB_PAGE = "crlupdateworker.xhtml";
+    public static final String OCSPPREPRODUCTIONWORKER_SUB_PAGE = "ocsppreproductionworker.xhtml";
     public static final String CRLDOWNLOADWORKER_SUB_PAGE = "crldownloadworker.xhtml";
     public static final String CERTNOTIFICATIONWORKER_SUB_PAGE = "certnotificationworker.xhtml";
 
@@ -19,11 +19,15 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -31,6 +35,7 @@ import org.apache.log4j.Logger;
 import org.cesecore.authentication.AuthenticationFailedException;
 import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.PublicAccessAuthenticationToken;
 import org.cesecore.authentication.tokens.UsernamePrincipal;
 import org.cesecore.authorization.AuthorizationCache.AuthorizationCacheCallback;
 import org.cesecore.authorization.AuthorizationCache.AuthorizationResult;
@@ -317,6 +322,68 @@ public class AuthorizationCacheTest {
         log.trace("<testConcurrentRead");
     }
     
+    /** Test that refresh keeps entries that the callback knows are unchanged, and loads the other recently used entries again */
+    @Test
+    public void testRefreshKeepsUnchangedEntries() throws InterruptedException, AuthenticationFailedException {
+        log.trace(">testRefreshKeepsUnchangedEntries");
+        AuthorizationCache.INSTANCE.reset();
+        final AtomicInteger updateNumber = new AtomicInteger(0);
+        final AtomicLong keepUnusedEntriesFor = new AtomicLong(3600000L);
+        final AuthenticationToken atUnchanged = new PublicAccessAuthenticationToken("AuthorizationCacheTestUnchanged");
+        final AuthenticationToken atChanged = new PublicAccessAuthenticationToken("AuthorizationCacheTestChanged");
+        final AtomicInteger loadInvocationsUnchanged = new AtomicInteger(0);
+        final AtomicInteger loadInvocationsChanged = new AtomicInteger(0);
+        final AuthorizationCacheCallback callback = new AuthorizationCacheCallback() {
+            @Override
+            public AuthorizationResult loadAuthorization(AuthenticationToken authenticationToken) throws AuthenticationFailedException {
+                final HashMap<String, Boolean> accessRules = new HashMap<>();
+                if (atUnchanged==authenticationToken) {
+                    accessRules.put("/unchanged/" + loadInvocationsUnchanged.incrementAndGet(), Boolean.TRUE);
+                    return new AuthorizationResult(accessRules, updateNumber.get(), Collections.singleton(1), Collections.singleton(10));
+                }
+                accessRules.put("/changed/" + loadInvocationsChanged.incrementAndGet(), Boolean.TRUE);
+                return new AuthorizationResult(accessRules, updateNumber.get(), Collections.singleton(2), Collections.singleton(20));
+            }
+            @Override
+            public long getKeepUnusedEntriesFor() {
+                return keepUnusedEntriesFor.get();
+            }
+            @Override
+            public void subscribeToAuthorizationCacheReload(AuthorizationCacheReloadListener authorizationCacheReloadListener) {
+                // Not needed for this test
+            }
+            @Override
+            public boolean isUnchanged(AuthenticationToken authenticationToken, AuthorizationResult authorizationResult, int updateNumber) {
+                // Only role 2 has changed
+                return !authorizationResult.getRoleIds().contains(2);
+            }
+        };
+        assertTrue(AuthorizationCache.INSTANCE.get(atUnchanged, callback).containsKey("/unchanged/1"));
+        assertTrue(AuthorizationCache.INSTANCE.get(atChanged, callback).containsKey("/changed/1"));
+        updateNumber.incrementAndGet();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AuthorizationCache.INSTANCE.refresh(callback, updateNumber.get(), executor);
+            // The refreshed entry is loaded again either in the background or here, but only once
+            assertTrue(AuthorizationCache.INSTANCE.get(atChanged, callback).containsKey("/changed/2"));
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(60L, TimeUnit.SECONDS);
+        }
+        assertEquals(2, loadInvocationsChanged.get());
+        final AuthorizationResult authorizationResult = AuthorizationCache.INSTANCE.getAuthorizationResult(atUnchanged, callback);
+        assertTrue("Unchanged entry should have been kept.", authorizationResult.getAccessRules().containsKey("/unchanged/1"));
+        assertEquals("Unchanged entry should be valid in the latest update number.", updateNumber.get(), authorizationResult.getUpdateNumeber());
+        assertEquals(1, loadInvocationsUnchanged.get());
+        // Unused entries are removed even if they are unchanged
+        keepUnusedEntriesFor.set(0L);
+        Thread.sleep(100L);
+        updateNumber.incrementAndGet();
+        AuthorizationCache.INSTANCE.refresh(callback, updateNumber.get());
+        assertTrue(AuthorizationCache.INSTANCE.get(atUnchanged, callback).containsKey("/unchanged/2"));
+        log.trace("<testRefreshKeepsUnchangedEntries");
+    }
+
     /** Helper class for retrieving a cache entry in a background thread */
     private class CacheReaderThread extends Thread {
         
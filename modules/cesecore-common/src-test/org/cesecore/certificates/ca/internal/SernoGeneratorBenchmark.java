@@ -0,0 +1,82 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the issuance throughput of a single serial number generator with one generator per processor.
+ * <p>
+ * Only logs the result, since timing depends on the environment. The name does not end with Test, so it is not part of
+ * the default unit test run. Run it with: ant runone -Dtest.runone=SernoGeneratorBenchmark -Dtest.showoutput=true
+ */
+public class SernoGeneratorBenchmark {
+    private static final Logger log = Logger.getLogger(SernoGeneratorBenchmark.class);
+
+    @Before
+    public void before() { SernoGeneratorRandom.clearCache(); }
+    @After
+    public void after() { SernoGeneratorRandom.clearCache(); }
+
+    /** Compare the throughput of a single generator with one generator per processor, when all processors are issuing. */
+    @Test
+    public void testShardedGenerationThroughput() throws Exception {
+        final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        final int sernosPerThread = 200000;
+        final SernoGeneratorRandom single = new SernoGeneratorRandom(20, 1, 1);
+        final SernoGeneratorRandom sharded = new SernoGeneratorRandom(20, threads, 16);
+        // Warm up
+        generateConcurrently(single, threads, 10000);
+        generateConcurrently(sharded, threads, 10000);
+        long start = System.nanoTime();
+        generateConcurrently(single, threads, sernosPerThread);
+        final long singleTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        generateConcurrently(sharded, threads, sernosPerThread);
+        final long shardedTime = System.nanoTime() - start;
+        final long total = (long) threads * sernosPerThread;
+        log.info("Generating " + total + " 20 octet serNos in " + threads + " threads with " + single.getAlgorithm() + ": "
+                + (total * 1000000000L / singleTime) + " serNos/s with a single RNG, " + (total * 1000000000L / shardedTime) + " serNos/s with "
+                + threads + " RNGs prefetching 16 serNos at a time.");
+    }
+
+    /** Generates serial numbers in several threads */
+    private void generateConcurrently(final SernoGenerator gen, final int threads, final int sernosPerThread) throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < sernosPerThread; j++) {
+                        gen.getSerno();
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
@@ -16,8 +16,15 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -249,6 +256,42 @@ public class SernoGeneratorTest {
 //        log.info("Number of duplicates: "+duplicates);
     }
 
+    /** Test that sharded generators with prefetching generate serial numbers with the right length and without collisions */
+    @Test(timeout = 60_000)
+    public void testShardedPrefetchingGeneration() throws Exception {
+        for (final String algorithm : new String[] {"SHA1PRNG", "BCSP800HYBRID"}) {
+            final SernoGeneratorRandom gen = new SernoGeneratorRandom(8, 4, 16);
+            gen.setAlgorithm(algorithm);
+            assertEquals(4, gen.getNoShards());
+            final Set<BigInteger> sernos = ConcurrentHashMap.newKeySet();
+            generateConcurrently(gen, 8, 20000, sernos);
+            assertEquals("Duplicate serial numbers were generated with " + algorithm + ".", 8 * 20000, sernos.size());
+        }
+    }
+
+    /** Generates serial numbers in several threads, checking the encoded length, and adds them to sernos */
+    private void generateConcurrently(final SernoGenerator gen, final int threads, final int sernosPerThread, final Set<BigInteger> sernos) throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < sernosPerThread; j++) {
+                        final BigInteger serno = gen.getSerno();
+                        assertEquals(gen.getNoSernoBytes() + 2, new ASN1Integer(serno).getEncoded().length);
+                        sernos.add(serno);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
     public static Throwable threadException = null;
     @Test(timeout = 60_000)
     public void testMultiThreadedSernoGeneration() throws Exception {
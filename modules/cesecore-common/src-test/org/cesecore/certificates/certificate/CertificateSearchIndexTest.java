@@ -0,0 +1,118 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.cesecore.config.ConfigurationHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CertificateSearchIndex}.
+ *
+ * @version $Id$
+ */
+public class CertificateSearchIndexTest {
+
+    private final CertificateSearchIndex searchIndex = CertificateSearchIndex.INSTANCE;
+
+    @Before
+    public void setUp() {
+        ConfigurationHolder.updateConfiguration("database.certsearchindex.enabled", "true");
+        ConfigurationHolder.updateConfiguration("database.certsearchindex.maxentries", "10000000");
+        ConfigurationHolder.updateConfiguration("database.certsearchindex.refreshtime", "10000");
+        searchIndex.flush();
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration("database.certsearchindex.enabled", "false");
+        searchIndex.flush();
+    }
+
+    @Test
+    public void testFindIgnoresCase() {
+        searchIndex.add("aa01", "CN=User One,O=Org", "dNSName=one.example.com", "user1", "12345");
+        searchIndex.add("aa02", "CN=User Two,O=Org", null, "User1", "67890");
+        assertEquals(Collections.singletonList("aa01"), searchIndex.findBySubjectDn("cn=user one,o=ORG"));
+        assertEquals(Collections.singletonList("aa01"), searchIndex.findBySubjectAltName("DNSNAME=one.example.com"));
+        assertEquals(new HashSet<>(Arrays.asList("aa01", "aa02")), new HashSet<>(searchIndex.findByUsername("USER1")));
+        assertEquals(Collections.singletonList("aa02"), searchIndex.findBySerialNumber("67890"));
+        assertTrue("Unknown values should not match any certificate.", searchIndex.findBySubjectDn("CN=User").isEmpty());
+        assertTrue("Values are only indexed for their own field.", searchIndex.findByUsername("CN=User One,O=Org").isEmpty());
+        // The same certificate added again, for example by a refresh, is only stored once
+        searchIndex.add("aa01", "CN=User One,O=Org", "dNSName=one.example.com", "user1", "12345");
+        assertEquals(2, searchIndex.findByUsername("user1").size());
+        assertEquals(7, searchIndex.size());
+    }
+
+    @Test
+    public void testTooManyCertificatesForValue() {
+        for (int i = 0; i <= CertificateSearchIndex.MAX_FINGERPRINTS_PER_VALUE; i++) {
+            searchIndex.add(String.format("%040x", i), "CN=Device " + i, null, "shareduser", Integer.toString(i));
+        }
+        assertNull("A value with too many certificates must be searched for in the database.", searchIndex.findByUsername("shareduser"));
+        assertEquals(Collections.singletonList(String.format("%040x", 7)), searchIndex.findBySubjectDn("CN=Device 7"));
+    }
+
+    @Test
+    public void testDroppedWhenFull() {
+        ConfigurationHolder.updateConfiguration("database.certsearchindex.maxentries", "10");
+        searchIndex.setLoaded(System.currentTimeMillis());
+        searchIndex.add("bb01", "CN=One", null, "one", "1");
+        searchIndex.add("bb02", "CN=Two", null, "two", "2");
+        assertTrue(searchIndex.isLoaded());
+        searchIndex.add("bb03", "CN=Three", null, "three", "3");
+        searchIndex.add("bb04", "CN=Four", null, "four", "4");
+        assertFalse("The index should have been dropped when it grew too large.", searchIndex.isLoaded());
+        assertFalse(searchIndex.isEnabled());
+        assertEquals(0, searchIndex.size());
+        searchIndex.add("bb05", "CN=Five", null, "five", "5");
+        assertEquals("A dropped index should not grow again.", 0, searchIndex.size());
+    }
+
+    @Test
+    public void testRefreshStartTime() {
+        assertEquals("An index that is not loaded should not be refreshed.", -1, searchIndex.getRefreshStartTime(100000L));
+        searchIndex.setLoaded(100000L);
+        assertEquals(-1, searchIndex.getRefreshStartTime(105000L));
+        assertEquals(100000L - CertificateSearchIndex.REFRESH_OVERLAP_MS, searchIndex.getRefreshStartTime(110000L));
+        assertEquals("Only one caller should refresh in each interval.", -1, searchIndex.getRefreshStartTime(110001L));
+        searchIndex.refreshFailed(100000L - CertificateSearchIndex.REFRESH_OVERLAP_MS);
+        assertEquals("A failed refresh should be retried from the same time.", 100000L - CertificateSearchIndex.REFRESH_OVERLAP_MS,
+                searchIndex.getRefreshStartTime(110002L));
+    }
+
+    @Test
+    public void testIndexedUntil() {
+        searchIndex.setLoaded(100000L);
+        assertEquals(100000L - CertificateSearchIndex.REFRESH_OVERLAP_MS, searchIndex.getIndexedUntil());
+        assertEquals(100000L - CertificateSearchIndex.REFRESH_OVERLAP_MS, searchIndex.getRefreshStartTime(110000L));
+        assertEquals("A refresh that has not completed should not move the time forward.", 100000L - CertificateSearchIndex.REFRESH_OVERLAP_MS,
+                searchIndex.getIndexedUntil());
+        searchIndex.refreshCompleted(110000L);
+        assertEquals(110000L - CertificateSearchIndex.REFRESH_OVERLAP_MS, searchIndex.getIndexedUntil());
+        searchIndex.refreshCompleted(105000L);
+        assertEquals("A refresh that completes late should not move the time back.", 110000L - CertificateSearchIndex.REFRESH_OVERLAP_MS,
+                searchIndex.getIndexedUntil());
+    }
+}
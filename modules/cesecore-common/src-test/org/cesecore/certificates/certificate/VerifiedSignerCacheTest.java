@@ -0,0 +1,99 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+
+import org.cesecore.config.ConfigurationHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link VerifiedSignerCache}.
+ *
+ * @version $Id$
+ */
+public class VerifiedSignerCacheTest {
+
+    private static final List<Certificate> CA_CHAIN = Collections.emptyList();
+    private static final List<X509Certificate> SIGNER_CHAIN = Collections.emptyList();
+
+    private final VerifiedSignerCache cache = VerifiedSignerCache.INSTANCE;
+
+    @Before
+    public void setUp() {
+        ConfigurationHolder.updateConfiguration("cmpsigner.cachetime", "60000");
+        cache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration("cmpsigner.cachetime", "10000");
+        cache.clear();
+    }
+
+    @Test
+    public void testGetVerifiedSigner() {
+        cache.put(cache.getGeneration(), "aa01", 123, CA_CHAIN, SIGNER_CHAIN, "user1", null);
+        final VerifiedSignerCache.Entry entry = cache.get("aa01", 123, CA_CHAIN);
+        assertNotNull(entry);
+        assertEquals("user1", entry.getUsername());
+        assertNull("The signer was verified with another CA.", cache.get("aa01", 456, CA_CHAIN));
+        assertNull(cache.get("aa02", 123, CA_CHAIN));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put(cache.getGeneration(), "aa01", 123, CA_CHAIN, SIGNER_CHAIN, "user1", null);
+        cache.put(cache.getGeneration(), "aa02", 123, CA_CHAIN, SIGNER_CHAIN, "user2", null);
+        cache.invalidate("aa01");
+        assertNull(cache.get("aa01", 123, CA_CHAIN));
+        assertNotNull(cache.get("aa02", 123, CA_CHAIN));
+    }
+
+    @Test
+    public void testStatusReadBeforeInvalidationIsNotCached() {
+        final long generation = cache.getGeneration();
+        // The certificate is revoked while its old status is being verified
+        cache.invalidate("aa01");
+        cache.put(generation, "aa01", 123, CA_CHAIN, SIGNER_CHAIN, "user1", null);
+        assertNull(cache.get("aa01", 123, CA_CHAIN));
+    }
+
+    @Test
+    public void testDisabled() {
+        ConfigurationHolder.updateConfiguration("cmpsigner.cachetime", "0");
+        cache.put(cache.getGeneration(), "aa01", 123, CA_CHAIN, SIGNER_CHAIN, "user1", null);
+        assertEquals(0, cache.size());
+        assertNull(cache.get("aa01", 123, CA_CHAIN));
+    }
+
+    @Test
+    public void testFullCacheIsCleared() {
+        for (int i = 0; i < VerifiedSignerCache.MAX_ENTRIES; i++) {
+            cache.put(cache.getGeneration(), "fp" + i, 123, CA_CHAIN, SIGNER_CHAIN, "user" + i, null);
+        }
+        assertEquals(VerifiedSignerCache.MAX_ENTRIES, cache.size());
+        cache.put(cache.getGeneration(), "aa01", 123, CA_CHAIN, SIGNER_CHAIN, "user1", null);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("aa01", 123, CA_CHAIN));
+    }
+}
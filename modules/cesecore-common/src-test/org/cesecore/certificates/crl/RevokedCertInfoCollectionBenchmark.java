@@ -0,0 +1,81 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.log4j.Logger;
+import org.cesecore.util.CompressedCollection;
+import org.junit.Test;
+
+/**
+ * Compares the encode (add) and decode (iterate) throughput of RevokedCertInfoCollection with CompressedCollection.
+ * <p>
+ * Only logs the result, since timing depends on the environment. The name does not end with Test, so it is not part of
+ * the default unit test run. Run it with: ant runone -Dtest.runone=RevokedCertInfoCollectionBenchmark -Dtest.showoutput=true
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollectionBenchmark {
+
+    private static final Logger log = Logger.getLogger(RevokedCertInfoCollectionBenchmark.class);
+
+    @Test
+    public void testThroughputComparedToCompressedCollection() {
+        final int count = 200000;
+        final int rounds = 5;
+        final RevokedCertInfo[] entries = new RevokedCertInfo[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = RevokedCertInfoCollectionTest.revokedCertInfo(i);
+        }
+        long compressedEncode = Long.MAX_VALUE, compressedDecode = Long.MAX_VALUE, compactEncode = Long.MAX_VALUE, compactDecode = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            final CompressedCollection<RevokedCertInfo> compressedCollection = new CompressedCollection<>(RevokedCertInfo.class);
+            for (final RevokedCertInfo entry : entries) {
+                compressedCollection.add(entry);
+            }
+            compressedCollection.closeForWrite();
+            compressedEncode = Math.min(compressedEncode, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (final RevokedCertInfo entry : compressedCollection) {
+                checksum += entry.getReason();
+            }
+            compressedDecode = Math.min(compressedDecode, System.nanoTime() - start);
+            compressedCollection.clear();
+
+            start = System.nanoTime();
+            final RevokedCertInfoCollection compactCollection = new RevokedCertInfoCollection(0);
+            for (final RevokedCertInfo entry : entries) {
+                compactCollection.add(entry);
+            }
+            compactCollection.closeForWrite();
+            compactEncode = Math.min(compactEncode, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (final RevokedCertInfo entry : compactCollection) {
+                checksum -= entry.getReason();
+            }
+            compactDecode = Math.min(compactDecode, System.nanoTime() - start);
+            compactCollection.clear();
+        }
+        assertEquals("Both collections should return the same entries.", 0, checksum);
+        log.info("Entries per second for " + count + " entries. CompressedCollection: add " + perSecond(count, compressedEncode) + ", iterate "
+                + perSecond(count, compressedDecode) + ". RevokedCertInfoCollection: add " + perSecond(count, compactEncode) + ", iterate "
+                + perSecond(count, compactDecode) + ".");
+    }
+
+    private static long perSecond(final int count, final long nanos) {
+        return count * 1000000000L / Math.max(1, nanos);
+    }
+}
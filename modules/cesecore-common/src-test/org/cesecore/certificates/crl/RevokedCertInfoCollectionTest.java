@@ -0,0 +1,280 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Tests of the compact storage of revoked certificates used when creating CRLs.
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollectionTest {
+
+    private static final Logger log = Logger.getLogger(RevokedCertInfoCollectionTest.class);
+
+    /** @return the i:th test entry. Also used by {@link RevokedCertInfoCollectionBenchmark}. */
+    static RevokedCertInfo revokedCertInfo(final int i) {
+        final String fingerprint = String.format("%040x", BigInteger.valueOf(i).multiply(BigInteger.valueOf(0x9E3779B97F4A7C15L)).shiftLeft(90).abs());
+        // Up to 20 octets serial numbers, as with random serial numbers
+        final BigInteger serialNumber = BigInteger.valueOf(i).shiftLeft(i % 153);
+        return new RevokedCertInfo(fingerprint.substring(0, 40).getBytes(), serialNumber.toByteArray(), 1500000000000L + i, i % 11,
+                1600000000000L + i);
+    }
+
+    private static void assertRevokedCertInfo(final RevokedCertInfo expected, final RevokedCertInfo actual) {
+        assertEquals(expected.getCertificateFingerprint(), actual.getCertificateFingerprint());
+        assertEquals(expected.getUserCertificate(), actual.getUserCertificate());
+        assertEquals(expected.getRevocationDate(), actual.getRevocationDate());
+        assertEquals(expected.getExpireDate(), actual.getExpireDate());
+        assertEquals(expected.getReason(), actual.getReason());
+    }
+
+    private static void assertEntries(final int count, final Collection<RevokedCertInfo> collection) {
+        assertEquals(count, collection.size());
+        int i = 0;
+        for (final RevokedCertInfo revokedCertInfo : collection) {
+            assertRevokedCertInfo(revokedCertInfo(i++), revokedCertInfo);
+        }
+        assertEquals(count, i);
+    }
+
+    @Test
+    public void testAddAndIterate() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(0);
+        // Grow the first block, and fill a few more
+        final int count = 3 * RevokedCertInfoCollection.RECORDS_PER_BLOCK + 17;
+        for (int i = 0; i < count; i++) {
+            collection.add(revokedCertInfo(i));
+        }
+        assertEntries(count, collection);
+        // Iterate twice
+        assertEntries(count, collection);
+        collection.clear();
+        assertEquals(0, collection.size());
+        assertFalse(collection.iterator().hasNext());
+    }
+
+    @Test
+    public void testOverflowEntries() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(0);
+        // No fingerprint and no dates
+        collection.add(new RevokedCertInfo(null, BigInteger.TEN.toByteArray(), 0, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, 0));
+        // Fingerprint that is not lower case hex
+        collection.add(new RevokedCertInfo("ABCDEF".getBytes(), BigInteger.ONE.toByteArray(), 1000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2000));
+        // Too long serial number
+        final BigInteger longSerialNumber = BigInteger.ONE.shiftLeft(200);
+        collection.add(new RevokedCertInfo(null, longSerialNumber.toByteArray(), 1000, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2000));
+        collection.add(revokedCertInfo(4711));
+        final Iterator<RevokedCertInfo> iterator = collection.iterator();
+        RevokedCertInfo revokedCertInfo = iterator.next();
+        assertNull(revokedCertInfo.getCertificateFingerprint());
+        assertEquals(BigInteger.TEN, revokedCertInfo.getUserCertificate());
+        assertFalse(revokedCertInfo.isRevocationDateSet());
+        assertNull(revokedCertInfo.getExpireDate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, revokedCertInfo.getReason());
+        revokedCertInfo = iterator.next();
+        assertEquals("ABCDEF", revokedCertInfo.getCertificateFingerprint());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, revokedCertInfo.getReason());
+        assertEquals(longSerialNumber, iterator.next().getUserCertificate());
+        assertRevokedCertInfo(revokedCertInfo(4711), iterator.next());
+        assertFalse(iterator.hasNext());
+        collection.clear();
+    }
+
+    @Test
+    public void testMemoryMapped() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(RevokedCertInfoCollection.RECORDS_PER_BLOCK);
+        final int count = 4 * RevokedCertInfoCollection.RECORDS_PER_BLOCK + 5;
+        for (int i = 0; i < count; i++) {
+            collection.add(revokedCertInfo(i));
+        }
+        assertEntries(count, collection);
+        collection.clear();
+        assertEquals(0, collection.size());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(RevokedCertInfoCollection.RECORDS_PER_BLOCK);
+        final int count = RevokedCertInfoCollection.RECORDS_PER_BLOCK + 100;
+        for (int i = 0; i < count; i++) {
+            collection.add(revokedCertInfo(i));
+        }
+        collection.closeForWrite();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(collection);
+        }
+        collection.clear();
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            @SuppressWarnings("unchecked")
+            final Collection<RevokedCertInfo> deserialized = (Collection<RevokedCertInfo>) ois.readObject();
+            assertEntries(count, deserialized);
+            deserialized.clear();
+        }
+    }
+
+    @Test
+    public void testNoAddAfterClose() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(0);
+        collection.add(revokedCertInfo(1));
+        collection.closeForWrite();
+        try {
+            collection.add(revokedCertInfo(2));
+            fail("RevokedCertInfoCollection should not allow add after closeForWrite().");
+        } catch (IllegalStateException e) {
+            log.debug(e.getMessage());
+        }
+        assertEquals(1, collection.size());
+        collection.clear();
+        collection.add(revokedCertInfo(0));
+        assertEntries(1, collection);
+    }
+
+    @Test
+    public void testContains() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(0);
+        final RevokedCertInfo overflowEntry = new RevokedCertInfo(null, BigInteger.ONE.shiftLeft(200).toByteArray(), 1000, 0, 2000);
+        collection.add(revokedCertInfo(1));
+        collection.add(overflowEntry);
+        collection.add(revokedCertInfo(3));
+        // Entries are compared by value, since new objects are returned each time
+        assertTrue(collection.contains(revokedCertInfo(1)));
+        assertTrue(collection.contains(new RevokedCertInfo(null, BigInteger.ONE.shiftLeft(200).toByteArray(), 1000, 0, 2000)));
+        assertFalse(collection.contains(revokedCertInfo(2)));
+        assertFalse(collection.contains("not an entry"));
+        assertTrue(collection.containsAll(Arrays.asList(revokedCertInfo(3), overflowEntry)));
+        assertFalse(collection.containsAll(Arrays.asList(revokedCertInfo(3), revokedCertInfo(2))));
+        collection.clear();
+    }
+
+    @Test
+    public void testRemove() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(0);
+        collection.add(revokedCertInfo(0));
+        collection.add(revokedCertInfo(100));
+        collection.add(revokedCertInfo(1));
+        collection.add(revokedCertInfo(100));
+        collection.closeForWrite();
+        assertTrue(collection.remove(revokedCertInfo(100)));
+        assertEquals("Only the first equal entry should be removed.", 3, collection.size());
+        assertTrue(collection.remove(revokedCertInfo(100)));
+        assertFalse(collection.remove(revokedCertInfo(100)));
+        assertEntries(2, collection);
+        collection.clear();
+    }
+
+    @Test
+    public void testRemoveAllAndRetainAll() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(RevokedCertInfoCollection.RECORDS_PER_BLOCK);
+        // Spanning heap and memory mapped blocks, with overflow entries in between
+        final int count = 2 * RevokedCertInfoCollection.RECORDS_PER_BLOCK + 10;
+        final List<RevokedCertInfo> even = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            collection.add(revokedCertInfo(i));
+            if (i % 1000 == 0) {
+                collection.add(new RevokedCertInfo(null, BigInteger.valueOf(i).shiftLeft(200).toByteArray(), i, 0, 0));
+            }
+            if (i % 2 == 0) {
+                even.add(revokedCertInfo(i));
+            }
+        }
+        assertTrue(collection.removeIf(revokedCertInfo -> revokedCertInfo.getCertificateFingerprint() == null));
+        assertEntries(count, collection);
+        final RevokedCertInfoCollection odd = new RevokedCertInfoCollection(0);
+        for (int i = 1; i < count; i += 2) {
+            odd.add(revokedCertInfo(i));
+        }
+        final Collection<RevokedCertInfo> retained = new ArrayList<>(odd);
+        assertTrue(collection.removeAll(even));
+        assertFalse(collection.removeAll(even));
+        assertEquals(count / 2, collection.size());
+        final Iterator<RevokedCertInfo> expected = retained.iterator();
+        for (final RevokedCertInfo revokedCertInfo : collection) {
+            assertRevokedCertInfo(expected.next(), revokedCertInfo);
+        }
+        assertTrue(collection.retainAll(Arrays.asList(revokedCertInfo(1), revokedCertInfo(count - 1))));
+        assertFalse(collection.retainAll(Arrays.asList(revokedCertInfo(1), revokedCertInfo(count - 1))));
+        final Iterator<RevokedCertInfo> iterator = collection.iterator();
+        assertRevokedCertInfo(revokedCertInfo(1), iterator.next());
+        assertRevokedCertInfo(revokedCertInfo(count - 1), iterator.next());
+        assertFalse(iterator.hasNext());
+        collection.clear();
+        odd.clear();
+    }
+
+    @Test
+    public void testToArray() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(0);
+        for (int i = 0; i < 3; i++) {
+            collection.add(revokedCertInfo(i));
+        }
+        final Object[] objects = collection.toArray();
+        assertEquals(3, objects.length);
+        assertRevokedCertInfo(revokedCertInfo(2), (RevokedCertInfo) objects[2]);
+        final RevokedCertInfo[] allocated = collection.toArray(new RevokedCertInfo[0]);
+        assertEquals(3, allocated.length);
+        assertRevokedCertInfo(revokedCertInfo(0), allocated[0]);
+        final RevokedCertInfo[] larger = new RevokedCertInfo[] { null, null, null, revokedCertInfo(7), revokedCertInfo(8) };
+        assertSame(larger, collection.toArray(larger));
+        assertRevokedCertInfo(revokedCertInfo(1), larger[1]);
+        assertNull("The element after the last entry should be set to null.", larger[3]);
+        collection.clear();
+    }
+
+    @Test
+    public void testSerializedFormHasNoObjects() throws Exception {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(0);
+        collection.add(revokedCertInfo(1));
+        collection.add(new RevokedCertInfo(null, BigInteger.ONE.shiftLeft(200).toByteArray(), 1000, 0, 2000));
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(collection);
+        }
+        collection.clear();
+        // The entries are written as primitive values, so readObject does not deserialize any objects of the stream.
+        // Class names are written with their length first, so the name of the collection class does not match.
+        final String className = RevokedCertInfo.class.getName();
+        assertFalse(new String(baos.toByteArray(), StandardCharsets.ISO_8859_1).contains((char) 0 + String.valueOf((char) className.length()) + className));
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            final RevokedCertInfoCollection deserialized = (RevokedCertInfoCollection) ois.readObject();
+            final Iterator<RevokedCertInfo> iterator = deserialized.iterator();
+            assertRevokedCertInfo(revokedCertInfo(1), iterator.next());
+            final RevokedCertInfo overflowEntry = iterator.next();
+            assertNull(overflowEntry.getCertificateFingerprint());
+            assertEquals(BigInteger.ONE.shiftLeft(200), overflowEntry.getUserCertificate());
+            deserialized.clear();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.ContentVerifier;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that CRLs encoded by {@link StreamingCrlEncoder} are identical to the ones built by BouncyCastle.
+ *
+ * @version $Id$
+ */
+public class StreamingCrlEncoderTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=StreamingCrlEncoderTest");
+    private static final Date THIS_UPDATE = new Date(1700000000000L);
+    private static final Date NEXT_UPDATE = new Date(1700086400000L);
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keyPair = KeyTools.genKeys("1024", "RSA");
+    }
+
+    private X509v2CRLBuilder createBuilder() throws Exception {
+        final X509v2CRLBuilder crlgen = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        crlgen.setNextUpdate(NEXT_UPDATE);
+        crlgen.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+        return crlgen;
+    }
+
+    private ContentSigner createSigner() throws Exception {
+        final Signature signature = Signature.getInstance("SHA256WithRSA");
+        signature.initSign(keyPair.getPrivate());
+        return new ContentSigner() {
+            private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            @Override
+            public AlgorithmIdentifier getAlgorithmIdentifier() {
+                return new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return out;
+            }
+
+            @Override
+            public byte[] getSignature() {
+                try {
+                    signature.update(out.toByteArray());
+                    return signature.sign();
+                } catch (SignatureException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    private ContentVerifier createVerifier() throws Exception {
+        final Signature signature = Signature.getInstance("SHA256WithRSA");
+        signature.initVerify(keyPair.getPublic());
+        return new ContentVerifier() {
+            private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            @Override
+            public AlgorithmIdentifier getAlgorithmIdentifier() {
+                return new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return out;
+            }
+
+            @Override
+            public boolean verify(final byte[] expected) {
+                try {
+                    signature.update(out.toByteArray());
+                    return signature.verify(expected);
+                } catch (SignatureException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    private void assertSameAsBuilder(final int entries) throws Exception {
+        final X509v2CRLBuilder expectedBuilder = createBuilder();
+        final byte[] encoded;
+        try (final StreamingCrlEncoder encoder = new StreamingCrlEncoder()) {
+            for (int i = 0; i < entries; i++) {
+                final BigInteger serialNumber = BigInteger.valueOf(i).shiftLeft(100).add(BigInteger.valueOf(i * 31L));
+                final Date revocationDate = new Date(THIS_UPDATE.getTime() - i * 1000L);
+                // Alternate between no reason code and reason codes
+                final int reason = i % 11;
+                expectedBuilder.addCRLEntry(serialNumber, revocationDate, reason);
+                encoder.addEntry(serialNumber, revocationDate, reason);
+            }
+            assertEquals(entries, encoder.getEntryCount());
+            encoded = encoder.encode(createBuilder(), createSigner());
+            assertTrue("Signature should be valid.", encoder.isSignatureValid(encoded, createVerifier()));
+            final X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(encoded));
+            crl.verify(keyPair.getPublic());
+            assertEquals(entries, crl.getRevokedCertificates() == null ? 0 : crl.getRevokedCertificates().size());
+            // Tamper with the issuer name, somewhere in the TBSCertList
+            final byte[] tampered = encoded.clone();
+            final int issuerOffset = indexOf(tampered, "StreamingCrlEncoderTest".getBytes());
+            tampered[issuerOffset] ^= 1;
+            assertFalse("Signature should not be valid for a modified CRL.", encoder.isSignatureValid(tampered, createVerifier()));
+        }
+        // PKCS#1 v1.5 signatures are deterministic, so the whole CRL should be identical
+        assertArrayEquals(expectedBuilder.build(createSigner()).getEncoded(), encoded);
+    }
+
+    @Test
+    public void testNoEntries() throws Exception {
+        assertSameAsBuilder(0);
+    }
+
+    @Test
+    public void testFewEntries() throws Exception {
+        assertSameAsBuilder(25);
+    }
+
+    @Test
+    public void testEntriesInTemporaryFile() throws Exception {
+        // More than StreamingCrlEncoder.MEMORY_THRESHOLD bytes of entries
+        assertSameAsBuilder(50000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderWithEntries() throws Exception {
+        final X509v2CRLBuilder crlgen = createBuilder();
+        crlgen.addCRLEntry(BigInteger.ONE, THIS_UPDATE, 0);
+        try (final StreamingCrlEncoder encoder = new StreamingCrlEncoder()) {
+            encoder.encode(crlgen, createSigner());
+        }
+    }
+
+    @Test
+    public void testReadEntries() throws Exception {
+        final byte[] encoded;
+        try (final StreamingCrlEncoder encoder = new StreamingCrlEncoder()) {
+            for (int i = 0; i < 300; i++) {
+                encoder.addEntry(BigInteger.valueOf(1000 + i), new Date(THIS_UPDATE.getTime() - i * 1000L), i % 11);
+            }
+            encoded = encoder.encode(createBuilder(), createSigner());
+        }
+        final List<RevokedCertInfo> entries = new ArrayList<>();
+        assertEquals(300, CrlEntryReader.forEachEntry(encoded, entries::add));
+        assertEquals(300, entries.size());
+        for (int i = 0; i < 300; i++) {
+            final RevokedCertInfo entry = entries.get(i);
+            assertEquals(BigInteger.valueOf(1000 + i), entry.getUserCertificate());
+            assertEquals(THIS_UPDATE.getTime() - i * 1000L, entry.getRevocationDate().getTime());
+            assertEquals(i % 11, entry.getReason());
+        }
+        // A CRL without entries
+        try (final StreamingCrlEncoder encoder = new StreamingCrlEncoder()) {
+            assertEquals(0, CrlEntryReader.forEachEntry(encoder.encode(createBuilder(), createSigner()), entries::add));
+        }
+    }
+
+    @Test
+    public void testHeader() {
+        assertArrayEquals(new byte[] { 0x30, 0x7f }, StreamingCrlEncoder.getHeader(127));
+        assertArrayEquals(new byte[] { 0x30, (byte) 0x81, (byte) 0x80 }, StreamingCrlEncoder.getHeader(128));
+        assertArrayEquals(new byte[] { 0x30, (byte) 0x83, 0x01, 0x00, 0x00 }, StreamingCrlEncoder.getHeader(65536));
+    }
+
+    private static int indexOf(final byte[] data, final byte[] pattern) {
+        outer: for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new IllegalStateException("Pattern not found");
+    }
+}
@@ -0,0 +1,104 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.junit.Test;
+
+/**
+ * Test of the compact serial number to revocation status table used by the OCSP status index.
+ *
+ * @version $Id$
+ */
+public class CertificateStatusTableTest {
+
+    @Test
+    public void testPutAndGet() {
+        final CertificateStatusTable table = new CertificateStatusTable();
+        final BigInteger serial = new BigInteger("7A3BC01D55E1F0AA12", 16);
+        assertNull("Table should be empty from start.", table.get(serial));
+        assertTrue(table.put(serial, false, 0L, RevokedCertInfo.NOT_REVOKED, 2000L, 4711, true));
+        CertificateStatus status = table.get(serial);
+        assertNotNull("Entry should have been found.", status);
+        assertEquals(CertificateStatus.OK, status);
+        assertEquals(RevokedCertInfo.NOT_REVOKED, status.revocationReason);
+        assertEquals(2000L, status.getExpirationDate());
+        assertEquals(4711, status.certificateProfileId);
+        assertTrue(table.put(serial, true, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2000L, 4711, true));
+        status = table.get(serial);
+        assertEquals(CertificateStatus.REVOKED, status);
+        assertEquals(1000L, status.revocationDate.getTime());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, status.revocationReason);
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testNoOverwrite() {
+        final CertificateStatusTable table = new CertificateStatusTable();
+        final BigInteger serial = BigInteger.valueOf(12345);
+        table.put(serial, true, 1000L, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 2000L, 1, true);
+        assertFalse("Existing entry should not have been replaced.", table.put(serial, false, 0L, RevokedCertInfo.NOT_REVOKED, 2000L, 1, false));
+        assertEquals(CertificateStatus.REVOKED, table.get(serial));
+    }
+
+    @Test
+    public void testSerialNumberSizes() {
+        final CertificateStatusTable table = new CertificateStatusTable();
+        // 20 octets, and serial numbers that only differ in the upper bits
+        final BigInteger large = BigInteger.ONE.shiftLeft(159).add(BigInteger.valueOf(42));
+        final BigInteger largeOther = BigInteger.ONE.shiftLeft(150).add(BigInteger.valueOf(42));
+        table.put(large, true, 1000L, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, 2000L, 1, true);
+        table.put(largeOther, false, 0L, RevokedCertInfo.NOT_REVOKED, 2000L, 1, true);
+        assertEquals(CertificateStatus.REVOKED, table.get(large));
+        assertEquals(CertificateStatus.OK, table.get(largeOther));
+        assertNull(table.get(BigInteger.valueOf(42)));
+        final BigInteger tooLarge = BigInteger.ONE.shiftLeft(160);
+        assertFalse(CertificateStatusTable.isSupported(tooLarge));
+        assertFalse("Too large serial numbers should not be stored.", table.put(tooLarge, false, 0L, RevokedCertInfo.NOT_REVOKED, 2000L, 1, true));
+        assertNull(table.get(tooLarge));
+    }
+
+    @Test
+    public void testGrowAndRemove() {
+        final CertificateStatusTable table = new CertificateStatusTable();
+        final int count = 10000;
+        for (int i = 0; i < count; i++) {
+            table.put(BigInteger.valueOf(i * 7919L), i % 3 == 0, i, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, i, i, true);
+        }
+        assertEquals(count, table.size());
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(table.remove(BigInteger.valueOf(i * 7919L)));
+        }
+        assertEquals(count / 2, table.size());
+        for (int i = 0; i < count; i++) {
+            final CertificateStatus status = table.get(BigInteger.valueOf(i * 7919L));
+            if (i % 2 == 0) {
+                assertNull("Removed entry should not be found.", status);
+            } else {
+                assertNotNull("Entry should be found after growing the table.", status);
+                assertEquals(i % 3 == 0 ? CertificateStatus.REVOKED : CertificateStatus.OK, status);
+                assertEquals(i, status.certificateProfileId);
+            }
+        }
+        assertFalse(table.remove(BigInteger.valueOf(-1)));
+    }
+}
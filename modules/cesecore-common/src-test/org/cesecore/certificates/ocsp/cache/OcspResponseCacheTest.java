@@ -0,0 +1,158 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link OcspResponseCache}.
+ *
+ * @version $Id$
+ */
+public class OcspResponseCacheTest {
+
+    private static final long MAX_AGE = 60000L;
+
+    private final OcspResponseCache cache = OcspResponseCache.INSTANCE;
+
+    @Before
+    public void setUp() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE, "67108864");
+        cache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE, "67108864");
+        cache.clear();
+    }
+
+    @Test
+    public void testGetCachedResponse() {
+        final byte[] response = new byte[] { 1, 2, 3 };
+        cache.put(cache.getGeneration(), createCertId(1, 100), response, MAX_AGE, null, null);
+        final OcspResponseCache.CachedResponse cachedResponse = cache.get(createCertId(1, 100), null);
+        assertNotNull(cachedResponse);
+        assertEquals(response, cachedResponse.getResponse());
+        assertTrue(cachedResponse.getRemainingMaxAge(System.currentTimeMillis()) <= MAX_AGE);
+        assertNull("Another issuer", cache.get(createCertId(2, 100), null));
+        assertNull("Another serial number", cache.get(createCertId(1, 101), null));
+    }
+
+    @Test
+    public void testResponsesWithoutMaxAgeOrAfterNextUpdateAreNotCached() {
+        cache.put(cache.getGeneration(), createCertId(1, 100), new byte[] { 1 }, 0, null, null);
+        cache.put(cache.getGeneration(), createCertId(1, 101), new byte[] { 1 }, MAX_AGE, null, new Date(System.currentTimeMillis() - 1000L));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidateBySerialNumber() {
+        cache.put(cache.getGeneration(), createCertId(1, 100), new byte[] { 1 }, MAX_AGE, null, null);
+        cache.put(cache.getGeneration(), createCertId(2, 100), new byte[] { 2 }, MAX_AGE, null, null);
+        cache.put(cache.getGeneration(), createCertId(1, 101), new byte[] { 3 }, MAX_AGE, null, null);
+        cache.invalidate(BigInteger.valueOf(100));
+        assertNull(cache.get(createCertId(1, 100), null));
+        assertNull(cache.get(createCertId(2, 100), null));
+        assertNotNull(cache.get(createCertId(1, 101), null));
+        assertEquals(1 + OcspResponseCache.ENTRY_OVERHEAD, cache.getTotalSize());
+    }
+
+    @Test
+    public void testStatusReadBeforeInvalidationIsNotCached() {
+        final long generation = cache.getGeneration();
+        // The certificate is revoked while the response with its old status is being signed
+        cache.invalidate(BigInteger.valueOf(100));
+        cache.put(generation, createCertId(1, 100), new byte[] { 1 }, MAX_AGE, null, null);
+        assertNull(cache.get(createCertId(1, 100), null));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResponsesAreEvicted() {
+        final int entrySize = 100 + OcspResponseCache.ENTRY_OVERHEAD;
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE, String.valueOf(3 * entrySize));
+        cache.put(cache.getGeneration(), createCertId(1, 1), new byte[100], MAX_AGE, null, null);
+        cache.put(cache.getGeneration(), createCertId(1, 2), new byte[100], MAX_AGE, null, null);
+        cache.put(cache.getGeneration(), createCertId(1, 3), new byte[100], MAX_AGE, null, null);
+        assertNotNull(cache.get(createCertId(1, 1), null));
+        cache.put(cache.getGeneration(), createCertId(1, 4), new byte[100], MAX_AGE, null, null);
+        assertEquals(3, cache.size());
+        assertEquals(3 * entrySize, cache.getTotalSize());
+        assertNull("The least recently used response should have been evicted.", cache.get(createCertId(1, 2), null));
+        assertNotNull(cache.get(createCertId(1, 1), null));
+        assertNotNull(cache.get(createCertId(1, 3), null));
+        assertNotNull(cache.get(createCertId(1, 4), null));
+    }
+
+    @Test
+    public void testTotalSizeIsKeptWithConcurrentUse() throws Exception {
+        final int entrySize = 100 + OcspResponseCache.ENTRY_OVERHEAD;
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE, String.valueOf(50 * entrySize));
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                final int issuer = thread % 2;
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        final long serialNumber = i % 200;
+                        cache.put(cache.getGeneration(), createCertId(issuer, serialNumber), new byte[100], MAX_AGE, null, null);
+                        cache.get(createCertId(issuer, (serialNumber * 7) % 200), null);
+                        if (i % 100 == 0) {
+                            cache.invalidate(BigInteger.valueOf(serialNumber));
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        assertTrue("The cache should not exceed its maximum size.", cache.size() <= 50);
+        assertEquals("The total size should match the cached responses.", cache.size() * (long) entrySize, cache.getTotalSize());
+    }
+
+    private static CertificateID createCertId(final int issuer, final long serialNumber) {
+        final byte[] issuerNameHash = new byte[20];
+        final byte[] issuerKeyHash = new byte[20];
+        issuerNameHash[0] = (byte) issuer;
+        issuerKeyHash[0] = (byte) issuer;
+        return new CertificateID(new CertID(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1), new DEROctetString(issuerNameHash),
+                new DEROctetString(issuerKeyHash), new ASN1Integer(serialNumber)));
+    }
+}
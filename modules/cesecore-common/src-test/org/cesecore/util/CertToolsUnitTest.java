@@ -2904,4 +2904,54 @@ public class CertToolsUnitTest {
         assertEquals("Should be 0 DN components", 1, ret.size());
         assertEquals("component should be the one we passed in", "foo", ret.get(0));        
     }
+    /** Differential test of the cached {@link CertTools#stringToBCDNString(String)} against parsing the DN on every call */
+    @Test
+    public void testStringToBCDNStringCacheMatchesUncached() {
+        final String[] dns = {
+                "CN=TestCA,O=AnaTom,C=SE", "C=SE, O=AnaTom, CN=foo", "c=SE, o=AnaTom, cn=foo", "C=SE, O=AnaTom, CN=CN", "C=cn, O=AnaTom, CN=foo",
+                "CN=foo, O=PrimeKey, C=cn", "CN=foo, CN=bar,O=CN, C=CN", "CN=foo,CN=bar, O=CN, O=C, C=CN", "O=PrimeKey,C=SE,CN=CN, OU=FooOU",
+                "cn=bar, cn=foo,o=oo, O=EJBCA,DC=DC2, dc=dc1, C=SE", "cn=jean,cn=EJBCA,dc=home,dc=jean", "dc=org,dc=foo,o=FOO,cn=FOO Root CA",
+                "CN=\"foo, OU=bar\", O=baz\\\\\\, quux,C=C", " CN=\"foo, OU=bar\",  O=baz\\\\\\, quux,C=SE ",
+                "C=SE,O=Foo\\, Inc, OU=Foo\\, Dep, CN=Foo\\'", "C=SE, E=foo@primekey.se, O=PrimeKey, EmailAddress=bar@primekey.se",
+                "C=SE,O=Foo, OU=FooOU, CN=Foo, DN=qualf", "CN=user+name, C=CN", "CN=user\\+name, C=CN", "CN=user;C=SE",
+                "CN=test123456, O=\\\"foo\\+b\\+ar\\, C\\=SE\\\"",
+                "telephonenumber=08555-666,businesscategory=Surf boards,postaladdress=Stockholm,postalcode=11122,CN=foo,CN=bar, O=CN, O=C, C=CN",
+                "jurisdictionCountry=SE,jurisdictionState=Stockholm,SURNAME=Json,CN=oid,jurisdictionLocality=Solna,SN=12345,"
+                        + "unstructuredname=foo.bar.com,unstructuredaddress=1.2.3.4,NAME=name,C=se",
+                "CN=hexencoded SN,SN=\\#CNJB", "CN=eidas,O=MyOrg,ORGANIZATIONIDENTIFIER=12345,C=SE",
+                "SUBJECTIDENTIFICATIONMETHOD=2.16.840.1.101.3.4.2.1::MyStrongPassword::1.2.410.200004.10.1.1.10.1::SsiValue",
+                "CN=foo,1.2.3.4=bar,O=baz,C=SE", "\"CN=quoted,O=Org,C=SE\"", "", " "
+        };
+        for (final String dn : dns) {
+            final String expected = stringToBCDNStringOrError(dn, false);
+            assertEquals("Cache miss differs for '" + dn + "'", expected, stringToBCDNStringOrError(dn, true));
+            assertEquals("Cache hit differs for '" + dn + "'", expected, stringToBCDNStringOrError(dn, true));
+            // DNs that only differ in case are different cache entries
+            assertEquals(stringToBCDNStringOrError(dn.toLowerCase(), false), stringToBCDNStringOrError(dn.toLowerCase(), true));
+        }
+        assertNull(CertTools.stringToBCDNString(null));
+        // Invalid DNs are not cached, but fail every time
+        for (int i = 0; i < 2; i++) {
+            try {
+                CertTools.stringToBCDNString("asdasd,asdassd");
+                fail("Should throw");
+            } catch (IllegalArgumentException e) {
+                // invalid and should throw
+            }
+        }
+        // The cache is cleared when full, and then filled again
+        for (int i = 0; i < CertTools.BCDNSTRING_CACHE_MAX_ENTRIES + 10; i++) {
+            assertEquals("CN=User " + i + ",O=AnaTom,C=SE", CertTools.stringToBCDNString("C=SE,O=AnaTom,CN=User " + i));
+        }
+        assertEquals("CN=TestCA,O=AnaTom,C=SE", CertTools.stringToBCDNString("CN=TestCA,O=AnaTom,C=SE"));
+    }
+
+    /** @return the normalized DN, or the message of the exception if the DN could not be parsed */
+    private static String stringToBCDNStringOrError(final String dn, final boolean cached) {
+        try {
+            return cached ? CertTools.stringToBCDNString(dn) : CertTools.stringToBCDNStringUncached(dn);
+        } catch (IllegalArgumentException e) {
+            return "IllegalArgumentException: " + e.getMessage();
+        }
+    }
 }
@@ -0,0 +1,86 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link MetricsRegistry}.
+ *
+ * @version $Id$
+ */
+public class MetricsRegistryTest {
+
+    @After
+    public void tearDown() {
+        MetricsRegistry.INSTANCE.unregister("test1");
+        MetricsRegistry.INSTANCE.unregister("test2");
+    }
+
+    @Test
+    public void testSamplesOfSeveralSourcesAreGroupedByName() throws IOException {
+        MetricsRegistry.INSTANCE.register("test1", collector -> {
+            collector.gauge("test_pool_size", "Size of the pool.", 3, "pool", "a");
+            collector.counter("test_pool_hits_total", "Hits.", 10, "pool", "a");
+        });
+        MetricsRegistry.INSTANCE.register("test2", collector -> collector.gauge("test_pool_size", "Size of the pool.", 0.25, "pool", "b"));
+        assertEquals("# HELP test_pool_size Size of the pool.\n"
+                + "# TYPE test_pool_size gauge\n"
+                + "test_pool_size{pool=\"a\"} 3\n"
+                + "test_pool_size{pool=\"b\"} 0.250000\n"
+                + "# HELP test_pool_hits_total Hits.\n"
+                + "# TYPE test_pool_hits_total counter\n"
+                + "test_pool_hits_total{pool=\"a\"} 10\n", getMetrics());
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() throws IOException {
+        MetricsRegistry.INSTANCE.register("test1", collector -> collector.gauge("test_value", "Value.", 1, "name", "a\"b\\c\nd"));
+        assertEquals("# HELP test_value Value.\n# TYPE test_value gauge\ntest_value{name=\"a\\\"b\\\\c\\nd\"} 1\n", getMetrics());
+    }
+
+    @Test
+    public void testFailingSourceIsLeftOut() throws IOException {
+        MetricsRegistry.INSTANCE.register("test1", collector -> {
+            throw new IllegalStateException("Not started");
+        });
+        MetricsRegistry.INSTANCE.register("test2", collector -> collector.gauge("test_value", "Value.", 1));
+        assertEquals("# HELP test_value Value.\n# TYPE test_value gauge\ntest_value 1\n", getMetrics());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLabelsMustBePairs() {
+        new MetricsRegistry.Collector().gauge("test_value", "Value.", 1, "name");
+    }
+
+    /** @return the metrics of the sources of this test, since other classes may have registered themselves */
+    private static String getMetrics() throws IOException {
+        final MetricsRegistry.Collector collector = new MetricsRegistry.Collector();
+        MetricsRegistry.INSTANCE.collect(collector);
+        final StringWriter out = new StringWriter();
+        collector.write(out);
+        final StringBuilder sb = new StringBuilder();
+        for (final String line : out.toString().split("\n")) {
+            if (line.startsWith("test_") || line.startsWith("# HELP test_") || line.startsWith("# TYPE test_")) {
+                sb.append(line).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,126 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.audit;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Audit log validation report for large audit logs.
+ * <p>
+ * Every error and warning is written to an optional report file as it is found, one line each, while only the first ones are kept
+ * in memory. The total number of errors and warnings is always available. Elements can be added concurrently.
+ *
+ * @version $Id$
+ */
+public class StreamingAuditLogValidationReport extends AuditLogValidationReport implements Closeable {
+
+    private static final Logger log = Logger.getLogger(StreamingAuditLogValidationReport.class);
+    private static final long serialVersionUID = 1L;
+
+    private final int maxElements;
+    private final String reportFile;
+    private long errorCount = 0;
+    private long warningCount = 0;
+    private transient Writer writer;
+
+    /**
+     * @param maxElements the maximum number of errors, and of warnings, that are kept in memory
+     * @param reportFile the file where all errors and warnings are written, or null
+     * @throws IOException if the report file could not be created
+     */
+    public StreamingAuditLogValidationReport(final int maxElements, final File reportFile) throws IOException {
+        this.maxElements = maxElements;
+        if (reportFile == null) {
+            this.reportFile = null;
+        } else {
+            this.reportFile = reportFile.getCanonicalPath();
+            this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public synchronized void error(final AuditLogReportElem error) {
+        errorCount++;
+        write("ERROR", error);
+        if (errors().size() < maxElements) {
+            errors().add(error);
+        }
+    }
+
+    @Override
+    public synchronized void warn(final AuditLogReportElem warning) {
+        warningCount++;
+        write("WARN", warning);
+        if (warnings().size() < maxElements) {
+            warnings().add(warning);
+        }
+    }
+
+    /** @return the total number of errors, including the ones not kept in memory */
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    /** @return the total number of warnings, including the ones not kept in memory */
+    public synchronized long getWarningCount() {
+        return warningCount;
+    }
+
+    /** @return the canonical path of the file where all errors and warnings are written, or null */
+    public String getReportFile() {
+        return reportFile;
+    }
+
+    private void write(final String level, final AuditLogReportElem elem) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(String.format("%s: auditlog sequence: %d -> %d. Reason: %s%n", level, elem.getFirst(), elem.getSecond(), elem.getReasons()));
+        } catch (IOException e) {
+            log.error("Unable to write to audit log validation report " + reportFile + ": " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    /** Writes the totals and closes the report file. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            try {
+                writer.write(String.format("Errors: %d, warnings: %d%n", errorCount, warningCount));
+            } finally {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.debug(e.getMessage());
+        }
+        writer = null;
+    }
+}
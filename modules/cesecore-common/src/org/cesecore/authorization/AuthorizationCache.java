@@ -14,8 +14,12 @@ package org.cesecore.authorization;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -24,6 +28,7 @@ import org.cesecore.authentication.AuthenticationFailedException;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.access.AuthorizationCacheReload;
 import org.cesecore.authorization.access.AuthorizationCacheReloadListener;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.util.ValidityDate;
 
 /**
@@ -32,7 +37,9 @@ import org.cesecore.util.ValidityDate;
  * Features:
  * - Concurrent cache misses for the same AuthenticationToken will only lead to a single call-back while the other threads wait
  * - Never return stale entries (when signaled that newer data might be available)
- * - Supports background reload via the rebuild(...) method which also purges unused entries
+ * - Supports background reload via the refresh(...) method which also purges unused entries
+ * - Entries that the callback knows are unaffected by an update are kept on refresh, and the other recently used entries are loaded
+ *   again by a bounded number of tasks on the Executor passed by the caller (e.g. the container's ManagedExecutorService)
  * 
  * @version $Id$
  */
@@ -42,18 +49,36 @@ public enum AuthorizationCache {
     // Logger is not static since static initializers run after the constructor for enums.
     private final Logger log = Logger.getLogger(AuthorizationCache.class);
 
+    /** Maximum number of authentication tokens waiting to be loaded again in the background. The rest are loaded on next use. */
+    private static final int REFRESH_QUEUE_SIZE = 10000;
+
     /** The access available to an authentication token and corresponding version of the authorization systems updateNumber */
     public static class AuthorizationResult {
         final HashMap<String, Boolean> accessRules;
         final int updateNumber;
+        final Set<Integer> roleIds;
+        final Set<Integer> roleMemberIds;
 
         public AuthorizationResult(final HashMap<String, Boolean> accessRules, final int updateNumber) {
+            this(accessRules, updateNumber, null, null);
+        }
+
+        /**
+         * @param roleIds the roles that the access rules were loaded from, or null if not known
+         * @param roleMemberIds the role members that matched the authentication token, or null if not known
+         */
+        public AuthorizationResult(final HashMap<String, Boolean> accessRules, final int updateNumber, final Set<Integer> roleIds,
+                final Set<Integer> roleMemberIds) {
             this.accessRules = accessRules;
             this.updateNumber = updateNumber;
+            this.roleIds = roleIds;
+            this.roleMemberIds = roleMemberIds;
         }
 
         public HashMap<String, Boolean> getAccessRules() { return accessRules; }
         public int getUpdateNumeber() { return updateNumber; }
+        public Set<Integer> getRoleIds() { return roleIds; }
+        public Set<Integer> getRoleMemberIds() { return roleMemberIds; }
     }
     
     /** Call-back interface for loading access rules on cache miss */
@@ -66,11 +91,24 @@ public enum AuthorizationCache {
 
         /** Invoked by cache on first cache miss to start listening to authorization updates */
         void subscribeToAuthorizationCacheReload(AuthorizationCacheReloadListener authorizationCacheReloadListener);
+
+        /**
+         * Invoked on cache refresh for recently used entries that were loaded before the latest update.
+         *
+         * @return true if the access rules of the authorizationResult loaded for the authenticationToken are known to be the same at
+         * the updateNumber, so that they do not have to be loaded again. The default is false.
+         */
+        default boolean isUnchanged(AuthenticationToken authenticationToken, AuthorizationResult authorizationResult, int updateNumber) {
+            return false;
+        }
     }
     
     private class AuthorizationCacheEntry {
         HashMap<String, Boolean> accessRules;
-        int updateNumber = 0;
+        /** Volatile since it is moved forward on refresh when the access rules are known to be unchanged */
+        volatile int updateNumber = 0;
+        Set<Integer> roleIds;
+        Set<Integer> roleMemberIds;
         long timeOfLastUse = 0L;
         AuthenticationToken authenticationToken;
         final CountDownLatch countDownLatch = new CountDownLatch(1);
@@ -111,7 +149,16 @@ public enum AuthorizationCache {
 
     /** Re-build the authorization cache for all entries that been seen recently (as determined by authorizationCacheCallback.getKeepUnusedEntriesFor()). */
     public void refresh(final AuthorizationCacheCallback authorizationCacheCallback, final int refreshUpdateNumber) {
-        //final int refreshUpdateNumber = authorizationCacheCallback.getUpdateNumber();
+        refresh(authorizationCacheCallback, refreshUpdateNumber, null);
+    }
+
+    /**
+     * Re-build the authorization cache for all entries that been seen recently (as determined by authorizationCacheCallback.getKeepUnusedEntriesFor()).
+     *
+     * @param executor used to load the access rules of changed entries again with at most {@link CesecoreConfiguration#getAuthorizationRefreshThreads()}
+     * concurrent tasks, or null to load them in the calling thread
+     */
+    public void refresh(final AuthorizationCacheCallback authorizationCacheCallback, final int refreshUpdateNumber, final Executor executor) {
         if (log.isTraceEnabled()) {
             log.trace("Starting cache refresh when update number was " + refreshUpdateNumber + ".");
         }
@@ -119,25 +166,36 @@ public enum AuthorizationCache {
         final long purgeUnusedAuthorizationAfter = authorizationCacheCallback.getKeepUnusedEntriesFor();
         final long now = System.currentTimeMillis();
         final HashSet<String> existingKeysWhenInvoked = new HashSet<>(cacheMap.keySet());
+        final ConcurrentLinkedQueue<AuthenticationToken> reloadQueue = new ConcurrentLinkedQueue<>();
+        int reloadQueueSize = 0;
         for (final String key : existingKeysWhenInvoked) {
             final AuthorizationCacheEntry entry = cacheMap.get(key);
             if (entry!=null) {
-                if (entry.updateNumber<latestUpdateNumber.get()) {
+                final boolean recentlyUsed = entry.timeOfLastUse+purgeUnusedAuthorizationAfter>=now;
+                final int updateNumber = latestUpdateNumber.get();
+                if (entry.updateNumber<updateNumber) {
                     // Newer access rules might be available
-                    if (cacheMap.remove(key, entry)) {
+                    if (recentlyUsed && isUnchanged(entry, updateNumber, authorizationCacheCallback)) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Kept entry for key '" + key + "' with updateNumber " + entry.updateNumber + " since it is unchanged in updateNumber " + updateNumber + ".");
+                        }
+                        entry.updateNumber = updateNumber;
+                    } else if (cacheMap.remove(key, entry)) {
                         if (log.isDebugEnabled()) {
                             log.debug("Removed entry for key '" + key + "' since its updateNumber was " + entry.updateNumber + ".");
                         }
                         // Recalculate the authorization right away if this AuthenticationToken was seen recently
-                        if (entry.timeOfLastUse+purgeUnusedAuthorizationAfter<now) {
-                            try {
-                                get(entry.authenticationToken, authorizationCacheCallback);
-                            } catch (AuthenticationFailedException e) {
-                                log.debug("Unexpected failure during refresh if authroization cache: " + e.getMessage());
+                        if (recentlyUsed) {
+                            if (reloadQueueSize < REFRESH_QUEUE_SIZE) {
+                                reloadQueue.add(entry.authenticationToken);
+                                reloadQueueSize++;
+                            } else if (log.isDebugEnabled()) {
+                                // The entry will be loaded on next use instead
+                                log.debug("Not refreshing authorization cache for " + entry.authenticationToken + " since " + REFRESH_QUEUE_SIZE + " entries are already waiting.");
                             }
                         }
                     }
-                } else if (entry.timeOfLastUse+purgeUnusedAuthorizationAfter<now) {
+                } else if (!recentlyUsed) {
                     // Remove the unused entry
                     if (cacheMap.remove(key, entry)) {
                         if (log.isDebugEnabled()) {
@@ -147,6 +205,53 @@ public enum AuthorizationCache {
                 }
             }
         }
+        reload(reloadQueue, reloadQueueSize, authorizationCacheCallback, executor);
+    }
+
+    /** @return true if the entry has been loaded and the callback knows that its access rules are the same in the updateNumber */
+    private boolean isUnchanged(final AuthorizationCacheEntry entry, final int updateNumber, final AuthorizationCacheCallback authorizationCacheCallback) {
+        if (entry.countDownLatch.getCount()!=0 || entry.accessRules==null) {
+            return false;
+        }
+        return authorizationCacheCallback.isUnchanged(entry.authenticationToken,
+                new AuthorizationResult(entry.accessRules, entry.updateNumber, entry.roleIds, entry.roleMemberIds), updateNumber);
+    }
+
+    /**
+     * Load the access rules of the queued authentication tokens again using a bounded number of tasks on the executor, or right away if there is no
+     * executor, background loading is disabled or the executor does not accept any of the tasks.
+     */
+    private void reload(final ConcurrentLinkedQueue<AuthenticationToken> reloadQueue, final int reloadQueueSize,
+            final AuthorizationCacheCallback authorizationCacheCallback, final Executor executor) {
+        if (reloadQueueSize == 0) {
+            return;
+        }
+        final Runnable worker = () -> {
+            AuthenticationToken authenticationToken;
+            while ((authenticationToken = reloadQueue.poll()) != null) {
+                try {
+                    get(authenticationToken, authorizationCacheCallback);
+                } catch (AuthenticationFailedException e) {
+                    log.debug("Unexpected failure during refresh of authorization cache: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    log.info("Failed to refresh authorization cache for " + authenticationToken + ": " + e.getMessage());
+                }
+            }
+        };
+        final int threads = executor == null ? 0 : Math.min(CesecoreConfiguration.getAuthorizationRefreshThreads(), reloadQueueSize);
+        int submitted = 0;
+        for (int i = 0; i < threads; i++) {
+            try {
+                executor.execute(worker);
+                submitted++;
+            } catch (RejectedExecutionException e) {
+                log.info("Authorization cache refresh task was rejected by the executor: " + e.getMessage());
+                break;
+            }
+        }
+        if (submitted == 0) {
+            worker.run();
+        }
     }
 
     /** @return the access rules granted to the specified authenticationToken using the callback to load them if needed. Never null.  */
@@ -163,15 +268,17 @@ public enum AuthorizationCache {
         final AuthorizationCacheEntry authorizationCacheEntry = new AuthorizationCacheEntry();
         AuthorizationCacheEntry ret = cacheMap.putIfAbsent(key, authorizationCacheEntry);
         if (ret == null) {
-            // Start subscribing to authorization system updates on first cache miss (which happens on application startup)
-            if (!authorizationCacheReloadListenerRegistered.getAndSet(true)) {
-                authorizationCacheCallback.subscribeToAuthorizationCacheReload(authorizationCacheReloadListener);
-            }
             ret = authorizationCacheEntry;
             try {
+                // Start subscribing to authorization system updates on first cache miss (which happens on application startup)
+                if (!authorizationCacheReloadListenerRegistered.getAndSet(true)) {
+                    authorizationCacheCallback.subscribeToAuthorizationCacheReload(authorizationCacheReloadListener);
+                }
                 ret.authenticationToken = authenticationToken;
                 final AuthorizationResult authorizationResult = authorizationCacheCallback.loadAuthorization(authenticationToken);
                 ret.updateNumber = authorizationResult.updateNumber;
+                ret.roleIds = authorizationResult.roleIds;
+                ret.roleMemberIds = authorizationResult.roleMemberIds;
                 setUpdateNumberIfLower(ret.updateNumber);
                 ret.accessRules = new HashMap<>();
                 if (authorizationResult.accessRules != null) {
@@ -63,6 +63,9 @@ public final class AccessSet implements Serializable {
     @Deprecated
     private Collection<String> set;
 
+    /** The set compiled for fast authorization checks. Created on first use, also after deserialization. */
+    private transient volatile AccessSetMatcher matcher;
+
     /** No-args constructor for deserialization only. To create an empty AccessSet, use {@link #createEmptyAccessSet()} */
     public AccessSet() { }
 
@@ -84,43 +87,24 @@ public final class AccessSet implements Serializable {
 
     public boolean isAuthorized(final String... resources) {
         // Note that "*SOME" rules are added when the rules for the AccessSet are built, and don't need to be handled here
-        NEXT_RESOURCE: for (final String resource : resources) {
+        AccessSetMatcher matcher = this.matcher;
+        if (matcher == null) {
+            matcher = new AccessSetMatcher(set);
+            this.matcher = matcher;
+        }
+        for (final String resource : resources) {
             if (resource.charAt(0) != '/') {
                 throw new IllegalArgumentException("Resource must start with /");
             } else if (resource.length() != 1 && resource.charAt(resource.length() - 1) == '/') {
                 throw new IllegalArgumentException("Resource should not end with /");
             }
-
-            // Check for exact rule
-            if (set.contains(resource)) {
-                continue NEXT_RESOURCE; // OK. Check next resource
-            }
-
-            // Check for recursive rules
-            int depth = 0;
-            String parentResource = resource;
-            while (++depth < 100) { // never split more than 100 times
-                int slash = parentResource.lastIndexOf('/');
-                if (slash == -1) {
-                    break;
-                }
-                parentResource = parentResource.substring(0, slash);
+            // Checks for an exact rule, and recursive rules of all parent resources
+            if (!matcher.matches(resource)) {
                 if (log.isTraceEnabled()) {
-                    log.trace("Checking for '"+ parentResource + "/" + WILDCARD_RECURSIVE + "'");
+                    log.trace("No access rule for " + resource + ". Denying access. Number of allowed resources=" + set.size());
                 }
-                if (set.contains(parentResource + "/" + WILDCARD_RECURSIVE)) {
-                    continue NEXT_RESOURCE; // OK. Check next resource
-                }
-            }
-            if (depth == 100 && log.isDebugEnabled()) {
-                // Recursive rules are always accept rules, so it's safe to ignore some of them and continue
-                log.debug("Resource had more than 100 components, only the first 100 were checked for recursive accept access: " + resource);
-            }
-
-            if (log.isTraceEnabled()) {
-                log.trace("No access rule for " + resource + ". Denying access. Number of allowed resources=" + set.size());
+                return false;
             }
-            return false;
         }
         return true; // all resources match
     }
@@ -0,0 +1,153 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization.access;
+
+import java.util.Collection;
+
+/**
+ * The resources of an {@link AccessSet} compiled into a tree with one level per resource component, e.g. "/a/b" is the path
+ * "", "a", "b" from the root. Each node knows if its resource is accepted, and if all its subresources are accepted by a
+ * "*RECURSIVE" rule.
+ * <p>
+ * A resource is matched by walking the tree with the components of the resource, which does not allocate any objects and takes
+ * time proportional to the number of components. The children of a node are looked up in an open addressing hash table, using
+ * the hash of the component's characters in the resource.
+ *
+ * @version $Id$
+ */
+final class AccessSetMatcher {
+
+    private static final String RECURSIVE_SUFFIX = "/" + AccessSet.WILDCARD_RECURSIVE;
+
+    private static final class Node {
+        private String[] keys = new String[2];
+        private Node[] children = new Node[2];
+        private int size = 0;
+        /** The resource of this node is accepted */
+        private boolean accepted = false;
+        /** All subresources of this node are accepted */
+        private boolean recursive = false;
+
+        private Node getChild(final String resource, final int start, final int end) {
+            final int mask = keys.length - 1;
+            for (int i = hash(resource, start, end) & mask;; i = (i + 1) & mask) {
+                final String key = keys[i];
+                if (key == null) {
+                    return null;
+                }
+                if (key.length() == end - start && key.regionMatches(0, resource, start, end - start)) {
+                    return children[i];
+                }
+            }
+        }
+
+        private Node getOrAddChild(final String resource, final int start, final int end) {
+            final Node existing = getChild(resource, start, end);
+            if (existing != null) {
+                return existing;
+            }
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            final Node child = new Node();
+            put(resource.substring(start, end), child);
+            return child;
+        }
+
+        private void put(final String key, final Node child) {
+            final int mask = keys.length - 1;
+            int i = hash(key, 0, key.length()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            children[i] = child;
+            size++;
+        }
+
+        private void grow() {
+            final String[] oldKeys = keys;
+            final Node[] oldChildren = children;
+            keys = new String[oldKeys.length * 2];
+            children = new Node[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldChildren[i]);
+                }
+            }
+        }
+    }
+
+    private final Node root = new Node();
+
+    /** @param resources accepted resources, and "*RECURSIVE" rules such as "/a/*RECURSIVE" */
+    AccessSetMatcher(final Collection<String> resources) {
+        for (final String resource : resources) {
+            // "/a/*RECURSIVE" is also accepted itself, like any other resource in the set
+            add(resource, resource.length()).accepted = true;
+            if (resource.endsWith(RECURSIVE_SUFFIX)) {
+                add(resource, resource.length() - RECURSIVE_SUFFIX.length()).recursive = true;
+            }
+        }
+    }
+
+    /** @return the node of the first length characters of the resource, with the nodes on the way added as needed */
+    private Node add(final String resource, final int length) {
+        Node node = root;
+        int start = 0;
+        while (true) {
+            final int slash = resource.indexOf('/', start);
+            final int end = slash == -1 || slash > length ? length : slash;
+            node = node.getOrAddChild(resource, start, end);
+            if (end == length) {
+                return node;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @param resource a resource such as "/a/b"
+     * @return true if the resource is accepted, or it is a subresource of a resource with a "*RECURSIVE" rule
+     */
+    boolean matches(final String resource) {
+        final int length = resource.length();
+        Node node = root;
+        int start = 0;
+        while (true) {
+            final int slash = resource.indexOf('/', start);
+            final int end = slash == -1 ? length : slash;
+            node = node.getChild(resource, start, end);
+            if (node == null) {
+                return false;
+            }
+            if (end == length) {
+                return node.accepted;
+            }
+            if (node.recursive) {
+                return true;
+            }
+            start = end + 1;
+        }
+    }
+
+    /** Same as String.hashCode() of the substring, with the bits spread like HashMap does. */
+    private static int hash(final String s, final int start, final int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+}
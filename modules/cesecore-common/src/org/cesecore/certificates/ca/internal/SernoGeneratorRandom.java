@@ -15,6 +15,7 @@ package org.cesecore.certificates.ca.internal;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
@@ -74,6 +75,11 @@ import org.cesecore.internal.InternalResources;
  * value of 2N, where N is its position in the above numbering sequence. The value of the two's complement binary number is obtained by summing the
  * numerical values assigned to each bit for those bits which are set to one, excluding bit 8 of the first octet, and then reducing this value by the
  * numerical value assigned to bit 8 of the first octet if that bit is set to one.
+ * 
+ * To avoid that all issuing threads wait for the same CSPRNG, the generator can be sharded into several independently seeded CSPRNG instances
+ * of the configured algorithm (ca.rngshards), where each thread always uses the same shard. Each shard can also prefetch the octets for
+ * several candidate serial numbers with a single call to the CSPRNG (ca.rngprefetch). Each candidate still consists of noOctets fresh octets
+ * from a CSPRNG, so the entropy and octet length of the serial numbers are the same as without sharding and prefetching.
  */
 public class SernoGeneratorRandom implements SernoGenerator {
     /** Log4j instance */
@@ -91,8 +97,46 @@ public class SernoGeneratorRandom implements SernoGenerator {
     /** number of bytes to generate, fixed size serial numbers */
     private int noOctets;
 
-    /** random generator */
-    private SecureRandom random;
+    /** number of independently seeded random generators */
+    private final int noShards;
+
+    /** number of candidate serial numbers to fetch from a random generator at a time */
+    private final int prefetch;
+
+    /** random generators, each used by a subset of the threads */
+    private volatile Shard[] shards;
+
+    /** A random generator and the octets of the candidate serial numbers prefetched from it */
+    private static final class Shard {
+        private final SecureRandom random;
+        private final byte[] buffer;
+        private int position;
+
+        private Shard(final SecureRandom random, final int noOctets, final int prefetch) {
+            this.random = random;
+            this.buffer = new byte[noOctets * prefetch];
+            this.position = buffer.length;
+        }
+
+        /** Copies the octets of the next candidate serial number into sernoOctets */
+        private synchronized void nextBytes(final byte[] sernoOctets) {
+            if (position == buffer.length) {
+                random.nextBytes(buffer);
+                position = 0;
+            }
+            System.arraycopy(buffer, position, sernoOctets, 0, sernoOctets.length);
+            // Don't keep octets of serial numbers that have been handed out
+            Arrays.fill(buffer, position, position + sernoOctets.length, (byte) 0);
+            position += sernoOctets.length;
+        }
+
+        private synchronized void setSeed(final long seed) {
+            random.setSeed(seed);
+            // Discard octets generated before the seed was set
+            Arrays.fill(buffer, (byte) 0);
+            position = buffer.length;
+        }
+    }
 
     /** A registry of Singleton instances, to handle multiple octet sizes simultaneously. */
     private static Map<Integer, SernoGeneratorRandom> instances = new HashMap<>();
@@ -114,6 +158,13 @@ public class SernoGeneratorRandom implements SernoGenerator {
      * use {@link #instance(Integer)} instead
      */
     protected SernoGeneratorRandom(Integer noOctets) {
+        this(noOctets, CesecoreConfiguration.getCaSerialNumberRngShards(), CesecoreConfiguration.getCaSerialNumberRngPrefetch());
+    }
+
+    /** DO NOT USE: Protected only to do testing of this implementation
+     * use {@link #instance(Integer)} instead
+     */
+    protected SernoGeneratorRandom(Integer noOctets, int noShards, int prefetch) {
         if (log.isTraceEnabled()) {
             log.trace(">SernoGenerator()");
         }
@@ -124,7 +175,12 @@ public class SernoGeneratorRandom implements SernoGenerator {
         if ((noOctets > SERNO_MAX_LENGTH || noOctets < 0)) { // We allow 0 octets for testing
             throw new IllegalArgumentException("ca.serialnumberoctetsize must be between 0 and " + SERNO_MAX_LENGTH + " bytes for this serial number generator.");
         }
+        if (noShards < 1 || prefetch < 1) {
+            throw new IllegalArgumentException("ca.rngshards and ca.rngprefetch must be at least 1 for this serial number generator.");
+        }
         this.noOctets = noOctets;        
+        this.noShards = noShards;
+        this.prefetch = prefetch;
         init();
         if (log.isTraceEnabled()) {
             log.trace("<SernoGenerator()");
@@ -137,38 +193,69 @@ public class SernoGeneratorRandom implements SernoGenerator {
     }
 
     private void init() {
+        // A BC hybrid seed source is only created once and shared by all shards, since it is only used to seed other DRBGs
+        final SecureRandom hybridSource = StringUtils.equalsIgnoreCase(algorithm, "BCSP800HYBRID") ? new HybridSecureRandom() : null;
+        final Shard[] newShards = new Shard[noShards];
+        for (int i = 0; i < noShards; i++) {
+            final SecureRandom random = createRandom(hybridSource, i);
+            // Call nextBytes directly after in order to force seeding if not already done. SecureRandom typically seeds on first call.
+            random.nextBytes(new byte[0]);
+            newShards[i] = new Shard(random, noOctets, prefetch);
+        }
+        shards = newShards;
+        if (noShards > 1 || prefetch > 1) {
+            log.info("Using " + noShards + " independently seeded serialNumber RNG instances, fetching " + prefetch + " serial numbers at a time.");
+        }
+    }
+
+    /**
+     * @param hybridSource shared seed source if the BC hybrid DRBG is used, otherwise null
+     * @param shard the index of the shard the random generator is created for
+     * @return a new and independently seeded random generator of the configured algorithm
+     */
+    private SecureRandom createRandom(final SecureRandom hybridSource, final int shard) {
         // Init random number generator for random serial numbers. 
         // SecureRandom provides a cryptographically strong random number generator (CSPRNG).
+        SecureRandom random = null;
+        // Only log the algorithm once, and not for each shard
+        final boolean logAlgorithm = shard == 0;
         try {
-            if (StringUtils.equalsIgnoreCase(algorithm, "BCSP800HYBRID")) {
+            if (hybridSource != null) {
                 // Use a BC hybrid (FIPS/SP800 compliant) DRBG chain if ca.rngalgorithm is provided and it's defined as BCSP800Hybrid
                 // create the seed material source - note can only be used to seed others. More info at HybridSecureRandom below.
-                final SecureRandom source = new HybridSecureRandom();
-                // create an actual random we can use
-                random = new SP800SecureRandomBuilder(source, true)
-                     .setPersonalizationString(Strings.toByteArray("Bouncy Castle Hybrid Random"))
+                // create an actual random we can use, with a personalization string that is unique for the shard
+                random = new SP800SecureRandomBuilder(hybridSource, true)
+                     .setPersonalizationString(Strings.toByteArray("Bouncy Castle Hybrid Random" + (shard == 0 ? "" : " " + shard)))
                      .buildHash(new SHA512Digest(), null, false);
                 // Using FIPS libraries we could...
                 // random = FipsDRBG.SHA256.fromEntropySource(entropySource, true).build(null, true);
                 // and also register it as the default:
                 // CryptoServicesRegistrar.setSecureRandom(random);
-                log.info("Using FIPS/SP800 compliant Bouncy Castle Hybrid serialNumber RNG algorithm.");
+                if (logAlgorithm) {
+                    log.info("Using FIPS/SP800 compliant Bouncy Castle Hybrid serialNumber RNG algorithm.");
+                }
             } else if (StringUtils.equalsIgnoreCase(algorithm, "defaultstrong")) {
                 // If defaultstrong is specified and we use >=JDK8 try the getInstanceStrong to get a guaranteed strong random number generator.
                 // Note that this may give you a generator that takes >30 seconds to create a single random number. 
                 // On JDK8/Linux this gives you a NativePRNGBlocking, while SecureRandom.getInstance() gives a NativePRNG.
                 random = SecureRandom.getInstanceStrong();
-                log.info("Using SecureRandom.getInstanceStrong() with " + random.getAlgorithm() + " for serialNumber RNG algorithm.");
+                if (logAlgorithm) {
+                    log.info("Using SecureRandom.getInstanceStrong() with " + random.getAlgorithm() + " for serialNumber RNG algorithm.");
+                }
             } else if (StringUtils.equalsIgnoreCase(algorithm, "default")) {
                 // We entered "default" so let's use a good default SecureRandom this should be good enough for just about everyone (on Linux at least)
                 // On Linux the default Java implementation uses the (secure) /dev/(u)random, but on windows something else
                 // On JDK8/Linux this gives you a NativePRNG, while SecureRandom.getInstanceStrong() gives a NativePRNGBlocking.
                 random = new SecureRandom();
-                log.info("Using default " + random.getAlgorithm() + " serialNumber RNG algorithm.");
+                if (logAlgorithm) {
+                    log.info("Using default " + random.getAlgorithm() + " serialNumber RNG algorithm.");
+                }
             } else if (!StringUtils.isEmpty(algorithm)) {
                 // Use a specified algorithm if ca.rngalgorithm is provided and it's not set to BCSP800Hybrid, default or defaultstrong
                 random = SecureRandom.getInstance(algorithm);
-                log.info("Using "+algorithm+" serialNumber RNG algorithm.");
+                if (logAlgorithm) {
+                    log.info("Using "+algorithm+" serialNumber RNG algorithm.");
+                }
             }
         } catch (NoSuchAlgorithmException e) {
             //This state is unrecoverable, and since algorithm is set in configuration requires a redeploy to handle
@@ -178,8 +265,7 @@ public class SernoGeneratorRandom implements SernoGenerator {
             //This state is unrecoverable, and since algorithm is set in configuration requires a redeploy to handle
             throw new IllegalStateException("Algorithm " + algorithm + " was not a valid algorithm.");
         }
-        // Call nextBytes directly after in order to force seeding if not already done. SecureRandom typically seeds on first call.
-        random.nextBytes(new byte[0]);
+        return random;
     }
 
     @Override
@@ -198,10 +284,13 @@ public class SernoGeneratorRandom implements SernoGenerator {
                 So the real entropy provided for generated serial numbers is always less than initBitsOfEntropy.
                  */
             // initBitsOfEntropy is 1 less than octet size, because we always use positive integers, which in 
-            // two complements representation always has the most significant bit 0, making 63 bits random
-            int initBitsOfEntropy = noOctets * 8 - 1;
-            // SecureRanom is thread safe. This will generate from (0 to 2^initBitsOfEntropy -1)
-            final BigInteger serno = new BigInteger(initBitsOfEntropy, random);
+            // two complements representation always has the most significant bit 0, making 63 bits random.
+            // Like new BigInteger(initBitsOfEntropy, random), this takes noOctets octets from the CSPRNG and clears the most significant bit,
+            // which will generate from (0 to 2^initBitsOfEntropy -1)
+            final byte[] sernoOctets = new byte[noOctets];
+            getShard().nextBytes(sernoOctets);
+            sernoOctets[0] &= 0x7F;
+            final BigInteger serno = new BigInteger(1, sernoOctets);
             if (checkSernoValidity(serno)) {
                 return serno;
             } else {
@@ -211,6 +300,15 @@ public class SernoGeneratorRandom implements SernoGenerator {
         }
     }
 
+    /** @return the shard used by the current thread, so that threads are spread evenly over the shards */
+    private Shard getShard() {
+        final Shard[] current = shards;
+        if (current.length == 1) {
+            return current[0];
+        }
+        return current[(int) (Thread.currentThread().getId() % current.length)];
+    }
+
     /**
      * This validates that the argument is a non-zero number to be encoded (according to X.690, "8.3 Encoding of an
      * integer value") exactly in 'noOctets' bytes. For example, for an 8 bytes serial number it will validate that it
@@ -227,7 +325,9 @@ public class SernoGeneratorRandom implements SernoGenerator {
 
     @Override
     public void setSeed(final long seed) {
-        random.setSeed(seed);
+        for (final Shard shard : shards) {
+            shard.setSeed(seed);
+        }
     }
 
     @Override
@@ -236,7 +336,6 @@ public class SernoGeneratorRandom implements SernoGenerator {
         if (this.algorithm == null || !this.algorithm.equals(algo)) {
             this.algorithm = algo;
             // We must force re-init after choosing a new algorithm
-            this.random = null;
             init();
         }
     }
@@ -245,7 +344,14 @@ public class SernoGeneratorRandom implements SernoGenerator {
      * @return the random generator algorithm as reported by the underlying Java random number generator.
      */
     protected String getAlgorithm() {
-        return random.getAlgorithm();
+        return shards[0].random.getAlgorithm();
+    }
+
+    /** Available for testing
+     * @return the number of independently seeded random generators
+     */
+    protected int getNoShards() {
+        return shards.length;
     }
 
     //Random using SecureRandomgetInstanceStrong() with
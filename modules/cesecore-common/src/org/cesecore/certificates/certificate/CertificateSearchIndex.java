@@ -0,0 +1,256 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * In-memory inverted index from the subject DN, subject alternative name, username and serial number of the certificates in
+ * CertificateData to their fingerprints, used to narrow down exact certificate searches to a few rows looked up by primary key.
+ * <p>
+ * Values are compared ignoring case, and are only stored as 64-bit hashes, so a lookup returns a superset of the matching
+ * certificates. The database query must still check the search criteria against the returned certificates.
+ * <p>
+ * The index is loaded from the database in the background after startup, and certificates stored on this node are added
+ * when the transaction commits. Certificates stored by other nodes are picked up by a periodic query for recently updated
+ * certificates. Certificates are never removed, since a lookup of a deleted certificate will not match any row. Certificates
+ * updated after {@link #getIndexedUntil()} might not have been added yet, so searches must also include them.
+ *
+ * @version $Id$
+ */
+public enum CertificateSearchIndex {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(CertificateSearchIndex.class);
+
+    /** How far back in time to look for certificates stored by other nodes, in addition to the time since the last refresh. */
+    public static final long REFRESH_OVERLAP_MS = 60000L;
+    /** The maximum number of certificates that are kept for a single value. Values with more certificates can not be looked up. */
+    public static final int MAX_FINGERPRINTS_PER_VALUE = 1000;
+
+    private static final char SUBJECT_DN = 'D';
+    private static final char SUBJECT_ALT_NAME = 'A';
+    private static final char USERNAME = 'U';
+    private static final char SERIAL_NUMBER = 'S';
+    /** Stored instead of the fingerprints of a value that has more than {@link #MAX_FINGERPRINTS_PER_VALUE} certificates */
+    private static final Object TOO_MANY = new Object();
+
+    /** Maps from the hash of a value to the fingerprint of a certificate, an array of fingerprints, or TOO_MANY */
+    private final ConcurrentHashMap<Long, Object> index = new ConcurrentHashMap<>();
+    /** Number of value and fingerprint pairs in the index */
+    private final AtomicLong entries = new AtomicLong();
+    private volatile boolean loaded = false;
+    private volatile boolean overflowed = false;
+    /** Start time of the last load or refresh from the database. */
+    private final AtomicLong lastRefresh = new AtomicLong(0);
+    /** Start time of the last completed load or refresh from the database. */
+    private final AtomicLong lastCompletedRefresh = new AtomicLong(0);
+
+    /** @return true if the index is enabled in cesecore.properties, and has not been dropped because it grew too large */
+    public boolean isEnabled() {
+        return CesecoreConfiguration.isCertificateSearchIndexEnabled() && !overflowed;
+    }
+
+    /** @return true if all certificates have been loaded from the database, so the index can be used for lookups */
+    public boolean isLoaded() {
+        return loaded && isEnabled();
+    }
+
+    /**
+     * Marks the index as fully loaded.
+     * @param loadStartTime the time when loading from the database started, used as starting point for the next refresh
+     */
+    public void setLoaded(final long loadStartTime) {
+        lastRefresh.set(loadStartTime);
+        lastCompletedRefresh.set(loadStartTime);
+        loaded = true;
+    }
+
+    /**
+     * Adds a certificate to the index. Does nothing if the index is disabled.
+     *
+     * @param fingerprint the fingerprint of the certificate
+     * @param subjectDn the subject DN as stored in CertificateData, or null
+     * @param subjectAltName the subject alternative name as stored in CertificateData, or null
+     * @param username the username as stored in CertificateData, or null
+     * @param serialNumber the serial number as stored in CertificateData (decimal), or null
+     */
+    public void add(final String fingerprint, final String subjectDn, final String subjectAltName, final String username, final String serialNumber) {
+        if (fingerprint == null || !isEnabled()) {
+            return;
+        }
+        put(SUBJECT_DN, subjectDn, fingerprint);
+        put(SUBJECT_ALT_NAME, subjectAltName, fingerprint);
+        put(USERNAME, username, fingerprint);
+        put(SERIAL_NUMBER, serialNumber, fingerprint);
+        final long maxEntries = CesecoreConfiguration.getCertificateSearchIndexMaxEntries();
+        if (entries.get() > maxEntries) {
+            synchronized (this) {
+                if (!overflowed) {
+                    overflowed = true;
+                    loaded = false;
+                    index.clear();
+                    entries.set(0);
+                    log.error("The certificate search index has more than " + maxEntries + " entries and has been dropped. Increase "
+                            + "database.certsearchindex.maxentries (and the heap) to use it, or disable it.");
+                }
+            }
+        }
+    }
+
+    /** @return the fingerprints of all certificates that might have the subject DN, or null if there are too many to return */
+    public List<String> findBySubjectDn(final String subjectDn) {
+        return find(SUBJECT_DN, subjectDn);
+    }
+
+    /** @return the fingerprints of all certificates that might have the subject alternative name, or null if there are too many to return */
+    public List<String> findBySubjectAltName(final String subjectAltName) {
+        return find(SUBJECT_ALT_NAME, subjectAltName);
+    }
+
+    /** @return the fingerprints of all certificates that might have the username, or null if there are too many to return */
+    public List<String> findByUsername(final String username) {
+        return find(USERNAME, username);
+    }
+
+    /** @return the fingerprints of all certificates that might have the serial number (decimal), or null if there are too many to return */
+    public List<String> findBySerialNumber(final String serialNumber) {
+        return find(SERIAL_NUMBER, serialNumber);
+    }
+
+    /**
+     * Check if certificates stored by other nodes needs to be fetched. Only one caller will be told to refresh in each refresh
+     * interval, the rest will continue to use the index as is.
+     *
+     * @param now the current time
+     * @return the update time after which certificates should be fetched from the database, or -1 if no refresh is needed
+     */
+    public long getRefreshStartTime(final long now) {
+        if (!isLoaded()) {
+            return -1;
+        }
+        final long previousRefresh = lastRefresh.get();
+        if (previousRefresh + CesecoreConfiguration.getCertificateSearchIndexRefreshTime() > now || !lastRefresh.compareAndSet(previousRefresh, now)) {
+            return -1;
+        }
+        return previousRefresh - REFRESH_OVERLAP_MS;
+    }
+
+    /**
+     * Restores the time of the last refresh, so that the next caller of {@link #getRefreshStartTime(long)} will retry the refresh.
+     * @param refreshStartTime the value returned by getRefreshStartTime
+     */
+    public void refreshFailed(final long refreshStartTime) {
+        lastRefresh.set(refreshStartTime + REFRESH_OVERLAP_MS);
+    }
+
+    /**
+     * Marks a refresh as completed, so that searches can rely on the index for certificates updated before the refresh started.
+     * @param now the time that was passed to {@link #getRefreshStartTime(long)}
+     */
+    public void refreshCompleted(final long now) {
+        lastCompletedRefresh.accumulateAndGet(now, Math::max);
+    }
+
+    /**
+     * Certificates stored by other nodes are only added when the index is refreshed, and certificates stored by this node are added
+     * after the transaction commits, so a search must also include the certificates updated at or after the returned time.
+     *
+     * @return the update time before which all certificates are in the index
+     */
+    public long getIndexedUntil() {
+        return lastCompletedRefresh.get() - REFRESH_OVERLAP_MS;
+    }
+
+    /** @return the number of value and fingerprint pairs in the index */
+    public long size() {
+        return entries.get();
+    }
+
+    /** Clear the index, so it has to be loaded again. */
+    public synchronized void flush() {
+        loaded = false;
+        overflowed = false;
+        index.clear();
+        entries.set(0);
+        lastRefresh.set(0);
+        lastCompletedRefresh.set(0);
+    }
+
+    private void put(final char type, final String value, final String fingerprint) {
+        if (StringUtils.isEmpty(value)) {
+            return;
+        }
+        index.compute(hash(type, value), (key, existing) -> {
+            if (existing == null) {
+                entries.incrementAndGet();
+                return fingerprint;
+            }
+            if (existing == TOO_MANY || fingerprint.equals(existing)) {
+                return existing;
+            }
+            final String[] fingerprints = existing instanceof String ? new String[] { (String) existing } : (String[]) existing;
+            for (final String current : fingerprints) {
+                if (current.equals(fingerprint)) {
+                    return existing;
+                }
+            }
+            if (fingerprints.length >= MAX_FINGERPRINTS_PER_VALUE) {
+                entries.addAndGet(1 - fingerprints.length);
+                return TOO_MANY;
+            }
+            entries.incrementAndGet();
+            final String[] ret = Arrays.copyOf(fingerprints, fingerprints.length + 1);
+            ret[fingerprints.length] = fingerprint;
+            return ret;
+        });
+    }
+
+    private List<String> find(final char type, final String value) {
+        if (StringUtils.isEmpty(value)) {
+            return Collections.emptyList();
+        }
+        final Object existing = index.get(hash(type, value));
+        if (existing == null) {
+            return Collections.emptyList();
+        } else if (existing == TOO_MANY) {
+            return null;
+        } else if (existing instanceof String) {
+            return Collections.singletonList((String) existing);
+        }
+        return new ArrayList<>(Arrays.asList((String[]) existing));
+    }
+
+    /** 64-bit FNV-1a hash of the type and the upper case value */
+    private static Long hash(final char type, final String value) {
+        long hash = 0xCBF29CE484222325L;
+        hash ^= type;
+        hash *= 0x100000001B3L;
+        final String upperCaseValue = value.toUpperCase(Locale.ROOT);
+        for (int i = 0; i < upperCaseValue.length(); i++) {
+            hash ^= upperCaseValue.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+}
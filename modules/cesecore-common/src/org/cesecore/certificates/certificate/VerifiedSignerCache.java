@@ -0,0 +1,172 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Cache of certificates that have been used to sign requests, for example CMP messages, and have been found in the database
+ * with an active status and verified up to a CA. Repeated requests from the same signer can then skip the database lookups
+ * and the certificate path validation. The signature of each request must still be verified.
+ * <p>
+ * Entries are kept for at most cmpsigner.cachetime milliseconds, and never after a certificate in the chain has expired.
+ * An entry is only used with the same CA certificate chain that it was verified with, so it is dropped when the CA is renewed.
+ * When the status of a certificate is changed on this node, its entry is removed once the transaction has committed.
+ * Revocations on other nodes are picked up when the entry expires.
+ *
+ * @version $Id$
+ */
+public enum VerifiedSignerCache {
+    INSTANCE;
+
+    /** The maximum number of signers. The cache is cleared when it is full, after removing expired entries. */
+    static final int MAX_ENTRIES = 10000;
+
+    /** A verified signer certificate */
+    public static class Entry {
+        private final int caId;
+        private final List<Certificate> caCertificateChain;
+        private final String username;
+        private final AuthenticationToken authenticationToken;
+        private final long expireTime;
+
+        Entry(final int caId, final List<Certificate> caCertificateChain, final String username, final AuthenticationToken authenticationToken,
+                final long expireTime) {
+            this.caId = caId;
+            this.caCertificateChain = caCertificateChain;
+            this.username = username;
+            this.authenticationToken = authenticationToken;
+            this.expireTime = expireTime;
+        }
+
+        /** @return the username of the certificate in the database, or null if it was not looked up */
+        public String getUsername() {
+            return username;
+        }
+
+        /** @return the authentication token of the signer, or null if it was not created */
+        public AuthenticationToken getAuthenticationToken() {
+            return authenticationToken;
+        }
+    }
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    /** Incremented on each invalidation, so that results read from the database before the invalidation are not cached */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** @return true unless cmpsigner.cachetime is 0 or less */
+    public boolean isEnabled() {
+        return CesecoreConfiguration.getCacheCmpSignerTime() > 0;
+    }
+
+    /**
+     * Gets the value to pass to {@link #put}. Must be called before the certificate status is read from the database.
+     * @return the current generation of the cache
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Looks up a signer certificate that has been verified with the given CA.
+     *
+     * @param fingerprint the fingerprint of the signer certificate
+     * @param caId the ID of the CA that the certificate must have been verified with
+     * @param caCertificateChain the current certificate chain of the CA
+     * @return the cached entry, or null if the certificate has not been verified with this CA and CA certificate chain, or the entry has expired
+     */
+    public Entry get(final String fingerprint, final int caId, final List<Certificate> caCertificateChain) {
+        if (!isEnabled()) {
+            return null;
+        }
+        final Entry entry = cache.get(fingerprint);
+        if (entry == null || entry.caId != caId) {
+            return null;
+        }
+        if (entry.expireTime <= System.currentTimeMillis() || !entry.caCertificateChain.equals(caCertificateChain)) {
+            cache.remove(fingerprint, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a signer certificate that has just been verified. Does nothing if the cache has been invalidated since the given
+     * generation, since the certificate status may have changed after it was read.
+     *
+     * @param generation the value of {@link #getGeneration()} before the certificate status was read from the database
+     * @param fingerprint the fingerprint of the signer certificate
+     * @param caId the ID of the CA that the certificate was verified with
+     * @param caCertificateChain the certificate chain of the CA
+     * @param signerCertificateChain the signer certificate, and the certificates it was verified with
+     * @param username the username of the certificate in the database, or null
+     * @param authenticationToken the authentication token of the signer, or null
+     */
+    public void put(final long generation, final String fingerprint, final int caId, final List<Certificate> caCertificateChain,
+            final List<X509Certificate> signerCertificateChain, final String username, final AuthenticationToken authenticationToken) {
+        final long cacheTime = CesecoreConfiguration.getCacheCmpSignerTime();
+        if (cacheTime <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        long expireTime = now + cacheTime;
+        for (final X509Certificate certificate : signerCertificateChain) {
+            expireTime = Math.min(expireTime, certificate.getNotAfter().getTime());
+        }
+        for (final Certificate certificate : caCertificateChain) {
+            if (certificate instanceof X509Certificate) {
+                expireTime = Math.min(expireTime, ((X509Certificate) certificate).getNotAfter().getTime());
+            }
+        }
+        if (cache.size() >= MAX_ENTRIES) {
+            cache.values().removeIf(entry -> entry.expireTime <= now);
+            if (cache.size() >= MAX_ENTRIES) {
+                cache.clear();
+            }
+        }
+        final Entry entry = new Entry(caId, caCertificateChain, username, authenticationToken, expireTime);
+        cache.put(fingerprint, entry);
+        // An invalidation that happened after the status was read, but before the entry was added, did not see the entry
+        if (this.generation.get() != generation) {
+            cache.remove(fingerprint, entry);
+        }
+    }
+
+    /**
+     * Removes a certificate from the cache, for example because it has been revoked.
+     * @param fingerprint the fingerprint of the certificate
+     */
+    public void invalidate(final String fingerprint) {
+        generation.incrementAndGet();
+        cache.remove(fingerprint);
+    }
+
+    /** Removes all certificates from the cache */
+    public void clear() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    /** @return the number of cached signers */
+    public int size() {
+        return cache.size();
+    }
+}
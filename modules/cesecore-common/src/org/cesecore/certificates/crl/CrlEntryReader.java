@@ -0,0 +1,149 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.TBSCertList;
+
+/**
+ * Reads the revoked certificate entries of a DER encoded CRL one at the time, without parsing the whole CRL into
+ * an ASN.1 structure. Only the serial number, revocation date and reason code of each entry are read.
+ * <p>
+ * The signature of the CRL is not verified, so this should only be used for CRLs read from the database.
+ *
+ * @version $Id$
+ */
+public final class CrlEntryReader {
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+    private static final int TAG_SEQUENCE = 0x30;
+
+    private final byte[] data;
+    private int position;
+
+    private CrlEntryReader(final byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Calls the consumer with each revoked certificate entry of the CRL, in the order they appear in the CRL.
+     * The returned RevokedCertInfo have no fingerprint or expire date.
+     *
+     * @param crl DER encoded CRL
+     * @param consumer called once for each entry
+     * @return the number of entries in the CRL
+     * @throws IOException if the CRL could not be parsed
+     */
+    public static int forEachEntry(final byte[] crl, final Consumer<RevokedCertInfo> consumer) throws IOException {
+        final CrlEntryReader reader = new CrlEntryReader(crl);
+        // CertificateList ::= SEQUENCE { tbsCertList TBSCertList, ... }
+        reader.enter(TAG_SEQUENCE);
+        final int tbsEnd = reader.enter(TAG_SEQUENCE);
+        // TBSCertList ::= SEQUENCE { version, signature, issuer, thisUpdate, nextUpdate, revokedCertificates, [0] crlExtensions }
+        boolean afterThisUpdate = false;
+        while (reader.position < tbsEnd) {
+            final int tag = reader.data[reader.position] & 0xff;
+            if (afterThisUpdate && tag == TAG_SEQUENCE) {
+                final int entriesEnd = reader.enter(TAG_SEQUENCE);
+                int count = 0;
+                while (reader.position < entriesEnd) {
+                    final int entryStart = reader.position;
+                    final int entryEnd = reader.skip();
+                    consumer.accept(toRevokedCertInfo(Arrays.copyOfRange(crl, entryStart, entryEnd)));
+                    count++;
+                }
+                return count;
+            }
+            if (tag == TAG_UTC_TIME || tag == TAG_GENERALIZED_TIME) {
+                afterThisUpdate = true;
+            } else if (tag != TAG_INTEGER && tag != TAG_SEQUENCE) {
+                // Extensions, there are no revoked certificates
+                break;
+            }
+            reader.skip();
+        }
+        return 0;
+    }
+
+    private static RevokedCertInfo toRevokedCertInfo(final byte[] encodedEntry) throws IOException {
+        final TBSCertList.CRLEntry entry = TBSCertList.CRLEntry.getInstance(ASN1Primitive.fromByteArray(encodedEntry));
+        int reason = RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED;
+        final Extensions extensions = entry.getExtensions();
+        if (extensions != null) {
+            final Extension reasonCode = extensions.getExtension(Extension.reasonCode);
+            if (reasonCode != null) {
+                reason = CRLReason.getInstance(reasonCode.getParsedValue()).getValue().intValue();
+            }
+        }
+        return new RevokedCertInfo(null, entry.getUserCertificate().getValue().toByteArray(), entry.getRevocationDate().getDate().getTime(), reason, 0);
+    }
+
+    /** Reads the tag and length of the element at the current position, and moves to its content. @return end of the content */
+    private int enter(final int expectedTag) throws IOException {
+        final int tag = readByte();
+        if (tag != expectedTag) {
+            throw new IOException("Expected tag " + expectedTag + " at position " + (position - 1) + " of the CRL, but found " + tag + ".");
+        }
+        final int length = readLength();
+        if (length > data.length - position) {
+            throw new IOException("Length " + length + " at position " + position + " is beyond the end of the CRL.");
+        }
+        return position + length;
+    }
+
+    /** Moves past the element at the current position. @return the new position */
+    private int skip() throws IOException {
+        readByte();
+        final int length = readLength();
+        if (length > data.length - position) {
+            throw new IOException("Length " + length + " at position " + position + " is beyond the end of the CRL.");
+        }
+        position += length;
+        return position;
+    }
+
+    private int readLength() throws IOException {
+        final int first = readByte();
+        if (first < 0x80) {
+            return first;
+        }
+        final int octets = first & 0x7f;
+        if (octets == 0 || octets > 4) {
+            throw new IOException("Unsupported length encoding at position " + (position - 1) + " of the CRL.");
+        }
+        long length = 0;
+        for (int i = 0; i < octets; i++) {
+            length = (length << 8) | readByte();
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Length " + length + " is too large.");
+        }
+        return (int) length;
+    }
+
+    private int readByte() throws IOException {
+        if (position >= data.length) {
+            throw new IOException("Unexpected end of CRL.");
+        }
+        return data[position++] & 0xff;
+    }
+}
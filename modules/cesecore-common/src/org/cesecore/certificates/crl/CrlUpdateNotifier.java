@@ -0,0 +1,47 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a counter per issuer that is increased each time a CRL of the issuer is stored on this node. Caches of CRLs
+ * compare the counter with the value they saw when they last read from the database, and can then pick up new CRLs at
+ * once instead of querying the database on every request. CRLs stored by other nodes are not seen here.
+ *
+ * @version $Id$
+ */
+public enum CrlUpdateNotifier {
+    INSTANCE;
+
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /**
+     * @param issuerDn the issuer DN in the same format as CertTools.stringToBCDNString
+     * @return the current version for the issuer, which changes when a CRL of the issuer is stored
+     */
+    public long getVersion(final String issuerDn) {
+        final AtomicLong version = versions.get(issuerDn);
+        return version == null ? 0 : version.get();
+    }
+
+    /**
+     * Should be called when a CRL has been committed to the database.
+     * @param issuerDn the issuer DN in the same format as CertTools.stringToBCDNString
+     */
+    public void crlStored(final String issuerDn) {
+        versions.computeIfAbsent(issuerDn, dn -> new AtomicLong()).incrementAndGet();
+    }
+}
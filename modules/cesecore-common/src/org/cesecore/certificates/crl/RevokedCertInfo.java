@@ -20,7 +20,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
-import org.cesecore.util.CompressedCollection;
 
 /**
  * Holds information about a revoked certificate. The information kept here is the
@@ -91,6 +90,26 @@ public class RevokedCertInfo implements Serializable {
         return fingerprint == null ? null : new String(fingerprint);
     }
 
+    /** @return the fingerprint as stored, without copying. Used by {@link RevokedCertInfoCollection}. */
+    byte[] getFingerprintBytes() {
+        return fingerprint;
+    }
+
+    /** @return the serial number as stored, without copying. Used by {@link RevokedCertInfoCollection}. */
+    byte[] getSerialNumberBytes() {
+        return userCertificate;
+    }
+
+    /** @return the revocation date, or 0 if not set. Used by {@link RevokedCertInfoCollection}. */
+    long getRevocationDateMillis() {
+        return revocationDate;
+    }
+
+    /** @return the expire date, or 0 if not set. Used by {@link RevokedCertInfoCollection}. */
+    long getExpireDateMillis() {
+        return expireDate;
+    }
+
     /**
      * Certificate fingerprint
      **/
@@ -234,7 +253,7 @@ public class RevokedCertInfo implements Serializable {
      * @param a First collection of RevokedCertInfo. May <b>not</b> contain duplicates for the same serial number.
      * @param b Second collection of RevokedCertInfo. May contain duplicates
      * @param lastBaseCrlDate Entries in unrevoked state will only be included if they are more recent than this date. (<= 0 means never include them)
-     * @return CompressionCollection of certificates. May simply be a reference to <code>a</code> if <code>b</code> is empty, or a new merged CompressedCollection with any duplicates removed.
+     * @return Collection of certificates. May simply be a reference to <code>a</code> if <code>b</code> is empty, or a new merged RevokedCertInfoCollection with any duplicates removed.
      */
     public static Collection<RevokedCertInfo> mergeByDateAndStatus(final Collection<RevokedCertInfo> a, final Collection<RevokedCertInfo> b, final long lastBaseCrlDate) {
         // We can optimize this case, but not the reverse, since b can contain duplicates that should be filtered.
@@ -276,7 +295,7 @@ public class RevokedCertInfo implements Serializable {
                 tempRevoked.put(serial, revoked);
             }
         }
-        final CompressedCollection<RevokedCertInfo> mergedRevokedData = new CompressedCollection<>(RevokedCertInfo.class);
+        final RevokedCertInfoCollection mergedRevokedData = new RevokedCertInfoCollection();
         mergedRevokedData.addAll(permRevoked.values()); // Permanently revoked entries are always added
         for (final RevokedCertInfo revoked : tempRevoked.values()) {
             if (!revoked.isRevoked() && (lastBaseCrlDate <= 0 || revoked.getRevocationDate().getTime() <= lastBaseCrlDate)) {
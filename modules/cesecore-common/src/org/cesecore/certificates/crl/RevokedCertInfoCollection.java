@@ -0,0 +1,520 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Memory efficient Collection of RevokedCertInfo, used when listing the revoked certificates of a CA.
+ * <p>
+ * Each entry is stored as fixed width columns (flags, reason, serial number, revocation date, expire date and
+ * fingerprint) in blocks of {@link #RECORDS_PER_BLOCK} entries, so there is no per entry object or serialization
+ * overhead. Reading an entry only creates the returned RevokedCertInfo. When the collection grows beyond
+ * database.crlgenmappedthreshold entries, further blocks are memory mapped from a temporary file instead of being
+ * allocated on the heap.
+ * <p>
+ * Entries that do not fit the columns (serial numbers longer than 21 octets, or fingerprints that are not 40 lower
+ * case hex digits) are kept as objects on the side, in the same order.
+ * <p>
+ * Like CompressedCollection, entries can only be added until {@link #closeForWrite()} or {@link #iterator()} is called,
+ * and {@link #clear()} should be called when the collection is no longer needed to release the temporary file.
+ * Entries can be removed at any time, which moves the following entries in place. Since the entries are created each
+ * time they are read, {@link #contains(Object)} and the removal methods compare entries by value: fingerprint, serial
+ * number, revocation date, reason and expire date. The implementation is not thread safe.
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollection implements Collection<RevokedCertInfo>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(RevokedCertInfoCollection.class);
+
+    /** Number of entries in each full block */
+    static final int RECORDS_PER_BLOCK = 8192;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int MAX_SERIAL_LENGTH = 21;
+    private static final int FINGERPRINT_LENGTH = 20;
+    /** Size of one entry, in the column order below */
+    private static final int RECORD_SIZE = 1 + 1 + 1 + MAX_SERIAL_LENGTH + 8 + 8 + FINGERPRINT_LENGTH;
+
+    private static final byte FLAG_FINGERPRINT = 1;
+    /** The entry is stored in the overflow list, at the index in the revocation date column */
+    private static final byte FLAG_OVERFLOW = 2;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    /** Columns of a block, with the start offset of each column. */
+    private static final class Block {
+        final ByteBuffer buffer;
+        final int capacity;
+        final int reasonOffset;
+        final int serialLengthOffset;
+        final int serialOffset;
+        final int revocationDateOffset;
+        final int expireDateOffset;
+        final int fingerprintOffset;
+
+        Block(final ByteBuffer buffer, final int capacity) {
+            this.buffer = buffer;
+            this.capacity = capacity;
+            reasonOffset = capacity;
+            serialLengthOffset = 2 * capacity;
+            serialOffset = 3 * capacity;
+            revocationDateOffset = serialOffset + MAX_SERIAL_LENGTH * capacity;
+            expireDateOffset = revocationDateOffset + 8 * capacity;
+            fingerprintOffset = expireDateOffset + 8 * capacity;
+        }
+    }
+
+    private final long mappedThreshold;
+    private transient List<Block> blocks = new ArrayList<>();
+    private transient List<RevokedCertInfo> overflow = new ArrayList<>();
+    private transient File mappedFile = null;
+    private transient RandomAccessFile mappedFileAccess = null;
+    private int size = 0;
+    private boolean closedForWrite = false;
+
+    /** Creates a collection that is memory mapped above database.crlgenmappedthreshold entries */
+    public RevokedCertInfoCollection() {
+        this(CesecoreConfiguration.getDatabaseRevokedCertInfoMappedThreshold());
+    }
+
+    /** @param mappedThreshold number of entries above which the entries are stored in a memory mapped file, or 0 to never do so */
+    public RevokedCertInfoCollection(final long mappedThreshold) {
+        this.mappedThreshold = mappedThreshold;
+    }
+
+    @Override
+    public boolean add(final RevokedCertInfo revokedCertInfo) {
+        if (closedForWrite) {
+            throw new IllegalStateException("closeForWrite() has already been called without clear() for this RevokedCertInfoCollection.");
+        }
+        if (revokedCertInfo == null) {
+            return false;
+        }
+        final Block block = getBlockForWrite(size);
+        final int i = size % RECORDS_PER_BLOCK;
+        final ByteBuffer buffer = block.buffer;
+        final byte[] serialNumber = revokedCertInfo.getSerialNumberBytes();
+        final byte[] fingerprint = revokedCertInfo.getFingerprintBytes();
+        if (serialNumber == null || serialNumber.length > MAX_SERIAL_LENGTH || (fingerprint != null && !isHexFingerprint(fingerprint))) {
+            buffer.put(i, FLAG_OVERFLOW);
+            buffer.putLong(block.revocationDateOffset + 8 * i, overflow.size());
+            overflow.add(revokedCertInfo);
+        } else {
+            buffer.put(i, fingerprint == null ? 0 : FLAG_FINGERPRINT);
+            buffer.put(block.reasonOffset + i, (byte) revokedCertInfo.getReason());
+            buffer.put(block.serialLengthOffset + i, (byte) serialNumber.length);
+            for (int j = 0; j < serialNumber.length; j++) {
+                buffer.put(block.serialOffset + MAX_SERIAL_LENGTH * i + j, serialNumber[j]);
+            }
+            buffer.putLong(block.revocationDateOffset + 8 * i, revokedCertInfo.getRevocationDateMillis());
+            buffer.putLong(block.expireDateOffset + 8 * i, revokedCertInfo.getExpireDateMillis());
+            if (fingerprint != null) {
+                for (int j = 0; j < FINGERPRINT_LENGTH; j++) {
+                    buffer.put(block.fingerprintOffset + FINGERPRINT_LENGTH * i + j, (byte) (hexValue(fingerprint[2 * j]) << 4 | hexValue(fingerprint[2 * j + 1])));
+                }
+            }
+        }
+        size++;
+        return true;
+    }
+
+    private RevokedCertInfo get(final int index) {
+        final Block block = blocks.get(index / RECORDS_PER_BLOCK);
+        final int i = index % RECORDS_PER_BLOCK;
+        final ByteBuffer buffer = block.buffer;
+        final byte flags = buffer.get(i);
+        if ((flags & FLAG_OVERFLOW) != 0) {
+            return overflow.get((int) buffer.getLong(block.revocationDateOffset + 8 * i));
+        }
+        final byte[] serialNumber = new byte[buffer.get(block.serialLengthOffset + i)];
+        for (int j = 0; j < serialNumber.length; j++) {
+            serialNumber[j] = buffer.get(block.serialOffset + MAX_SERIAL_LENGTH * i + j);
+        }
+        byte[] fingerprint = null;
+        if ((flags & FLAG_FINGERPRINT) != 0) {
+            fingerprint = new byte[2 * FINGERPRINT_LENGTH];
+            for (int j = 0; j < FINGERPRINT_LENGTH; j++) {
+                final int b = buffer.get(block.fingerprintOffset + FINGERPRINT_LENGTH * i + j) & 0xff;
+                fingerprint[2 * j] = HEX[b >>> 4];
+                fingerprint[2 * j + 1] = HEX[b & 0x0f];
+            }
+        }
+        return new RevokedCertInfo(fingerprint, serialNumber, buffer.getLong(block.revocationDateOffset + 8 * i), buffer.get(block.reasonOffset + i),
+                buffer.getLong(block.expireDateOffset + 8 * i));
+    }
+
+    /** @return the block where the entry with the given index should be written, growing or adding a block if needed */
+    private Block getBlockForWrite(final int index) {
+        final int blockIndex = index / RECORDS_PER_BLOCK;
+        if (blockIndex < blocks.size()) {
+            final Block block = blocks.get(blockIndex);
+            if (index % RECORDS_PER_BLOCK < block.capacity) {
+                return block;
+            }
+            // Only the first block grows, all following blocks are allocated with full capacity
+            final Block grown = new Block(ByteBuffer.allocate(RECORD_SIZE * Math.min(block.capacity * 2, RECORDS_PER_BLOCK)),
+                    Math.min(block.capacity * 2, RECORDS_PER_BLOCK));
+            copyColumns(block, grown);
+            blocks.set(blockIndex, grown);
+            return grown;
+        }
+        final Block block;
+        if (blocks.isEmpty()) {
+            block = new Block(ByteBuffer.allocate(RECORD_SIZE * INITIAL_CAPACITY), INITIAL_CAPACITY);
+        } else if (mappedThreshold > 0 && index >= mappedThreshold) {
+            block = new Block(mapBlock(blockIndex), RECORDS_PER_BLOCK);
+        } else {
+            block = new Block(ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_BLOCK), RECORDS_PER_BLOCK);
+        }
+        blocks.add(block);
+        return block;
+    }
+
+    private static void copyColumns(final Block from, final Block to) {
+        copyColumn(from, 0, to, 0, 1);
+        copyColumn(from, from.reasonOffset, to, to.reasonOffset, 1);
+        copyColumn(from, from.serialLengthOffset, to, to.serialLengthOffset, 1);
+        copyColumn(from, from.serialOffset, to, to.serialOffset, MAX_SERIAL_LENGTH);
+        copyColumn(from, from.revocationDateOffset, to, to.revocationDateOffset, 8);
+        copyColumn(from, from.expireDateOffset, to, to.expireDateOffset, 8);
+        copyColumn(from, from.fingerprintOffset, to, to.fingerprintOffset, FINGERPRINT_LENGTH);
+    }
+
+    private static void copyColumn(final Block from, final int fromOffset, final Block to, final int toOffset, final int width) {
+        final ByteBuffer source = from.buffer.duplicate();
+        source.position(fromOffset);
+        source.limit(fromOffset + width * from.capacity);
+        final ByteBuffer destination = to.buffer.duplicate();
+        destination.position(toOffset);
+        destination.put(source);
+    }
+
+    private ByteBuffer mapBlock(final int blockIndex) {
+        try {
+            if (mappedFileAccess == null) {
+                mappedFile = File.createTempFile("revokedcertinfos", ".bin");
+                mappedFile.deleteOnExit();
+                mappedFileAccess = new RandomAccessFile(mappedFile, "rw");
+                if (log.isDebugEnabled()) {
+                    log.debug("Storing more than " + mappedThreshold + " revoked certificates in memory mapped file " + mappedFile.getAbsolutePath());
+                }
+            }
+            return mappedFileAccess.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) blockIndex * RECORD_SIZE * RECORDS_PER_BLOCK,
+                    RECORD_SIZE * RECORDS_PER_BLOCK);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create a memory mapped file for revoked certificates: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isHexFingerprint(final byte[] fingerprint) {
+        if (fingerprint.length != 2 * FINGERPRINT_LENGTH) {
+            return false;
+        }
+        for (final byte b : fingerprint) {
+            if (hexValue(b) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hexValue(final byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends RevokedCertInfo> revokedCertInfos) {
+        for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+            add(revokedCertInfo);
+        }
+        return !revokedCertInfos.isEmpty();
+    }
+
+    /** Signal that no more data will be added to this collection. */
+    public void closeForWrite() {
+        if (!closedForWrite) {
+            closedForWrite = true;
+            if (log.isDebugEnabled()) {
+                log.debug("Stored " + size + " entries in " + blocks.size() + " blocks" + (mappedFile == null ? "." : ", using a memory mapped file."));
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        blocks.clear();
+        overflow.clear();
+        size = 0;
+        closedForWrite = false;
+        if (mappedFileAccess != null) {
+            try {
+                mappedFileAccess.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+            mappedFileAccess = null;
+            // The file can not be deleted on all platforms until the mapped buffers have been garbage collected
+            if (!mappedFile.delete() && log.isDebugEnabled()) {
+                log.debug("Could not delete " + mappedFile.getAbsolutePath() + " yet, it will be deleted on exit.");
+            }
+            mappedFile = null;
+        }
+    }
+
+    @Override
+    public Iterator<RevokedCertInfo> iterator() {
+        closeForWrite();
+        return new Iterator<RevokedCertInfo>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public RevokedCertInfo next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(final Object object) {
+        for (final RevokedCertInfo revokedCertInfo : this) {
+            if (isSameEntry(revokedCertInfo, object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean containsAll(final Collection<?> objects) {
+        for (final Object object : objects) {
+            if (!contains(object)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean remove(final Object object) {
+        final boolean[] removed = { false };
+        return removeIf(revokedCertInfo -> {
+            if (!removed[0] && isSameEntry(revokedCertInfo, object)) {
+                removed[0] = true;
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public boolean removeAll(final Collection<?> objects) {
+        return removeIf(revokedCertInfo -> containsSameEntry(objects, revokedCertInfo));
+    }
+
+    @Override
+    public boolean retainAll(final Collection<?> objects) {
+        return removeIf(revokedCertInfo -> !containsSameEntry(objects, revokedCertInfo));
+    }
+
+    /** Removes the matching entries by moving each remaining entry to the first free position, without reallocating the blocks. */
+    @Override
+    public boolean removeIf(final Predicate<? super RevokedCertInfo> filter) {
+        final List<RevokedCertInfo> remainingOverflow = new ArrayList<>();
+        int remaining = 0;
+        for (int index = 0; index < size; index++) {
+            if (filter.test(get(index))) {
+                continue;
+            }
+            final Block from = blocks.get(index / RECORDS_PER_BLOCK);
+            final int i = index % RECORDS_PER_BLOCK;
+            final Block to = blocks.get(remaining / RECORDS_PER_BLOCK);
+            final int j = remaining % RECORDS_PER_BLOCK;
+            if ((from.buffer.get(i) & FLAG_OVERFLOW) != 0) {
+                to.buffer.put(j, FLAG_OVERFLOW);
+                to.buffer.putLong(to.revocationDateOffset + 8 * j, remainingOverflow.size());
+                remainingOverflow.add(overflow.get((int) from.buffer.getLong(from.revocationDateOffset + 8 * i)));
+            } else if (index != remaining) {
+                copyRecord(from, i, to, j);
+            }
+            remaining++;
+        }
+        if (remaining == size) {
+            return false;
+        }
+        size = remaining;
+        overflow = remainingOverflow;
+        return true;
+    }
+
+    private static void copyRecord(final Block from, final int i, final Block to, final int j) {
+        copyValue(from, 0, i, to, 0, j, 1);
+        copyValue(from, from.reasonOffset, i, to, to.reasonOffset, j, 1);
+        copyValue(from, from.serialLengthOffset, i, to, to.serialLengthOffset, j, 1);
+        copyValue(from, from.serialOffset, i, to, to.serialOffset, j, MAX_SERIAL_LENGTH);
+        copyValue(from, from.revocationDateOffset, i, to, to.revocationDateOffset, j, 8);
+        copyValue(from, from.expireDateOffset, i, to, to.expireDateOffset, j, 8);
+        copyValue(from, from.fingerprintOffset, i, to, to.fingerprintOffset, j, FINGERPRINT_LENGTH);
+    }
+
+    private static void copyValue(final Block from, final int fromOffset, final int i, final Block to, final int toOffset, final int j, final int width) {
+        for (int k = 0; k < width; k++) {
+            to.buffer.put(toOffset + width * j + k, from.buffer.get(fromOffset + width * i + k));
+        }
+    }
+
+    private static boolean containsSameEntry(final Collection<?> objects, final RevokedCertInfo revokedCertInfo) {
+        for (final Object object : objects) {
+            if (isSameEntry(revokedCertInfo, object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return true if the object is a RevokedCertInfo with the same values as the entry */
+    private static boolean isSameEntry(final RevokedCertInfo entry, final Object object) {
+        if (entry == object) {
+            return true;
+        }
+        if (!(object instanceof RevokedCertInfo)) {
+            return false;
+        }
+        final RevokedCertInfo other = (RevokedCertInfo) object;
+        return entry.getReason() == other.getReason() && entry.getRevocationDateMillis() == other.getRevocationDateMillis()
+                && entry.getExpireDateMillis() == other.getExpireDateMillis() && Objects.equals(entry.getUserCertificate(), other.getUserCertificate())
+                && Arrays.equals(entry.getFingerprintBytes(), other.getFingerprintBytes());
+    }
+
+    @Override
+    public Object[] toArray() {
+        return toArray(new Object[size]);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(final T[] array) {
+        final T[] result = array.length >= size ? array : (T[]) Array.newInstance(array.getClass().getComponentType(), size);
+        for (int index = 0; index < size; index++) {
+            result[index] = (T) get(index);
+        }
+        if (result.length > size) {
+            result[size] = null;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the values of the entries instead of the blocks, so that memory mapped collections can be serialized too.
+     * Only primitive values are written, so that reading a collection never deserializes objects from the stream.
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (final RevokedCertInfo revokedCertInfo : this) {
+            writeBytes(out, revokedCertInfo.getFingerprintBytes());
+            writeBytes(out, revokedCertInfo.getSerialNumberBytes());
+            out.writeLong(revokedCertInfo.getRevocationDateMillis());
+            out.writeInt(revokedCertInfo.getReason());
+            out.writeLong(revokedCertInfo.getExpireDateMillis());
+        }
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        final int entries = size;
+        if (entries < 0) {
+            throw new InvalidObjectException("Negative number of entries: " + entries);
+        }
+        final boolean closed = closedForWrite;
+        blocks = new ArrayList<>();
+        overflow = new ArrayList<>();
+        size = 0;
+        closedForWrite = false;
+        for (int i = 0; i < entries; i++) {
+            final byte[] fingerprint = readBytes(in);
+            final byte[] serialNumber = readBytes(in);
+            final long revocationDate = in.readLong();
+            final int reason = in.readInt();
+            final long expireDate = in.readLong();
+            add(new RevokedCertInfo(fingerprint, serialNumber, revocationDate, reason, expireDate));
+        }
+        closedForWrite = closed;
+    }
+
+    private static void writeBytes(final ObjectOutputStream out, final byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeShort(-1);
+        } else {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(final ObjectInputStream in) throws IOException {
+        final short length = in.readShort();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new InvalidObjectException("Invalid length of an entry value: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
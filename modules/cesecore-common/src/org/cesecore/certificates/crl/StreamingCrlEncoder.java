@@ -0,0 +1,310 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.ASN1UTCTime;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.ContentVerifier;
+
+/**
+ * DER encodes and signs a CRL without keeping the revoked certificate entries in memory.
+ * <p>
+ * Each entry is encoded as soon as it is added, and written to a buffer that is moved to a temporary file when it grows
+ * beyond {@link #MEMORY_THRESHOLD}. The rest of the CRL (issuer, dates and extensions) is built as usual with an
+ * {@link X509v2CRLBuilder} without entries, and the entries are spliced into its TBSCertList when the CRL is signed. The
+ * only thing that grows with the number of entries in memory is the returned encoded CRL.
+ * <p>
+ * Entries are encoded in the same way as {@link X509v2CRLBuilder#addCRLEntry(BigInteger, Date, int)}.
+ *
+ * @version $Id$
+ */
+public class StreamingCrlEncoder implements Closeable {
+
+    private static final Logger log = Logger.getLogger(StreamingCrlEncoder.class);
+
+    /** Entries up to this size are kept in memory, larger lists of entries are written to a temporary file */
+    public static final int MEMORY_THRESHOLD = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    private final DeferredFileOutputStream entries;
+    private long entriesLength = 0;
+    private int entryCount = 0;
+    private boolean closed = false;
+
+    /** Location of the TBSCertList and signature in the encoded CRL, for verification */
+    private int tbsOffset;
+    private int tbsLength;
+    private byte[] signature;
+
+    public StreamingCrlEncoder() {
+        entries = new DeferredFileOutputStream(MEMORY_THRESHOLD, "crlentries", ".der", null);
+    }
+
+    /**
+     * Adds a revoked certificate entry.
+     *
+     * @param serialNumber serial number of the revoked certificate
+     * @param revocationDate date of revocation
+     * @param reason the reason code, as defined in CRLReason, or 0 to omit the reason code extension
+     * @throws IOException if the entry could not be written to the temporary file
+     */
+    public void addEntry(final BigInteger serialNumber, final Date revocationDate, final int reason) throws IOException {
+        final ASN1EncodableVector entry = new ASN1EncodableVector(3);
+        entry.add(new ASN1Integer(serialNumber));
+        entry.add(new Time(revocationDate));
+        if (reason != 0) {
+            final ASN1EncodableVector reasonExtension = new ASN1EncodableVector(2);
+            reasonExtension.add(Extension.reasonCode);
+            reasonExtension.add(new DEROctetString(CRLReason.lookup(reason).getEncoded()));
+            entry.add(new DERSequence(new DERSequence(reasonExtension)));
+        }
+        final byte[] encoded = new DERSequence(entry).getEncoded(ASN1Encoding.DER);
+        entries.write(encoded);
+        entriesLength += encoded.length;
+        entryCount++;
+    }
+
+    /** @return the number of entries added */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Signs and encodes the CRL.
+     *
+     * @param crlBuilder builder with everything but the entries of the CRL. Must not contain any entries.
+     * @param signer the signer to sign the CRL with
+     * @return the DER encoded CRL
+     * @throws IOException if the entries could not be read back from the temporary file
+     */
+    public byte[] encode(final X509v2CRLBuilder crlBuilder, final ContentSigner signer) throws IOException {
+        entries.close();
+        // Let BouncyCastle build the TBSCertList without entries, with a signer that does not sign anything
+        final ASN1Sequence emptyTbs = ASN1Sequence.getInstance(crlBuilder.build(new TemplateSigner(signer.getAlgorithmIdentifier()))
+                .toASN1Structure().getTBSCertList().toASN1Primitive());
+        // revokedCertificates goes after thisUpdate and nextUpdate, and before the explicitly tagged crlExtensions
+        final List<byte[]> head = new ArrayList<>();
+        final List<byte[]> tail = new ArrayList<>();
+        boolean afterThisUpdate = false;
+        for (int i = 0; i < emptyTbs.size(); i++) {
+            final ASN1Primitive element = emptyTbs.getObjectAt(i).toASN1Primitive();
+            if (element instanceof ASN1TaggedObject) {
+                tail.add(element.getEncoded(ASN1Encoding.DER));
+            } else {
+                if (!tail.isEmpty()) {
+                    throw new IllegalStateException("Unexpected element after the CRL extensions in TBSCertList.");
+                }
+                if (afterThisUpdate && element instanceof ASN1Sequence) {
+                    throw new IllegalArgumentException("The CRL builder must not contain any entries.");
+                }
+                afterThisUpdate |= element instanceof ASN1UTCTime || element instanceof ASN1GeneralizedTime;
+                head.add(element.getEncoded(ASN1Encoding.DER));
+            }
+        }
+        final byte[] entriesHeader = entryCount > 0 ? getHeader(entriesLength) : new byte[0];
+        final long tbsContentLength = getLength(head) + (entryCount > 0 ? entriesHeader.length + entriesLength : 0) + getLength(tail);
+        final byte[] tbsHeader = getHeader(tbsContentLength);
+
+        // Sign the TBSCertList
+        try (final OutputStream signerStream = signer.getOutputStream()) {
+            writeTbs(signerStream, tbsHeader, head, entriesHeader, tail);
+        }
+        signature = signer.getSignature();
+        final byte[] algorithmIdentifier = signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER);
+        final byte[] signatureValue = new DERBitString(signature).getEncoded(ASN1Encoding.DER);
+
+        // Write the CertificateList
+        final long tbsTotalLength = tbsHeader.length + tbsContentLength;
+        final long contentLength = tbsTotalLength + algorithmIdentifier.length + signatureValue.length;
+        final byte[] header = getHeader(contentLength);
+        if (header.length + contentLength > Integer.MAX_VALUE - 8) {
+            throw new IOException("The CRL is too large to be encoded: " + (header.length + contentLength) + " bytes.");
+        }
+        final byte[] crl = new byte[(int) (header.length + contentLength)];
+        final ArrayOutputStream out = new ArrayOutputStream(crl);
+        out.write(header);
+        tbsOffset = out.position;
+        tbsLength = (int) tbsTotalLength;
+        writeTbs(out, tbsHeader, head, entriesHeader, tail);
+        out.write(algorithmIdentifier);
+        out.write(signatureValue);
+        if (out.position != crl.length) {
+            throw new IllegalStateException("Encoded CRL length " + out.position + " does not match the calculated length " + crl.length + ".");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Encoded CRL with " + entryCount + " entries, " + crl.length + " bytes" + (entries.isInMemory() ? "." : " using a temporary file."));
+        }
+        return crl;
+    }
+
+    /**
+     * Verifies the signature of the CRL last returned by {@link #encode(X509v2CRLBuilder, ContentSigner)}, without parsing the entries.
+     *
+     * @param crl the encoded CRL
+     * @param verifier verifier for the public key of the issuer
+     * @return true if the signature is valid
+     */
+    public boolean isSignatureValid(final byte[] crl, final ContentVerifier verifier) throws IOException {
+        if (signature == null) {
+            throw new IllegalStateException("The CRL has not been encoded.");
+        }
+        try (final OutputStream verifierStream = verifier.getOutputStream()) {
+            verifierStream.write(crl, tbsOffset, tbsLength);
+        }
+        return verifier.verify(signature);
+    }
+
+    /** Deletes the temporary file, if any. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        entries.close();
+        final File file = entries.getFile();
+        if (!entries.isInMemory() && file != null && file.exists() && !file.delete()) {
+            log.warn("Could not delete temporary CRL file " + file.getAbsolutePath());
+        }
+    }
+
+    private void writeTbs(final OutputStream out, final byte[] tbsHeader, final List<byte[]> head, final byte[] entriesHeader, final List<byte[]> tail)
+            throws IOException {
+        out.write(tbsHeader);
+        for (final byte[] element : head) {
+            out.write(element);
+        }
+        if (entryCount > 0) {
+            out.write(entriesHeader);
+            try (final InputStream in = openEntries()) {
+                final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+        for (final byte[] element : tail) {
+            out.write(element);
+        }
+    }
+
+    private InputStream openEntries() throws IOException {
+        if (entries.isInMemory()) {
+            return new ByteArrayInputStream(entries.getData());
+        }
+        return new BufferedInputStream(new FileInputStream(entries.getFile()), COPY_BUFFER_SIZE);
+    }
+
+    private static long getLength(final List<byte[]> elements) {
+        long length = 0;
+        for (final byte[] element : elements) {
+            length += element.length;
+        }
+        return length;
+    }
+
+    /** @return DER tag and length octets of a SEQUENCE with the given content length */
+    static byte[] getHeader(final long contentLength) {
+        if (contentLength < 128) {
+            return new byte[] { 0x30, (byte) contentLength };
+        }
+        int octets = 0;
+        for (long l = contentLength; l != 0; l >>>= 8) {
+            octets++;
+        }
+        final byte[] header = new byte[2 + octets];
+        header[0] = 0x30;
+        header[1] = (byte) (0x80 | octets);
+        for (int i = 0; i < octets; i++) {
+            header[header.length - 1 - i] = (byte) (contentLength >>> (8 * i));
+        }
+        return header;
+    }
+
+    /** Writes into a preallocated array, to avoid the copy made by ByteArrayOutputStream.toByteArray */
+    private static class ArrayOutputStream extends OutputStream {
+        private final byte[] array;
+        private int position = 0;
+
+        ArrayOutputStream(final byte[] array) {
+            this.array = array;
+        }
+
+        @Override
+        public void write(final int b) {
+            array[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            System.arraycopy(b, off, array, position, len);
+            position += len;
+        }
+    }
+
+    /** Gives BouncyCastle the algorithm identifier to put in the TBSCertList, without signing */
+    private static class TemplateSigner implements ContentSigner {
+        private final AlgorithmIdentifier algorithmIdentifier;
+
+        TemplateSigner(final AlgorithmIdentifier algorithmIdentifier) {
+            this.algorithmIdentifier = algorithmIdentifier;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return algorithmIdentifier;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return NullOutputStream.NULL_OUTPUT_STREAM;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            return new byte[0];
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.concurrent.locks.StampedLock;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+
+/**
+ * Memory compact hash table from certificate serial number to revocation status, for the certificates of a single issuer.
+ * <p>
+ * All data is kept in parallel primitive arrays (open addressing with linear probing), so an entry costs a fixed number of
+ * bytes instead of one object graph per certificate. Serial numbers up to 160 bits (the 20 octets allowed by RFC 5280) are
+ * stored exactly, other serial numbers are not accepted and will always be looked up in the database.
+ * <p>
+ * Lookups use optimistic reads and do not block each other, modifications are serialized.
+ *
+ * @version $Id$
+ */
+public class CertificateStatusTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_SERIAL_NUMBER_BITS = 160;
+
+    private static final byte SLOT_EMPTY = 0;
+    private static final byte SLOT_OK = 1;
+    private static final byte SLOT_REVOKED = 2;
+    private static final byte SLOT_REMOVED = 3;
+
+    /** All arrays of the table, replaced as a unit when the table grows so that a reader always sees a consistent set. */
+    private static class Slots {
+        final int mask;
+        final long[] serialLow;
+        final long[] serialMiddle;
+        final int[] serialHigh;
+        final byte[] state;
+        final byte[] revocationReason;
+        final long[] revocationDate;
+        final long[] expireDate;
+        final int[] certificateProfileId;
+
+        Slots(final int capacity) {
+            mask = capacity - 1;
+            serialLow = new long[capacity];
+            serialMiddle = new long[capacity];
+            serialHigh = new int[capacity];
+            state = new byte[capacity];
+            revocationReason = new byte[capacity];
+            revocationDate = new long[capacity];
+            expireDate = new long[capacity];
+            certificateProfileId = new int[capacity];
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+    /** Number of slots that are not empty, including removed ones. Guarded by the write lock. */
+    private int usedSlots = 0;
+    private volatile int size = 0;
+
+    /** @return true if the serial number can be stored in this table */
+    public static boolean isSupported(final BigInteger serialNumber) {
+        return serialNumber.signum() >= 0 && serialNumber.bitLength() <= MAX_SERIAL_NUMBER_BITS;
+    }
+
+    /** @return the number of certificates in the table */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param serialNumber serial number of the certificate
+     * @return the status of the certificate, with the expiration date set, or null if the certificate is not in the table.
+     */
+    public CertificateStatus get(final BigInteger serialNumber) {
+        if (!isSupported(serialNumber)) {
+            return null;
+        }
+        final long low = serialNumber.longValue();
+        final long middle = serialNumber.shiftRight(64).longValue();
+        final int high = serialNumber.shiftRight(128).intValue();
+        long stamp = lock.tryOptimisticRead();
+        CertificateStatus ret = find(slots, low, middle, high);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                ret = find(slots, low, middle, high);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return ret;
+    }
+
+    private CertificateStatus find(final Slots s, final long low, final long middle, final int high) {
+        int i = indexFor(low, middle, high, s.mask);
+        // The table is never full, so the probe will always reach an empty slot. The bound protects against torn optimistic reads.
+        for (int probes = 0; probes <= s.mask; probes++) {
+            final byte state = s.state[i];
+            if (state == SLOT_EMPTY) {
+                return null;
+            }
+            if (state != SLOT_REMOVED && s.serialLow[i] == low && s.serialMiddle[i] == middle && s.serialHigh[i] == high) {
+                final String name = state == SLOT_REVOKED ? CertificateStatus.REVOKED.toString() : CertificateStatus.OK.toString();
+                final CertificateStatus status = new CertificateStatus(name, s.revocationDate[i], s.revocationReason[i], s.certificateProfileId[i]);
+                status.setExpirationDate(s.expireDate[i]);
+                return status;
+            }
+            i = (i + 1) & s.mask;
+        }
+        return null;
+    }
+
+    /**
+     * Adds or replaces the status of a certificate.
+     *
+     * @param overwrite false if an existing entry should be kept. Used when loading data that may be older than what is already in the table.
+     * @return true if the table was modified
+     */
+    public boolean put(final BigInteger serialNumber, final boolean revoked, final long revocationDate, final int revocationReason, final long expireDate,
+            final int certificateProfileId, final boolean overwrite) {
+        if (!isSupported(serialNumber)) {
+            return false;
+        }
+        final long low = serialNumber.longValue();
+        final long middle = serialNumber.shiftRight(64).longValue();
+        final int high = serialNumber.shiftRight(128).intValue();
+        final long stamp = lock.writeLock();
+        try {
+            if ((usedSlots + 1) * 4L > (slots.mask + 1) * 3L) {
+                rehash();
+            }
+            final Slots s = slots;
+            int i = indexFor(low, middle, high, s.mask);
+            int firstRemoved = -1;
+            while (s.state[i] != SLOT_EMPTY) {
+                if (s.state[i] == SLOT_REMOVED) {
+                    if (firstRemoved == -1) {
+                        firstRemoved = i;
+                    }
+                } else if (s.serialLow[i] == low && s.serialMiddle[i] == middle && s.serialHigh[i] == high) {
+                    if (!overwrite) {
+                        return false;
+                    }
+                    setValues(s, i, revoked, revocationDate, revocationReason, expireDate, certificateProfileId);
+                    return true;
+                }
+                i = (i + 1) & s.mask;
+            }
+            if (firstRemoved != -1) {
+                i = firstRemoved;
+            } else {
+                usedSlots++;
+            }
+            s.serialLow[i] = low;
+            s.serialMiddle[i] = middle;
+            s.serialHigh[i] = high;
+            setValues(s, i, revoked, revocationDate, revocationReason, expireDate, certificateProfileId);
+            size++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the status of a certificate, so that the next lookup will go to the database.
+     * @return true if the certificate was in the table
+     */
+    public boolean remove(final BigInteger serialNumber) {
+        if (!isSupported(serialNumber)) {
+            return false;
+        }
+        final long low = serialNumber.longValue();
+        final long middle = serialNumber.shiftRight(64).longValue();
+        final int high = serialNumber.shiftRight(128).intValue();
+        final long stamp = lock.writeLock();
+        try {
+            final Slots s = slots;
+            int i = indexFor(low, middle, high, s.mask);
+            while (s.state[i] != SLOT_EMPTY) {
+                if (s.state[i] != SLOT_REMOVED && s.serialLow[i] == low && s.serialMiddle[i] == middle && s.serialHigh[i] == high) {
+                    s.state[i] = SLOT_REMOVED;
+                    size--;
+                    return true;
+                }
+                i = (i + 1) & s.mask;
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void setValues(final Slots s, final int i, final boolean revoked, final long revocationDate, final int revocationReason,
+            final long expireDate, final int certificateProfileId) {
+        s.revocationReason[i] = (byte) revocationReason;
+        s.revocationDate[i] = revocationDate;
+        s.expireDate[i] = expireDate;
+        s.certificateProfileId[i] = certificateProfileId;
+        // Written last, so an entry is never visible before its values are
+        s.state[i] = revoked ? SLOT_REVOKED : SLOT_OK;
+    }
+
+    /** Must be called with the write lock held. Doubles the capacity (unless mostly removed slots) and drops removed slots. */
+    private void rehash() {
+        final Slots old = slots;
+        final int capacity = size * 2L > (old.mask + 1) ? (old.mask + 1) * 2 : old.mask + 1;
+        final Slots s = new Slots(capacity);
+        for (int j = 0; j <= old.mask; j++) {
+            final byte state = old.state[j];
+            if (state == SLOT_OK || state == SLOT_REVOKED) {
+                int i = indexFor(old.serialLow[j], old.serialMiddle[j], old.serialHigh[j], s.mask);
+                while (s.state[i] != SLOT_EMPTY) {
+                    i = (i + 1) & s.mask;
+                }
+                s.serialLow[i] = old.serialLow[j];
+                s.serialMiddle[i] = old.serialMiddle[j];
+                s.serialHigh[i] = old.serialHigh[j];
+                s.revocationReason[i] = old.revocationReason[j];
+                s.revocationDate[i] = old.revocationDate[j];
+                s.expireDate[i] = old.expireDate[j];
+                s.certificateProfileId[i] = old.certificateProfileId[j];
+                s.state[i] = state;
+            }
+        }
+        usedSlots = size;
+        slots = s;
+    }
+
+    private static int indexFor(final long low, final long middle, final int high, final int mask) {
+        long h = low * 0x9E3779B97F4A7C15L;
+        h ^= middle * 0xC2B2AE3D27D4EB4FL;
+        h ^= high;
+        h ^= (h >>> 32);
+        h ^= (h >>> 16);
+        return (int) h & mask;
+    }
+}
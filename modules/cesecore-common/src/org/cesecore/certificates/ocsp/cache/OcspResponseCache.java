@@ -0,0 +1,295 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Cache of signed OCSP responses to requests for a single certificate without any request extensions, such as a nonce.
+ * Identical requests from browsers and CDNs can then be answered without looking up the certificate status and signing
+ * a new response, so that the number of signatures depends on the number of distinct certificates queried rather than
+ * on the number of requests.
+ * <p>
+ * Responses are cached per CertID, and are only returned when the request is answered by the same signing certificate.
+ * A response is kept for ocsp.responsecache.maxagefraction of its max-age, and never after its nextUpdate. When the status of
+ * a certificate is changed on this node, the responses for its serial number are removed once the transaction has committed.
+ * Revocations on other nodes are picked up when the response expires.
+ * <p>
+ * Responses are removed in approximately least recently used order when the total size of the cached responses exceeds
+ * ocsp.responsecache.maxsize. Responses are evicted in insertion order, but a response that has been used since it was last
+ * considered gets a second chance and is moved to the back of the queue (the CLOCK algorithm). Looking up a response therefore
+ * only sets a flag and never takes a lock, and only puts that exceed the maximum size wait for each other.
+ *
+ * @version $Id$
+ */
+public enum OcspResponseCache {
+    INSTANCE;
+
+    /** Approximate size of an entry in addition to the encoded response, in bytes */
+    static final int ENTRY_OVERHEAD = 300;
+
+    /** A cached response */
+    public static class CachedResponse {
+        private final String key;
+        private final BigInteger serialNumber;
+        private final byte[] response;
+        private final long maxAge;
+        private final X509Certificate signerCertificate;
+        private final long createTime;
+        private final long expireTime;
+        /** Set when the response is used, and cleared when it is given a second chance instead of being evicted */
+        private volatile boolean referenced = false;
+
+        private CachedResponse(final String key, final BigInteger serialNumber, final byte[] response, final long maxAge,
+                final X509Certificate signerCertificate, final long createTime, final long expireTime) {
+            this.key = key;
+            this.serialNumber = serialNumber;
+            this.response = response;
+            this.maxAge = maxAge;
+            this.signerCertificate = signerCertificate;
+            this.createTime = createTime;
+            this.expireTime = expireTime;
+        }
+
+        /** @return the encoded OCSP response. Must not be modified. */
+        public byte[] getResponse() {
+            return response;
+        }
+
+        /**
+         * @param now the current time
+         * @return the max-age of the response in milliseconds, reduced by the time it has been cached, so that HTTP caches
+         * do not keep it longer than a response that was just signed
+         */
+        public long getRemainingMaxAge(final long now) {
+            return Math.max(0, maxAge - (now - createTime));
+        }
+
+        /** @return the certificate that signed the response */
+        public X509Certificate getSignerCertificate() {
+            return signerCertificate;
+        }
+
+        private int getSize() {
+            return response.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final Map<String, CachedResponse> cache = new ConcurrentHashMap<>();
+    /** The keys of the cached responses for each serial number. The sets are only modified in compute methods of the map. */
+    private final Map<BigInteger, Set<String>> keysBySerialNumber = new ConcurrentHashMap<>();
+    /** Cached responses in eviction order. May also contain responses that have since been removed from the cache. */
+    private final Queue<CachedResponse> evictionQueue = new ConcurrentLinkedQueue<>();
+    /** The number of responses in the eviction queue, since the size of the queue is not available in constant time */
+    private final AtomicInteger evictionQueueLength = new AtomicInteger();
+    private final Object evictionLock = new Object();
+    private final AtomicLong totalSize = new AtomicLong();
+    /** Incremented on each invalidation, so that responses created with a status read before the invalidation are not cached */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** @return true if the cache is enabled in ocsp.properties */
+    public boolean isEnabled() {
+        return OcspConfiguration.isResponseCacheEnabled();
+    }
+
+    /**
+     * Gets the value to pass to {@link #put}. Must be called before the certificate status is read.
+     * @return the current generation of the cache
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param certId the CertID of the request
+     * @param signerCertificate the certificate that would sign a new response
+     * @return the cached response, or null if there is no response signed by the same certificate, or the response has expired
+     */
+    public CachedResponse get(final CertificateID certId, final X509Certificate signerCertificate) {
+        final CachedResponse cachedResponse = cache.get(getKey(certId));
+        if (cachedResponse == null) {
+            return null;
+        }
+        if (cachedResponse.expireTime <= System.currentTimeMillis() || !Objects.equals(cachedResponse.signerCertificate, signerCertificate)) {
+            remove(cachedResponse);
+            return null;
+        }
+        // Only written when not already set, so that frequently used responses are not written to by every thread
+        if (!cachedResponse.referenced) {
+            cachedResponse.referenced = true;
+        }
+        return cachedResponse;
+    }
+
+    /**
+     * Caches a response that has just been signed. Does nothing if the cache has been invalidated since the given generation,
+     * since the certificate status may have changed after it was read.
+     *
+     * @param generation the value of {@link #getGeneration()} before the certificate status was read
+     * @param certId the CertID of the request
+     * @param response the encoded OCSP response
+     * @param maxAge the max-age of the response in milliseconds
+     * @param signerCertificate the certificate that signed the response
+     * @param nextUpdate the nextUpdate of the response, or null
+     */
+    public void put(final long generation, final CertificateID certId, final byte[] response, final long maxAge,
+            final X509Certificate signerCertificate, final Date nextUpdate) {
+        if (maxAge <= 0 || this.generation.get() != generation) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        long expireTime = now + (long) (maxAge * OcspConfiguration.getResponseCacheMaxAgeFraction());
+        if (nextUpdate != null) {
+            expireTime = Math.min(expireTime, nextUpdate.getTime());
+        }
+        final long maxSize = OcspConfiguration.getResponseCacheMaxSize();
+        final String key = getKey(certId);
+        final CachedResponse cachedResponse = new CachedResponse(key, certId.getSerialNumber(), response, maxAge, signerCertificate, now, expireTime);
+        if (expireTime <= now || cachedResponse.getSize() > maxSize) {
+            return;
+        }
+        final CachedResponse replaced = cache.put(key, cachedResponse);
+        if (replaced != null) {
+            totalSize.addAndGet(-replaced.getSize());
+        }
+        totalSize.addAndGet(cachedResponse.getSize());
+        keysBySerialNumber.compute(cachedResponse.serialNumber, (serialNumber, keys) -> {
+            final Set<String> result = keys != null ? keys : new HashSet<>();
+            result.add(key);
+            return result;
+        });
+        evictionQueue.offer(cachedResponse);
+        evictionQueueLength.incrementAndGet();
+        // An invalidation after the generation was checked above may not have seen this response
+        if (this.generation.get() != generation) {
+            remove(cachedResponse);
+            return;
+        }
+        if (totalSize.get() > maxSize || evictionQueueLength.get() > 2 * cache.size()) {
+            evict(maxSize);
+        }
+    }
+
+    /**
+     * Removes the responses for a certificate, for example because it has been revoked.
+     * @param serialNumber the serial number of the certificate
+     */
+    public void invalidate(final BigInteger serialNumber) {
+        generation.incrementAndGet();
+        final Set<String> keys = keysBySerialNumber.remove(serialNumber);
+        if (keys != null) {
+            for (final String key : keys) {
+                final CachedResponse cachedResponse = cache.get(key);
+                if (cachedResponse != null) {
+                    remove(cachedResponse);
+                }
+            }
+        }
+    }
+
+    /** Removes all responses */
+    public void clear() {
+        generation.incrementAndGet();
+        for (final CachedResponse cachedResponse : cache.values()) {
+            remove(cachedResponse);
+        }
+        synchronized (evictionLock) {
+            removeStaleFromEvictionQueue();
+        }
+    }
+
+    /** @return the number of cached responses */
+    public int size() {
+        return cache.size();
+    }
+
+    /** @return the approximate total size of the cached responses, in bytes */
+    public long getTotalSize() {
+        return totalSize.get();
+    }
+
+    /**
+     * Evicts responses until the total size is within the given maximum, giving a second chance to responses that have been
+     * used since they were last considered. Responses that have been removed in other ways are dropped from the queue once they
+     * make up more than half of it, so that it does not grow while the cache is not full.
+     */
+    private void evict(final long maxSize) {
+        synchronized (evictionLock) {
+            while (totalSize.get() > maxSize) {
+                final CachedResponse eldest = evictionQueue.poll();
+                if (eldest == null) {
+                    break;
+                }
+                evictionQueueLength.decrementAndGet();
+                if (cache.get(eldest.key) != eldest) {
+                    continue;
+                }
+                if (eldest.referenced) {
+                    eldest.referenced = false;
+                    evictionQueue.offer(eldest);
+                    evictionQueueLength.incrementAndGet();
+                } else {
+                    remove(eldest);
+                }
+            }
+            if (evictionQueueLength.get() > 2 * cache.size()) {
+                removeStaleFromEvictionQueue();
+            }
+        }
+    }
+
+    private void removeStaleFromEvictionQueue() {
+        evictionQueue.removeIf(cachedResponse -> {
+            if (cache.get(cachedResponse.key) == cachedResponse) {
+                return false;
+            }
+            evictionQueueLength.decrementAndGet();
+            return true;
+        });
+    }
+
+    /** Removes the response unless it has already been removed or replaced */
+    private void remove(final CachedResponse cachedResponse) {
+        final String key = cachedResponse.key;
+        if (cache.remove(key, cachedResponse)) {
+            totalSize.addAndGet(-cachedResponse.getSize());
+            // Keep the key if a response for it was put again in the meantime
+            keysBySerialNumber.computeIfPresent(cachedResponse.serialNumber, (serialNumber, keys) -> {
+                if (!cache.containsKey(key)) {
+                    keys.remove(key);
+                }
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    private static String getKey(final CertificateID certId) {
+        return certId.getHashAlgOID().getId() + ";" + Hex.toHexString(certId.getIssuerNameHash()) + ";" + Hex.toHexString(certId.getIssuerKeyHash())
+                + ";" + certId.getSerialNumber().toString(16);
+    }
+}
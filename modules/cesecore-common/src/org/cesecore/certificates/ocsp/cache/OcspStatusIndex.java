@@ -0,0 +1,158 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * In-memory index of the revocation status of certificates, per issuer, used by the OCSP responder to avoid a database
+ * lookup for each CertID.
+ * <p>
+ * The index is loaded from the database when the OCSP signing cache is built, and is updated when certificates are issued
+ * or revoked on this node. Revocations made by other nodes are picked up by a periodic query for recently revoked certificates.
+ * A lookup that does not hit the index must be answered from the database.
+ *
+ * @version $Id$
+ */
+public enum OcspStatusIndex {
+    INSTANCE;
+
+    /** How far back in time to look for revocations made by other nodes, in addition to the time since the last refresh. */
+    public static final long REFRESH_OVERLAP_MS = 60000L;
+
+    private static class IssuerIndex {
+        final CertificateStatusTable table = new CertificateStatusTable();
+        volatile boolean loaded = false;
+        /** Start time of the last load or refresh from the database. */
+        final AtomicLong lastRefresh = new AtomicLong(0);
+    }
+
+    private final Map<String, IssuerIndex> issuers = new ConcurrentHashMap<>();
+
+    /** @return true if the index is enabled in ocsp.properties */
+    public boolean isEnabled() {
+        return OcspConfiguration.isStatusIndexEnabled();
+    }
+
+    private IssuerIndex getIssuerIndex(final String issuerDn) {
+        return issuers.computeIfAbsent(issuerDn, dn -> new IssuerIndex());
+    }
+
+    /**
+     * @param issuerDn the issuer DN in the same format as in CertificateData
+     * @param serialNumber the serial number of the certificate
+     * @return the status of the certificate, or null if it must be looked up in the database
+     */
+    public CertificateStatus getStatus(final String issuerDn, final BigInteger serialNumber) {
+        final IssuerIndex issuerIndex = issuers.get(issuerDn);
+        if (issuerIndex == null) {
+            return null;
+        }
+        return issuerIndex.table.get(serialNumber);
+    }
+
+    /**
+     * Updates the index with the current status of a certificate, replacing any previous status.
+     * Should only be called with data that has been committed to the database.
+     */
+    public void updateStatus(final String issuerDn, final BigInteger serialNumber, final CertificateStatus status) {
+        putStatus(issuerDn, serialNumber, status, true);
+    }
+
+    /**
+     * Adds the status of a certificate to the index, unless it already contains the certificate. Used when the status was read
+     * from the database, since a concurrent update might be more recent.
+     */
+    public void addStatus(final String issuerDn, final BigInteger serialNumber, final CertificateStatus status) {
+        putStatus(issuerDn, serialNumber, status, false);
+    }
+
+    private void putStatus(final String issuerDn, final BigInteger serialNumber, final CertificateStatus status, final boolean overwrite) {
+        if (status == null || CertificateStatus.NOT_AVAILABLE.equals(status)) {
+            return;
+        }
+        getIssuerIndex(issuerDn).table.put(serialNumber, CertificateStatus.REVOKED.equals(status), status.revocationDate.getTime(), status.revocationReason,
+                status.getExpirationDate(), status.certificateProfileId, overwrite);
+    }
+
+    /** Removes a certificate from the index, for example when it has been deleted from the database. */
+    public void removeStatus(final String issuerDn, final BigInteger serialNumber) {
+        final IssuerIndex issuerIndex = issuers.get(issuerDn);
+        if (issuerIndex != null) {
+            issuerIndex.table.remove(serialNumber);
+        }
+    }
+
+    /** @return true if all certificates of the issuer has been loaded from the database */
+    public boolean isLoaded(final String issuerDn) {
+        final IssuerIndex issuerIndex = issuers.get(issuerDn);
+        return issuerIndex != null && issuerIndex.loaded;
+    }
+
+    /**
+     * Marks the issuer as fully loaded.
+     * @param loadStartTime the time when loading from the database started, used as starting point for the next refresh
+     */
+    public void setLoaded(final String issuerDn, final long loadStartTime) {
+        final IssuerIndex issuerIndex = getIssuerIndex(issuerDn);
+        issuerIndex.lastRefresh.set(loadStartTime);
+        issuerIndex.loaded = true;
+    }
+
+    /**
+     * Check if revocations made by other nodes needs to be fetched for an issuer. Only one caller will be told to refresh
+     * in each refresh interval, the rest will continue to use the index as is.
+     *
+     * @param now the current time
+     * @return the update time after which certificates should be fetched from the database, or -1 if no refresh is needed
+     */
+    public long getRefreshStartTime(final String issuerDn, final long now) {
+        final IssuerIndex issuerIndex = issuers.get(issuerDn);
+        if (issuerIndex == null || !issuerIndex.loaded) {
+            return -1;
+        }
+        final long lastRefresh = issuerIndex.lastRefresh.get();
+        if (lastRefresh + OcspConfiguration.getStatusIndexRefreshTimeMs() > now || !issuerIndex.lastRefresh.compareAndSet(lastRefresh, now)) {
+            return -1;
+        }
+        return lastRefresh - REFRESH_OVERLAP_MS;
+    }
+
+    /**
+     * Restores the time of the last refresh, so that the next caller of {@link #getRefreshStartTime(String, long)} will retry the refresh.
+     * @param refreshStartTime the value returned by getRefreshStartTime
+     */
+    public void refreshFailed(final String issuerDn, final long refreshStartTime) {
+        final IssuerIndex issuerIndex = issuers.get(issuerDn);
+        if (issuerIndex != null) {
+            issuerIndex.lastRefresh.set(refreshStartTime + REFRESH_OVERLAP_MS);
+        }
+    }
+
+    /** @return the number of certificates in the index for the issuer */
+    public int size(final String issuerDn) {
+        final IssuerIndex issuerIndex = issuers.get(issuerDn);
+        return issuerIndex == null ? 0 : issuerIndex.table.size();
+    }
+
+    /** Clear the index. */
+    public void flush() {
+        issuers.clear();
+    }
+}
@@ -0,0 +1,32 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.exception;
+
+/**
+ * Thrown when an OCSP response can not be signed right now, because the queue of responses waiting to be signed
+ * with the same key is full. The client should be told to try later.
+ * 
+ * @version $Id$
+ */
+public class OcspSigningBusyException extends OcspFailureException {
+
+    private static final long serialVersionUID = -6262378196585367407L;
+
+    public OcspSigningBusyException(String msg) {
+        super(msg);
+    }
+
+    public OcspSigningBusyException(String msg, Throwable t) {
+        super(msg, t);
+    }
+}
@@ -95,6 +95,20 @@ public final class CesecoreConfiguration {
         return ConfigurationHolder.getString("ca.rngalgorithm");
     }
 
+    /**
+     * @return the number of independently seeded random number generators that serial numbers are generated with, or the number of available
+     * processors if ca.rngshards is set to 0. Default 1.
+     */
+    public static int getCaSerialNumberRngShards() {
+        final int shards = (int) Math.max(0, getLongValue("ca.rngshards", 1L, "random number generators"));
+        return shards == 0 ? Runtime.getRuntime().availableProcessors() : shards;
+    }
+
+    /** @return the number of serial numbers to fetch from a random number generator at a time. Default 1. */
+    public static int getCaSerialNumberRngPrefetch() {
+        return (int) Math.max(1, getLongValue("ca.rngprefetch", 1L, "serial numbers"));
+    }
+
     /**
      * The date and time from which an expire date of a certificate is to be considered to be too far in the future.
      */
@@ -195,6 +209,14 @@ public final class CesecoreConfiguration {
         return getLongValue("internalkeybinding.cachetime", 10000L, "milliseconds");
     }
 
+    /**
+     * Parameter to specify how long the CRL Store may serve a cached CRL before checking the database for a newer one. CRLs stored
+     * on the same node are picked up at once.
+     */
+    public static long getCacheTimeCrlStore() {
+        return getLongValue("crlstore.cachetime", 10000L, "milliseconds to cache CRLs in the CRL Store");
+    }
+
     /** Parameter to specify if retrieving Certificate profiles in StoreSession should be cached, and in that case for how long. */
     public static long getCacheCertificateProfileTime() {
         return getLongValue("certprofiles.cachetime", 1000L, "milliseconds to cache Certificate profiles");
@@ -221,11 +243,27 @@ public final class CesecoreConfiguration {
         return getLongValue("validator.cachetime", 30000L, "milliseconds to cache validators");
     }
 
+    /**
+     * Parameter to specify how long certificates that sign CMP messages are cached after they have been verified, or 0 or less to
+     * verify them for each message.
+     */
+    public static long getCacheCmpSignerTime() {
+        return getLongValue("cmpsigner.cachetime", 10000L, "milliseconds to cache verified CMP signer certificates");
+    }
+
     /** Parameter to specify if retrieving Authorization Access Rules (in AuthorizationSession) should be cached, and in that case for how long. */
     public static long getCacheAuthorizationTime() {
         return getLongValue("authorization.cachetime", 30000L, "milliseconds to cache authorization");
     }
 
+    /**
+     * @return the maximum number of concurrent tasks on the managed executor that load the access rules again for recently used authentication tokens when the
+     * authorization cache is refreshed, or 0 to load them in the thread that refreshes the cache. Default 4.
+     */
+    public static int getAuthorizationRefreshThreads() {
+        return (int) Math.max(0, getLongValue("authorization.refresh.threads", 4L, "number of threads"));
+    }
+
     /**
      * Parameter to specify if retrieving GlobalConfiguration (in GlobalConfigurationSessionBean) should be cached, and in that case for how long.
      */
@@ -400,6 +438,46 @@ public final class CesecoreConfiguration {
         return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("database.crlgenfetchordered"));
     }
 
+    /**
+     * Whether the revoked certificates should be read in batches that start after the primary key of the last row of the previous
+     * batch, instead of skipping the rows already read with an offset.
+     */
+    public static boolean getDatabaseRevokedCertInfoFetchKeyset() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("database.crlgenfetchkeyset"));
+    }
+
+    /**
+     * @return the number of revoked certificates above which the revoked certificates read when creating CRLs are stored in
+     * a memory mapped temporary file instead of on the heap, or 0 if they should always be stored on the heap.
+     */
+    public static long getDatabaseRevokedCertInfoMappedThreshold() {
+        return getLongValue("database.crlgenmappedthreshold", 0L, "entries");
+    }
+
+    /**
+     * @return the length of the periods, in milliseconds, in which base CRLs are created incrementally from the previous base CRL.
+     * The first base CRL in each period is created from all revoked certificates in the database. 0 if all base CRLs should be
+     * created from the database.
+     */
+    public static long getDatabaseIncrementalCrlRebuildTime() {
+        return getLongValue("database.crlgenincrementalrebuildtime", 0L, "milliseconds");
+    }
+
+    /** @return true if exact certificate searches should be narrowed down using the in-memory certificate search index */
+    public static boolean isCertificateSearchIndexEnabled() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("database.certsearchindex.enabled"));
+    }
+
+    /** @return the maximum number of entries in the certificate search index, before it is disabled to protect the heap */
+    public static long getCertificateSearchIndexMaxEntries() {
+        return getLongValue("database.certsearchindex.maxentries", 10000000L, "entries");
+    }
+
+    /** @return how often, in milliseconds, certificates stored by other nodes are added to the certificate search index */
+    public static long getCertificateSearchIndexRefreshTime() {
+        return getLongValue("database.certsearchindex.refreshtime", 10000L, "milliseconds");
+    }
+
     /**
      * Used just in {@link #getForbiddenCharacters()}. The method is called very
      * often so we declare this String in the class so it does not have to be
@@ -430,6 +508,31 @@ public final class CesecoreConfiguration {
         return value==null || Boolean.parseBoolean(value.trim());
     }
 
+    /** @return the number of PKCS#11 NG sessions per slot that are kept open while logged in. Default 0. */
+    public static int getPkcs11NgSessionPoolMinSessions() {
+        return (int) Math.max(0, getLongValue("pkcs11ng.sessionpool.minsessions", 0L, "number of sessions"));
+    }
+
+    /** @return the maximum number of PKCS#11 NG sessions per slot in use at the same time, or 0 for no limit. Default 0. */
+    public static int getPkcs11NgSessionPoolMaxSessions() {
+        return (int) Math.max(0, getLongValue("pkcs11ng.sessionpool.maxsessions", 0L, "number of sessions"));
+    }
+
+    /** @return true if a thread should reuse the PKCS#11 NG session it used last, when possible. Default false. */
+    public static boolean isPkcs11NgSessionPoolThreadAffinity() {
+        return Boolean.parseBoolean(ConfigurationHolder.getString("pkcs11ng.sessionpool.threadaffinity"));
+    }
+
+    /** @return milliseconds to wait for a PKCS#11 NG session when the maximum number of sessions are in use. Default 10000. */
+    public static long getPkcs11NgSessionPoolAcquireTimeout() {
+        return getLongValue("pkcs11ng.sessionpool.acquiretimeout", 10000L, "milliseconds");
+    }
+
+    /** @return seconds between checks of the idle PKCS#11 NG sessions, or 0 to disable the check. Default 60. */
+    public static long getPkcs11NgSessionPoolHealthCheckInterval() {
+        return getLongValue("pkcs11ng.sessionpool.healthcheckinterval", 60L, "seconds");
+    }
+
     /** @return true key store content of Crypto Tokens should be cached. */
     public static boolean isKeyStoreCacheEnabled() {
         return Boolean.parseBoolean(ConfigurationHolder.getString("cryptotoken.keystorecache"));
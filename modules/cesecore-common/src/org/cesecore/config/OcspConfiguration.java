@@ -60,6 +60,16 @@ public class OcspConfiguration {
     public static final String REVOKED_MAX_AGE = "ocsp.revoked.maxAge";
     public static final String INCLUDE_SIGNING_CERT = "ocsp.includesignercert";
     public static final String INCLUDE_CERT_CHAIN = "ocsp.includecertchain";
+    public static final String STATUS_INDEX_ENABLED = "ocsp.statusindex.enabled";
+    public static final String STATUS_INDEX_REFRESH_TIME = "ocsp.statusindex.refreshtime";
+    public static final String SIGNING_THREADS = "ocsp.signing.threads";
+    public static final String SIGNING_QUEUE_SIZE = "ocsp.signing.queuesize";
+    public static final String SIGNING_TIMEOUT = "ocsp.signing.timeout";
+    public static final String PREPRODUCTION_THREADS = "ocsp.preproduction.threads";
+    public static final String PREPRODUCTION_CHUNK_SIZE = "ocsp.preproduction.chunksize";
+    public static final String RESPONSE_CACHE_ENABLED = "ocsp.responsecache.enabled";
+    public static final String RESPONSE_CACHE_MAX_AGE_FRACTION = "ocsp.responsecache.maxagefraction";
+    public static final String RESPONSE_CACHE_MAX_SIZE = "ocsp.responsecache.maxsize";
     
     @Deprecated //Remove this value once upgrading to 6.7.0 has been dropped
     public static final String RESPONDER_ID_TYPE = "ocsp.responderidtype";
@@ -661,4 +671,114 @@ public class OcspConfiguration {
         return 1000 * (long) timeInSeconds;
     }
 
+    /**
+     * @return true if the in-memory revocation status index should be used to answer status lookups for the OCSP responder
+     */
+    public static boolean isStatusIndexEnabled() {
+        String value = ConfigurationHolder.getString(STATUS_INDEX_ENABLED);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return how often the revocation status index should be synchronized with revocations made by other nodes, in milliseconds. Default 10 seconds.
+     */
+    public static long getStatusIndexRefreshTimeMs() {
+        long timeInMs;
+        final long defaultTimeInMs = 10000L;
+        try {
+            timeInMs = Long.parseLong(ConfigurationHolder.getString(STATUS_INDEX_REFRESH_TIME));
+        } catch (NumberFormatException e) {
+            timeInMs = defaultTimeInMs;
+            log.warn(STATUS_INDEX_REFRESH_TIME + " is not a decimal long. Using default " + defaultTimeInMs + " ms.");
+        }
+        return timeInMs;
+    }
+
+    /**
+     * @return the number of threads that may sign OCSP responses with the same key at the same time. Should match the number
+     * of sessions the HSM can use in parallel. Default 8.
+     */
+    public static int getSigningThreads() {
+        return getPositiveInt(SIGNING_THREADS, 8);
+    }
+
+    /**
+     * @return the number of OCSP responses that may wait for signing with the same key before requests are answered with tryLater. Default 64.
+     */
+    public static int getSigningQueueSize() {
+        return getPositiveInt(SIGNING_QUEUE_SIZE, 64);
+    }
+
+    /**
+     * @return the time to wait for an OCSP response to be signed, including time in the queue, in milliseconds. Default 30 seconds.
+     */
+    public static long getSigningTimeoutMs() {
+        return 1000L * getPositiveInt(SIGNING_TIMEOUT, 30);
+    }
+
+    /**
+     * @return the number of worker threads used when pre-producing OCSP responses in bulk. Default 4.
+     */
+    public static int getPreProductionThreads() {
+        return getPositiveInt(PREPRODUCTION_THREADS, 4);
+    }
+
+    /**
+     * @return the number of OCSP responses each worker produces and stores in one transaction, when pre-producing in bulk. Default 100.
+     */
+    public static int getPreProductionChunkSize() {
+        return getPositiveInt(PREPRODUCTION_CHUNK_SIZE, 100);
+    }
+
+    /**
+     * @return true if signed OCSP responses to requests without extensions should be cached in memory
+     */
+    public static boolean isResponseCacheEnabled() {
+        String value = ConfigurationHolder.getString(RESPONSE_CACHE_ENABLED);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return the part of the max-age of an OCSP response that it may be served from the response cache, between 0 and 1. Default 0.5.
+     */
+    public static double getResponseCacheMaxAgeFraction() {
+        final double defaultValue = 0.5;
+        final String value = ConfigurationHolder.getString(RESPONSE_CACHE_MAX_AGE_FRACTION);
+        if (value != null) {
+            try {
+                final double ret = Double.parseDouble(value.trim());
+                if (ret > 0 && ret <= 1) {
+                    return ret;
+                }
+            } catch (NumberFormatException e) {
+                // Warning logged below
+            }
+            log.warn(RESPONSE_CACHE_MAX_AGE_FRACTION + " is not a decimal number between 0 and 1. Using default " + defaultValue + ".");
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return the maximum total size of the cached OCSP responses, in bytes. Default 64 MiB.
+     */
+    public static int getResponseCacheMaxSize() {
+        return getPositiveInt(RESPONSE_CACHE_MAX_SIZE, 64 * 1024 * 1024);
+    }
+
+    private static int getPositiveInt(final String key, final int defaultValue) {
+        final String value = ConfigurationHolder.getString(key);
+        if (value != null) {
+            try {
+                final int ret = Integer.parseInt(value.trim());
+                if (ret > 0) {
+                    return ret;
+                }
+            } catch (NumberFormatException e) {
+                // Warning logged below
+            }
+            log.warn(key + " is not a positive decimal integer. Using default " + defaultValue + ".");
+        }
+        return defaultValue;
+    }
+
 }
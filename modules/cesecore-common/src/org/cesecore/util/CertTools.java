@@ -191,6 +191,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -290,6 +291,13 @@ public abstract class CertTools {
     
     private static final Pattern UNESCAPE_FIELD_REGEX = Pattern.compile("\\\\([,+\"\\\\<>; ])");
 
+    /** Maximum number of DNs in {@link #bcDnStringCache}. The cache is cleared when it is full, since the same few DNs are normally used. */
+    static final int BCDNSTRING_CACHE_MAX_ENTRIES = 10000;
+    /** Longer DNs are not cached, to bound the memory used by the cache */
+    private static final int BCDNSTRING_CACHE_MAX_DN_LENGTH = 1024;
+    /** Result of {@link #stringToBCDNString(String)} by input DN, since it is called with the same issuer and subject DNs over and over */
+    private static final ConcurrentHashMap<String, String> bcDnStringCache = new ConcurrentHashMap<>();
+
     public static final String BEGIN_CERTIFICATE_REQUEST = "-----BEGIN CERTIFICATE REQUEST-----";
     public static final String END_CERTIFICATE_REQUEST = "-----END CERTIFICATE REQUEST-----";
     public static final String BEGIN_KEYTOOL_CERTIFICATE_REQUEST = "-----BEGIN NEW CERTIFICATE REQUEST-----";
@@ -515,12 +523,32 @@ public abstract class CertTools {
 
     /**
      * Every DN-string should look the same. Creates a name string ordered and looking like we want it...
+     * <p>
+     * The result is cached by the exact input string, so repeated calls with the same DN do not parse it again.
      * 
      * @param dn String containing DN
      * 
      * @return String containing DN, or empty string if dn does not contain any real DN components, or null if input is null
      */
-    public static String stringToBCDNString(String dn) {
+    public static String stringToBCDNString(final String dn) {
+        if (dn == null) {
+            return null;
+        }
+        String ret = bcDnStringCache.get(dn);
+        if (ret == null) {
+            ret = stringToBCDNStringUncached(dn);
+            if (ret != null && dn.length() <= BCDNSTRING_CACHE_MAX_DN_LENGTH) {
+                if (bcDnStringCache.size() >= BCDNSTRING_CACHE_MAX_ENTRIES) {
+                    bcDnStringCache.clear();
+                }
+                bcDnStringCache.put(dn, ret);
+            }
+        }
+        return ret;
+    }
+
+    /** Same as {@link #stringToBCDNString(String)}, but always parses the DN. */
+    static String stringToBCDNStringUncached(String dn) {
         // BC now seem to handle multi-valued RDNs, but we keep escaping this for now to keep the behavior until support is required
         //dn = handleUnescapedPlus(dn); // Log warning if dn contains unescaped '+'
         if (isDNReversed(dn)) {
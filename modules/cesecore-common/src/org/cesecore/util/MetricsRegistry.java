@@ -0,0 +1,189 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registry of the metrics of pools, queues and other components that are not EJB methods, so that they can be served by the
+ * metrics servlet in the Prometheus text format.
+ * <p>
+ * A component registers a {@link Source} under a unique name when it is created. Each time the metrics are read, every source
+ * adds its current values to a {@link Collector}. Samples with the same metric name from different sources are written as one
+ * metric, so several instances of a component can report under the same names with different labels.
+ *
+ * @version $Id$
+ */
+public enum MetricsRegistry {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(MetricsRegistry.class);
+
+    /** A component that reports metrics */
+    public interface Source {
+        /**
+         * Adds the current values of the metrics of the component. Called each time the metrics are read, so it must be cheap.
+         * @param collector where to add the values
+         */
+        void collect(Collector collector);
+    }
+
+    /** Collects samples, grouped by metric name, and writes them in the Prometheus text format. */
+    public static class Collector {
+
+        private static class Family {
+            private final String type;
+            private final String help;
+            private final List<String> samples = new ArrayList<>();
+
+            private Family(final String type, final String help) {
+                this.type = type;
+                this.help = help;
+            }
+        }
+
+        private final Map<String, Family> families = new LinkedHashMap<>();
+
+        /**
+         * Adds a value that can go up and down, like the size of a queue.
+         *
+         * @param name the metric name, e.g. "ejbca_ocsp_signing_queue_depth"
+         * @param help a description of the metric
+         * @param value the current value
+         * @param labels label names and values, in pairs
+         */
+        public void gauge(final String name, final String help, final double value, final String... labels) {
+            add("gauge", name, name, help, value, labels);
+        }
+
+        /**
+         * Adds a value that only increases, except when the component is restarted, like the number of signed responses.
+         *
+         * @param name the metric name, which should end with "_total"
+         * @param help a description of the metric
+         * @param value the current value
+         * @param labels label names and values, in pairs
+         */
+        public void counter(final String name, final String help, final double value, final String... labels) {
+            add("counter", name, name, help, value, labels);
+        }
+
+        /**
+         * Adds one sample of a metric with several samples per label set, like the buckets of a histogram.
+         *
+         * @param type the Prometheus type of the metric, e.g. "histogram"
+         * @param familyName the name of the metric, e.g. "ejbca_ejb_invocation_seconds"
+         * @param sampleName the name of the sample, e.g. "ejbca_ejb_invocation_seconds_bucket"
+         * @param help a description of the metric
+         * @param value the current value
+         * @param labels label names and values, in pairs
+         */
+        public void sample(final String type, final String familyName, final String sampleName, final String help, final double value,
+                final String... labels) {
+            add(type, familyName, sampleName, help, value, labels);
+        }
+
+        private void add(final String type, final String familyName, final String sampleName, final String help, final double value,
+                final String... labels) {
+            if (labels.length % 2 != 0) {
+                throw new IllegalArgumentException("Labels must be given as name and value pairs.");
+            }
+            final StringBuilder sb = new StringBuilder(sampleName);
+            if (labels.length > 0) {
+                sb.append('{');
+                for (int i = 0; i < labels.length; i += 2) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+                }
+                sb.append('}');
+            }
+            sb.append(' ').append(formatValue(value));
+            families.computeIfAbsent(familyName, n -> new Family(type, help)).samples.add(sb.toString());
+        }
+
+        /**
+         * Writes the collected metrics in the Prometheus text format.
+         * @param out where to write the metrics
+         * @throws IOException if writing fails
+         */
+        public void write(final Writer out) throws IOException {
+            for (final Map.Entry<String, Family> entry : families.entrySet()) {
+                final Family family = entry.getValue();
+                out.write("# HELP " + entry.getKey() + " " + family.help + "\n");
+                out.write("# TYPE " + entry.getKey() + " " + family.type + "\n");
+                for (final String sample : family.samples) {
+                    out.write(sample);
+                    out.write('\n');
+                }
+            }
+        }
+
+        private static String escapeLabelValue(final String value) {
+            if (value == null) {
+                return "";
+            }
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+
+        private static String formatValue(final double value) {
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            if (Double.isInfinite(value)) {
+                return value > 0 ? "+Inf" : "-Inf";
+            }
+            return String.format(Locale.ROOT, "%.6f", value);
+        }
+    }
+
+    private final Map<String, Source> sources = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registers a source of metrics, replacing any source with the same name.
+     * @param name a unique name of the source, e.g. the class name of the component
+     * @param source the source
+     */
+    public void register(final String name, final Source source) {
+        sources.put(name, source);
+    }
+
+    /** @param name the name the source was registered with */
+    public void unregister(final String name) {
+        sources.remove(name);
+    }
+
+    /**
+     * Adds the current values of all registered sources. A source that fails is logged and left out.
+     * @param collector where to add the values
+     */
+    public void collect(final Collector collector) {
+        for (final Map.Entry<String, Source> entry : sources.entrySet()) {
+            try {
+                entry.getValue().collect(collector);
+            } catch (RuntimeException e) {
+                log.warn("Failed to read metrics of '" + entry.getKey() + "': " + e.getMessage());
+            }
+        }
+    }
+}
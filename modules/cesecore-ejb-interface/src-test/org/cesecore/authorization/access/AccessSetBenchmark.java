@@ -0,0 +1,87 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization.access;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of AccessSet authorization checks with set lookups of each parent resource.
+ * <p>
+ * Only logs the result, since timing depends on the environment. The name does not end with UnitTest, so it is not part of
+ * the default unit test run. Run it with: ant runone -Dtest.runone=AccessSetBenchmark -Dtest.showoutput=true
+ *
+ * @version $Id$
+ */
+public final class AccessSetBenchmark {
+
+    private static final Logger log = Logger.getLogger(AccessSetBenchmark.class);
+
+    /**
+     * Uses access sets of the size of a typical RA administrator, and of an administrator with access to many CAs and profiles.
+     */
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testThroughputComparedToSetLookup() {
+        for (final int ids : new int[] { 20, 2000 }) {
+            final Set<String> rules = new HashSet<>();
+            final List<String> resources = new ArrayList<>();
+            for (int i = 0; i < ids; i++) {
+                final int id = 1000000 + i * 7919;
+                rules.add("/ca/" + id);
+                rules.add("/endentityprofilesrules/" + id + "/view_end_entity");
+                rules.add("/endentityprofilesrules/" + id + "/create_end_entity");
+                rules.add("/cryptotoken/use/" + id);
+                rules.add("/internalkeybinding/view/" + id + "/" + AccessSet.WILDCARD_RECURSIVE);
+                resources.add("/ca/" + id);
+                resources.add("/endentityprofilesrules/" + id + "/view_end_entity");
+                resources.add("/endentityprofilesrules/" + id + "/revoke_end_entity");
+                resources.add("/internalkeybinding/view/" + id + "/sub/resource");
+                resources.add("/cryptotoken/use/" + (id + 1));
+            }
+            rules.add("/ra_functionality/view_end_entity");
+            rules.add("/administrator");
+            resources.add("/ra_functionality/view_end_entity");
+            final AccessSet accessSet = new AccessSet(rules);
+            final int rounds = 20;
+            long setLookup = Long.MAX_VALUE, matcher = Long.MAX_VALUE;
+            int granted = 0;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                for (final String resource : resources) {
+                    if (AccessSetUnitTest.isAuthorizedBySetLookup(rules, resource)) {
+                        granted++;
+                    }
+                }
+                setLookup = Math.min(setLookup, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (final String resource : resources) {
+                    if (accessSet.isAuthorized(resource)) {
+                        granted--;
+                    }
+                }
+                matcher = Math.min(matcher, System.nanoTime() - start);
+            }
+            assertEquals("Both should grant access to the same resources.", 0, granted);
+            log.info("Authorization checks per second with " + rules.size() + " rules. Set lookup: " + resources.size() * 1000000000L / Math.max(1, setLookup)
+                    + ", AccessSet: " + resources.size() * 1000000000L / Math.max(1, matcher) + ".");
+        }
+    }
+}
@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.cesecore.authorization.access;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -21,6 +22,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -149,6 +151,51 @@ public final class AccessSetUnitTest {
         log.trace("<testConvertAndMerge");
     }
 
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testSameResultAsSetLookup() {
+        log.trace(">testSameResultAsSetLookup");
+        final Set<String> rules = new HashSet<>(Arrays.asList("/", "/" + AccessSet.WILDCARD_RECURSIVE, "/a", "/a/b", "/a/b/" + AccessSet.WILDCARD_RECURSIVE,
+                "/a//c", "/x/" + AccessSet.WILDCARD_RECURSIVE, "/x/y/z", "/ab", "/a/bc/d", "/a/b/c/" + AccessSet.WILDCARD_RECURSIVE));
+        final String[] resources = { "/", "/a", "/b", "/a/b", "/a/b/c", "/a/b/c/d", "/a//c", "/a//d", "/ab", "/abc", "/a/bc", "/a/bc/d", "/x",
+                "/x/y", "/x/y/z/w", "/a/b/" + AccessSet.WILDCARD_RECURSIVE, "/a/" + AccessSet.WILDCARD_RECURSIVE };
+        for (int i = 0; i < 1 << rules.size(); i += 7) {
+            // Check different subsets of the rules
+            final Set<String> subset = new HashSet<>();
+            int bit = 0;
+            for (final String rule : rules) {
+                if ((i & (1 << bit++)) != 0) {
+                    subset.add(rule);
+                }
+            }
+            final AccessSet accessSet = new AccessSet(subset);
+            for (final String resource : resources) {
+                assertEquals("Resource " + resource + " with rules " + subset, isAuthorizedBySetLookup(subset, resource), accessSet.isAuthorized(resource));
+            }
+        }
+        log.trace("<testSameResultAsSetLookup");
+    }
+
+    /**
+     * The authorization check of AccessSet before the rules were compiled, with a set lookup of the resource and each parent.
+     * Also used by {@link AccessSetBenchmark}.
+     */
+    @SuppressWarnings("deprecation")
+    static boolean isAuthorizedBySetLookup(final Set<String> set, final String resource) {
+        if (set.contains(resource)) {
+            return true;
+        }
+        String parentResource = resource;
+        int slash;
+        while ((slash = parentResource.lastIndexOf('/')) != -1) {
+            parentResource = parentResource.substring(0, slash);
+            if (set.contains(parentResource + "/" + AccessSet.WILDCARD_RECURSIVE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /** Creates an AccessSet with the legacy representation of access rules  */
     @SuppressWarnings("deprecation")
     private AccessSet makeLegacyAccessSet(final String... resources) {
@@ -201,11 +201,70 @@ public class AuditDevicesConfig {
         return getInt(properties, "validate.fetchsize", 1000);
     }
 
+    /** Parameter to specify the number of threads that verify the logs in parallel. */
+    public static int getAuditLogValidationThreads(final Properties properties) {
+        return Math.max(1, getInt(properties, "validate.threads", 4));
+    }
+
+    /** Parameter to specify the number of sequence numbers of a node that are verified by one thread at the time. */
+    public static int getAuditLogValidationRangeSize(final Properties properties) {
+        return Math.max(1, getInt(properties, "validate.rangesize", 1000000));
+    }
+
+    /**
+     * Parameter to specify the maximum number of warnings and errors of a verification that are kept in memory. At least one is kept,
+     * since a verification with errors is told apart from a successful one by its list of errors.
+     */
+    public static int getAuditLogValidationMaxReportElements(final Properties properties) {
+        return Math.max(1, getInt(properties, "validate.maxreportelements", 10000));
+    }
+
+    /** @return the directory where progress of a verification is saved so an interrupted verification can be resumed, or null. */
+    public static File getAuditLogValidationCheckpointDir(final Properties properties) {
+        final String dir = properties.getProperty("validate.checkpointdir");
+        return dir == null ? null : new File(dir);
+    }
+
+    /** @return the file where the warnings and errors of a verification up to the given date are written, or null if not configured. */
+    public static File getAuditLogValidationReportFile(final Properties properties, final Date validationDate) {
+        final String dir = properties.getProperty("validate.reportdir");
+        if (dir == null) {
+            return null;
+        }
+        return new File(dir, "cesecore-validation-" + FastDateFormat.getInstance(EXPORTFILE_DATE_FORMAT, ValidityDate.TIMEZONE_UTC).format(validationDate) + ".log");
+    }
+
     /** Parameter to specify the number of logs to be fetched in each export round trip. */
     public static int getAuditLogExportFetchSize(final Properties properties) {
         return getInt(properties, "export.fetchsize", 1000);
     }
 
+    /** Parameter to specify if audit records should be written to the database in batches by a background thread. */
+    public static boolean isGroupCommitEnabled(final Properties properties) {
+        return Boolean.parseBoolean(properties.getProperty("groupcommit.enabled", "false").trim());
+    }
+
+    /** Parameter to specify the maximum number of audit records waiting to be written to the database with group commit. */
+    public static int getGroupCommitBufferSize(final Properties properties) {
+        return Math.max(1, getInt(properties, "groupcommit.buffersize", 10000));
+    }
+
+    /** Parameter to specify the maximum number of audit records written in each transaction with group commit. */
+    public static int getGroupCommitBatchSize(final Properties properties) {
+        return Math.max(1, getInt(properties, "groupcommit.batchsize", 500));
+    }
+
+    /** Parameter to specify how long in milliseconds to wait for more audit records before a batch is written with group commit. */
+    public static int getGroupCommitMaxDelay(final Properties properties) {
+        return Math.max(1, getInt(properties, "groupcommit.maxdelay", 50));
+    }
+
+    /** @return the directory of the write-ahead log used with group commit. */
+    public static File getGroupCommitDirectory(final Properties properties) {
+        final String defaultDirectory = System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir"));
+        return new File(properties.getProperty("groupcommit.dir", new File(defaultDirectory, "auditlog").getPath()));
+    }
+
     private static int getInt(final Properties properties, final String key, final int defaultValue) {
         int ret = defaultValue;
         try {
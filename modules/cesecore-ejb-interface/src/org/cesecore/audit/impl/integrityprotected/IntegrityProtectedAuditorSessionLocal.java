@@ -18,6 +18,7 @@ import java.util.Properties;
 import javax.ejb.Local;
 
 import org.cesecore.audit.Auditable;
+import org.cesecore.audit.audit.AuditLogValidationReport;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 
@@ -39,4 +40,15 @@ public interface IntegrityProtectedAuditorSessionLocal extends Auditable {
 	 * @throws AuthorizationDeniedException unless token has StandardRules.AUDITLOGEXPORT rights
 	 */
 	int deleteRows(AuthenticationToken token, Date timestamp, Properties properties) throws AuthorizationDeniedException;
+
+	/**
+	 * Verify the integrity of the log entries of a node with sequence numbers in the given range. Used to verify ranges in parallel.
+	 * @param nodeId identifier of the node that wrote the log entries
+	 * @param firstSequenceNumber the lowest sequence number of the range
+	 * @param lastSequenceNumber the highest sequence number of the range
+	 * @param timestamp verify log entries up until this time
+	 * @param fetchSize number of log entries to read from the database at the time
+	 * @return a report with the missing and unverifiable log entries in the range
+	 */
+	AuditLogValidationReport verifyLogsIntegrityRange(String nodeId, long firstSequenceNumber, long lastSequenceNumber, Date timestamp, int fetchSize);
 }
@@ -12,6 +12,8 @@
  *************************************************************************/
 package org.cesecore.audit.impl.integrityprotected;
 
+import java.util.List;
+
 import javax.ejb.Local;
 
 import org.cesecore.audit.AuditLogger;
@@ -21,4 +23,12 @@ import org.cesecore.audit.AuditLogger;
  */
 @Local
 public interface IntegrityProtectedLoggerSessionLocal extends AuditLogger {
+
+    /**
+     * Writes audit records that have already been assigned sequence numbers in a single transaction. Used with group commit.
+     *
+     * @param auditRecords the records to write
+     * @param skipExisting true to skip records with a sequence number that already exists in the database for the node
+     */
+    void persistAuditRecords(List<AuditRecordData> auditRecords, boolean skipExisting);
 }
@@ -94,6 +94,65 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
     
     /** @return return the query results as a Collection<RevokedCertInfo>. */
     Collection<RevokedCertInfo> getRevokedCertInfos(String issuerDN, boolean deltaCrl, int crlPartitionIndex, long lastBaseCrlDate);
+
+    /**
+     * Fetches the revoked certificates of an issuer that expired before a given date, and have not been archived.
+     *
+     * @param issuerDN of the issuing CA, normalized as in CertificateData
+     * @param crlPartitionIndex the CRL partition, or 0 for the main CRL
+     * @param expiredBefore find certificates with an expire date before this time
+     * @return the query results as a Collection<RevokedCertInfo>.
+     */
+    Collection<RevokedCertInfo> getExpiredRevokedCertInfos(String issuerDN, int crlPartitionIndex, long expiredBefore);
+
+    /**
+     * Fetches the revoked certificates of an issuer that have been archived since a given time.
+     *
+     * @param issuerDN of the issuing CA, normalized as in CertificateData
+     * @param crlPartitionIndex the CRL partition, or 0 for the main CRL
+     * @param archivedSince find certificates with an update time at or after this time
+     * @return the query results as a Collection<RevokedCertInfo>.
+     */
+    Collection<RevokedCertInfo> getArchivedRevokedCertInfos(String issuerDN, int crlPartitionIndex, long archivedSince);
+
+    /**
+     * Fetches the status columns of the certificates of an issuer, ordered by fingerprint.
+     *
+     * @param issuerDN the issuer DN
+     * @param afterFingerprint only return certificates with a fingerprint after this one, or null to start from the beginning
+     * @param maxResults the maximum number of rows to return
+     * @return list of {fingerprint, serialNumber, status, revocationDate, revocationReason, expireDate, certificateProfileId}
+     */
+    List<Object[]> findStatusByIssuerDN(String issuerDN, String afterFingerprint, int maxResults);
+
+    /**
+     * Fetches the status columns of the certificates of an issuer with any of the given serial numbers, without loading the
+     * certificates or the row protection.
+     *
+     * @param issuerDN the issuer DN
+     * @param serialNumbers serial numbers as decimal strings. Should not be too many for an IN clause, e.g. at most a few hundred.
+     * @return list of {fingerprint, serialNumber, status, revocationDate, revocationReason, expireDate, certificateProfileId}
+     */
+    List<Object[]> findStatusByIssuerDNSerialNumbers(String issuerDN, Collection<String> serialNumbers);
+
+    /**
+     * Fetches the columns used by the certificate search index, ordered by fingerprint.
+     *
+     * @param afterFingerprint only return certificates with a fingerprint after this one, or null to start from the beginning
+     * @param updatedAfter only return certificates with an update time at or after this time (epoch milliseconds), or -1 for all
+     * @param maxResults the maximum number of rows to return
+     * @return list of {fingerprint, subjectDN, subjectAltName, username, serialNumber}
+     */
+    List<Object[]> findSearchIndexEntries(String afterFingerprint, long updatedAfter, int maxResults);
+
+    /**
+     * Fetches the status columns of the certificates of an issuer that have been stored or updated at or after a given time.
+     * The update time is used rather than the revocation date, since a revocation may be backdated, or be published to this
+     * database long after it was made.
+     *
+     * @return list of {fingerprint, serialNumber, status, revocationDate, revocationReason, expireDate, certificateProfileId}
+     */
+    List<Object[]> findStatusByIssuerDNAndUpdateTime(String issuerDN, long updateTime);
     
     /** @return return the query results as a List. */
     List<CertificateData> findByExpireDateWithLimit(long expireDate, int maxNumberOfResults);
@@ -18,6 +18,7 @@ import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
@@ -360,6 +361,16 @@ public interface CertificateStoreSession {
      */
     CertificateStatus getStatus(String issuerDN, BigInteger serno);
 
+    /**
+     * Same as {@link #getStatus(String, BigInteger)} for several certificates of the same issuer, fetched with one database query
+     * per 100 serial numbers.
+     *
+     * @param issuerDN the DN of the issuer
+     * @param sernos the serial numbers of the certificates
+     * @return map from each of the given serial numbers to its status, CertificateStatus.NOT_AVAILABLE if the certificate is not found
+     */
+    Map<BigInteger, CertificateStatus> getStatuses(String issuerDN, Collection<BigInteger> sernos);
+
     /**
      * Performs the same operation as getStatus, but returns a richer object which also contains the certificate, in order to save on database 
      * lookups when both objects are required. Issuer + serial number are always unique. 
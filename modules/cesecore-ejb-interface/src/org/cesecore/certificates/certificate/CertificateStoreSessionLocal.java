@@ -236,6 +236,37 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
     void updateLimitedCertificateDataStatus(final AuthenticationToken admin, final int caId, final String issuerDn, final String subjectDn, final String username, final BigInteger serialNumber,
             final int status, final Date revocationDate, final int reasonCode, final String caFingerprint) throws AuthorizationDeniedException;
     
+    /**
+     * Loads the status of all certificates of an issuer into the OCSP status index, in batches of database.crlgenfetchsize rows.
+     * Statuses already in the index are kept, since they may have been updated while the index was loaded.
+     *
+     * @param issuerDN the issuer DN as stored in CertificateData
+     */
+    void loadOcspStatusIndex(String issuerDN);
+
+    /**
+     * Updates the OCSP status index with certificates of an issuer that have been stored, revoked or unrevoked after the given
+     * time, for example by other nodes in a cluster.
+     *
+     * @param issuerDN the issuer DN as stored in CertificateData
+     * @param updateTime fetch certificates with an update time at or after this time (epoch milliseconds)
+     */
+    void refreshOcspStatusIndex(String issuerDN, long updateTime);
+
+    /**
+     * Loads all certificates into the certificate search index in the background, in batches of database.crlgenfetchsize rows.
+     * Does nothing unless the index is enabled.
+     */
+    void loadCertificateSearchIndex();
+
+    /**
+     * Adds certificates that have been stored or updated after the given time, for example by other nodes in a cluster, to the
+     * certificate search index.
+     *
+     * @param updateTime fetch certificates with an update time at or after this time (epoch milliseconds)
+     */
+    void refreshCertificateSearchIndex(long updateTime);
+
     /** Reloads the cache containing CA certificates */
     void reloadCaCertificateCache();
     
@@ -40,5 +40,15 @@ public interface NoConflictCertificateDataSessionLocal extends NoConflictCertifi
      * may contain duplicate entries, that should be filtered by date and revocation status.
      */
     Collection<RevokedCertInfo> getRevokedCertInfosWithDuplicates(String issuerDN, boolean deltaCrl, int crlPartitionIndex, long lastBaseCrlDate, boolean keepExpiredCertsOnCrl);
+
+    /**
+     * Returns the revoked certificates of an issuer that expired within a given time. The result may contain duplicate entries.
+     *
+     * @param issuerDN of the issuing CA
+     * @param crlPartitionIndex the CRL partition, or 0 for the main CRL
+     * @param expiredAfter find certificates with an expire date at or after this time
+     * @param expiredBefore find certificates with an expire date before this time
+     */
+    Collection<RevokedCertInfo> getExpiredRevokedCertInfos(String issuerDN, int crlPartitionIndex, long expiredAfter, long expiredBefore);
     
 }
@@ -12,12 +12,14 @@
  *************************************************************************/
 package org.cesecore.certificates.certificate;
 
+import java.util.Collection;
 import java.util.Date;
 
 import javax.ejb.Local;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 
 /**
  * Local interface for {@link NoConflictCertificateStoreSession}.
@@ -32,4 +34,23 @@ public interface NoConflictCertificateStoreSessionLocal extends NoConflictCertif
     
     /** @see CertificateStoreSessionLocal#getCertificateData(String) */
     public CertificateDataWrapper getCertificateData(final String fingerprint);
+
+    /**
+     * Lists the expired certificates of an issuer that change a base CRL that is created from the entries of the last base CRL,
+     * so that it has the same entries as a base CRL created from all revoked certificates (see {@link #listRevokedCertInfo}):
+     * <ul>
+     * <li>Certificates in CertificateData that are revoked and expired before the last base CRL, with their revocation reason.
+     * These are put on the base CRL one last time, and are then archived.</li>
+     * <li>Certificates in CertificateData that have been archived since the given time, with reason REMOVEFROMCRL.</li>
+     * <li>Certificates in NoConflictCertificateData that are revoked and expired within the given time and the last base CRL,
+     * with reason REMOVEFROMCRL. These can not be archived, and are left out of base CRLs once expired.</li>
+     * </ul>
+     *
+     * @param issuerDN the issuer DN of the CA
+     * @param crlPartitionIndex the CRL partition, or 0 for the main CRL
+     * @param lastBaseCrlDate the creation time of the last base CRL
+     * @param since the earliest archival or expiry time of the certificates that may be on the last base CRL
+     * @return the expired and archived certificates, possibly with duplicate entries
+     */
+    Collection<RevokedCertInfo> listExpiredRevokedCertInfo(String issuerDN, int crlPartitionIndex, long lastBaseCrlDate, long since);
 }
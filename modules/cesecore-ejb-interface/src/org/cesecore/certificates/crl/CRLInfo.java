@@ -102,4 +102,13 @@ public final class CRLInfo implements Serializable {
     public X509CRL getCrl() {
         return crlData.getCRL();
     }
+
+    /**
+     * Get the DER encoded CRL, without parsing it.
+     * 
+     * @return the encoded CRL.
+     */
+    public byte[] getCRLBytes() {
+        return crlData.getCRLBytes();
+    }
 }
@@ -13,6 +13,7 @@
 package org.cesecore.roles.management;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Local;
 
@@ -29,6 +30,9 @@ public interface RoleDataSessionLocal extends RoleDataSession {
     /** @return all roles */
     List<Role> getAllRoles();
 
+    /** @return the row version of each role by role id, which changes each time the role is modified */
+    Map<Integer, Integer> getRoleVersions();
+
     /** @return a role by its unique id or null if the role does not exist */
     Role getRole(int id);
 
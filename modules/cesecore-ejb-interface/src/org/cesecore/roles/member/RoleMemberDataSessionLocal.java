@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.cesecore.roles.member;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -82,6 +83,9 @@ public interface RoleMemberDataSessionLocal extends RoleMemberDataSession {
      */
     List<RoleMember> findRoleMemberByRoleId(int roleId);
 
+    /** @return the row version of each role member by role member id, which changes each time the role member is modified */
+    Map<Integer, Integer> getRoleMemberVersions();
+
     /** @return all roleId matching the specified valid AuthenticationToken or an empty list otherwise */
     Set<Integer> getRoleIdsMatchingAuthenticationToken(AuthenticationToken authenticationToken);
 
@@ -97,4 +101,16 @@ public interface RoleMemberDataSessionLocal extends RoleMemberDataSession {
 
     /** @return all role members matching the specified valid AuthenticationToken or an empty list otherwise */
     Set<RoleMember> getRoleMembersMatchingAuthenticationToken(AuthenticationToken authenticationToken);
+
+    /**
+     * @return all role members matching the specified valid AuthenticationToken or an empty list otherwise
+     * @throws AuthenticationFailedException if there is problem matching the AuthenticationToken to a RoleMember
+     */
+    Set<RoleMember> getRoleMembersMatchingAuthenticationTokenOrFail(AuthenticationToken authenticationToken) throws AuthenticationFailedException;
+
+    /**
+     * @return true if the AuthenticationToken matches any of the role members, without looking up any role members in the database
+     * @throws AuthenticationFailedException if there is problem matching the AuthenticationToken to a RoleMember
+     */
+    boolean isMatchingAnyRoleMember(AuthenticationToken authenticationToken, Collection<RoleMember> roleMembers) throws AuthenticationFailedException;
 }
@@ -0,0 +1,106 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.cesecore.audit.audit.AuditLogReportElem;
+import org.cesecore.audit.audit.StreamingAuditLogValidationReport;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests of {@link AuditLogVerificationCheckpoint} and {@link StreamingAuditLogValidationReport}.
+ *
+ * @version $Id$
+ */
+public class AuditLogVerificationCheckpointUnitTest {
+
+    private static final long TIMESTAMP = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testResume() throws Exception {
+        final File directory = temporaryFolder.newFolder();
+        try (final AuditLogVerificationCheckpoint checkpoint = new AuditLogVerificationCheckpoint(directory, TIMESTAMP, 1000)) {
+            checkpoint.complete("node1", 0, 999, Collections.<AuditLogReportElem>emptyList());
+            checkpoint.complete("node1", 1000, 1999, Arrays.asList(new AuditLogReportElem(1499L, 1501L, "missing log with sequence number 1500 on nodeId node1")));
+            checkpoint.complete("node2", 0, 999, Collections.<AuditLogReportElem>emptyList());
+        }
+        // A range that was being written when the verification was interrupted
+        final File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        try (final FileOutputStream out = new FileOutputStream(files[0], true)) {
+            out.write("W\t2499\t2501\tmissing log with sequence number 2500 on nodeId node1\nR\tnode1\t20".getBytes(StandardCharsets.UTF_8));
+        }
+        try (final AuditLogVerificationCheckpoint checkpoint = new AuditLogVerificationCheckpoint(directory, TIMESTAMP, 1000)) {
+            assertNotNull(checkpoint.getCompleted("node1", 0, 999));
+            assertTrue(checkpoint.getCompleted("node1", 0, 999).isEmpty());
+            final List<AuditLogReportElem> warnings = checkpoint.getCompleted("node1", 1000, 1999);
+            assertEquals(1, warnings.size());
+            assertEquals(Long.valueOf(1499), warnings.get(0).getFirst());
+            assertEquals(Long.valueOf(1501), warnings.get(0).getSecond());
+            assertEquals("missing log with sequence number 1500 on nodeId node1", warnings.get(0).getReasons().get(0));
+            assertNotNull(checkpoint.getCompleted("node2", 0, 999));
+            assertNull("Partially written range should be verified again.", checkpoint.getCompleted("node1", 2000, 2999));
+            assertNull(checkpoint.getCompleted("node3", 0, 999));
+            checkpoint.complete("node1", 2000, 2999, Collections.<AuditLogReportElem>emptyList());
+        }
+        try (final AuditLogVerificationCheckpoint checkpoint = new AuditLogVerificationCheckpoint(directory, TIMESTAMP, 1000)) {
+            assertTrue("Warnings of the partially written range should not be kept.", checkpoint.getCompleted("node1", 2000, 2999).isEmpty());
+            assertEquals(1, checkpoint.getCompleted("node1", 1000, 1999).size());
+        }
+        // Another time or range size is a different verification
+        try (final AuditLogVerificationCheckpoint checkpoint = new AuditLogVerificationCheckpoint(directory, TIMESTAMP, 500)) {
+            assertNull(checkpoint.getCompleted("node1", 0, 999));
+            checkpoint.delete();
+        }
+        try (final AuditLogVerificationCheckpoint checkpoint = new AuditLogVerificationCheckpoint(directory, TIMESTAMP, 1000)) {
+            checkpoint.delete();
+        }
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testStreamingReport() throws Exception {
+        final File reportFile = new File(temporaryFolder.newFolder(), "report.log");
+        final StreamingAuditLogValidationReport report = new StreamingAuditLogValidationReport(2, reportFile);
+        for (long i = 0; i < 5; i++) {
+            report.warn(new AuditLogReportElem(i, i + 2, "missing log with sequence number " + (i + 1) + " on nodeId node1"));
+        }
+        report.error(new AuditLogReportElem(10L, 11L, "error"));
+        report.close();
+        assertEquals(5, report.getWarningCount());
+        assertEquals(1, report.getErrorCount());
+        assertEquals("Only the first warnings should be kept in memory.", 2, report.warnings().size());
+        assertEquals(1, report.errors().size());
+        assertEquals(reportFile.getCanonicalPath(), report.getReportFile());
+        final String content = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains("missing log with sequence number 5 on nodeId node1"));
+        assertTrue(content.contains("Errors: 1, warnings: 5"));
+    }
+}
@@ -0,0 +1,232 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests of {@link AuditRecordGroupCommitter} and {@link AuditRecordWriteAheadLog}.
+ *
+ * @version $Id$
+ */
+public class AuditRecordGroupCommitterUnitTest {
+
+    private static final String NODE_ID = "node1";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static AuditRecordData auditRecord(final long sequenceNumber) {
+        return new AuditRecordData(NODE_ID, sequenceNumber, 1500000000000L + sequenceNumber, EventTypes.CERT_CREATION, EventStatus.SUCCESS,
+                "CN=Admin", ServiceTypes.CORE, ModuleTypes.CERTIFICATE, "customId", "search" + sequenceNumber, null,
+                Collections.singletonMap("msg", (Object) ("Event " + sequenceNumber)));
+    }
+
+    /** Collects the written records, and can fail the first writes */
+    private static class CollectingWriter implements AuditRecordGroupCommitter.BatchWriter {
+        private final List<AuditRecordData> written = Collections.synchronizedList(new ArrayList<AuditRecordData>());
+        private final AtomicInteger batches = new AtomicInteger();
+        private final AtomicInteger failuresLeft;
+
+        CollectingWriter(final int failures) {
+            this.failuresLeft = new AtomicInteger(failures);
+        }
+
+        @Override
+        public void write(final List<AuditRecordData> auditRecords, final boolean skipExisting) {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            batches.incrementAndGet();
+            written.addAll(auditRecords);
+        }
+    }
+
+    private static void assertGapFree(final int count, final List<AuditRecordData> written) {
+        assertEquals(count, written.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("Records should be written in sequence number order.", Long.valueOf(i), written.get(i).getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void testConcurrentLogging() throws Exception {
+        final File directory = temporaryFolder.newFolder();
+        final CollectingWriter writer = new CollectingWriter(0);
+        final AuditRecordGroupCommitter committer = new AuditRecordGroupCommitter(directory, NODE_ID, 100, 50, 10, 4096, writer);
+        final AtomicLong sequence = new AtomicLong(-1);
+        final LongSupplier sequenceNumbers = sequence::incrementAndGet;
+        final int threads = 8;
+        final int perThread = 500;
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < perThread; j++) {
+                        committer.log(sequenceNumbers, AuditRecordGroupCommitterUnitTest::auditRecord);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        committer.shutdown();
+        assertGapFree(threads * perThread, writer.written);
+        assertTrue("Records should be written in batches.", writer.batches.get() < threads * perThread);
+        assertEquals("The write-ahead log should be empty when everything is written.", 0, directory.list().length);
+    }
+
+    @Test
+    public void testRetryFailedBatch() throws Exception {
+        final File directory = temporaryFolder.newFolder();
+        final CollectingWriter writer = new CollectingWriter(1);
+        final AuditRecordGroupCommitter committer = new AuditRecordGroupCommitter(directory, NODE_ID, 100, 50, 10, 4096, writer);
+        final AtomicLong sequence = new AtomicLong(-1);
+        for (int i = 0; i < 20; i++) {
+            committer.log(sequence::incrementAndGet, AuditRecordGroupCommitterUnitTest::auditRecord);
+        }
+        committer.shutdown();
+        assertGapFree(20, writer.written);
+    }
+
+    @Test
+    public void testRetrySkipsRecordsThatWereWritten() throws Exception {
+        final File directory = temporaryFolder.newFolder();
+        // A database where the first transaction is committed, but the commit fails from the point of view of the caller
+        final List<AuditRecordData> written = Collections.synchronizedList(new ArrayList<AuditRecordData>());
+        final List<Boolean> skipExisting = Collections.synchronizedList(new ArrayList<Boolean>());
+        final AtomicInteger attempts = new AtomicInteger();
+        final AuditRecordGroupCommitter committer = new AuditRecordGroupCommitter(directory, NODE_ID, 100, 50, 10, 4096, (auditRecords, skip) -> {
+            skipExisting.add(skip);
+            for (final AuditRecordData auditRecord : auditRecords) {
+                final boolean exists = written.stream().anyMatch(existing -> existing.getPk().equals(auditRecord.getPk()));
+                if (exists && !skip) {
+                    throw new IllegalStateException("Duplicate key " + auditRecord.getPk());
+                }
+            }
+            for (final AuditRecordData auditRecord : auditRecords) {
+                if (written.stream().noneMatch(existing -> existing.getPk().equals(auditRecord.getPk()))) {
+                    written.add(auditRecord);
+                }
+            }
+            if (attempts.getAndIncrement() == 0) {
+                throw new IllegalStateException("Connection lost during commit");
+            }
+        });
+        final AtomicLong sequence = new AtomicLong(-1);
+        for (int i = 0; i < 20; i++) {
+            committer.log(sequence::incrementAndGet, AuditRecordGroupCommitterUnitTest::auditRecord);
+        }
+        final long start = System.currentTimeMillis();
+        committer.shutdown();
+        assertTrue("The batch should not be retried until the shutdown times out.", System.currentTimeMillis() - start < 10000L);
+        assertGapFree(20, written);
+        assertEquals("The first attempt should not skip existing records.", Boolean.FALSE, skipExisting.get(0));
+        assertEquals("The retry should skip the records that were written by the failed attempt.", Boolean.TRUE, skipExisting.get(1));
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        final File directory = temporaryFolder.newFolder();
+        // Records that were accepted, but not written to the database before the node crashed
+        final AuditRecordWriteAheadLog writeAheadLog = new AuditRecordWriteAheadLog(directory, NODE_ID, 2048);
+        final List<AuditRecordData> appended = new ArrayList<>();
+        long position = 0;
+        for (int i = 0; i < 30; i++) {
+            appended.add(auditRecord(i));
+            position = writeAheadLog.append(appended.get(i));
+        }
+        writeAheadLog.sync(position);
+        writeAheadLog.close();
+        assertTrue("Several segments should have been written.", directory.list().length > 1);
+        // A record that was being written when the node crashed
+        final File[] segments = directory.listFiles();
+        Arrays.sort(segments);
+        try (final RandomAccessFile file = new RandomAccessFile(segments[segments.length - 1], "rw")) {
+            file.seek(file.length());
+            file.writeInt(1000);
+            file.writeInt(0);
+            file.write(new byte[10]);
+        }
+        final List<Boolean> skipExisting = new ArrayList<>();
+        final List<AuditRecordData> written = new ArrayList<>();
+        final AuditRecordGroupCommitter committer = new AuditRecordGroupCommitter(directory, NODE_ID, 100, 50, 10, 2048, (auditRecords, skip) -> {
+            skipExisting.add(skip);
+            written.addAll(auditRecords);
+        });
+        committer.shutdown();
+        assertGapFree(30, written);
+        assertFalse(skipExisting.isEmpty());
+        assertFalse("Recovered records may already have been written to the database.", skipExisting.contains(Boolean.FALSE));
+        final AuditRecordData expected = appended.get(7);
+        final AuditRecordData actual = written.get(7);
+        assertEquals(expected.getPk(), actual.getPk());
+        assertEquals(expected.getTimeStamp(), actual.getTimeStamp());
+        assertEquals(expected.getAuthToken(), actual.getAuthToken());
+        assertEquals(expected.getSearchDetail1(), actual.getSearchDetail1());
+        assertEquals(expected.getSearchDetail2(), actual.getSearchDetail2());
+        assertEquals(expected.getAdditionalDetails(), actual.getAdditionalDetails());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        final File directory = temporaryFolder.newFolder();
+        final AuditRecordWriteAheadLog writeAheadLog = new AuditRecordWriteAheadLog(directory, NODE_ID, 2048);
+        for (int i = 0; i < 30; i++) {
+            writeAheadLog.append(auditRecord(i));
+        }
+        final int segments = directory.list().length;
+        assertTrue(segments > 2);
+        writeAheadLog.checkpoint(10);
+        final int remaining = directory.list().length;
+        assertTrue("Segments with written records should be deleted.", remaining < segments);
+        assertTrue("Segments with records that are not written should be kept.", remaining > 0);
+        final List<AuditRecordData> recovered = new AuditRecordWriteAheadLog(directory, NODE_ID, 2048).recover();
+        assertTrue(recovered.get(0).getSequenceNumber() <= 11);
+        assertEquals(Long.valueOf(29), recovered.get(recovered.size() - 1).getSequenceNumber());
+        writeAheadLog.checkpoint(29);
+        assertEquals(0, directory.list().length);
+        writeAheadLog.close();
+    }
+}
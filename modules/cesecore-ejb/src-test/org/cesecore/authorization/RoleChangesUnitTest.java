@@ -0,0 +1,99 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.PublicAccessAuthenticationToken;
+import org.cesecore.authorization.AuthorizationCache.AuthorizationResult;
+import org.cesecore.roles.member.RoleMember;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RoleChanges}.
+ *
+ * @version $Id$
+ */
+public class RoleChangesUnitTest {
+
+    private static final AuthenticationToken TOKEN = new PublicAccessAuthenticationToken("RoleChangesUnitTest");
+
+    /** Ids of the role members that match the token */
+    private final Set<Integer> matchingRoleMemberIds = new HashSet<>();
+    private final RoleChanges.RoleMemberMatcher roleMemberMatcher = (authenticationToken, roleMembers) -> {
+        for (final RoleMember roleMember : roleMembers) {
+            if (matchingRoleMemberIds.contains(roleMember.getId())) {
+                return true;
+            }
+        }
+        return false;
+    };
+
+    private static RoleMember roleMember(final int id, final int roleId) {
+        return new RoleMember(id, "PublicAccessAuthenticationToken", 0, 0, 0, 0, "value", roleId, null);
+    }
+
+    private static Map<Integer, Integer> versions(final int... idsAndVersions) {
+        final Map<Integer, Integer> ret = new HashMap<>();
+        for (int i = 0; i < idsAndVersions.length; i += 2) {
+            ret.put(idsAndVersions[i], idsAndVersions[i + 1]);
+        }
+        return ret;
+    }
+
+    private static AuthorizationResult result(final int updateNumber, final Integer roleId, final Integer roleMemberId) {
+        return new AuthorizationResult(new HashMap<String, Boolean>(), updateNumber, new HashSet<>(Arrays.asList(roleId)),
+                new HashSet<>(Arrays.asList(roleMemberId)));
+    }
+
+    @Test
+    public void testUnchanged() {
+        final RoleChanges.Snapshot from = new RoleChanges.Snapshot(5, versions(1, 0, 2, 0), versions(10, 0, 20, 0));
+        final RoleChanges.Snapshot to = new RoleChanges.Snapshot(7, versions(1, 0, 2, 1), versions(10, 0, 20, 0, 30, 0));
+        final RoleChanges roleChanges = RoleChanges.compare(from, to, roleMemberId -> roleMember(roleMemberId, 3));
+        assertFalse(roleChanges.isEmpty());
+        assertTrue(roleChanges.isUnchanged(TOKEN, result(5, 1, 10), 7, roleMemberMatcher));
+        assertFalse("Access rules of role 2 were modified.", roleChanges.isUnchanged(TOKEN, result(5, 2, 20), 7, roleMemberMatcher));
+        assertFalse("Only changes from update number 5 are known.", roleChanges.isUnchanged(TOKEN, result(6, 1, 10), 7, roleMemberMatcher));
+        assertFalse("Only changes to update number 7 are known.", roleChanges.isUnchanged(TOKEN, result(5, 1, 10), 8, roleMemberMatcher));
+        assertFalse("Legacy access rules are always loaded again.", roleChanges.isUnchanged(TOKEN,
+                new AuthorizationResult(new HashMap<String, Boolean>(), 5), 7, roleMemberMatcher));
+        matchingRoleMemberIds.add(30);
+        assertFalse("Token matches the added role member.", roleChanges.isUnchanged(TOKEN, result(5, 1, 10), 7, roleMemberMatcher));
+    }
+
+    @Test
+    public void testRemovedRoleMember() {
+        final RoleChanges.Snapshot from = new RoleChanges.Snapshot(1, versions(1, 0), versions(10, 0, 11, 0));
+        final RoleChanges.Snapshot to = new RoleChanges.Snapshot(2, versions(1, 0), versions(10, 0));
+        final RoleChanges roleChanges = RoleChanges.compare(from, to, roleMemberId -> null);
+        assertTrue(roleChanges.isUnchanged(TOKEN, result(1, 1, 10), 2, roleMemberMatcher));
+        assertFalse("Token matched the removed role member.", roleChanges.isUnchanged(TOKEN, result(1, 1, 11), 2, roleMemberMatcher));
+    }
+
+    @Test
+    public void testRoleMemberChangedAgain() {
+        final RoleChanges.Snapshot from = new RoleChanges.Snapshot(1, versions(1, 0), versions(10, 0));
+        final RoleChanges.Snapshot to = new RoleChanges.Snapshot(2, versions(1, 0), versions(10, 1));
+        assertNull("Changes are unknown if a modified role member was removed after the snapshot.", RoleChanges.compare(from, to, roleMemberId -> null));
+    }
+}
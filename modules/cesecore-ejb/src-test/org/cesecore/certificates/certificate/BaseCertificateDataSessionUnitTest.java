@@ -0,0 +1,124 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.config.ConfigurationHolder;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests of the reading of revoked certificates in {@link BaseCertificateDataSessionBean}.
+ *
+ * @version $Id$
+ */
+public class BaseCertificateDataSessionUnitTest {
+
+    private static final String SELECT = "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, "
+            + "a.revocationDate as revocationDate, a.revocationReason as revocationReason, a.fingerprint as keysetKey FROM CertificateData a WHERE a.issuerDN=:issuerDN";
+
+    private final EntityManager entityManagerMock = EasyMock.createStrictMock(EntityManager.class);
+
+    private final BaseCertificateDataSessionBean certificateDataSession = new BaseCertificateDataSessionBean() {
+        @Override
+        protected EntityManager getEntityManager() {
+            return entityManagerMock;
+        }
+    };
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration("database.crlgenfetchsize", "500000");
+        ConfigurationHolder.updateConfiguration("database.crlgenfetchkeyset", "false");
+    }
+
+    @Test
+    public void testBatchesStartAfterLastKey() {
+        ConfigurationHolder.updateConfiguration("database.crlgenfetchsize", "2");
+        ConfigurationHolder.updateConfiguration("database.crlgenfetchkeyset", "true");
+        final Query firstQuery = EasyMock.createStrictMock(Query.class);
+        final Query nextQuery = EasyMock.createStrictMock(Query.class);
+        expect(entityManagerMock.createNativeQuery(SELECT + " ORDER BY a.fingerprint")).andReturn(firstQuery);
+        expect(entityManagerMock.createNativeQuery(SELECT + " AND a.fingerprint>:keysetKey ORDER BY a.fingerprint")).andReturn(nextQuery);
+        expect(firstQuery.setParameter("issuerDN", "CN=Issuer")).andReturn(firstQuery);
+        expect(nextQuery.setParameter("issuerDN", "CN=Issuer")).andReturn(nextQuery);
+        expect(firstQuery.setMaxResults(2)).andReturn(firstQuery);
+        expect(nextQuery.setMaxResults(2)).andReturn(nextQuery);
+        expect(firstQuery.getResultList()).andReturn(createRows(1, 2));
+        expect(nextQuery.setParameter("keysetKey", "fp2")).andReturn(nextQuery);
+        expect(nextQuery.getResultList()).andReturn(createRows(3, 4));
+        expect(nextQuery.setParameter("keysetKey", "fp4")).andReturn(nextQuery);
+        // A batch that is not full is the last one, so no further query is made
+        expect(nextQuery.getResultList()).andReturn(createRows(5));
+        replay(entityManagerMock, firstQuery, nextQuery);
+        final Collection<RevokedCertInfo> revokedCertInfos = getRevokedCertInfos();
+        verify(entityManagerMock, firstQuery, nextQuery);
+        assertEquals(Arrays.asList("fp1", "fp2", "fp3", "fp4", "fp5"), getFingerprints(revokedCertInfos));
+    }
+
+    @Test
+    public void testBatchesAtOffset() {
+        ConfigurationHolder.updateConfiguration("database.crlgenfetchsize", "2");
+        final Query query = EasyMock.createStrictMock(Query.class);
+        expect(entityManagerMock.createNativeQuery(SELECT)).andReturn(query);
+        expect(query.setParameter("issuerDN", "CN=Issuer")).andReturn(query);
+        expect(query.setMaxResults(2)).andReturn(query);
+        expect(query.setFirstResult(0)).andReturn(query);
+        expect(query.getResultList()).andReturn(createRows(1, 2));
+        expect(query.setFirstResult(2)).andReturn(query);
+        expect(query.getResultList()).andReturn(createRows(3));
+        expect(query.setFirstResult(4)).andReturn(query);
+        expect(query.getResultList()).andReturn(Collections.emptyList());
+        replay(entityManagerMock, query);
+        final Collection<RevokedCertInfo> revokedCertInfos = getRevokedCertInfos();
+        verify(entityManagerMock, query);
+        assertEquals(Arrays.asList("fp1", "fp2", "fp3"), getFingerprints(revokedCertInfos));
+    }
+
+    private Collection<RevokedCertInfo> getRevokedCertInfos() {
+        return certificateDataSession.getRevokedCertInfosInternal("CertificateData", "a.fingerprint", "a.issuerDN=:issuerDN",
+                query -> query.setParameter("issuerDN", "CN=Issuer"));
+    }
+
+    /** Creates rows of the revoked certificate query, with the fingerprint as key */
+    private static List<Object[]> createRows(final int... ids) {
+        final List<Object[]> rows = new ArrayList<>();
+        for (final int id : ids) {
+            rows.add(new Object[] { "fp" + id, String.valueOf(1000 + id), 2000L, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, "fp" + id });
+        }
+        return rows;
+    }
+
+    private static List<String> getFingerprints(final Collection<RevokedCertInfo> revokedCertInfos) {
+        final List<String> fingerprints = new ArrayList<>();
+        for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+            fingerprints.add(revokedCertInfo.getCertificateFingerprint());
+        }
+        return fingerprints;
+    }
+}
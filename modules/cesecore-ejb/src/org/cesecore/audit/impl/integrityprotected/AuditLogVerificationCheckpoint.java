@@ -0,0 +1,148 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.cesecore.audit.audit.AuditLogReportElem;
+
+/**
+ * Progress of an audit log verification, so that a verification that was interrupted can be resumed without verifying the same
+ * sequence number ranges again.
+ * <p>
+ * Each completed range is appended to a file together with the warnings found in the range. The file is specific to the time the
+ * logs are verified up to and the range size, and is deleted when the verification has completed.
+ *
+ * @version $Id$
+ */
+class AuditLogVerificationCheckpoint implements Closeable {
+
+    private static final Logger log = Logger.getLogger(AuditLogVerificationCheckpoint.class);
+
+    private final File file;
+    /** Warnings of the completed ranges, by range */
+    private final Map<String, List<AuditLogReportElem>> completed = new HashMap<>();
+    private FileOutputStream out;
+
+    /**
+     * Reads the ranges completed by a previous verification with the same parameters, if any.
+     *
+     * @param directory directory of the checkpoint files
+     * @param timestamp the time the logs are verified up to
+     * @param rangeSize the number of sequence numbers in each range
+     * @throws IOException if the checkpoint file could not be read or created
+     */
+    AuditLogVerificationCheckpoint(final File directory, final long timestamp, final int rangeSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory for audit log verification checkpoints: " + directory.getAbsolutePath());
+        }
+        this.file = new File(directory, "auditlog-verification-" + timestamp + "-" + rangeSize + ".checkpoint");
+        if (file.exists()) {
+            read();
+            log.info("Resuming audit log verification with " + completed.size() + " completed ranges from " + file.getAbsolutePath());
+        }
+        final boolean endsWithPartialLine = file.length() > 0 && !endsWithNewline();
+        this.out = new FileOutputStream(file, true);
+        if (endsWithPartialLine) {
+            out.write('\n');
+        }
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            randomAccessFile.seek(randomAccessFile.length() - 1);
+            return randomAccessFile.read() == '\n';
+        }
+    }
+
+    private void read() throws IOException {
+        final List<AuditLogReportElem> pending = new ArrayList<>();
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t", 5);
+                try {
+                    if ("W".equals(fields[0]) && fields.length == 4) {
+                        pending.add(new AuditLogReportElem(Long.valueOf(fields[1]), Long.valueOf(fields[2]), fields[3]));
+                    } else if ("R".equals(fields[0]) && fields.length == 4) {
+                        completed.put(key(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3])), new ArrayList<>(pending));
+                        pending.clear();
+                    } else {
+                        // A range that was only partially written when the verification was interrupted
+                        pending.clear();
+                    }
+                } catch (NumberFormatException e) {
+                    pending.clear();
+                }
+            }
+        }
+    }
+
+    /** @return the warnings of the range if it has already been verified, or null if it has not */
+    synchronized List<AuditLogReportElem> getCompleted(final String nodeId, final long first, final long last) {
+        return completed.get(key(nodeId, first, last));
+    }
+
+    /** Records that the range has been verified, with the warnings that were found. */
+    synchronized void complete(final String nodeId, final long first, final long last, final List<AuditLogReportElem> warnings) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (final AuditLogReportElem warning : warnings) {
+            sb.append("W\t").append(warning.getFirst()).append('\t').append(warning.getSecond()).append('\t')
+                    .append(clean(String.join(", ", warning.getReasons()))).append('\n');
+        }
+        sb.append("R\t").append(clean(nodeId)).append('\t').append(first).append('\t').append(last).append('\n');
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.getFD().sync();
+        completed.put(key(nodeId, first, last), new ArrayList<>(warnings));
+    }
+
+    /** Deletes the checkpoint file, when the verification has completed. */
+    synchronized void delete() throws IOException {
+        close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete audit log verification checkpoint " + file.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+    private static String key(final String nodeId, final long first, final long last) {
+        return clean(nodeId) + '\t' + first + '\t' + last;
+    }
+
+    private static String clean(final String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
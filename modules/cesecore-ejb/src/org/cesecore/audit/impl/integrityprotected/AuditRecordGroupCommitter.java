@@ -0,0 +1,206 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Group commit of integrity protected audit records.
+ * <p>
+ * Instead of inserting each audit record in its own transaction, records are appended to a local {@link AuditRecordWriteAheadLog} and
+ * put in a bounded in-memory buffer. A background thread takes the records from the buffer and inserts them into the database in
+ * batches, with one transaction per batch.
+ * <p>
+ * The sequence number of a record is assigned when it is appended, under the same lock that puts it in the buffer, so the records
+ * are written in sequence number order. A batch that could not be written is retried until it succeeds, so there are no gaps in the
+ * sequence. Since a failed transaction may still have been committed, a batch is retried skipping the records that already exist.
+ * When {@link #log(LongSupplier, LongFunction)} returns, the record is durable in the write-ahead log. Records that are still
+ * in the write-ahead log when the node is started again, after a crash or a shutdown where the database was unavailable, are written
+ * to the database before any new records are accepted.
+ *
+ * @version $Id$
+ */
+class AuditRecordGroupCommitter {
+
+    private static final Logger log = Logger.getLogger(AuditRecordGroupCommitter.class);
+    private static final long RETRY_DELAY_MS = 1000L;
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000L;
+    /** How often a caller waiting for room in a full buffer checks if the committer has been shut down */
+    private static final long BUFFER_WAIT_MS = 100L;
+
+    /** Writes a batch of audit records to the database in a single transaction. */
+    interface BatchWriter {
+        /**
+         * @param auditRecords the records to write, in sequence number order
+         * @param skipExisting true if records that already exist in the database should be skipped, when recovering
+         */
+        void write(List<AuditRecordData> auditRecords, boolean skipExisting);
+    }
+
+    private final AuditRecordWriteAheadLog writeAheadLog;
+    private final BlockingQueue<AuditRecordData> buffer;
+    private final BatchWriter batchWriter;
+    private final int batchSize;
+    private final long maxDelay;
+    private final Object appendLock = new Object();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * Writes the records that are left in the write-ahead log to the database, and starts the background thread.
+     *
+     * @param directory directory of the write-ahead log
+     * @param nodeId the node identifier of the audit records
+     * @param bufferSize maximum number of records waiting to be written to the database, before callers have to wait
+     * @param batchSize maximum number of records per transaction
+     * @param maxDelay maximum time in milliseconds to wait for more records, before a batch is written
+     * @param segmentSize size of each write-ahead log file in bytes
+     * @param batchWriter writes the batches to the database
+     * @throws IOException if the write-ahead log could not be read
+     */
+    AuditRecordGroupCommitter(final File directory, final String nodeId, final int bufferSize, final int batchSize, final long maxDelay,
+            final long segmentSize, final BatchWriter batchWriter) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory for the audit log write-ahead log: " + directory.getAbsolutePath());
+        }
+        this.writeAheadLog = new AuditRecordWriteAheadLog(directory, nodeId, segmentSize);
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.batchWriter = batchWriter;
+        this.batchSize = batchSize;
+        this.maxDelay = maxDelay;
+        recover();
+        flusher = new Thread(this::flush, "AuditRecordGroupCommitter");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void recover() throws IOException {
+        final List<AuditRecordData> recovered = writeAheadLog.recover();
+        if (recovered.isEmpty()) {
+            return;
+        }
+        log.info("Writing " + recovered.size() + " audit records from the write-ahead log to the database.");
+        for (int i = 0; i < recovered.size(); i += batchSize) {
+            batchWriter.write(new ArrayList<>(recovered.subList(i, Math.min(recovered.size(), i + batchSize))), true);
+        }
+        writeAheadLog.deleteAll();
+    }
+
+    /**
+     * Accepts an audit record. Waits if the buffer is full. If the committer is shut down while waiting, the record is left in the
+     * write-ahead log and written to the database on next startup.
+     *
+     * @param sequenceNumbers gives the next sequence number
+     * @param auditRecordFactory creates the audit record with the given sequence number
+     * @throws IOException if the record could not be written to the write-ahead log
+     */
+    void log(final LongSupplier sequenceNumbers, final LongFunction<AuditRecordData> auditRecordFactory) throws IOException, InterruptedException {
+        final long position;
+        synchronized (appendLock) {
+            if (!running) {
+                throw new IllegalStateException("Audit log group commit has been shut down.");
+            }
+            final AuditRecordData auditRecordData = auditRecordFactory.apply(sequenceNumbers.getAsLong());
+            position = writeAheadLog.append(auditRecordData);
+            // Records that are appended after this one are rejected once shut down, so leaving it out of the buffer causes no gap
+            while (!buffer.offer(auditRecordData, BUFFER_WAIT_MS, TimeUnit.MILLISECONDS) && running) {
+                // Wait for the flusher to make room
+            }
+        }
+        writeAheadLog.sync(position);
+    }
+
+    /** @return true if new records are accepted */
+    boolean isRunning() {
+        return running;
+    }
+
+    /** Writes the buffered records to the database until shut down and the buffer is empty. */
+    private void flush() {
+        final List<AuditRecordData> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                final AuditRecordData first = buffer.poll(maxDelay, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+                writeAheadLog.checkpoint(batch.get(batch.size() - 1).getSequenceNumber());
+                batch.clear();
+            } catch (InterruptedException e) {
+                // Shutdown took too long, the remaining records are kept in the write-ahead log
+                log.warn(batch.size() + buffer.size() + " audit records will be written to the database from the write-ahead log on next startup.");
+                return;
+            } catch (IOException e) {
+                log.error("Unable to remove written audit records from the write-ahead log: " + e.getMessage(), e);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the batch, retrying until it succeeds to avoid gaps in the sequence numbers. The retries skip the records that already
+     * exist, since the failed attempt may have been committed, and a record that already exists would otherwise fail every retry.
+     */
+    private void writeBatch(final List<AuditRecordData> batch) throws InterruptedException {
+        boolean skipExisting = false;
+        while (true) {
+            try {
+                batchWriter.write(batch, skipExisting);
+                if (log.isDebugEnabled()) {
+                    log.debug("Wrote " + batch.size() + " audit records to the database.");
+                }
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unable to write " + batch.size() + " audit records to the database, will retry: " + e.getMessage());
+                skipExisting = true;
+                Thread.sleep(RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new records, and waits for the buffered records to be written to the database. Records that could not be
+     * written before the timeout are kept in the write-ahead log.
+     */
+    void shutdown() {
+        // Not under the append lock, which is held by a caller waiting for room in a full buffer
+        running = false;
+        try {
+            flusher.join(SHUTDOWN_TIMEOUT_MS);
+            if (flusher.isAlive()) {
+                flusher.interrupt();
+                flusher.join(SHUTDOWN_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writeAheadLog.close();
+        } catch (IOException e) {
+            log.error("Unable to close the audit log write-ahead log: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+import org.cesecore.audit.AuditDevicesConfig;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Holds the {@link AuditRecordGroupCommitter} of the node, which is created when group commit is first used, and stopped when the
+ * application is undeployed, so that the buffered audit records are written to the database.
+ *
+ * @version $Id$
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class AuditRecordGroupCommitterBean {
+
+    private static final long WRITE_AHEAD_LOG_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    @EJB
+    private IntegrityProtectedLoggerSessionLocal integrityProtectedLoggerSession;
+
+    private final ReentrantLock lock = new ReentrantLock(false);
+    private volatile AuditRecordGroupCommitter groupCommitter = null;
+
+    @PreDestroy
+    public void preDestroy() {
+        lock.lock();
+        try {
+            if (groupCommitter != null) {
+                groupCommitter.shutdown();
+                groupCommitter = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Accepts an audit record, which is durable in the write-ahead log when this method returns, and written to the database with
+     * other records by a background thread. See {@link AuditRecordGroupCommitter#log(LongSupplier, LongFunction)}.
+     *
+     * @param sequenceNumbers gives the next sequence number
+     * @param auditRecordFactory creates the audit record with the given sequence number
+     * @param properties the configuration of the audit log device
+     * @throws IOException if the record could not be written to the write-ahead log
+     */
+    public void log(final LongSupplier sequenceNumbers, final LongFunction<AuditRecordData> auditRecordFactory, final Properties properties)
+            throws IOException, InterruptedException {
+        getGroupCommitter(properties).log(sequenceNumbers, auditRecordFactory);
+    }
+
+    /** @return the group committer (creating one, and writing any records left in the write-ahead log to the database, if needed). */
+    private AuditRecordGroupCommitter getGroupCommitter(final Properties properties) throws IOException {
+        if (groupCommitter == null) {
+            lock.lock();
+            try {
+                if (groupCommitter == null) {
+                    groupCommitter = new AuditRecordGroupCommitter(AuditDevicesConfig.getGroupCommitDirectory(properties),
+                            CesecoreConfiguration.getNodeIdentifier(), AuditDevicesConfig.getGroupCommitBufferSize(properties),
+                            AuditDevicesConfig.getGroupCommitBatchSize(properties), AuditDevicesConfig.getGroupCommitMaxDelay(properties),
+                            WRITE_AHEAD_LOG_SEGMENT_SIZE, integrityProtectedLoggerSession::persistAuditRecords);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return groupCommitter;
+    }
+}
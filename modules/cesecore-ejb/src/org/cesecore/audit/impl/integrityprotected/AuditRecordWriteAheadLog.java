@@ -0,0 +1,300 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Local write-ahead log of audit records that have been accepted, but not yet written to the database.
+ * <p>
+ * Records are appended to segment files named after the node identifier and the sequence number of their first record. A record is
+ * durable when {@link #sync(long)} has returned for the position returned by {@link #append(AuditRecordData)}. Concurrent callers of
+ * sync share the same fsync, so the cost is amortized over all records appended in the meantime. Segments are deleted when all their
+ * records have been written to the database.
+ * <p>
+ * Each record is stored as its length, a CRC32 checksum and the fields of the record. A record that was only partially written when
+ * the node crashed is detected by the checksum, and is the last record that is read from the segment.
+ *
+ * @version $Id$
+ */
+class AuditRecordWriteAheadLog implements Closeable {
+
+    private static final Logger log = Logger.getLogger(AuditRecordWriteAheadLog.class);
+    private static final String SUFFIX = ".wal";
+
+    private final File directory;
+    private final String prefix;
+    private final long segmentSize;
+    private final Object syncLock = new Object();
+
+    /** The current segment, and the closed segments that have not been deleted yet with their last sequence numbers. Guarded by this. */
+    private FileChannel channel;
+    private long firstSequenceNumberOfChannel;
+    private long segmentWritten;
+    private long lastSequenceNumber = -1;
+    private final List<File> closedSegments = new ArrayList<>();
+    private final List<Long> closedSegmentLastSequenceNumbers = new ArrayList<>();
+    /** Total number of bytes appended and synced since this log was opened */
+    private long written = 0;
+    private volatile long synced = 0;
+
+    /**
+     * @param directory the directory where segments are written
+     * @param nodeId the node identifier that the audit records belongs to, since several nodes could share the directory
+     * @param segmentSize size in bytes when a new segment is started
+     */
+    AuditRecordWriteAheadLog(final File directory, final String nodeId, final long segmentSize) {
+        this.directory = directory;
+        this.prefix = "auditrecords-" + nodeId.replaceAll("[^A-Za-z0-9._-]", "_") + "-";
+        this.segmentSize = segmentSize;
+    }
+
+    /** @return all the records of the existing segments, in the order they were appended. */
+    List<AuditRecordData> recover() throws IOException {
+        final List<AuditRecordData> ret = new ArrayList<>();
+        for (final File segment : getSegments()) {
+            final byte[] data = Files.readAllBytes(segment.toPath());
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.remaining() >= 8) {
+                final int length = buffer.getInt();
+                final int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    log.info("Ignoring incomplete audit record at the end of " + segment.getName());
+                    break;
+                }
+                final CRC32 crc32 = new CRC32();
+                crc32.update(data, buffer.position(), length);
+                if ((int) crc32.getValue() != checksum) {
+                    log.info("Ignoring incomplete audit record at the end of " + segment.getName());
+                    break;
+                }
+                ret.add(decode(Arrays.copyOfRange(data, buffer.position(), buffer.position() + length)));
+                buffer.position(buffer.position() + length);
+            }
+        }
+        return ret;
+    }
+
+    /** Deletes all segments, after the recovered records have been written to the database. */
+    synchronized void deleteAll() throws IOException {
+        closeChannel();
+        for (final File segment : getSegments()) {
+            delete(segment);
+        }
+        closedSegments.clear();
+        closedSegmentLastSequenceNumbers.clear();
+    }
+
+    /**
+     * Appends a record to the current segment. The record is not durable until {@link #sync(long)} has returned.
+     * Records must be appended in the order of their sequence numbers.
+     *
+     * @return the position to sync to, to make the record durable
+     */
+    synchronized long append(final AuditRecordData auditRecordData) throws IOException {
+        final byte[] encoded = encode(auditRecordData);
+        if (channel != null && segmentWritten + encoded.length > segmentSize && segmentWritten > 0) {
+            // Make everything that has been appended to this segment durable before moving on to a new one
+            channel.force(false);
+            synced = written;
+            closedSegments.add(getSegmentFile(firstSequenceNumberOfChannel));
+            closedSegmentLastSequenceNumbers.add(lastSequenceNumber);
+            closeChannel();
+        }
+        if (channel == null) {
+            firstSequenceNumberOfChannel = auditRecordData.getSequenceNumber();
+            channel = FileChannel.open(getSegmentFile(firstSequenceNumberOfChannel).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            segmentWritten = 0;
+        }
+        final CRC32 crc32 = new CRC32();
+        crc32.update(encoded);
+        final ByteBuffer buffer = ByteBuffer.allocate(8 + encoded.length);
+        buffer.putInt(encoded.length).putInt((int) crc32.getValue()).put(encoded).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        segmentWritten += buffer.limit();
+        written += buffer.limit();
+        lastSequenceNumber = auditRecordData.getSequenceNumber();
+        return written;
+    }
+
+    /** Makes all records up to the given position durable, sharing the fsync with concurrent callers. */
+    void sync(final long position) throws IOException {
+        if (synced >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            final long target;
+            final FileChannel current;
+            synchronized (this) {
+                target = written;
+                current = channel;
+            }
+            if (current != null) {
+                try {
+                    current.force(false);
+                } catch (ClosedChannelException e) {
+                    // The segment was closed by append, after it was forced
+                }
+            }
+            synced = Math.max(synced, target);
+        }
+    }
+
+    /**
+     * Deletes the closed segments where all records have been written to the database.
+     *
+     * @param sequenceNumber the highest sequence number written to the database
+     */
+    synchronized void checkpoint(final long sequenceNumber) throws IOException {
+        while (!closedSegments.isEmpty() && closedSegmentLastSequenceNumbers.get(0) <= sequenceNumber) {
+            delete(closedSegments.remove(0));
+            closedSegmentLastSequenceNumbers.remove(0);
+        }
+        if (channel != null && lastSequenceNumber <= sequenceNumber) {
+            // Everything in the current segment is written as well
+            final File current = getSegmentFile(firstSequenceNumberOfChannel);
+            closeChannel();
+            delete(current);
+        }
+    }
+
+    /** Closes the current segment. Segments that have not been checkpointed are kept for recovery. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            synced = written;
+        }
+        closeChannel();
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    private File getSegmentFile(final long firstSequenceNumber) {
+        return new File(directory, prefix + String.format("%019d", firstSequenceNumber) + SUFFIX);
+    }
+
+    /** @return the segment files of this node, sorted by the sequence number of their first record */
+    private List<File> getSegments() {
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        final List<File> ret = new ArrayList<>(Arrays.asList(files));
+        ret.sort(Comparator.comparing(File::getName));
+        return ret;
+    }
+
+    private void delete(final File segment) throws IOException {
+        if (segment.exists() && !segment.delete()) {
+            throw new IOException("Unable to delete audit log segment " + segment.getAbsolutePath());
+        }
+    }
+
+    static byte[] encode(final AuditRecordData auditRecordData) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
+        try (final DataOutputStream out = new DataOutputStream(baos)) {
+            writeString(out, auditRecordData.getPk());
+            writeString(out, auditRecordData.getNodeId());
+            out.writeLong(auditRecordData.getSequenceNumber());
+            out.writeLong(auditRecordData.getTimeStamp());
+            writeString(out, auditRecordData.getEventType());
+            writeString(out, auditRecordData.getEventStatus());
+            writeString(out, auditRecordData.getAuthToken());
+            writeString(out, auditRecordData.getService());
+            writeString(out, auditRecordData.getModule());
+            writeString(out, auditRecordData.getCustomId());
+            writeString(out, auditRecordData.getSearchDetail1());
+            writeString(out, auditRecordData.getSearchDetail2());
+            writeString(out, auditRecordData.getAdditionalDetails());
+        }
+        return baos.toByteArray();
+    }
+
+    static AuditRecordData decode(final byte[] encoded) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            final AuditRecordData auditRecordData = new AuditRecordData();
+            auditRecordData.setPk(readString(in));
+            auditRecordData.setNodeId(readString(in));
+            auditRecordData.setSequenceNumber(in.readLong());
+            auditRecordData.setTimeStamp(in.readLong());
+            auditRecordData.setEventType(readString(in));
+            auditRecordData.setEventStatus(readString(in));
+            auditRecordData.setAuthToken(readString(in));
+            auditRecordData.setService(readString(in));
+            auditRecordData.setModule(readString(in));
+            auditRecordData.setCustomId(readString(in));
+            auditRecordData.setSearchDetail1(readString(in));
+            auditRecordData.setSearchDetail2(readString(in));
+            auditRecordData.setAdditionalDetails(readString(in));
+            return auditRecordData;
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > in.available()) {
+            throw new EOFException("Invalid string length " + length + " in audit record.");
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
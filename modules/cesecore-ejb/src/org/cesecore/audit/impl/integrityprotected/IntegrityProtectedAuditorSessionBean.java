@@ -14,12 +14,18 @@ package org.cesecore.audit.impl.integrityprotected;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -28,6 +34,7 @@ import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
@@ -43,6 +50,7 @@ import org.cesecore.audit.audit.AuditLogReportElem;
 import org.cesecore.audit.audit.AuditLogValidationReport;
 import org.cesecore.audit.audit.AuditLogValidatorException;
 import org.cesecore.audit.audit.SigningFileOutputStream;
+import org.cesecore.audit.audit.StreamingAuditLogValidationReport;
 import org.cesecore.audit.enums.EventStatus;
 import org.cesecore.audit.enums.EventTypes;
 import org.cesecore.audit.enums.ModuleTypes;
@@ -67,6 +75,9 @@ import org.cesecore.util.query.QueryGenerator;
  *  "CREATE UNIQUE INDEX auditrecorddata_idx1 ON AuditRecordData (nodeId,timeStamp,sequenceNumber);"
  * should be present for proper validation and export performance.
  * 
+ * Verification reads the log entries of each node in sequence number order, seeking from the last sequence number read instead of
+ * using offsets. The sequence numbers of each node are split in ranges that are verified in parallel.
+ * 
  * @version $Id$
  */
 @Stateless
@@ -79,6 +90,8 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
     private EntityManager entityManager;
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private ManagedExecutorService managedExecutorService;
     @EJB
     private SecurityEventsLoggerSessionLocal securityEventsLogger;
     // Myself needs to be injected in postConstruct
@@ -152,15 +165,123 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
 	@Override
 	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
 	public AuditLogValidationReport verifyLogsIntegrity(final AuthenticationToken token, final Date timestamp, final Properties properties) throws AuditLogValidatorException {
-        final AuditLogValidationReport report = new AuditLogValidationReport();
-        try {
-            verifyAndOptionalExport(null, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties));
+        try (final StreamingAuditLogValidationReport report = new StreamingAuditLogValidationReport(AuditDevicesConfig.getAuditLogValidationMaxReportElements(properties),
+                AuditDevicesConfig.getAuditLogValidationReportFile(properties, timestamp))) {
+            verifyInParallel(report, timestamp, properties);
         	// Log the success or failure depending on if verification returns error or not
-        	logVerificationResult(report.errors().size(), timestamp, token);
+        	logVerificationResult((int) Math.min(Integer.MAX_VALUE, report.getErrorCount()), timestamp, token);
+        	if (log.isDebugEnabled()) {
+        	    log.debug("Verified audit log with " + report.getErrorCount() + " errors and " + report.getWarningCount() + " warnings.");
+        	}
+            return report;
         } catch (final Exception e) {
         	throw new AuditLogValidatorException(e.getMessage(), e);
         }
-        return report;
+	}
+
+	@Override
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public AuditLogValidationReport verifyLogsIntegrityRange(final String nodeId, final long firstSequenceNumber, final long lastSequenceNumber,
+	        final Date timestamp, final int fetchSize) {
+	    final AuditLogValidationReport report = new AuditLogValidationReport();
+	    try {
+	        verifyAndOptionalExportRange(null, report, nodeId, firstSequenceNumber, lastSequenceNumber, timestamp, fetchSize);
+	    } catch (IOException e) {
+	        // Only thrown when exporting
+	        throw new IllegalStateException(e);
+	    }
+	    return report;
+	}
+
+	/**
+	 * Splits the sequence numbers of each node in ranges that are verified in parallel by validate.threads workers of the managed
+	 * executor. If a checkpoint directory is configured, each completed range is saved so an interrupted verification up to the same
+	 * time can be resumed where it was interrupted.
+	 */
+	private void verifyInParallel(final AuditLogValidationReport report, final Date timestamp, final Properties properties) throws IOException, InterruptedException, ExecutionException {
+	    final int rangeSize = AuditDevicesConfig.getAuditLogValidationRangeSize(properties);
+	    final int fetchSize = AuditDevicesConfig.getAuditLogValidationFetchSize(properties);
+	    final File checkpointDir = AuditDevicesConfig.getAuditLogValidationCheckpointDir(properties);
+	    final AuditLogVerificationCheckpoint checkpoint = checkpointDir == null ? null : new AuditLogVerificationCheckpoint(checkpointDir, timestamp.getTime(), rangeSize);
+	    final List<long[]> ranges = new ArrayList<>();
+	    final List<String> rangeNodeIds = new ArrayList<>();
+	    final List<CompletableFuture<AuditLogValidationReport>> results = new ArrayList<>();
+	    final AtomicInteger nextRange = new AtomicInteger();
+	    final List<Future<?>> workers = new ArrayList<>();
+	    try {
+	        for (final String nodeId : getNodeIds()) {
+	            final long[] minMax = getSequenceNumberRange(nodeId, timestamp);
+	            if (minMax == null) {
+	                continue;
+	            }
+	            if (minMax[0] > 0) {
+	                report.warn(new AuditLogReportElem(-1L, minMax[0], "missing log with sequence number 0 on nodeId " + nodeId));
+	            }
+	            for (long first = minMax[0]; first <= minMax[1];) {
+	                final long alignedLast = (first / rangeSize + 1) * rangeSize - 1;
+	                final long last = Math.min(minMax[1], alignedLast);
+	                final List<AuditLogReportElem> completed = checkpoint == null ? null : checkpoint.getCompleted(nodeId, first, last);
+	                if (completed != null) {
+	                    for (final AuditLogReportElem warning : completed) {
+	                        report.warn(warning);
+	                    }
+	                } else {
+	                    ranges.add(new long[] { first, last, alignedLast });
+	                    rangeNodeIds.add(nodeId);
+	                    results.add(new CompletableFuture<>());
+	                }
+	                first = last + 1;
+	            }
+	        }
+	        // Each worker verifies the next range until there are no more
+	        final Runnable worker = () -> {
+	            for (int i = nextRange.getAndIncrement(); i < ranges.size(); i = nextRange.getAndIncrement()) {
+	                try {
+	                    results.get(i).complete(integrityProtectedAuditorSession.verifyLogsIntegrityRange(rangeNodeIds.get(i), ranges.get(i)[0],
+	                            ranges.get(i)[1], timestamp, fetchSize));
+	                } catch (RuntimeException | Error e) {
+	                    results.get(i).completeExceptionally(e);
+	                }
+	            }
+	        };
+	        final int threads = Math.min(AuditDevicesConfig.getAuditLogValidationThreads(properties), ranges.size());
+	        try {
+	            for (int i = 0; i < threads; i++) {
+	                workers.add(managedExecutorService.submit(worker));
+	            }
+	        } catch (RejectedExecutionException e) {
+	            log.info("Verifying the audit log with " + workers.size() + " instead of " + threads + " threads, since the executor is busy.");
+	        }
+	        if (workers.isEmpty()) {
+	            worker.run();
+	        }
+	        for (int i = 0; i < results.size(); i++) {
+	            final AuditLogValidationReport rangeReport = results.get(i).get();
+	            for (final AuditLogReportElem error : rangeReport.errors()) {
+	                report.error(error);
+	            }
+	            for (final AuditLogReportElem warning : rangeReport.warnings()) {
+	                report.warn(warning);
+	            }
+	            final long[] range = ranges.get(i);
+	            // The last range of a node could get more log entries if the logs are verified up to a time in the future
+	            if (checkpoint != null && range[1] == range[2]) {
+	                checkpoint.complete(rangeNodeIds.get(i), range[0], range[1], rangeReport.warnings());
+	            }
+	        }
+	        if (checkpoint != null) {
+	            checkpoint.delete();
+	        }
+	    } finally {
+	        // Stop the workers from taking more ranges, if the verification was aborted
+	        nextRange.set(Integer.MAX_VALUE);
+	        for (final Future<?> future : workers) {
+	            future.cancel(true);
+	        }
+	        if (checkpoint != null) {
+	            checkpoint.close();
+	        }
+	    }
 	}
 
 	/**
@@ -176,56 +297,72 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
     		if (log.isDebugEnabled()) {
     			log.debug("exportAuditLogs for nodeId " + nodeId);
     		}
-    		// Assuming timeStamp is in UTC
-    		final QueryCriteria queryCriteria = QueryCriteria.create().add((Criteria.and(Criteria.eq(AuditLogEntry.FIELD_NODEID, nodeId), Criteria.leq(AuditLogEntry.FIELD_TIMESTAMP, timestamp.getTime())))).add(Criteria.orderAsc(AuditLogEntry.FIELD_SEQUENCENUMBER));
-    		int startIndex = 1;
-    		final Holder<Long> lastSeqNumber = new Holder<Long>(Long.valueOf(-1L));
-    		while (true) {
-    			try {
-        			final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(startIndex, fetchSize, queryCriteria, report, lastSeqNumber, nodeId);
-    				final int results = queryResult.size();
-    				if (results == 0) {
-    					break;	// No more data for this node
-    				}
-    				startIndex += results;
-					if (auditExporter!=null) {
-						for (final AuditRecordData auditRecordData : queryResult) {
-							writeToExport(auditExporter, auditRecordData);
-        					((AuditLogExportReport) report).incExportCount();
-						}
-					}
-    			} catch (DatabaseProtectionException e) {
-    				// One of the FETCH_SIZE entries failed.. we have to go through line by line to find out witch one..
-    				for (int i=0; i<fetchSize; i++) {
-        				try {
-                			final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(startIndex, 1, queryCriteria, report, lastSeqNumber, nodeId);
-            				final int results = queryResult.size();
-            				if (results != 1) {
-            					break;	// No more data for this node
-            				}
-        					if (auditExporter!=null) {
-        						writeToExport(auditExporter, queryResult.get(0));
-            					((AuditLogExportReport) report).incExportCount();
-        					}
-        				} catch (DatabaseProtectionException e2) {
-        					final AuditRecordData auditRecordData = (AuditRecordData) e2.getEntity();
-        					// Add to report
-        					report.warn(new AuditLogReportElem(lastSeqNumber.get().longValue(), auditRecordData.getSequenceNumber(), "log with sequence number after " + lastSeqNumber + " on nodeId " + nodeId + " could not be verified"));
-        					lastSeqNumber.set(auditRecordData.getSequenceNumber());
-        					// We still export it
-        					// TODO: It might make sense to make it configurable to export when verification fails..
-        					if (auditExporter!=null) {
-            					writeToExport(auditExporter, auditRecordData);
-            					((AuditLogExportReport) report).incExportCount();
-        					}
-        				}
-        				startIndex += 1;
-    				}
-    			}
+    		final long[] minMax = getSequenceNumberRange(nodeId, timestamp);
+    		if (minMax != null) {
+    		    verifyAndOptionalExportRange(auditExporter, report, nodeId, 0, minMax[1], timestamp, fetchSize);
     		}
     	}
 	}
 
+	/**
+	 * Read batches of logs of a node with sequence numbers in the given range from the database, using the last sequence number of the
+	 * previous batch as start of the next one. If the database integrity check fails, the batch will be processed row by row.
+	 * Missing sequence numbers at the start and end of the range are reported as well.
+	 * @param auditExporter can be null if no export should take place
+	 * @param report is a AuditLogValidationReport or AuditLogExportReport
+	 * @param timestamp process all entries up until this time (should be epoch GMT)
+	 */
+	private void verifyAndOptionalExportRange(final AuditExporter auditExporter, final AuditLogValidationReport report, final String nodeId, final long firstSequenceNumber,
+	        final long lastSequenceNumber, final Date timestamp, final int fetchSize) throws IOException {
+	    final Holder<Long> lastSeqNumber = new Holder<Long>(Long.valueOf(firstSequenceNumber - 1));
+	    while (true) {
+	        try {
+	            final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(fetchSize, report, lastSeqNumber, lastSequenceNumber, timestamp, nodeId);
+	            if (queryResult.isEmpty()) {
+	                break;  // No more data for this range
+	            }
+	            if (auditExporter!=null) {
+	                for (final AuditRecordData auditRecordData : queryResult) {
+	                    writeToExport(auditExporter, auditRecordData);
+	                    ((AuditLogExportReport) report).incExportCount();
+	                }
+	            }
+	        } catch (DatabaseProtectionException e) {
+	            // One of the FETCH_SIZE entries failed.. we have to go through line by line to find out witch one..
+	            boolean done = false;
+	            for (int i=0; i<fetchSize && !done; i++) {
+	                try {
+	                    final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(1, report, lastSeqNumber, lastSequenceNumber, timestamp, nodeId);
+	                    if (queryResult.size() != 1) {
+	                        done = true;  // No more data for this range
+	                    } else if (auditExporter!=null) {
+	                        writeToExport(auditExporter, queryResult.get(0));
+	                        ((AuditLogExportReport) report).incExportCount();
+	                    }
+	                } catch (DatabaseProtectionException e2) {
+	                    final AuditRecordData auditRecordData = (AuditRecordData) e2.getEntity();
+	                    // Add to report
+	                    report.warn(new AuditLogReportElem(lastSeqNumber.get().longValue(), auditRecordData.getSequenceNumber(), "log with sequence number after " + lastSeqNumber.get() + " on nodeId " + nodeId + " could not be verified"));
+	                    lastSeqNumber.set(auditRecordData.getSequenceNumber());
+	                    // We still export it
+	                    // TODO: It might make sense to make it configurable to export when verification fails..
+	                    if (auditExporter!=null) {
+	                        writeToExport(auditExporter, auditRecordData);
+	                        ((AuditLogExportReport) report).incExportCount();
+	                    }
+	                }
+	            }
+	            if (done) {
+	                break;
+	            }
+	        }
+	    }
+	    if (lastSeqNumber.get().longValue() < lastSequenceNumber) {
+	        // The following range will only report missing entries from its own start
+	        report.warn(new AuditLogReportElem(lastSeqNumber.get(), Long.valueOf(lastSequenceNumber + 1), "missing log with sequence number " + (lastSeqNumber.get().longValue() + 1) + " on nodeId " + nodeId));
+	    }
+	}
+
 	/** We want to export exactly like it was stored in the database, to comply with requirements on logging systems where no altering of the original log data is allowed. */
     private void writeToExport(final AuditExporter auditExporter, final AuditRecordData auditRecordData) throws IOException {
         auditExporter.writeStartObject();
@@ -249,23 +386,24 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
     /**
      * Fetch a batch of log rows from the database (implying database integrity check) and verifies
      * that all sequence numbers are present.
-     * @param startIndex start batch from this position 
      * @param max entries per batch
-     * @param queryCriteria where clause
      * @param report will be updated when a problem is found
-     * @param lastSeqNumber will be updated to the last sequence number processed in this subset
+     * @param lastSeqNumber the batch starts after this sequence number and it will be updated to the last sequence number processed in this subset
+     * @param lastSequenceNumber the highest sequence number to fetch
+     * @param timestamp fetch entries up until this time
      * @param nodeId identifier of which node that claims to have written this data
      * @return the log entries we fetched from the database so the caller may export these
      * @throws DatabaseProtectionException if the intregrity verification fails for one of the entries in the batch during fetch
      */
-	private List<AuditRecordData> verifyLogsIntegritySubset(final int startIndex, final int max, final QueryCriteria queryCriteria, final AuditLogValidationReport report, final Holder<Long> lastSeqNumber, final String nodeId) throws DatabaseProtectionException {
-		final List<AuditRecordData> queryResult = internalSelectAuditLogs(startIndex, max, queryCriteria);	// Might throw DatabaseProtectionException
+	private List<AuditRecordData> verifyLogsIntegritySubset(final int max, final AuditLogValidationReport report, final Holder<Long> lastSeqNumber,
+	        final long lastSequenceNumber, final Date timestamp, final String nodeId) throws DatabaseProtectionException {
+		final List<AuditRecordData> queryResult = selectAuditLogsAfter(nodeId, lastSeqNumber.get().longValue(), lastSequenceNumber, timestamp, max);	// Might throw DatabaseProtectionException
 		// Loop through results and verify that the sequence order is correct
 		for (int i=0; i<queryResult.size(); i++) {
 			final long currentSeqNumber = queryResult.get(i).getSequenceNumber().longValue();
 			if (currentSeqNumber != lastSeqNumber.get().longValue() + 1) {
 				if (log.isDebugEnabled()) {
-					log.debug("Log verification failure for log on node " + nodeId + ". Missing entry. Last sequenceNumber was " + lastSeqNumber + " and current is " + currentSeqNumber);
+					log.debug("Log verification failure for log on node " + nodeId + ". Missing entry. Last sequenceNumber was " + lastSeqNumber.get() + " and current is " + currentSeqNumber);
 				}
 				// Add to report
 				report.warn(new AuditLogReportElem(lastSeqNumber.get(), Long.valueOf(currentSeqNumber), "missing log with sequence number " + (lastSeqNumber.get().longValue() + 1) + " on nodeId " + nodeId));
@@ -296,6 +434,35 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
         return buildConditionalQuery(entityManager, "SELECT a FROM AuditRecordData a", criteria, startIndex, max).getResultList();
 	}
 	
+	/**
+	 * Select the log entries of a node with sequence numbers after the given one, in sequence number order.
+	 * Seeking from the last sequence number of the previous batch avoids scanning all previous entries of the node, as an offset would.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<AuditRecordData> selectAuditLogsAfter(final String nodeId, final long afterSequenceNumber, final long lastSequenceNumber, final Date timestamp, final int max) {
+	    return entityManager.createQuery("SELECT a FROM AuditRecordData a WHERE a.nodeId=:nodeId AND a.sequenceNumber>:after AND a.sequenceNumber<=:last"
+	            + " AND a.timeStamp<=:timeStamp ORDER BY a.sequenceNumber ASC")
+	            .setParameter("nodeId", nodeId)
+	            .setParameter("after", afterSequenceNumber)
+	            .setParameter("last", lastSequenceNumber)
+	            .setParameter("timeStamp", timestamp.getTime())
+	            .setMaxResults(max)
+	            .getResultList();
+	}
+
+	/** @return the lowest and highest sequence number of the node's log entries up until the given time, or null if there are none */
+	private long[] getSequenceNumberRange(final String nodeId, final Date timestamp) {
+	    final Object[] result = (Object[]) entityManager.createQuery("SELECT MIN(a.sequenceNumber), MAX(a.sequenceNumber) FROM AuditRecordData a"
+	            + " WHERE a.nodeId=:nodeId AND a.timeStamp<=:timeStamp")
+	            .setParameter("nodeId", nodeId)
+	            .setParameter("timeStamp", timestamp.getTime())
+	            .getSingleResult();
+	    if (result == null || result[0] == null || result[1] == null) {
+	        return null;
+	    }
+	    return new long[] { ((Number) result[0]).longValue(), ((Number) result[1]).longValue() };
+	}
+
 	/** @return a unique list of node identifiers that have been writing audit log to the database. */
 	@SuppressWarnings("unchecked")
 	private List<String> getNodeIds() {
@@ -12,10 +12,15 @@
  *************************************************************************/
 package org.cesecore.audit.impl.integrityprotected;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
@@ -24,6 +29,7 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
+import org.cesecore.audit.AuditDevicesConfig;
 import org.cesecore.audit.enums.EventStatus;
 import org.cesecore.audit.enums.EventType;
 import org.cesecore.audit.enums.ModuleType;
@@ -51,6 +57,9 @@ public class IntegrityProtectedLoggerSessionBean implements IntegrityProtectedLo
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
 
+    @EJB
+    private AuditRecordGroupCommitterBean auditRecordGroupCommitter;
+
     @PostConstruct
     public void postConstruct() {
         CryptoProviderTools.installBCProviderIfNotAvailable();
@@ -89,17 +98,26 @@ public class IntegrityProtectedLoggerSessionBean implements IntegrityProtectedLo
             log.trace(String.format(">log:%s:%s:%s:%s:%s:%s", eventType, eventStatus, module, service, authToken, additionalDetails));
         }
         try {
-            final Long sequenceNumber = NodeSequenceHolder.INSTANCE.getNext(sequenceHolderInitialization);
-            // Make sure to use the Node Identifier that this log sequence was initialized with (for example hostnames reported by the system could change)
-            final String nodeId = NodeSequenceHolder.INSTANCE.getNodeId();
             final Long timeStamp = trustedTime.getTime().getTime();
             if(authToken.length() > MAX_AUTH_TOKEN_SIZE) {
                 additionalDetails.put("authToken", authToken);
                 authToken = "[trimmed] " + authToken.substring(0, MAX_AUTH_TOKEN_SIZE - 15);
             }
-            final AuditRecordData auditRecordData = new AuditRecordData(nodeId, sequenceNumber, timeStamp, eventType, eventStatus, authToken,
-                    service, module, customId, searchDetail1, searchDetail2, additionalDetails);
-            entityManager.persist(auditRecordData);
+            final String trimmedAuthToken = authToken;
+            if (properties != null && AuditDevicesConfig.isGroupCommitEnabled(properties)) {
+                // The record is durable in the write-ahead log, and written to the database with other records by a background thread
+                auditRecordGroupCommitter.log(() -> NodeSequenceHolder.INSTANCE.getNext(sequenceHolderInitialization),
+                        sequenceNumber -> new AuditRecordData(NodeSequenceHolder.INSTANCE.getNodeId(), sequenceNumber, timeStamp, eventType,
+                                eventStatus, trimmedAuthToken, service, module, customId, searchDetail1, searchDetail2, additionalDetails),
+                        properties);
+            } else {
+                final Long sequenceNumber = NodeSequenceHolder.INSTANCE.getNext(sequenceHolderInitialization);
+                // Make sure to use the Node Identifier that this log sequence was initialized with (for example hostnames reported by the system could change)
+                final String nodeId = NodeSequenceHolder.INSTANCE.getNodeId();
+                final AuditRecordData auditRecordData = new AuditRecordData(nodeId, sequenceNumber, timeStamp, eventType, eventStatus, trimmedAuthToken,
+                        service, module, customId, searchDetail1, searchDetail2, additionalDetails);
+                entityManager.persist(auditRecordData);
+            }
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             throw new AuditRecordStorageException(e.getMessage(), e);
@@ -109,4 +127,44 @@ public class IntegrityProtectedLoggerSessionBean implements IntegrityProtectedLo
             }
         }
     }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void persistAuditRecords(final List<AuditRecordData> auditRecords, final boolean skipExisting) {
+        final Map<String, Set<Long>> existingSequenceNumbers = new HashMap<>();
+        for (final AuditRecordData auditRecordData : auditRecords) {
+            if (skipExisting) {
+                Set<Long> existing = existingSequenceNumbers.get(auditRecordData.getNodeId());
+                if (existing == null) {
+                    existing = getExistingSequenceNumbers(auditRecordData.getNodeId(), auditRecords);
+                    existingSequenceNumbers.put(auditRecordData.getNodeId(), existing);
+                }
+                if (existing.contains(auditRecordData.getSequenceNumber())) {
+                    continue;
+                }
+            }
+            // Inserted in JDBC batches of hibernate.jdbc.batch_size, see persistence-ds-template.xml
+            entityManager.persist(auditRecordData);
+        }
+    }
+
+    /** @return the sequence numbers in the range of the given records that already exist in the database for the node */
+    private Set<Long> getExistingSequenceNumbers(final String nodeId, final List<AuditRecordData> auditRecords) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (final AuditRecordData auditRecordData : auditRecords) {
+            if (nodeId.equals(auditRecordData.getNodeId())) {
+                min = Math.min(min, auditRecordData.getSequenceNumber());
+                max = Math.max(max, auditRecordData.getSequenceNumber());
+            }
+        }
+        final Query query = entityManager.createQuery(
+                "SELECT a.sequenceNumber FROM AuditRecordData a WHERE a.nodeId=:nodeId AND a.sequenceNumber>=:min AND a.sequenceNumber<=:max");
+        query.setParameter("nodeId", nodeId);
+        query.setParameter("min", min);
+        query.setParameter("max", max);
+        @SuppressWarnings("unchecked")
+        final List<Long> existing = query.getResultList();
+        return new HashSet<>(existing);
+    }
 }
@@ -33,6 +33,8 @@ import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.roles.AccessRulesHelper;
 import org.cesecore.roles.management.RoleDataSessionLocal;
+import org.cesecore.roles.member.RoleMember;
+import org.cesecore.roles.member.RoleMemberData;
 import org.cesecore.roles.member.RoleMemberDataSessionLocal;
 import org.cesecore.time.TrustedTime;
 import org.cesecore.time.TrustedTimeWatcherSessionLocal;
@@ -49,13 +51,16 @@ import javax.ejb.TimerConfig;
 import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 /**
  * Business logic for the EJBCA 6.8.0+ authorization system.
@@ -65,6 +70,12 @@ import java.util.Map.Entry;
 public class AuthorizationSessionBean implements AuthorizationSessionLocal, AuthorizationSessionRemote {
     private static final Logger log = Logger.getLogger(AuthorizationSessionBean.class);
 
+    private static final Object roleChangesLock = new Object();
+    /** Row versions of all roles and role members at the last cache refresh. Guarded by roleChangesLock. */
+    private static RoleChanges.Snapshot lastRoleSnapshot = null;
+    /** Changes between the last two snapshots, used to keep cached access rules that are not affected by the changes */
+    private static volatile RoleChanges roleChanges = null;
+
     @EJB
     private AccessTreeUpdateSessionLocal accessTreeUpdateSession;
     @EJB
@@ -80,6 +91,8 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
 
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private ManagedExecutorService managedExecutorService;
     private TimerService timerService; // When the sessionContext is injected, the timerService should be looked up.
     private AuthorizationSessionLocal authorizationSession;
 
@@ -181,7 +194,44 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
         if (log.isTraceEnabled()) {
             log.trace("updateCache");
         }
-        AuthorizationCache.INSTANCE.refresh(authorizationCacheCallback, accessTreeUpdateSession.getAccessTreeUpdateNumber());
+        final int updateNumber = accessTreeUpdateSession.getAccessTreeUpdateNumber();
+        updateRoleChanges(updateNumber);
+        AuthorizationCache.INSTANCE.refresh(authorizationCacheCallback, updateNumber, managedExecutorService);
+    }
+
+    /** Find the roles and role members that have changed since the last refresh, if the update number has changed */
+    private void updateRoleChanges(final int updateNumber) {
+        synchronized (roleChangesLock) {
+            if (lastRoleSnapshot!=null && lastRoleSnapshot.getUpdateNumber()==updateNumber) {
+                return;
+            }
+            if (!accessTreeUpdateSession.isNewAuthorizationPatternMarkerPresent()) {
+                // Access rules loaded with the legacy pattern are always loaded again
+                return;
+            }
+            final Map<Integer, Integer> roleVersions = roleDataSession.getRoleVersions();
+            final Map<Integer, Integer> roleMemberVersions = roleMemberDataSession.getRoleMemberVersions();
+            if (accessTreeUpdateSession.getAccessTreeUpdateNumber()!=updateNumber) {
+                // The roles changed while they were read, so all access rules are loaded again and a new snapshot is taken next time
+                lastRoleSnapshot = null;
+                roleChanges = null;
+                return;
+            }
+            final RoleChanges.Snapshot snapshot = new RoleChanges.Snapshot(updateNumber, roleVersions, roleMemberVersions);
+            if (lastRoleSnapshot==null) {
+                roleChanges = null;
+            } else {
+                roleChanges = RoleChanges.compare(lastRoleSnapshot, snapshot, roleMemberId -> {
+                    final RoleMemberData roleMemberData = roleMemberDataSession.find(roleMemberId);
+                    return roleMemberData==null ? null : roleMemberData.asValueObject();
+                });
+                if (log.isDebugEnabled()) {
+                    log.debug("Roles and role members changed from update number " + lastRoleSnapshot.getUpdateNumber() + " to " + updateNumber + ": "
+                            + (roleChanges==null ? "unknown" : roleChanges.isEmpty() ? "none" : "some") + ".");
+                }
+            }
+            lastRoleSnapshot = snapshot;
+        }
     }
     
     @Override
@@ -194,18 +244,33 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
     private AuthorizationCacheCallback authorizationCacheCallback = new AuthorizationCacheCallback() {
         @Override
         public AuthorizationResult loadAuthorization(AuthenticationToken authenticationToken) throws AuthenticationFailedException {
-            HashMap<String, Boolean> accessRules = getAccessAvailableToSingleToken(authenticationToken);
+            // Read the update number first, so that the access rules are at least as new as the update number
+            final int updateNumber = accessTreeUpdateSession.getAccessTreeUpdateNumber();
+            final Set<Integer> roleIds = new HashSet<>();
+            final Set<Integer> roleMemberIds = new HashSet<>();
+            HashMap<String, Boolean> accessRules = getAccessAvailableToSingleToken(authenticationToken, roleIds, roleMemberIds);
             if (authenticationToken instanceof NestableAuthenticationToken) {
                 final List<NestableAuthenticationToken> nestedAuthenticatonTokens = ((NestableAuthenticationToken)authenticationToken).getNestedAuthenticationTokens();
                 for (final NestableAuthenticationToken nestableAuthenticationToken : nestedAuthenticatonTokens) {
-                    final HashMap<String, Boolean> accessRulesForNestedToken = getAccessAvailableToSingleToken(nestableAuthenticationToken);
+                    final HashMap<String, Boolean> accessRulesForNestedToken = getAccessAvailableToSingleToken(nestableAuthenticationToken, roleIds, roleMemberIds);
                     accessRules = AccessRulesHelper.getAccessRulesIntersection(accessRules, accessRulesForNestedToken);
                 }
             }
             if (log.isDebugEnabled()) {
                 debugLogAccessRules(authenticationToken, accessRules);
             }
-            return new AuthorizationResult(accessRules, accessTreeUpdateSession.getAccessTreeUpdateNumber());
+            if (!accessTreeUpdateSession.isNewAuthorizationPatternMarkerPresent()) {
+                // The roles and role members are not tracked with the legacy pattern
+                return new AuthorizationResult(accessRules, updateNumber);
+            }
+            return new AuthorizationResult(accessRules, updateNumber, roleIds, roleMemberIds);
+        }
+
+        @Override
+        public boolean isUnchanged(final AuthenticationToken authenticationToken, final AuthorizationResult authorizationResult, final int updateNumber) {
+            final RoleChanges currentRoleChanges = roleChanges;
+            return currentRoleChanges!=null && currentRoleChanges.isUnchanged(authenticationToken, authorizationResult, updateNumber,
+                    roleMemberDataSession::isMatchingAnyRoleMember);
         }
 
         @Override
@@ -235,9 +300,14 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
         log.debug(sb);
     }
 
-    /** @return the union of access rules available to the AuthenticationToken if it matches several roles (ignoring any nested tokens)  */
+    /**
+     * @param roleIds the ids of the roles the access rules are loaded from are added to this set
+     * @param roleMemberIds the ids of the role members matching the AuthenticationToken are added to this set
+     * @return the union of access rules available to the AuthenticationToken if it matches several roles (ignoring any nested tokens)
+     */
     @SuppressWarnings("deprecation")
-    private HashMap<String, Boolean> getAccessAvailableToSingleToken(final AuthenticationToken authenticationToken) throws AuthenticationFailedException {
+    private HashMap<String, Boolean> getAccessAvailableToSingleToken(final AuthenticationToken authenticationToken, final Set<Integer> roleIds,
+            final Set<Integer> roleMemberIds) throws AuthenticationFailedException {
         HashMap<String, Boolean> accessRules = new HashMap<>();
         if (authenticationToken!=null) {
             if (authenticationToken.getMetaData().isSuperToken()) {
@@ -252,9 +322,15 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
             } else {
                 if (accessTreeUpdateSession.isNewAuthorizationPatternMarkerPresent()) {
                     // This is the new 6.8.0+ behavior (combine access of matched rules)
-                    for (final int matchingRoleId : roleMemberDataSession.getRoleIdsMatchingAuthenticationTokenOrFail(authenticationToken)) {
+                    final Set<Integer> matchingRoleIds = new HashSet<>();
+                    for (final RoleMember roleMember : roleMemberDataSession.getRoleMembersMatchingAuthenticationTokenOrFail(authenticationToken)) {
+                        roleMemberIds.add(roleMember.getId());
+                        matchingRoleIds.add(roleMember.getRoleId());
+                    }
+                    for (final int matchingRoleId : matchingRoleIds) {
                         accessRules = AccessRulesHelper.getAccessRulesUnion(accessRules, roleDataSession.getRole(matchingRoleId).getAccessRules());
                     }
+                    roleIds.addAll(matchingRoleIds);
                 } else {
                     // This is the legacy behavior (use priority matching). Remove this once we no longer need to support upgrades to 6.8.0.
                     // Greater tokenMatchKey number has higher priority. When equal, deny trumps accept
@@ -0,0 +1,165 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.cesecore.authentication.AuthenticationFailedException;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.NestableAuthenticationToken;
+import org.cesecore.authorization.AuthorizationCache.AuthorizationResult;
+import org.cesecore.roles.member.RoleMember;
+
+/**
+ * The roles and role members that changed between two refreshes of the authorization cache, found by comparing the row versions of all
+ * roles and role members. Access rules that were loaded for an authentication token are still valid if none of the roles they were
+ * loaded from changed, none of the role members that matched the token changed, and the token does not match any new role member.
+ *
+ * @version $Id$
+ */
+final class RoleChanges {
+
+    /** The row versions of all roles and role members, read while the update number of the authorization system was unchanged */
+    static final class Snapshot {
+        private final int updateNumber;
+        private final Map<Integer, Integer> roleVersions;
+        private final Map<Integer, Integer> roleMemberVersions;
+
+        Snapshot(final int updateNumber, final Map<Integer, Integer> roleVersions, final Map<Integer, Integer> roleMemberVersions) {
+            this.updateNumber = updateNumber;
+            this.roleVersions = roleVersions;
+            this.roleMemberVersions = roleMemberVersions;
+        }
+
+        int getUpdateNumber() { return updateNumber; }
+    }
+
+    /** Loads role members that were added or modified */
+    interface RoleMemberLoader {
+        /** @return the role member with the id, or null if it does not exist */
+        RoleMember getRoleMember(int roleMemberId);
+    }
+
+    /** Matches authentication tokens with role members */
+    interface RoleMemberMatcher {
+        /** @return true if the authenticationToken matches any of the role members */
+        boolean matchesAny(AuthenticationToken authenticationToken, Collection<RoleMember> roleMembers) throws AuthenticationFailedException;
+    }
+
+    private final int fromUpdateNumber;
+    private final int toUpdateNumber;
+    /** Roles that were added, modified or removed */
+    private final Set<Integer> changedRoleIds;
+    /** Role members that were added, modified or removed */
+    private final Set<Integer> changedRoleMemberIds;
+    /** The current version of role members that were added or modified */
+    private final List<RoleMember> currentRoleMembers;
+
+    private RoleChanges(final int fromUpdateNumber, final int toUpdateNumber, final Set<Integer> changedRoleIds,
+            final Set<Integer> changedRoleMemberIds, final List<RoleMember> currentRoleMembers) {
+        this.fromUpdateNumber = fromUpdateNumber;
+        this.toUpdateNumber = toUpdateNumber;
+        this.changedRoleIds = changedRoleIds;
+        this.changedRoleMemberIds = changedRoleMemberIds;
+        this.currentRoleMembers = currentRoleMembers;
+    }
+
+    /**
+     * @return the changes from one snapshot to another, or null if the added or modified role members could not be loaded since they were
+     * changed again after the snapshot was taken.
+     */
+    static RoleChanges compare(final Snapshot from, final Snapshot to, final RoleMemberLoader roleMemberLoader) {
+        final Set<Integer> changedRoleIds = getChangedIds(from.roleVersions, to.roleVersions);
+        final Set<Integer> changedRoleMemberIds = getChangedIds(from.roleMemberVersions, to.roleMemberVersions);
+        final List<RoleMember> currentRoleMembers = new ArrayList<>();
+        for (final int roleMemberId : changedRoleMemberIds) {
+            if (to.roleMemberVersions.containsKey(roleMemberId)) {
+                final RoleMember roleMember = roleMemberLoader.getRoleMember(roleMemberId);
+                if (roleMember == null) {
+                    return null;
+                }
+                currentRoleMembers.add(roleMember);
+            }
+        }
+        return new RoleChanges(from.updateNumber, to.updateNumber, changedRoleIds, changedRoleMemberIds, currentRoleMembers);
+    }
+
+    /** @return the ids that were added, removed or have a different version */
+    private static Set<Integer> getChangedIds(final Map<Integer, Integer> fromVersions, final Map<Integer, Integer> toVersions) {
+        final Set<Integer> ret = new HashSet<>();
+        for (final Entry<Integer, Integer> entry : toVersions.entrySet()) {
+            if (!entry.getValue().equals(fromVersions.get(entry.getKey()))) {
+                ret.add(entry.getKey());
+            }
+        }
+        for (final Integer id : fromVersions.keySet()) {
+            if (!toVersions.containsKey(id)) {
+                ret.add(id);
+            }
+        }
+        return ret;
+    }
+
+    int getToUpdateNumber() { return toUpdateNumber; }
+
+    boolean isEmpty() {
+        return changedRoleIds.isEmpty() && changedRoleMemberIds.isEmpty();
+    }
+
+    /**
+     * @param authenticationToken the token the access rules were loaded for
+     * @param authorizationResult the access rules that were loaded for the token, with the roles and role members they were loaded from
+     * @param updateNumber the update number that the access rules should be valid in
+     * @param roleMemberMatcher used to check if the token, or any of its nested tokens, matches an added or modified role member
+     * @return true if the access rules are known to be the same in the updateNumber
+     */
+    boolean isUnchanged(final AuthenticationToken authenticationToken, final AuthorizationResult authorizationResult, final int updateNumber,
+            final RoleMemberMatcher roleMemberMatcher) {
+        // Access rules loaded in a later update number might have been loaded from roles that have changed back again
+        if (authorizationResult.getUpdateNumeber() != fromUpdateNumber || updateNumber != toUpdateNumber) {
+            return false;
+        }
+        if (authorizationResult.getRoleIds() == null || authorizationResult.getRoleMemberIds() == null) {
+            return false;
+        }
+        if (!Collections.disjoint(authorizationResult.getRoleIds(), changedRoleIds)
+                || !Collections.disjoint(authorizationResult.getRoleMemberIds(), changedRoleMemberIds)) {
+            return false;
+        }
+        if (currentRoleMembers.isEmpty()) {
+            return true;
+        }
+        try {
+            if (roleMemberMatcher.matchesAny(authenticationToken, currentRoleMembers)) {
+                return false;
+            }
+            if (authenticationToken instanceof NestableAuthenticationToken) {
+                for (final NestableAuthenticationToken nestedAuthenticationToken : ((NestableAuthenticationToken) authenticationToken).getNestedAuthenticationTokens()) {
+                    if (roleMemberMatcher.matchesAny(nestedAuthenticationToken, currentRoleMembers)) {
+                        return false;
+                    }
+                }
+            }
+        } catch (AuthenticationFailedException e) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -15,14 +15,15 @@ package org.cesecore.certificates.certificate;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
 import org.cesecore.config.CesecoreConfiguration;
-import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.ValueExtractor;
 
 /**
@@ -37,37 +38,97 @@ public abstract class BaseCertificateDataSessionBean {
     /** Returns the entity manager to use. */
     protected abstract EntityManager getEntityManager();
     
-    protected Collection<RevokedCertInfo> getRevokedCertInfosInternal(final Query query) {
+    /**
+     * Reads the revoked certificates that match a condition, in batches of {@link CesecoreConfiguration#getDatabaseRevokedCertInfoFetchSize()} rows.
+     *
+     * @param table the table to read from, which is aliased "a" in the condition
+     * @param keyColumn the primary key column of the table, which is used to start each batch after the last row of the previous one
+     * when {@link CesecoreConfiguration#getDatabaseRevokedCertInfoFetchKeyset()} is enabled
+     * @param condition the WHERE condition of the query
+     * @param parameterSetter sets the parameters of the condition on a query
+     * @return the revoked certificates, in a collection that is closed for writing
+     */
+    protected Collection<RevokedCertInfo> getRevokedCertInfosInternal(final String table, final String keyColumn, final String condition,
+            final Consumer<Query> parameterSetter) {
+        final RevokedCertInfoCollection revokedCertInfos = new RevokedCertInfoCollection();
         final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
-        query.setMaxResults(maxResults);
-        int firstResult = 0;
-        final CompressedCollection<RevokedCertInfo> revokedCertInfos = new CompressedCollection<>(RevokedCertInfo.class);
-        while (true) {
-            query.setFirstResult(firstResult);
-            @SuppressWarnings("unchecked")
-            final List<Object[]> incompleteCertificateDatas = query.getResultList();
-            if (incompleteCertificateDatas.size()==0) {
-                break;
+        final String select = "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, "
+                + "a.revocationReason as revocationReason, " + keyColumn + " as keysetKey FROM " + table + " a WHERE " + condition;
+        if (CesecoreConfiguration.getDatabaseRevokedCertInfoFetchKeyset()) {
+            // Each batch starts after the last key of the previous one, so the database does not have to skip the rows already read
+            final Query firstQuery = getEntityManager().createNativeQuery(select + " ORDER BY " + keyColumn);
+            final Query nextQuery = getEntityManager().createNativeQuery(select + " AND " + keyColumn + ">:keysetKey ORDER BY " + keyColumn);
+            parameterSetter.accept(firstQuery);
+            parameterSetter.accept(nextQuery);
+            firstQuery.setMaxResults(maxResults);
+            nextQuery.setMaxResults(maxResults);
+            String lastKey = null;
+            while (true) {
+                final Query query;
+                if (lastKey == null) {
+                    query = firstQuery;
+                } else {
+                    query = nextQuery;
+                    query.setParameter("keysetKey", lastKey);
+                }
+                @SuppressWarnings("unchecked")
+                final List<Object[]> incompleteCertificateDatas = query.getResultList();
+                if (incompleteCertificateDatas.size()==0) {
+                    break;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Read batch of " + incompleteCertificateDatas.size() + " RevokedCertInfo after key " + lastKey + ".");
+                }
+                for (final Object[] current : incompleteCertificateDatas) {
+                    revokedCertInfos.add(toRevokedCertInfo(current));
+                }
+                lastKey = (String) incompleteCertificateDatas.get(incompleteCertificateDatas.size() - 1)[5];
+                if (incompleteCertificateDatas.size() < maxResults) {
+                    break;
+                }
             }
-            if (log.isDebugEnabled()) {
-                log.debug("Read batch of " + incompleteCertificateDatas.size() + " RevokedCertInfo.");
+        } else {
+            final String ordering;
+            if (CesecoreConfiguration.getDatabaseRevokedCertInfoFetchOrdered()) {
+                ordering = " ORDER BY revocationDate, fingerprint ASC";
+            } else {
+                ordering = "";
             }
-            for (final Object[] current : incompleteCertificateDatas) {
-                // The order of the results are defined by the SqlResultSetMapping annotation
-                final byte[] fingerprint = ((String)current[0]).getBytes();
-                final byte[] serialNumber = new BigInteger((String)current[1]).toByteArray();
-                final long expireDate = ValueExtractor.extractLongValue(current[2]);
-                final long revocationDate = ValueExtractor.extractLongValue(current[3]);
-                int revocationReason = ValueExtractor.extractIntValue(current[4]);
-                if (revocationReason == -1) {
-                    revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+            final Query query = getEntityManager().createNativeQuery(select + ordering);
+            parameterSetter.accept(query);
+            query.setMaxResults(maxResults);
+            int firstResult = 0;
+            while (true) {
+                query.setFirstResult(firstResult);
+                @SuppressWarnings("unchecked")
+                final List<Object[]> incompleteCertificateDatas = query.getResultList();
+                if (incompleteCertificateDatas.size()==0) {
+                    break;
                 }
-                revokedCertInfos.add(new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate));
+                if (log.isDebugEnabled()) {
+                    log.debug("Read batch of " + incompleteCertificateDatas.size() + " RevokedCertInfo.");
+                }
+                for (final Object[] current : incompleteCertificateDatas) {
+                    revokedCertInfos.add(toRevokedCertInfo(current));
+                }
+                firstResult += maxResults;
             }
-            firstResult += maxResults;
         }
         revokedCertInfos.closeForWrite();
         return revokedCertInfos;
     }
+
+    private RevokedCertInfo toRevokedCertInfo(final Object[] current) {
+        // The order of the results are defined by the SELECT of getRevokedCertInfosInternal
+        final byte[] fingerprint = ((String)current[0]).getBytes();
+        final byte[] serialNumber = new BigInteger((String)current[1]).toByteArray();
+        final long expireDate = ValueExtractor.extractLongValue(current[2]);
+        final long revocationDate = ValueExtractor.extractLongValue(current[3]);
+        int revocationReason = ValueExtractor.extractIntValue(current[4]);
+        if (revocationReason == -1) {
+            revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+        }
+        return new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate);
+    }
     
 }
@@ -236,41 +236,127 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
                     ", Last Base CRL Date: " + FastDateFormat.getInstance(ValidityDate.ISO8601_DATE_FORMAT, TimeZone.getTimeZone("GMT")).format(lastBaseCrlDate));
         }
         final String crlPartitionExpression;
-        final String ordering;
-        final Query query;
         if (crlPartitionIndex != 0) {
             crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
         } else {
             crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
         }
-        if (CesecoreConfiguration.getDatabaseRevokedCertInfoFetchOrdered()) {
-            ordering = " ORDER BY revocationDate, fingerprint ASC";
-        } else {
-            ordering = "";
-        }
         if (deltaCrl) {
             // Delta CRL
-            query = getEntityManager().createNativeQuery(
-                    "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason FROM CertificateData a WHERE "
-                            + "a.issuerDN=:issuerDN AND a.revocationDate>:revocationDate AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
-                            + crlPartitionExpression + ordering,
-                    "RevokedCertInfoSubset");
-            query.setParameter("revocationDate", lastBaseCrlDate);
-            query.setParameter("status1", CertificateConstants.CERT_REVOKED);
-            query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, we need to include it as "removeFromCRL" in the Delta CRL
-            query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
+            return getRevokedCertInfosInternal("CertificateData", "a.fingerprint",
+                    "a.issuerDN=:issuerDN AND a.revocationDate>:revocationDate AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
+                            + crlPartitionExpression,
+                    query -> {
+                        query.setParameter("issuerDN", issuerDN);
+                        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+                        query.setParameter("revocationDate", lastBaseCrlDate);
+                        query.setParameter("status1", CertificateConstants.CERT_REVOKED);
+                        query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, we need to include it as "removeFromCRL" in the Delta CRL
+                        query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
+                    });
         } else {
             // Base CRL
-            query = getEntityManager().createNativeQuery(
-                    "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason FROM CertificateData a WHERE "
-                            + "a.issuerDN=:issuerDN AND a.status=:status"
-                            + crlPartitionExpression + ordering,
-                    "RevokedCertInfoSubset");
-            query.setParameter("status", CertificateConstants.CERT_REVOKED);
+            return getRevokedCertInfosInternal("CertificateData", "a.fingerprint", "a.issuerDN=:issuerDN AND a.status=:status" + crlPartitionExpression,
+                    query -> {
+                        query.setParameter("issuerDN", issuerDN);
+                        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+                        query.setParameter("status", CertificateConstants.CERT_REVOKED);
+                    });
+        }
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> getExpiredRevokedCertInfos(final String issuerDN, final int crlPartitionIndex, final long expiredBefore) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
+        }
+        return getRevokedCertInfosInternal("CertificateData", "a.fingerprint",
+                "a.issuerDN=:issuerDN AND a.status=:status AND a.expireDate<:expireDate" + crlPartitionExpression,
+                query -> {
+                    query.setParameter("issuerDN", issuerDN);
+                    query.setParameter("status", CertificateConstants.CERT_REVOKED);
+                    query.setParameter("expireDate", expiredBefore);
+                    query.setParameter("crlPartitionIndex", crlPartitionIndex);
+                });
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> getArchivedRevokedCertInfos(final String issuerDN, final int crlPartitionIndex, final long archivedSince) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
+        }
+        return getRevokedCertInfosInternal("CertificateData", "a.fingerprint",
+                "a.issuerDN=:issuerDN AND a.status=:status AND a.updateTime>=:updateTime AND a.revocationReason<>:notRevoked" + crlPartitionExpression,
+                query -> {
+                    query.setParameter("issuerDN", issuerDN);
+                    query.setParameter("status", CertificateConstants.CERT_ARCHIVED);
+                    query.setParameter("updateTime", archivedSince);
+                    query.setParameter("notRevoked", RevokedCertInfo.NOT_REVOKED);
+                    query.setParameter("crlPartitionIndex", crlPartitionIndex);
+                });
+    }
+
+    @Override
+    public List<Object[]> findStatusByIssuerDN(final String issuerDN, final String afterFingerprint, final int maxResults) {
+        final TypedQuery<Object[]> query;
+        if (afterFingerprint == null) {
+            query = entityManager.createQuery("SELECT a.fingerprint, a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.expireDate, a.certificateProfileId"
+                    + " FROM CertificateData a WHERE a.issuerDN=:issuerDN ORDER BY a.fingerprint", Object[].class);
+        } else {
+            query = entityManager.createQuery("SELECT a.fingerprint, a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.expireDate, a.certificateProfileId"
+                    + " FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.fingerprint>:fingerprint ORDER BY a.fingerprint", Object[].class);
+            query.setParameter("fingerprint", afterFingerprint);
         }
         query.setParameter("issuerDN", issuerDN);
-        query.setParameter("crlPartitionIndex", crlPartitionIndex);
-        return getRevokedCertInfosInternal(query);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findStatusByIssuerDNSerialNumbers(final String issuerDN, final Collection<String> serialNumbers) {
+        final TypedQuery<Object[]> query = entityManager.createQuery("SELECT a.fingerprint, a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.expireDate, a.certificateProfileId"
+                + " FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)", Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("serialNumbers", serialNumbers);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findSearchIndexEntries(final String afterFingerprint, final long updatedAfter, final int maxResults) {
+        final StringBuilder sb = new StringBuilder("SELECT a.fingerprint, a.subjectDN, a.subjectAltName, a.username, a.serialNumber FROM CertificateData a");
+        if (afterFingerprint != null) {
+            sb.append(" WHERE a.fingerprint>:fingerprint");
+        }
+        if (updatedAfter >= 0) {
+            sb.append(afterFingerprint != null ? " AND" : " WHERE").append(" a.updateTime>=:updateTime");
+        }
+        sb.append(" ORDER BY a.fingerprint");
+        final TypedQuery<Object[]> query = entityManager.createQuery(sb.toString(), Object[].class);
+        if (afterFingerprint != null) {
+            query.setParameter("fingerprint", afterFingerprint);
+        }
+        if (updatedAfter >= 0) {
+            query.setParameter("updateTime", updatedAfter);
+        }
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findStatusByIssuerDNAndUpdateTime(final String issuerDN, final long updateTime) {
+        final TypedQuery<Object[]> query = entityManager.createQuery(
+                "SELECT a.fingerprint, a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.expireDate, a.certificateProfileId"
+                + " FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.updateTime>=:updateTime",
+                Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("updateTime", updateTime);
+        return query.getResultList();
     }
 
     @Override
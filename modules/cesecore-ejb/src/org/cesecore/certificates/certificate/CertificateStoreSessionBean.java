@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -34,6 +35,7 @@ import java.util.Set;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.SessionContext;
@@ -47,6 +49,7 @@ import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -70,6 +73,8 @@ import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLoc
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.certificates.endentity.EndEntityConstants;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
+import org.cesecore.certificates.ocsp.cache.OcspStatusIndex;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.config.GlobalCesecoreConfiguration;
 import org.cesecore.config.OcspConfiguration;
@@ -95,6 +100,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     /** Internal localization of logs and errors */
     private static final InternalResources INTRES = InternalResources.getInstance();
     private static final int TIMERID_CACERTIFICATECACHE = 1;
+    /** Maximum number of serial numbers in the IN clause of one status query */
+    private static final int STATUS_QUERY_BATCH_SIZE = 100;
 
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
@@ -112,6 +119,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     // Myself needs to be looked up in postConstruct
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     private CertificateStoreSessionLocal certificateStoreSession;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining.
@@ -259,6 +268,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             certificateData.setRevocationReason(revocationReason.getDatabaseValue());
         }
         entityManager.persist(certificateData);
+        updateOcspStatusIndex(certificateData);
+        addToCertificateSearchIndex(certificateData);
         if (doAuditLog) {
             final String serialNo = CertTools.getSerialNumberAsString(incert);
             final String msg = INTRES.getLocalizedMessage("store.storecertwithaccountbindingid", username, certificateData.getFingerprint(), certificateData.getSubjectDnNeverNull(), 
@@ -1219,6 +1230,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             } else {
                 entityManager.merge(certificateData);
             }
+            updateOcspStatusIndex(certificateData);
+            invalidateVerifiedSigner(certificateData.getFingerprint());
         }
         if (log.isTraceEnabled()) {
             log.trace("<private setRevokeStatusNoAuth(), issuerdn=" + issuerDn + ", serno=" + serialNumber);
@@ -1249,11 +1262,14 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 	d.setStatus(CertificateConstants.CERT_REVOKED);
                 	d.setRevocationDate(System.currentTimeMillis());
                 	d.setRevocationReason(reason);
+                	d.setUpdateTime(System.currentTimeMillis());
+                	updateOcspStatusIndex(d);
                 	revoked++;
             	}
             	firstResult += maxRows;
             	list = findAllNonRevokedCertificates(bcdn, firstResult, maxRows);
             }
+            runAfterCommit(VerifiedSignerCache.INSTANCE::clear);
             final String msg = INTRES.getLocalizedMessage("store.revokedallbyca", issuerdn, Integer.valueOf(revoked), Integer.valueOf(reason));
     		Map<String, Object> details = new LinkedHashMap<>();
     		details.put("msg", msg);
@@ -1331,20 +1347,19 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         final String dn = CertTools.stringToBCDNString(issuerDN);
 
         try {
-            Collection<CertificateData> coll = certificateDataSession.findByIssuerDNSerialNumber(dn, serno.toString());
-
+            // Only the status columns are needed, so don't load the certificate and row protection
+            final List<Object[]> rows = certificateDataSession.findStatusByIssuerDNSerialNumbers(dn, Collections.singletonList(serno.toString()));
 
-            if (coll.size() > 1) {
+            if (rows.size() > 1) {
                 final String msg = INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, serno.toString(16));
                 log.error(msg);
             }
 
-            for(CertificateData data : coll) {
-                final CertificateStatus result = CertificateStatusHelper.getCertificateStatus(data);
+            for (final Object[] row : rows) {
+                final CertificateStatus result = getCertificateStatusFromRow(row);
                 if (log.isTraceEnabled()) {
                     log.trace("<getStatus() returned " + result + " for cert number " + serno.toString(16));
                 }
-                result.setExpirationDate(data.getExpireDate());
                 return result;
             }
             if (log.isTraceEnabled()) {
@@ -1356,6 +1371,41 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return CertificateStatus.NOT_AVAILABLE;
     }
 
+    @Override
+    public Map<BigInteger, CertificateStatus> getStatuses(final String issuerDN, final Collection<BigInteger> sernos) {
+        if (log.isTraceEnabled()) {
+            log.trace(">getStatuses(), dn:" + issuerDN + ", " + sernos.size() + " serial numbers");
+        }
+        final String dn = CertTools.stringToBCDNString(issuerDN);
+        final Map<BigInteger, CertificateStatus> ret = new HashMap<>();
+        final List<String> serialNumbers = new ArrayList<>(sernos.size());
+        for (final BigInteger serno : sernos) {
+            if (ret.put(serno, CertificateStatus.NOT_AVAILABLE) == null) {
+                serialNumbers.add(serno.toString());
+            }
+        }
+        try {
+            for (int i = 0; i < serialNumbers.size(); i += STATUS_QUERY_BATCH_SIZE) {
+                final List<String> batch = serialNumbers.subList(i, Math.min(serialNumbers.size(), i + STATUS_QUERY_BATCH_SIZE));
+                final Set<BigInteger> found = new HashSet<>();
+                for (final Object[] row : certificateDataSession.findStatusByIssuerDNSerialNumbers(dn, batch)) {
+                    final BigInteger serno = new BigInteger((String) row[1]);
+                    if (!found.add(serno)) {
+                        log.error(INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, serno.toString(16)));
+                        continue;
+                    }
+                    ret.put(serno, getCertificateStatusFromRow(row));
+                }
+            }
+        } catch (Exception e) {
+            throw new EJBException(e);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<getStatuses()");
+        }
+        return ret;
+    }
+
     @Override
     public CertificateStatusHolder getCertificateAndStatus(String issuerDN, BigInteger serno) {
         if (log.isTraceEnabled()) {
@@ -1400,6 +1450,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         authorizedToCA(admin, caid);
 
         certificateData.setStatus(status);
+        certificateData.setUpdateTime(System.currentTimeMillis());
+        updateOcspStatusIndex(certificateData);
+        invalidateVerifiedSigner(certificateData.getFingerprint());
         final Certificate certificate = certificateData.getCertificate(this.entityManager);
         String serialNo;
         if (certificate==null) {
@@ -1659,6 +1712,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         if (cdw==null) {
             if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
                 deleteLimitedCertificateData(limitedFingerprint);
+                removeFromOcspStatusIndex(issuerDn, serialNumber);
             } else {
                 // Create a limited entry
                 final CertificateData limitedCertificateData = new CertificateData();
@@ -1675,10 +1729,13 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 limitedCertificateData.setCaFingerprint(caFingerprint);
                 log.info("Adding limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"'");
                 entityManager.persist(limitedCertificateData);
+                updateOcspStatusIndex(limitedCertificateData);
+                addToCertificateSearchIndex(limitedCertificateData);
             }
         } else if (limitedFingerprint.equals(cdw.getCertificateData().getFingerprint())) {
         	if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
                 deleteLimitedCertificateData(limitedFingerprint);
+                removeFromOcspStatusIndex(issuerDn, serialNumber);
         	} else {
         	    final CertificateData limitedCertificateData = cdw.getCertificateData();
         	    if (cdw.getCertificateData().getRevocationDate()!=revocationDate.getTime() || cdw.getCertificateData().getRevocationReason()!=reasonCode) {
@@ -1689,6 +1746,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                     limitedCertificateData.setRevocationDate(revocationDate);
                     limitedCertificateData.setUpdateTime(System.currentTimeMillis());
                     entityManager.merge(limitedCertificateData);
+                    updateOcspStatusIndex(limitedCertificateData);
         	    } else {
         	        if (log.isDebugEnabled()) {
                         log.debug("Limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"' was already up to date.");
@@ -1701,6 +1759,181 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void loadOcspStatusIndex(final String issuerDN) {
+        final long startTime = System.currentTimeMillis();
+        final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        log.info("Loading OCSP status index for issuer '" + issuerDN + "'.");
+        String lastFingerprint = null;
+        int count = 0;
+        while (true) {
+            final List<Object[]> rows = certificateDataSession.findStatusByIssuerDN(issuerDN, lastFingerprint, maxResults);
+            if (rows.isEmpty()) {
+                break;
+            }
+            for (final Object[] row : rows) {
+                // Entries that were updated after the query was made must not be overwritten
+                OcspStatusIndex.INSTANCE.addStatus(issuerDN, new BigInteger((String) row[1]), getCertificateStatusFromRow(row));
+            }
+            count += rows.size();
+            lastFingerprint = (String) rows.get(rows.size() - 1)[0];
+            if (log.isDebugEnabled()) {
+                log.debug("Loaded " + count + " entries into the OCSP status index for issuer '" + issuerDN + "'.");
+            }
+            if (rows.size() < maxResults) {
+                break;
+            }
+        }
+        OcspStatusIndex.INSTANCE.setLoaded(issuerDN, startTime);
+        log.info("Loaded " + count + " entries into the OCSP status index for issuer '" + issuerDN + "' in " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void refreshOcspStatusIndex(final String issuerDN, final long updateTime) {
+        final List<Object[]> rows = certificateDataSession.findStatusByIssuerDNAndUpdateTime(issuerDN, updateTime);
+        for (final Object[] row : rows) {
+            OcspStatusIndex.INSTANCE.updateStatus(issuerDN, new BigInteger((String) row[1]), getCertificateStatusFromRow(row));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Refreshed " + rows.size() + " entries in the OCSP status index for issuer '" + issuerDN + "'.");
+        }
+    }
+
+    @Asynchronous
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void loadCertificateSearchIndex() {
+        if (!CertificateSearchIndex.INSTANCE.isEnabled()) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        log.info("Loading certificate search index.");
+        String lastFingerprint = null;
+        long count = 0;
+        try {
+            while (CertificateSearchIndex.INSTANCE.isEnabled()) {
+                final List<Object[]> rows = certificateDataSession.findSearchIndexEntries(lastFingerprint, -1, maxResults);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                addToCertificateSearchIndex(rows);
+                count += rows.size();
+                lastFingerprint = (String) rows.get(rows.size() - 1)[0];
+                if (log.isDebugEnabled()) {
+                    log.debug("Loaded " + count + " certificates into the certificate search index.");
+                }
+                if (rows.size() < maxResults) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to load the certificate search index, certificate searches will not use it: " + e.getMessage(), e);
+            return;
+        }
+        if (CertificateSearchIndex.INSTANCE.isEnabled()) {
+            CertificateSearchIndex.INSTANCE.setLoaded(startTime);
+            log.info("Loaded " + count + " certificates into the certificate search index in " + (System.currentTimeMillis() - startTime) + " ms.");
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void refreshCertificateSearchIndex(final long updateTime) {
+        final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        String lastFingerprint = null;
+        int count = 0;
+        while (true) {
+            final List<Object[]> rows = certificateDataSession.findSearchIndexEntries(lastFingerprint, updateTime, maxResults);
+            addToCertificateSearchIndex(rows);
+            count += rows.size();
+            if (rows.size() < maxResults) {
+                break;
+            }
+            lastFingerprint = (String) rows.get(rows.size() - 1)[0];
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Refreshed " + count + " certificates in the certificate search index.");
+        }
+    }
+
+    /** Adds rows returned by {@link CertificateDataSessionLocal#findSearchIndexEntries} to the certificate search index */
+    private void addToCertificateSearchIndex(final List<Object[]> rows) {
+        for (final Object[] row : rows) {
+            CertificateSearchIndex.INSTANCE.add((String) row[0], (String) row[1], (String) row[2], (String) row[3], (String) row[4]);
+        }
+    }
+
+    /** Adds the certificate to the certificate search index, once the current transaction has been committed. Does nothing unless the index is enabled. */
+    private void addToCertificateSearchIndex(final BaseCertificateData certificateData) {
+        if (CertificateSearchIndex.INSTANCE.isEnabled()) {
+            final String fingerprint = certificateData.getFingerprint();
+            final String subjectDn = certificateData.getSubjectDN();
+            final String subjectAltName = certificateData.getSubjectAltName();
+            final String username = certificateData.getUsername();
+            final String serialNumber = certificateData.getSerialNumber();
+            runAfterCommit(() -> CertificateSearchIndex.INSTANCE.add(fingerprint, subjectDn, subjectAltName, username, serialNumber));
+        }
+    }
+
+    /** @return the status from a row returned by {@link CertificateDataSessionLocal#findStatusByIssuerDN} */
+    private CertificateStatus getCertificateStatusFromRow(final Object[] row) {
+        final Integer certificateProfileId = row[6] == null ? null : ValueExtractor.extractIntValue(row[6]);
+        final CertificateStatus status = CertificateStatusHelper.getCertificateStatus(ValueExtractor.extractIntValue(row[2]),
+                ValueExtractor.extractLongValue(row[3]), ValueExtractor.extractIntValue(row[4]), certificateProfileId);
+        status.setExpirationDate(ValueExtractor.extractLongValue(row[5]));
+        return status;
+    }
+
+    /**
+     * Updates the OCSP status index with the status of the certificate, and removes any cached OCSP responses for it, once the
+     * current transaction has been committed. Does nothing unless the index or the response cache is enabled.
+     */
+    private void updateOcspStatusIndex(final BaseCertificateData certificateData) {
+        final boolean statusIndexEnabled = OcspStatusIndex.INSTANCE.isEnabled();
+        final boolean responseCacheEnabled = OcspResponseCache.INSTANCE.isEnabled();
+        if (!statusIndexEnabled && !responseCacheEnabled) {
+            return;
+        }
+        final BigInteger serialNumber;
+        try {
+            serialNumber = new BigInteger(certificateData.getSerialNumber());
+        } catch (NumberFormatException e) {
+            return; // Not an X.509 certificate
+        }
+        if (responseCacheEnabled) {
+            runAfterCommit(() -> OcspResponseCache.INSTANCE.invalidate(serialNumber));
+        }
+        if (statusIndexEnabled) {
+            final String issuerDn = certificateData.getIssuerDN();
+            final CertificateStatus status = CertificateStatusHelper.getCertificateStatus(certificateData);
+            status.setExpirationDate(certificateData.getExpireDate());
+            runAfterCommit(() -> OcspStatusIndex.INSTANCE.updateStatus(issuerDn, serialNumber, status));
+        }
+    }
+
+    /** Removes a certificate from the OCSP status index and the OCSP response cache, once the current transaction has been committed. */
+    private void removeFromOcspStatusIndex(final String issuerDn, final BigInteger serialNumber) {
+        if (OcspResponseCache.INSTANCE.isEnabled()) {
+            runAfterCommit(() -> OcspResponseCache.INSTANCE.invalidate(serialNumber));
+        }
+        if (OcspStatusIndex.INSTANCE.isEnabled()) {
+            runAfterCommit(() -> OcspStatusIndex.INSTANCE.removeStatus(issuerDn, serialNumber));
+        }
+    }
+
+    /** Removes a certificate from the cache of verified request signers, once the current transaction has been committed. */
+    private void invalidateVerifiedSigner(final String fingerprint) {
+        runAfterCommit(() -> VerifiedSignerCache.INSTANCE.invalidate(fingerprint));
+    }
+
+    /** Runs the task when the current transaction commits, or directly if there is no transaction. The task is dropped on rollback. */
+    private void runAfterCommit(final Runnable task) {
+        TransactionTools.runAfterCommit(transactionSynchronizationRegistry, task);
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     public void reloadCaCertificateCache() {
@@ -21,7 +21,6 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
-import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
 import org.apache.commons.lang.time.FastDateFormat;
@@ -97,8 +96,7 @@ public class NoConflictCertificateDataSessionBean extends BaseCertificateDataSes
         }
         final String crlPartitionExpression;
         final String excludeExpiredExpression;
-        final String ordering;
-        final Query query;
+        final String condition;
         if (crlPartitionIndex != 0) {
             crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
         } else {
@@ -109,36 +107,47 @@ public class NoConflictCertificateDataSessionBean extends BaseCertificateDataSes
         } else {
             excludeExpiredExpression = " AND a.expireDate >= :expiredAfter";
         }
-        if (CesecoreConfiguration.getDatabaseRevokedCertInfoFetchOrdered()) {
-            ordering = " ORDER BY revocationDate, fingerprint ASC";
-        } else {
-            ordering = "";
-        }
         if (deltaCrl) {
             // Delta CRL
-            query = getEntityManager().createNativeQuery(
-                    "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason FROM NoConflictCertificateData a WHERE "
-                            + "a.issuerDN=:issuerDN AND a.revocationDate>:revocationDate AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
-                            + crlPartitionExpression + ordering,
-                    "RevokedCertInfoSubset");
-            query.setParameter("revocationDate", lastBaseCrlDate);
+            condition = "a.issuerDN=:issuerDN AND a.revocationDate>:revocationDate AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
+                    + crlPartitionExpression;
         } else {
             // Base CRL
-            query = getEntityManager().createNativeQuery(
-                    "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason FROM NoConflictCertificateData a WHERE "
-                            + "a.issuerDN=:issuerDN AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
-                            + crlPartitionExpression + excludeExpiredExpression + ordering,
-                    "RevokedCertInfoSubset");
-            if (!keepExpiredCertsOnCrl) {
+            condition = "a.issuerDN=:issuerDN AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
+                    + crlPartitionExpression + excludeExpiredExpression;
+        }
+        // The fingerprint is not unique in the append-only table, so the rows are read in the order of the primary key
+        return getRevokedCertInfosInternal("NoConflictCertificateData", "a.id", condition, query -> {
+            if (deltaCrl) {
+                query.setParameter("revocationDate", lastBaseCrlDate);
+            } else if (!keepExpiredCertsOnCrl) {
                 query.setParameter("expiredAfter", lastBaseCrlDate);
             }
+            query.setParameter("issuerDN", issuerDN);
+            query.setParameter("crlPartitionIndex", crlPartitionIndex);
+            query.setParameter("status1", CertificateConstants.CERT_REVOKED);
+            query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, we need to include it as "removeFromCRL" in the Delta CRL
+            query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
+        });
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> getExpiredRevokedCertInfos(final String issuerDN, final int crlPartitionIndex, final long expiredAfter, final long expiredBefore) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
         }
-        query.setParameter("issuerDN", issuerDN);
-        query.setParameter("crlPartitionIndex", crlPartitionIndex);
-        query.setParameter("status1", CertificateConstants.CERT_REVOKED);
-        query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, we need to include it as "removeFromCRL" in the Delta CRL
-        query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
-        return getRevokedCertInfosInternal(query);
+        return getRevokedCertInfosInternal("NoConflictCertificateData", "a.id",
+                "a.issuerDN=:issuerDN AND a.status=:status AND a.expireDate>=:expiredAfter AND a.expireDate<:expiredBefore" + crlPartitionExpression,
+                query -> {
+                    query.setParameter("issuerDN", issuerDN);
+                    query.setParameter("status", CertificateConstants.CERT_REVOKED);
+                    query.setParameter("expiredAfter", expiredAfter);
+                    query.setParameter("expiredBefore", expiredBefore);
+                    query.setParameter("crlPartitionIndex", crlPartitionIndex);
+                });
     }
     
 }
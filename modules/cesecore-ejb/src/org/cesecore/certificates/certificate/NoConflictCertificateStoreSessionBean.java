@@ -46,6 +46,7 @@ import org.cesecore.certificates.certificateprofile.CertificateProfile;
 import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
@@ -81,6 +82,8 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
     @EJB
     private CertificateProfileSessionLocal certificateProfileSession;
     @EJB
+    private CertificateDataSessionLocal certificateDataSession;
+    @EJB
     private CertificateStoreSessionLocal certificateStoreSession;
     @EJB
     private SecurityEventsLoggerSessionLocal logSession;
@@ -211,6 +214,34 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
         }
         return RevokedCertInfo.mergeByDateAndStatus(revokedInCertData, revokedInNoConflictData, lastBaseCrlDate);
     }
+
+    @Override
+    public Collection<RevokedCertInfo> listExpiredRevokedCertInfo(final String issuerDN, final int crlPartitionIndex, final long lastBaseCrlDate, final long since) {
+        final String certificateDataIssuerDN = CertTools.stringToBCDNString(StringTools.strip(issuerDN));
+        final RevokedCertInfoCollection result = new RevokedCertInfoCollection();
+        addRevokedCertInfos(result, certificateDataSession.getExpiredRevokedCertInfos(certificateDataIssuerDN, crlPartitionIndex, lastBaseCrlDate), false);
+        addRevokedCertInfos(result, certificateDataSession.getArchivedRevokedCertInfos(certificateDataIssuerDN, crlPartitionIndex, since), true);
+        addRevokedCertInfos(result, noConflictCertificateDataSession.getExpiredRevokedCertInfos(issuerDN, crlPartitionIndex, since, lastBaseCrlDate), true);
+        result.closeForWrite();
+        if (log.isDebugEnabled()) {
+            log.debug("listExpiredRevokedCertInfo: Got " + result.size() + " expired or archived entries for '" + issuerDN + "'");
+        }
+        return result;
+    }
+
+    /** Adds the entries to a collection, with reason REMOVEFROMCRL if they are no longer on base CRLs, and releases their resources */
+    private void addRevokedCertInfos(final Collection<RevokedCertInfo> result, final Collection<RevokedCertInfo> revokedCertInfos, final boolean removeFromCrl) {
+        try {
+            for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+                if (removeFromCrl) {
+                    revokedCertInfo.setReason(RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL);
+                }
+                result.add(revokedCertInfo);
+            }
+        } finally {
+            revokedCertInfos.clear();
+        }
+    }
     
     /**
      * Locates the most recent entry in NoConflictCertificateData for a given issuerdn/serial number combination.
@@ -0,0 +1,53 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Helper for updating node local caches only once the changes they reflect have been committed.
+ *
+ * @version $Id$
+ */
+public final class TransactionTools {
+
+    private TransactionTools() {}
+
+    /**
+     * Runs the task when the current transaction commits, or directly if there is no transaction. The task is dropped on rollback.
+     *
+     * @param transactionSynchronizationRegistry the registry injected in the calling bean, or null if there is none (e.g. in unit tests)
+     * @param task the task to run
+     */
+    public static void runAfterCommit(final TransactionSynchronizationRegistry transactionSynchronizationRegistry, final Runnable task) {
+        if (transactionSynchronizationRegistry == null || transactionSynchronizationRegistry.getTransactionKey() == null) {
+            task.run();
+            return;
+        }
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // NOOP
+            }
+
+            @Override
+            public void afterCompletion(final int transactionStatus) {
+                if (transactionStatus == Status.STATUS_COMMITTED) {
+                    task.run();
+                }
+            }
+        });
+    }
+}
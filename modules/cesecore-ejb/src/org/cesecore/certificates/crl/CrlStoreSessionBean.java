@@ -23,11 +23,13 @@ import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.AuthorizationSessionLocal;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.TransactionTools;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.CertTools;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
@@ -35,6 +37,7 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -61,6 +64,8 @@ public class CrlStoreSessionBean implements CrlStoreSessionLocal, CrlStoreSessio
     private AuthorizationSessionLocal authorizationSession;
     @EJB
     private SecurityEventsLoggerSessionLocal logSession;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
 
     @Override
     public void storeCRL(final AuthenticationToken admin, final byte[] incrl, final String cafp, final int number, final String issuerDN, final int crlPartitionIndex,
@@ -87,6 +92,8 @@ public class CrlStoreSessionBean implements CrlStoreSessionLocal, CrlStoreSessio
             Map<String, Object> details = new LinkedHashMap<String, Object>();
             details.put("msg", msg);
             logSession.log(EventTypes.CRL_STORED, EventStatus.SUCCESS, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
+            // Tell caches of CRLs on this node that a new CRL is available, once it has been committed
+            TransactionTools.runAfterCommit(transactionSynchronizationRegistry, () -> CrlUpdateNotifier.INSTANCE.crlStored(bcdn));
         } catch (Exception e) {
             String msg = intres.getLocalizedMessage("store.errorstorecrl", Integer.valueOf(number), issuerDN);
             log.error(msg, e);
@@ -13,7 +13,9 @@
 package org.cesecore.roles.management;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -65,6 +67,17 @@ public class RoleDataSessionBean implements RoleDataSessionLocal, RoleDataSessio
         return ret;
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public Map<Integer, Integer> getRoleVersions() {
+        final TypedQuery<Object[]> query = entityManager.createQuery("SELECT a.id, a.rowVersion FROM RoleData a", Object[].class);
+        final Map<Integer, Integer> ret = new HashMap<>();
+        for (final Object[] row : query.getResultList()) {
+            ret.put(((Number) row[0]).intValue(), ((Number) row[1]).intValue());
+        }
+        return ret;
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     public Role getRole(final String nameSpace, final String roleName) {
@@ -13,6 +13,7 @@
 package org.cesecore.roles.member;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -232,13 +233,49 @@ public class RoleMemberDataSessionBean implements RoleMemberDataSessionLocal, Ro
     @Override
     public Set<Integer> getRoleIdsMatchingAuthenticationTokenOrFail(final AuthenticationToken authenticationToken) throws AuthenticationFailedException {
         final Set<Integer> ret = new HashSet<>();
+        for (final RoleMember roleMember : getRoleMembersMatchingAuthenticationTokenOrFail(authenticationToken)) {
+            ret.add(roleMember.getRoleId());
+        }
+        return ret;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public Set<RoleMember> getRoleMembersMatchingAuthenticationTokenOrFail(final AuthenticationToken authenticationToken) throws AuthenticationFailedException {
+        final Set<RoleMember> ret = new HashSet<>();
+        if (authenticationToken!=null) {
+            for (final RoleMember roleMember : getRoleMembersForAuthenticationToken(authenticationToken)) {
+                if (authenticationToken.matches(convertToAccessUserAspect(roleMember))) {
+                    ret.add(roleMember);
+                }
+            }
+        }
+        return ret;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public boolean isMatchingAnyRoleMember(final AuthenticationToken authenticationToken, final Collection<RoleMember> roleMembers) throws AuthenticationFailedException {
         if (authenticationToken!=null) {
-            for (final RoleMember roleMemberData : getRoleMembersForAuthenticationToken(authenticationToken)) {
-                if (authenticationToken.matches(convertToAccessUserAspect(roleMemberData))) {
-                    ret.add(roleMemberData.getRoleId());
+            final String tokenType = authenticationToken.getMetaData().getTokenType();
+            for (final RoleMember roleMember : roleMembers) {
+                if (roleMember.getRoleId()!=RoleMember.NO_ROLE && tokenType.equals(roleMember.getTokenType())
+                        && authenticationToken.matches(convertToAccessUserAspect(roleMember))) {
+                    return true;
                 }
             }
         }
+        return false;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public Map<Integer, Integer> getRoleMemberVersions() {
+        final TypedQuery<Object[]> query = entityManager.createQuery("SELECT a.primaryKey, a.rowVersion FROM RoleMemberData a", Object[].class);
+        final Map<Integer, Integer> ret = new HashMap<>();
+        for (final Object[] row : query.getResultList()) {
+            ret.put(((Number) row[0]).intValue(), ((Number) row[1]).intValue());
+        }
         return ret;
     }
     
@@ -35,14 +35,21 @@ public abstract class CertificateStatusHelper {
         if (certificateData == null) {
             return CertificateStatus.NOT_AVAILABLE;
         }
-        final int certProfileId;
-        {
-            final Integer tmp = certificateData.getCertificateProfileId();
-            certProfileId = tmp != null ? tmp.intValue() : CertificateProfileConstants.CERTPROFILE_NO_PROFILE;
-        }
-        final int status = certificateData.getStatus();
-        final int revReason = certificateData.getRevocationReason();
-        final long revDate = certificateData.getRevocationDate();
+        return getCertificateStatus(certificateData.getStatus(), certificateData.getRevocationDate(), certificateData.getRevocationReason(),
+                certificateData.getCertificateProfileId());
+    }
+
+    /**
+     * Same as {@link #getCertificateStatus(BaseCertificateData)}, but from the individual database columns.
+     *
+     * @param status the status column, one of CertificateConstants.CERT_*
+     * @param revDate the revocationDate column
+     * @param revReason the revocationReason column
+     * @param certificateProfileId the certificateProfileId column, may be null
+     * @return CertificateStatus, can be compared (==) with CertificateStatus.OK and CertificateStatus.REVOKED
+     */
+    public static CertificateStatus getCertificateStatus(final int status, final long revDate, final int revReason, final Integer certificateProfileId) {
+        final int certProfileId = certificateProfileId != null ? certificateProfileId.intValue() : CertificateProfileConstants.CERTPROFILE_NO_PROFILE;
         if (status == CertificateConstants.CERT_REVOKED) {
             return new CertificateStatus(CertificateStatus.REVOKED.toString(), revDate, revReason, certProfileId);
         }
@@ -57,5 +64,4 @@ public abstract class CertificateStatusHelper {
         return new CertificateStatus(CertificateStatus.REVOKED.toString(), revDate, revReason, certProfileId);
     }
 
-
 }
@@ -62,6 +62,21 @@ import org.cesecore.dbprotection.ProtectionStringBuilder;
                                   "ON ocsp.serialNumber = maxProducedAtTable.serialNumber AND ocsp.producedAt = maxProducedAtTable.maximumProducedAt " +
                                   "WHERE cAId = :caId AND ocsp.nextUpdate <= :expirationDate",
                           resultSetMapping = "OcspResponseData"),
+        // Serial numbers of the same responses as above, in order, so that they can be read page by page without an offset
+        @NamedNativeQuery(name = OcspResponseData.FIND_EXPIRING_OCSP_SERIAL_NUMBERS_BY_CAID,
+                          query = "SELECT DISTINCT ocsp.serialNumber FROM OcspResponseData ocsp INNER JOIN (" +
+                                  "     SELECT serialNumber, MAX(producedAt) as maximumProducedAt FROM OcspResponseData GROUP BY serialNumber" +
+                                  ") maxProducedAtTable " +
+                                  "ON ocsp.serialNumber = maxProducedAtTable.serialNumber AND ocsp.producedAt = maxProducedAtTable.maximumProducedAt " +
+                                  "WHERE cAId = :caId AND ocsp.nextUpdate <= :expirationDate " +
+                                  "ORDER BY ocsp.serialNumber"),
+        @NamedNativeQuery(name = OcspResponseData.FIND_EXPIRING_OCSP_SERIAL_NUMBERS_BY_CAID_AFTER_SERIAL_NUMBER,
+                          query = "SELECT DISTINCT ocsp.serialNumber FROM OcspResponseData ocsp INNER JOIN (" +
+                                  "     SELECT serialNumber, MAX(producedAt) as maximumProducedAt FROM OcspResponseData GROUP BY serialNumber" +
+                                  ") maxProducedAtTable " +
+                                  "ON ocsp.serialNumber = maxProducedAtTable.serialNumber AND ocsp.producedAt = maxProducedAtTable.maximumProducedAt " +
+                                  "WHERE cAId = :caId AND ocsp.nextUpdate <= :expirationDate AND ocsp.serialNumber > :serialNumber " +
+                                  "ORDER BY ocsp.serialNumber"),
 
         // ORACLE   : It doesn't support deleting directly using joins and subqueries.
         // MARIADB  : Current version requires another subquery "SELECT latestResponses.id FROM" when querying and deleting from the same table.
@@ -114,6 +129,8 @@ import org.cesecore.dbprotection.ProtectionStringBuilder;
 public class OcspResponseData extends ProtectedData implements Serializable {
 
     public static final String FIND_EXPIRING_OCPS_DATA_BY_CAID = "OcspResponseData.findExpiringOcpsDataByCaId";
+    public static final String FIND_EXPIRING_OCSP_SERIAL_NUMBERS_BY_CAID = "OcspResponseData.findExpiringOcspSerialNumbersByCaId";
+    public static final String FIND_EXPIRING_OCSP_SERIAL_NUMBERS_BY_CAID_AFTER_SERIAL_NUMBER = "OcspResponseData.findExpiringOcspSerialNumbersByCaIdAfterSerialNumber";
     public static final String DELETE_OLD_OCSP_DATA_BY_CAID = "OcspResponseData.deleteOldOcspDataByCaId";
     public static final String DELETE_OLD_OCSP_DATA = "OcspResponseData.deleteOldOcspData";
 
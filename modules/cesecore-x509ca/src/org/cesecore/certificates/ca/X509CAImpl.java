@@ -83,7 +83,6 @@ import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
 import org.bouncycastle.asn1.x509.KeyUsage;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
-import org.bouncycastle.cert.CertException;
 import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.X509v2CRLBuilder;
@@ -133,6 +132,7 @@ import org.cesecore.certificates.certificatetransparency.CTLogInfo;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparency;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparencyFactory;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.StreamingCrlEncoder;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.EndEntityType;
 import org.cesecore.certificates.endentity.EndEntityTypes;
@@ -2018,17 +2018,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
 
         final X509v2CRLBuilder crlgen = new X509v2CRLBuilder(issuer, thisUpdate);
         crlgen.setNextUpdate(nextUpdate);
-        if (certs != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
-            }
-            for (final RevokedCertInfo certinfo : certs) {
-                crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason());
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("Finished adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
-            }
-        }
+        // The revoked certificates are added when the CRL is signed, see below
 
 
         // Authority key identifier
@@ -2140,57 +2130,72 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
         }
 
         final X509CRLHolder crl;
-        if (log.isDebugEnabled()) {
-            log.debug("Signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
-        }
         String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
         if (isMsCaCompatible() && partitionCaCert != null) {
             alias = getSignKeyAliasFromSubjectKeyId(cryptoToken, CertTools.getSubjectKeyId(partitionCaCert));
         }
-        
-        try {
-            final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(cryptoToken.getSignProviderName()).build(cryptoToken.getPrivateKey(alias)), X509CAImpl.SIGN_BUFFER_SIZE);
-            crl = crlgen.build(signer);
-        } catch (OperatorCreationException e) {
-            // Very fatal error
-            throw new RuntimeException("Can not create Jca content signer: ", e);
-        }
-        if (log.isDebugEnabled()) {
-            log.debug("Finished signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
-        }
-
-        // Verify using the CA certificate before returning
-        // If we can not verify the issued CRL using the CA certificate we don't want to issue this CRL
-        // because something is wrong...
-        final PublicKey verifyKey;
-        if (cacert != null) {
-            verifyKey = cacert.getPublicKey();
-            if (log.isTraceEnabled()) {
-                log.trace("Got the verify key from the CA certificate.");
+        // The entries are encoded one by one into a buffer that is moved to a temporary file when large, instead of building
+        // the ASN.1 structure of all entries in memory
+        try (final StreamingCrlEncoder crlEncoder = new StreamingCrlEncoder()) {
+            if (certs != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
+                }
+                for (final RevokedCertInfo certinfo : certs) {
+                    crlEncoder.addEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason());
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Finished adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
+                }
             }
-        } else {
-            verifyKey = cryptoToken.getPublicKey(alias);
-            if (log.isTraceEnabled()) {
-                log.trace("Got the verify key from the CA token.");
+            if (log.isDebugEnabled()) {
+                log.debug("Signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
             }
-        }
-        try {
-            final ContentVerifierProvider verifier = CertTools.genContentVerifierProvider(verifyKey);
-            if (!crl.isSignatureValid(verifier)) {
+            final byte[] encodedCrl;
+            try {
+                final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(cryptoToken.getSignProviderName()).build(cryptoToken.getPrivateKey(alias)), X509CAImpl.SIGN_BUFFER_SIZE);
+                encodedCrl = crlEncoder.encode(crlgen, signer);
+            } catch (OperatorCreationException e) {
+                // Very fatal error
+                throw new RuntimeException("Can not create Jca content signer: ", e);
+            }
+            // The entries are parsed lazily, only when they are accessed
+            crl = new X509CRLHolder(encodedCrl);
+            if (log.isDebugEnabled()) {
+                log.debug("Finished signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
+            }
+
+            // Verify using the CA certificate before returning
+            // If we can not verify the issued CRL using the CA certificate we don't want to issue this CRL
+            // because something is wrong...
+            final PublicKey verifyKey;
+            if (cacert != null) {
+                verifyKey = cacert.getPublicKey();
+                if (log.isTraceEnabled()) {
+                    log.trace("Got the verify key from the CA certificate.");
+                }
+            } else {
+                verifyKey = cryptoToken.getPublicKey(alias);
                 if (log.isTraceEnabled()) {
-                    log.trace("The public key used to verify the CRL:" + System.lineSeparator() + KeyTools.getAsPem(verifyKey));
-                    log.trace("The CRL whose signature could not be verified:" + System.lineSeparator() + KeyTools.getAsPem(crl));
+                    log.trace("Got the verify key from the CA token.");
                 }
-                throw new SignatureException("Cannot verify the signature of the CRL for issuer " + "'" + issuer
-                        + "' using the public key with SHA-1 fingerprint " + CertTools.createPublicKeyFingerprint(verifyKey, "SHA-1")
-                        + ". The CRL signature was created with a private key stored in the token " + cryptoToken.getTokenName()
-                        + ". The most likely reason for this error is that the private key stored on the token does not correspond to the public key found in the issuer certificate.");
-            }
-        } catch (OperatorCreationException e) {
-            // Very fatal error
-            throw new RuntimeException("Can not create Jca content signer: ", e);
-        } catch (CertException e) {
-            throw new SignatureException(e.getMessage(), e);
+            }
+            try {
+                final ContentVerifierProvider verifier = CertTools.genContentVerifierProvider(verifyKey);
+                if (!crlEncoder.isSignatureValid(encodedCrl, verifier.get(crl.toASN1Structure().getSignatureAlgorithm()))) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("The public key used to verify the CRL:" + System.lineSeparator() + KeyTools.getAsPem(verifyKey));
+                        log.trace("The CRL whose signature could not be verified:" + System.lineSeparator() + KeyTools.getAsPem(crl));
+                    }
+                    throw new SignatureException("Cannot verify the signature of the CRL for issuer " + "'" + issuer
+                            + "' using the public key with SHA-1 fingerprint " + CertTools.createPublicKeyFingerprint(verifyKey, "SHA-1")
+                            + ". The CRL signature was created with a private key stored in the token " + cryptoToken.getTokenName()
+                            + ". The most likely reason for this error is that the private key stored on the token does not correspond to the public key found in the issuer certificate.");
+                }
+            } catch (OperatorCreationException e) {
+                // Very fatal error
+                throw new RuntimeException("Can not create Jca content signer: ", e);
+            }
         }
         if (log.isDebugEnabled()) {
             log.debug("Returning CRL. Free memory="+Runtime.getRuntime().freeMemory());
@@ -14,9 +14,11 @@
 package org.ejbca.core.protocol.crlstore;
 
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -25,11 +27,17 @@ import org.cesecore.certificates.ca.internal.CaCertificateCache;
 import org.cesecore.certificates.certificate.HashID;
 import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.CrlUpdateNotifier;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.util.CertTools;
 
 /**
  * An implementation of this is managing a cache of CRLs. The implementation should be optimized for quick lookups of CRLs that the 
  * VA responder needs to fetch.
+ * <p>
+ * The latest CRL of each issuer, partition and delta flag is kept without any locking. The database is checked for a newer CRL
+ * when a CRL has been stored on this node (see {@link CrlUpdateNotifier}), or when crlstore.cachetime has passed since the last
+ * check. Only one thread checks the database for an entry at a time, the others are served the cached CRL meanwhile.
  *
  * @version $Id$
  */
@@ -41,44 +49,83 @@ public class CRLCache {
 	
 	private final CrlStoreSessionLocal crlSession;
 	private final CaCertificateCache certCache;
-	final private Map<Integer, CRLEntity> crls = new HashMap<>();
-	final private Map<Integer, CRLEntity> deltaCrls = new HashMap<>();
-	private class CRLEntity {
-		final CRLInfo crlInfo;
-		final byte encoded[];
-		/**
-		 * @param crlInfo
-		 * @param encoded
-		 */
-		CRLEntity(CRLInfo crlInfo, byte[] encoded) {
-			super();
-			this.crlInfo = crlInfo;
-			this.encoded = encoded;
+	private final Map<CacheKey, CachedCrl> crls = new ConcurrentHashMap<>();
+
+	private static class CacheKey {
+		final String issuerDN;
+		final int crlPartitionIndex;
+		final boolean isDelta;
+
+		CacheKey(final String issuerDN, final int crlPartitionIndex, final boolean isDelta) {
+			this.issuerDN = issuerDN;
+			this.crlPartitionIndex = crlPartitionIndex;
+			this.isDelta = isDelta;
 		}
 
 		@Override
-		public boolean equals(Object o) {
-			if (o == this)
+		public boolean equals(final Object o) {
+			if (o == this) {
 				return true;
-			if (!(o instanceof CRLEntity)) {
+			}
+			if (!(o instanceof CacheKey)) {
 				return false;
 			}
-			CRLEntity crlEntity = (CRLEntity) o;
-			return Objects.equals(crlInfo.getSubjectDN(), crlEntity.crlInfo.getSubjectDN()) && crlInfo.getCrlPartitionIndex() == crlEntity.crlInfo.getCrlPartitionIndex();
+			final CacheKey other = (CacheKey) o;
+			return issuerDN.equals(other.issuerDN) && crlPartitionIndex == other.crlPartitionIndex && isDelta == other.isDelta;
 		}
 
 		@Override
 		public int hashCode() {
-			// Ignore CRL number. Always overwrite cache with latest CRL for the partition.
-			return Objects.hash(crlInfo.getSubjectDN(), crlInfo.getCrlPartitionIndex());
+			return Objects.hash(issuerDN, crlPartitionIndex, isDelta);
+		}
+	}
+
+	/** A CRL together with the values needed to answer conditional requests for it. */
+	public static class CachedCrl {
+		private final byte[] encoded;
+		private final int crlNumber;
+		private final Date thisUpdate;
+		private final String eTag;
+		/** Time of the last check for a newer CRL in the database */
+		private final long checkTime;
+		/** Value of {@link CrlUpdateNotifier#getVersion(String)} at the last check */
+		private final long version;
+		private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+		CachedCrl(final byte[] encoded, final int crlNumber, final Date thisUpdate, final long checkTime, final long version) {
+			this.encoded = encoded;
+			this.crlNumber = crlNumber;
+			this.thisUpdate = thisUpdate;
+			this.eTag = "\"" + CertTools.getFingerprintAsString(encoded) + "\"";
+			this.checkTime = checkTime;
+			this.version = version;
+		}
+
+		/** Same CRL, with a new check time */
+		private CachedCrl(final CachedCrl crl, final long checkTime, final long version) {
+			this.encoded = crl.encoded;
+			this.crlNumber = crl.crlNumber;
+			this.thisUpdate = crl.thisUpdate;
+			this.eTag = crl.eTag;
+			this.checkTime = checkTime;
+			this.version = version;
+		}
+
+		/** @return the DER encoded CRL */
+		public byte[] getEncoded() {
+			return encoded;
+		}
+
+		/** @return a strong entity tag for the CRL, quoted as in a HTTP ETag header */
+		public String getETag() {
+			return eTag;
 		}
 
+		/** @return the thisUpdate time of the CRL, or null if not known */
+		public Date getThisUpdate() {
+			return thisUpdate;
+		}
 	}
-	/** We need an object to synchronize around when rebuilding and reading the cache. When rebuilding the cache no thread
-	 * can be allowed to read the cache, since the cache will be in an inconsistent state. In the normal case we want to use
-	 * as fast objects as possible (HashMap) for reading fast.
-	 */
-	final private Lock rebuildlock = new ReentrantLock();
 
 	 /**
      * @return  {@link CRLCache} for the CA.
@@ -112,9 +159,9 @@ public class CRLCache {
      * @param id The ID of the subject key identifier.
      * @param isDelta true if delta CRL
      * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
-     * @return CRL or null if the CRL does not exist in the cache.
+     * @return CRL or null if the CRL does not exist.
      */
-	public byte[] findBySubjectKeyIdentifier(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
+	public CachedCrl findBySubjectKeyIdentifier(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
 		return findCRL(certCache.findBySubjectKeyIdentifier(id), crlPartitionIndex, isDelta, crlNumber);
 	}
 
@@ -122,13 +169,13 @@ public class CRLCache {
      * @param id The ID of the issuer DN.
      * @param isDelta true if delta CRL
      * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
-     * @return CRL or null if the CRL does not exist in the cache.
+     * @return CRL or null if the CRL does not exist.
      */
-	public byte[] findByIssuerDN(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
+	public CachedCrl findByIssuerDN(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
 		return findCRL(certCache.findLatestBySubjectDN(id), crlPartitionIndex, isDelta, crlNumber);
 	}
 
-	private byte[] findCRL(final X509Certificate caCert, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
+	private CachedCrl findCRL(final X509Certificate caCert, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
 		if ( caCert==null ) {
 			if (log.isDebugEnabled()) {
 				log.debug("No CA certificate, returning null.");
@@ -136,44 +183,63 @@ public class CRLCache {
 			return null;
 		}
 		final String issuerDN = CertTools.getSubjectDN(caCert);
-		this.rebuildlock.lock();
+		if (crlNumber > -1) {
+			// Specific CRLs are not cached, these are rarely accessed and we don't want to fill the cache with old CRLs
+			if (log.isDebugEnabled()) {
+				log.debug("Getting CRL with CRL number "+crlNumber);
+			}
+			final byte[] encoded = this.crlSession.getCRL(issuerDN, crlPartitionIndex, crlNumber);
+			return encoded == null ? null : new CachedCrl(encoded, crlNumber, null, 0, 0);
+		}
+		final CacheKey cacheKey = new CacheKey(issuerDN, crlPartitionIndex, isDelta);
+		final CachedCrl cachedCRL = crls.get(cacheKey);
+		final long now = System.currentTimeMillis();
+		// Read before the database, so that a CRL stored while checking is detected by the next request
+		final long version = CrlUpdateNotifier.INSTANCE.getVersion(issuerDN);
+		if (cachedCRL != null) {
+			if (cachedCRL.version == version && now < cachedCRL.checkTime + CesecoreConfiguration.getCacheTimeCrlStore()) {
+				if (log.isDebugEnabled()) {
+					log.debug("Retrieved CRL (from cache) with issuerDN '"+issuerDN+"', with CRL number "+cachedCRL.crlNumber + " and partition " + crlPartitionIndex);
+				}
+				return cachedCRL;
+			}
+			if (!cachedCRL.refreshing.compareAndSet(false, true)) {
+				// Another thread is checking the database
+				return cachedCRL;
+			}
+		}
 		try {
 			final CRLInfo crlInfo = this.crlSession.getLastCRLInfo(issuerDN, crlPartitionIndex, isDelta);
 			if ( crlInfo==null ) {
 				if (log.isDebugEnabled()) {
 					log.debug("No CRL found with issuerDN '"+issuerDN+"', returning null.");
 				}
+				crls.remove(cacheKey);
 				return null;
 			}
-			final Integer cacheId = new CRLEntity(crlInfo, null).hashCode();
-            final Map<Integer, CRLEntity> usedCrls = isDelta ? this.deltaCrls : this.crls;
-			// If we have not specified a crlNumber we can try to find the latest CRL in the cache
-			if (crlNumber == -1) {
-			    final CRLEntity cachedCRL = usedCrls.get(cacheId);
-			    if ( cachedCRL!=null && !crlInfo.getCreateDate().after(cachedCRL.crlInfo.getCreateDate()) ) {
-			        if (log.isDebugEnabled()) {
-			            log.debug("Retrieved CRL (from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
-			        }
-			        return cachedCRL.encoded;
-			    }
+			if (cachedCRL != null && cachedCRL.crlNumber == crlInfo.getLastCRLNumber() && !crlInfo.getCreateDate().after(cachedCRL.thisUpdate)) {
+				final CachedCrl checkedCRL = new CachedCrl(cachedCRL, now, version);
+				crls.put(cacheKey, checkedCRL);
+				if (log.isDebugEnabled()) {
+					log.debug("Retrieved CRL (from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
+				}
+				return checkedCRL;
 			}
-			final CRLEntity entry;
-			if (crlNumber > -1) {
-			    if (log.isDebugEnabled()) {
-			        log.debug("Getting CRL with CRL number "+crlNumber);
-			    }
-			    entry = new CRLEntity( crlInfo, this.crlSession.getCRL(issuerDN, crlPartitionIndex, crlNumber) );
-			} else {
-			    entry = new CRLEntity( crlInfo, this.crlSession.getLastCRL(issuerDN, crlPartitionIndex, isDelta) );
-			    // Only cache latest CRLs, these should be the ones accessed regularly, and we don't want to fill the cache with old CRLs
-	            usedCrls.put(cacheId, entry);
+			final byte[] encoded = this.crlSession.getLastCRL(issuerDN, crlPartitionIndex, isDelta);
+			if (encoded == null) {
+				return null;
 			}
+			final CachedCrl entry = new CachedCrl(encoded, crlInfo.getLastCRLNumber(), crlInfo.getCreateDate(), now, version);
+			// Only cache latest CRLs, these should be the ones accessed regularly
+			crls.put(cacheKey, entry);
 			if (log.isDebugEnabled()) {
 				log.debug("Retrieved CRL (not from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
 			}
-			return entry.encoded;
+			return entry;
 		} finally {
-			this.rebuildlock.unlock();
+			if (cachedCRL != null) {
+				cachedCRL.refreshing.set(false);
+			}
 		}
 	}
 }
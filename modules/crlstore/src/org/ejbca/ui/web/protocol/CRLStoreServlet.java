@@ -30,6 +30,7 @@ import org.cesecore.certificates.certificate.HashID;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.cesecore.util.StringTools;
 import org.ejbca.core.protocol.crlstore.CRLCache;
+import org.ejbca.core.protocol.crlstore.CRLCache.CachedCrl;
 import org.ejbca.util.HTMLTools;
 
 /** 
@@ -38,6 +39,7 @@ import org.ejbca.util.HTMLTools;
  * Addition to RFC 4387 is the ability to specify delta CRL with the parameter "delta="
  * Addition to RFC 4387 is the ability to specify download of a specific CRL by crlNumber with the parameter "crlnumber=<number>"
  * Addition to RFC 4387 is the ability to specify a CRL partition number with the parameter "partition=<number>"
+ * Conditional requests with If-None-Match or If-Modified-Since are answered with 304 Not Modified if the CRL has not changed.
  * 
  * 
  * @version  $Id$
@@ -71,8 +73,8 @@ public class CRLStoreServlet extends StoreServletBase {
 	@Override
 	public void iHash(String iHash, HttpServletResponse resp, HttpServletRequest req) throws IOException, ServletException {
 	    final int crlPartitionIndex = getCrlPartitionIndex(req);
-	    final byte[] crlBytes = crlCache.findByIssuerDN(HashID.getFromB64(iHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
-		returnCrl(crlBytes, resp, iHash, crlPartitionIndex, isDelta(req));
+	    final CachedCrl crl = crlCache.findByIssuerDN(HashID.getFromB64(iHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
+		returnCrl(crl, req, resp, iHash, crlPartitionIndex, isDelta(req));
 	}
 
 	@Override
@@ -83,8 +85,8 @@ public class CRLStoreServlet extends StoreServletBase {
 	@Override
 	public void sKIDHash(String sKIDHash, HttpServletResponse resp, HttpServletRequest req, String name) throws IOException, ServletException {
 	    final int crlPartitionIndex = getCrlPartitionIndex(req);
-	    final byte[] crlBytes = crlCache.findBySubjectKeyIdentifier(HashID.getFromB64(sKIDHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
-		returnCrl(crlBytes, resp, name, crlPartitionIndex, isDelta(req));
+	    final CachedCrl crl = crlCache.findBySubjectKeyIdentifier(HashID.getFromB64(sKIDHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
+		returnCrl(crl, req, resp, name, crlPartitionIndex, isDelta(req));
 	}
 
 	@Override
@@ -122,7 +124,39 @@ public class CRLStoreServlet extends StoreServletBase {
         return CertificateConstants.NO_CRL_PARTITION;
     }
 
-	private void returnCrl( byte crl[], HttpServletResponse resp, String name, final int crlPartitionIndex, boolean isDelta) throws IOException {
+	/**
+	 * @return true if the client already has the CRL, according to the If-None-Match or If-Modified-Since header (RFC 7232).
+	 */
+	private boolean isNotModified(final CachedCrl crl, final HttpServletRequest req) {
+		final String ifNoneMatch = req.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			// If-None-Match takes precedence over If-Modified-Since
+			for (String eTag : ifNoneMatch.split(",")) {
+				eTag = eTag.trim();
+				if (eTag.startsWith("W/")) {
+					eTag = eTag.substring(2);
+				}
+				if (eTag.equals("*") || eTag.equals(crl.getETag())) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (crl.getThisUpdate() != null) {
+			try {
+				final long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+				// HTTP dates have a resolution of seconds
+				return ifModifiedSince != -1 && crl.getThisUpdate().getTime() / 1000 <= ifModifiedSince / 1000;
+			} catch (IllegalArgumentException e) {
+				// Malformed date, send the CRL
+			}
+		}
+		return false;
+	}
+
+	private void returnCrl(final CachedCrl cachedCrl, final HttpServletRequest req, HttpServletResponse resp, String name, final int crlPartitionIndex,
+	        boolean isDelta) throws IOException {
+		final byte crl[] = cachedCrl == null ? null : cachedCrl.getEncoded();
 		if ( crl==null || crl.length<1 ) {
 		    if (log.isDebugEnabled()) {
 		        log.debug("CRL was not found. Hash=" + name + ", DeltaCRL=" + isDelta + ", Partition=" + crlPartitionIndex);
@@ -130,6 +164,14 @@ public class CRLStoreServlet extends StoreServletBase {
 			resp.sendError(HttpServletResponse.SC_NO_CONTENT, "No CRL with hash: "+HTMLTools.htmlescape(name));
 			return;
 		}
+		resp.setHeader("ETag", cachedCrl.getETag());
+		if (cachedCrl.getThisUpdate() != null) {
+			resp.setDateHeader("Last-Modified", cachedCrl.getThisUpdate().getTime());
+		}
+		if (isNotModified(cachedCrl, req)) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
 		resp.setContentType("application/pkix-crl");
 		resp.setHeader("Content-disposition", "attachment; filename=\"" + 
 		        (isDelta?"delta":"") +
@@ -0,0 +1,149 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.captureLong;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.ejbca.core.ejb.ocsp.OcspPreProductionResult;
+import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionLocal;
+import org.ejbca.core.model.services.ServiceConfiguration;
+import org.ejbca.core.model.services.ServiceExecutionResult;
+import org.ejbca.core.model.services.intervals.PeriodicalInterval;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link OcspPreProductionWorker}.
+ *
+ * @version $Id$
+ */
+public class OcspPreProductionWorkerUnitTest {
+
+    private static final int INTERVAL_SECONDS = 3600;
+
+    private static X509Certificate preProducingCaCert;
+    private static X509Certificate otherCaCert;
+
+    private final CaSessionLocal caSession = EasyMock.createMock(CaSessionLocal.class);
+    private final OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession = EasyMock.createStrictMock(OcspResponseGeneratorSessionLocal.class);
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+        preProducingCaCert = CertTools.genSelfCert("CN=Pre-producing CA", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+        otherCaCert = CertTools.genSelfCert("CN=Other CA", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+    }
+
+    @Test
+    public void testResponsesExpiringBeforeNextRunAreProducedForPreProducingCas() throws Exception {
+        final X509CAInfo preProducingCa = createCaInfo("PreProducingCA", preProducingCaCert, CAConstants.CA_ACTIVE, true);
+        final X509CAInfo otherCa = createCaInfo("OtherCA", otherCaCert, CAConstants.CA_ACTIVE, false);
+        final X509CAInfo offlineCa = createCaInfo("OfflineCA", preProducingCaCert, CAConstants.CA_OFFLINE, true);
+        expect(caSession.getAllCaIds()).andReturn(Arrays.asList(1, 2, 3));
+        expect(caSession.getCAInfoInternal(1)).andReturn(preProducingCa);
+        expect(caSession.getCAInfoInternal(2)).andReturn(otherCa);
+        expect(caSession.getCAInfoInternal(3)).andReturn(offlineCa);
+        final OcspPreProductionResult result = new OcspPreProductionResult(preProducingCa.getCAId(), 3);
+        result.addChunk(3, 3);
+        result.finish();
+        final Capture<Long> expirationDate = Capture.newInstance();
+        expect(ocspResponseGeneratorSession.preSignExpiringOcspResponses(eq(preProducingCaCert), captureLong(expirationDate),
+                eq(OcspPreProductionWorker.CERTID_HASH_ALGORITHM))).andReturn(result);
+        replay(caSession, ocspResponseGeneratorSession);
+        final long before = System.currentTimeMillis();
+        final ServiceExecutionResult executionResult = createWorker().work(getEjbs());
+        verify(caSession, ocspResponseGeneratorSession);
+        assertEquals(ServiceExecutionResult.Result.SUCCESS, executionResult.getResult());
+        assertTrue("Unexpected message: " + executionResult.getMessage(), executionResult.getMessage().contains("3 OCSP responses were produced for the following CAs: PreProducingCA."));
+        assertTrue("Responses expiring before the next run should be produced.", expirationDate.getValue() >= before + INTERVAL_SECONDS * 1000L);
+        assertTrue("Responses expiring after the next run should not be produced.", expirationDate.getValue() <= System.currentTimeMillis() + INTERVAL_SECONDS * 1000L);
+    }
+
+    @Test
+    public void testNoActionWhenNoResponsesExpire() throws Exception {
+        final X509CAInfo preProducingCa = createCaInfo("PreProducingCA", preProducingCaCert, CAConstants.CA_ACTIVE, true);
+        expect(caSession.getAllCaIds()).andReturn(Collections.singletonList(1));
+        expect(caSession.getCAInfoInternal(1)).andReturn(preProducingCa);
+        final OcspPreProductionResult result = new OcspPreProductionResult(preProducingCa.getCAId(), 0);
+        result.finish();
+        expect(ocspResponseGeneratorSession.preSignExpiringOcspResponses(eq(preProducingCaCert), anyLong(), eq(OcspPreProductionWorker.CERTID_HASH_ALGORITHM)))
+                .andReturn(result);
+        replay(caSession, ocspResponseGeneratorSession);
+        final ServiceExecutionResult executionResult = createWorker().work(getEjbs());
+        verify(caSession, ocspResponseGeneratorSession);
+        assertEquals(ServiceExecutionResult.Result.NO_ACTION, executionResult.getResult());
+    }
+
+    private OcspPreProductionWorker createWorker() {
+        final ServiceConfiguration serviceConfiguration = new ServiceConfiguration();
+        serviceConfiguration.setWorkerClassPath(OcspPreProductionWorker.class.getName());
+        serviceConfiguration.setWorkerProperties(new Properties());
+        serviceConfiguration.setIntervalClassPath(PeriodicalInterval.class.getName());
+        final Properties intervalProperties = new Properties();
+        intervalProperties.setProperty(PeriodicalInterval.PROP_UNIT, PeriodicalInterval.UNIT_SECONDS);
+        intervalProperties.setProperty(PeriodicalInterval.PROP_VALUE, String.valueOf(INTERVAL_SECONDS));
+        serviceConfiguration.setIntervalProperties(intervalProperties);
+        final OcspPreProductionWorker worker = new OcspPreProductionWorker();
+        worker.init(new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("OcspPreProductionWorkerUnitTest")), serviceConfiguration,
+                "TestOcspPreProduction", System.currentTimeMillis(), System.currentTimeMillis() + INTERVAL_SECONDS * 1000L);
+        return worker;
+    }
+
+    private Map<Class<?>, Object> getEjbs() {
+        final Map<Class<?>, Object> ejbs = new HashMap<>();
+        ejbs.put(CaSessionLocal.class, caSession);
+        ejbs.put(OcspResponseGeneratorSessionLocal.class, ocspResponseGeneratorSession);
+        return ejbs;
+    }
+
+    private static X509CAInfo createCaInfo(final String name, final X509Certificate caCert, final int status, final boolean preProduce) {
+        return new X509CAInfo.X509CAInfoBuilder()
+                .setName(name)
+                .setSubjectDn(CertTools.getSubjectDN(caCert))
+                .setStatus(status)
+                .setCertificateChain(Collections.<Certificate>singletonList(caCert))
+                .setCrlPublishers(Collections.emptyList())
+                .setDoPreProduceOcspResponses(preProduce)
+                .build();
+    }
+}
@@ -0,0 +1,95 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.ejbca.core.ejb.ocsp.OcspPreProductionResult;
+import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionLocal;
+import org.ejbca.core.model.InternalEjbcaResources;
+import org.ejbca.core.model.services.BaseWorker;
+import org.ejbca.core.model.services.ServiceExecutionFailedException;
+import org.ejbca.core.model.services.ServiceExecutionResult;
+import org.ejbca.core.model.services.ServiceExecutionResult.Result;
+
+/**
+ * Worker that produces new OCSP responses for the selected CAs that pre-produce OCSP responses, before the stored responses expire.
+ * Each time the service runs, the responses whose nextUpdate is before the next run are produced again in bulk, see
+ * OcspResponseGeneratorSessionLocal.preSignExpiringOcspResponses.
+ *
+ * @version $Id$
+ */
+public class OcspPreProductionWorker extends BaseWorker {
+
+    private static final Logger log = Logger.getLogger(OcspPreProductionWorker.class);
+
+    /** The hash algorithm of the CertID in the produced responses. SHA-1 is what OCSP clients use, see RFC 5019. */
+    static final String CERTID_HASH_ALGORITHM = "SHA1";
+
+    /** Makes sure that the CA responses are not produced by several runs at the same time on this node, when a run takes longer than the interval */
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+
+    @Override
+    public void canWorkerRun(final Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
+        // The signing keys are checked by the OCSP signing cache, and a CA that can not sign is logged when its responses are produced
+    }
+
+    @Override
+    public ServiceExecutionResult work(final Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
+        final CaSessionLocal caSession = (CaSessionLocal) ejbs.get(CaSessionLocal.class);
+        final OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession = (OcspResponseGeneratorSessionLocal) ejbs.get(OcspResponseGeneratorSessionLocal.class);
+        if (!running.compareAndSet(false, true)) {
+            final String msg = InternalEjbcaResources.getInstance().getLocalizedMessage("services.alreadyrunninginvm", OcspPreProductionWorker.class.getName());
+            log.info(msg);
+            return new ServiceExecutionResult(Result.NO_ACTION, msg);
+        }
+        try {
+            // Responses that would expire before the next run are produced now
+            final long expirationDate = System.currentTimeMillis() + getNextInterval() * 1000;
+            final List<String> updatedCaNames = new ArrayList<>();
+            long stored = 0;
+            for (final int caId : getAllCAIdsToCheck(caSession, true)) {
+                final CAInfo caInfo = caSession.getCAInfoInternal(caId);
+                if (!(caInfo instanceof X509CAInfo) || !((X509CAInfo) caInfo).isDoPreProduceOcspResponses() || caInfo.getStatus() != CAConstants.CA_ACTIVE
+                        || caInfo.getCertificateChain().isEmpty()) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Not producing OCSP responses for CA with id " + caId + ", since it is not an active X.509 CA that pre-produces OCSP responses.");
+                    }
+                    continue;
+                }
+                final OcspPreProductionResult result = ocspResponseGeneratorSession.preSignExpiringOcspResponses(
+                        (X509Certificate) caInfo.getCertificateChain().get(0), expirationDate, CERTID_HASH_ALGORITHM);
+                if (result.getStored() > 0) {
+                    updatedCaNames.add(caInfo.getName());
+                    stored += result.getStored();
+                }
+            }
+            if (updatedCaNames.isEmpty()) {
+                return new ServiceExecutionResult(Result.NO_ACTION, "OCSP Pre-Production Worker " + serviceName + " ran, but no OCSP responses needed updating.");
+            }
+            return new ServiceExecutionResult(Result.SUCCESS, "OCSP Pre-Production Worker " + serviceName + " ran. " + stored
+                    + " OCSP responses were produced for the following CAs: " + constructNameList(updatedCaNames) + ".");
+        } finally {
+            running.set(false);
+        }
+    }
+}
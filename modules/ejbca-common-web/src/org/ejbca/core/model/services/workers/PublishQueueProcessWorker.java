@@ -25,7 +25,9 @@ import org.ejbca.core.model.services.ServiceExecutionFailedException;
 import org.ejbca.core.model.services.ServiceExecutionResult;
 import org.ejbca.core.model.services.ServiceExecutionResult.Result;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -103,18 +105,23 @@ public class PublishQueueProcessWorker extends EmailSendingWorker {
                     if (log.isDebugEnabled()) {
                         log.debug("Publisher IDs: " + idstr);
                     }
-                    // Loop through all handled publisher ids and process
-                    // anything in the queue
+                    // Process anything in the queue for all handled publisher ids,
+                    // with the queues of different publishers processed concurrently
                     String[] ids = StringUtils.split(idstr, ';');
                     if(ids.length == 0) {
                         return new ServiceExecutionResult(Result.NO_ACTION, "Publishing Queue Service " + serviceName + " ran with no active publishers.");
                     }
+                    final List<BasePublisher> publishers = new ArrayList<>(ids.length);
                     for (int i = 0; i < ids.length; i++) {
                         int publisherId = Integer.valueOf(ids[i]);
-                        // Get everything from the queue for this publisher id
-                        BasePublisher publisher = publisherSession.getPublisher(publisherId);                  
-                        publishingResult.append(publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(getAdmin(), publisher));
+                        BasePublisher publisher = publisherSession.getPublisher(publisherId);
+                        if (publisher == null) {
+                            log.info("Publisher with id " + publisherId + " does not exist, its queue will not be processed.");
+                        } else {
+                            publishers.add(publisher);
+                        }
                     }
+                    publishingResult.append(publisherQueueSession.plainFifoTryAlwaysOrderByTimeCreatedConcurrently(getAdmin(), publishers));
                 } else {
                     log.debug("No publisher IDs configured for worker.");
                 }
@@ -34,6 +34,7 @@ import org.cesecore.keys.validation.KeyValidatorBase;
 import org.cesecore.keys.validation.ValidationException;
 import org.cesecore.profiles.Profile;
 import org.cesecore.util.ui.DynamicUiProperty;
+import org.ejbca.core.ejb.ca.validation.BlacklistSessionLocal;
 import org.ejbca.core.model.util.EjbLocalHelper;
 
 /**
@@ -170,12 +171,14 @@ public class PublicKeyBlacklistKeyValidator extends KeyValidatorBase {
         }
         log.info("Matching public key with block list fingerprint " + fingerprint + " with public key block list.");
         if (!useOnlyCache) {
-            // A bit hackish, make a call to blacklist session to ensure that blacklist cache has this entry loaded
-            // TODO: if the key is not in the cache (which it hopefully is not) this is a database lookup for each key. Huuge performance hit
-            // should better be implemented as a full in memory cache with a state so we know if it's loaded or not, with background updates. See ECA-5951
-            // We could simply add a call to load the whole map into cache, when the cache needs updating
-            // See BlacklistSessionBean.getBlacklistEntryIdToFingerprintMap (and add cache there)
-            new EjbLocalHelper().getBlacklistSession().getBlacklistEntryId(PublicKeyBlacklistEntry.TYPE, fingerprint);
+            final BlacklistSessionLocal blacklistSession = new EjbLocalHelper().getBlacklistSession();
+            // Most keys are not in the block list, which is ruled out by the in memory filter without a database lookup
+            if (!blacklistSession.mightBeBlacklisted(PublicKeyBlacklistEntry.TYPE, fingerprint)) {
+                log.trace("publicKeyBlacklist passed");
+                return messages;
+            }
+            // Make a call to blacklist session to ensure that blacklist cache has this entry loaded
+            blacklistSession.getBlacklistEntryId(PublicKeyBlacklistEntry.TYPE, fingerprint);
         }
         Integer idValue = PublicKeyBlacklistEntryCache.INSTANCE.getNameToIdMap().get(fingerprint);
         final PublicKeyBlacklistEntry entry = PublicKeyBlacklistEntryCache.INSTANCE.getEntry(idValue);
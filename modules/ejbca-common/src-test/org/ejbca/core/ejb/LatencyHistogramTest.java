@@ -0,0 +1,72 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        assertEquals("Durations up to the first bound should be in the first bucket.", 0, LatencyHistogram.getBucket(0));
+        assertEquals(0, LatencyHistogram.getBucket(500000L));
+        assertEquals("A duration just over a bound should be in the next bucket.", 1, LatencyHistogram.getBucket(500001L));
+        assertEquals(1, LatencyHistogram.getBucket(1000000L));
+        final int last = LatencyHistogram.BUCKET_BOUNDS_SECONDS.length;
+        assertEquals(last - 1, LatencyHistogram.getBucket(60000000000L));
+        assertEquals("Durations over the last bound should be in the bucket without an upper bound.", last, LatencyHistogram.getBucket(60000000001L));
+        assertEquals(last, LatencyHistogram.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testCumulativeCounts() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final long[] empty = histogram.getCumulativeCounts();
+        assertEquals(LatencyHistogram.BUCKET_BOUNDS_SECONDS.length + 1, empty.length);
+        assertEquals("Empty histogram", 0, empty[empty.length - 1]);
+        // 1 ms to 1000 ms
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L, i % 100 == 0);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(10, histogram.getErrors());
+        assertEquals(500500L * 1000000L, histogram.getTotalNanos());
+        assertEquals(1000000000L, histogram.getMaxNanos());
+        final long[] cumulativeCounts = histogram.getCumulativeCounts();
+        for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS_SECONDS.length; i++) {
+            // Durations of whole milliseconds from 1 ms, up to the bound
+            final long expected = Math.min(1000, (long) Math.floor(LatencyHistogram.BUCKET_BOUNDS_SECONDS[i] * 1000 + 1e-9));
+            assertEquals("Invocations up to " + LatencyHistogram.BUCKET_BOUNDS_SECONDS[i] + " s", expected, cumulativeCounts[i]);
+        }
+        assertEquals("The last bucket should count all invocations.", 1000, cumulativeCounts[cumulativeCounts.length - 1]);
+    }
+
+    @Test
+    public void testOutOfRangeDurations() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5, false);
+        histogram.record(Long.MAX_VALUE, true);
+        assertEquals(2, histogram.getCount());
+        final long[] cumulativeCounts = histogram.getCumulativeCounts();
+        assertEquals("A negative duration should be counted as 0.", 1, cumulativeCounts[0]);
+        assertEquals(1, cumulativeCounts[cumulativeCounts.length - 2]);
+        assertEquals(2, cumulativeCounts[cumulativeCounts.length - 1]);
+    }
+}
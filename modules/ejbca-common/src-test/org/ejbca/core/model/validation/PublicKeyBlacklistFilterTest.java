@@ -0,0 +1,98 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PublicKeyBlacklistFilter}.
+ *
+ * @version $Id$
+ */
+public class PublicKeyBlacklistFilterTest {
+
+    private static final Logger log = Logger.getLogger(PublicKeyBlacklistFilterTest.class);
+
+    /** @return a string that looks like a SHA-256 fingerprint in hex */
+    private static String fingerprint(final String prefix, final int i) {
+        return String.format("%s%060x", prefix, i);
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        final PublicKeyBlacklistFilter filter = new PublicKeyBlacklistFilter(10000, PublicKeyBlacklistFilter.DEFAULT_FALSE_POSITIVE_PROBABILITY);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(fingerprint("abcd", i));
+        }
+        assertEquals(10000, filter.getSize());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue("Added fingerprint " + i + " was not found.", filter.mightContain(fingerprint("abcd", i)));
+        }
+        assertTrue("Filter should use about 10 bits per fingerprint, not " + filter.getSizeInBytes() + " bytes.", filter.getSizeInBytes() < 10000 * 2);
+    }
+
+    @Test
+    public void testFalsePositiveProbability() {
+        final PublicKeyBlacklistFilter filter = new PublicKeyBlacklistFilter(100000, 0.01);
+        for (int i = 0; i < 100000; i++) {
+            filter.add(fingerprint("aaaa", i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(fingerprint("bbbb", i))) {
+                falsePositives++;
+            }
+        }
+        log.info("False positives: " + falsePositives + " of 100000");
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < 2000);
+        assertFalse(new PublicKeyBlacklistFilter(1, 0.01).mightContain(fingerprint("aaaa", 0)));
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final PublicKeyBlacklistFilter filter = new PublicKeyBlacklistFilter(40000, PublicKeyBlacklistFilter.DEFAULT_FALSE_POSITIVE_PROBABILITY);
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                futures.add(executorService.submit(() -> {
+                    for (int i = thread; i < 40000; i += 4) {
+                        filter.add(fingerprint("cccc", i));
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals(40000, filter.getSize());
+        for (int i = 0; i < 40000; i++) {
+            assertTrue("Fingerprint " + i + " added concurrently was not found.", filter.mightContain(fingerprint("cccc", i)));
+        }
+    }
+}
@@ -35,6 +35,10 @@ public final class EjbcaConfiguration {
 
     private static final String TRUE = "true";
 
+    public static final String KEYPAIRPOOL_KEYSPECS = "keypairpool.keyspecs";
+    public static final String KEYPAIRPOOL_SIZE = "keypairpool.size";
+    public static final String KEYPAIRPOOL_THREADS = "keypairpool.threads";
+
     /**
      * Check if EJBCA is running in production
      */
@@ -288,6 +292,47 @@ public final class EjbcaConfiguration {
         return getBooleanProperty("publish.parallel.enabled", true);
     }
 
+    /** @return the maximum number of publisher queues that are processed concurrently by a publisher queue service. */
+    public static int getPublishQueueWorkers() {
+        return Math.max(1, getIntProperty("publish.queue.workers", 4));
+    }
+
+    /** @return the number of publisher queue entries that are read and published in each transaction. */
+    public static int getPublishQueueChunkSize() {
+        return Math.max(1, getIntProperty("publish.queue.chunksize", 100));
+    }
+
+    /** @return the maximum number of successfully published entries per publisher queue each time the queue is processed, or 0 for no limit. */
+    public static int getPublishQueueMaxEntriesPerRun() {
+        return Math.max(0, getIntProperty("publish.queue.maxentriesperrun", 20000));
+    }
+
+    /** @return the key specifications, such as "RSA_4096" or "EC_secp384r1", of the key pairs that are generated in advance for server-side key generation. */
+    public static String[] getKeyPairPoolKeySpecs() {
+        final String[] ret = StringUtils.split(EjbcaConfigurationHolder.getString(KEYPAIRPOOL_KEYSPECS), ';');
+        return ret == null ? new String[0] : StringUtils.stripAll(ret);
+    }
+
+    /** @return the number of key pairs of each key specification that are generated in advance for server-side key generation. */
+    public static int getKeyPairPoolSize() {
+        return Math.max(0, getIntProperty(KEYPAIRPOOL_SIZE, 20));
+    }
+
+    /** @return the number of threads that generate key pairs in advance for server-side key generation. */
+    public static int getKeyPairPoolThreads() {
+        return Math.max(1, getIntProperty(KEYPAIRPOOL_THREADS, 1));
+    }
+
+    /** @return true if the invocation count, errors and latency of each EJB method should be recorded, see ProfilingStats. */
+    public static boolean isEjbMetricsEnabled() {
+        return getBooleanProperty("ejb.metrics.enabled", true);
+    }
+
+    /** @return the time in milliseconds to wait for each back end when a read operation is sent to all RA API back ends in parallel. */
+    public static long getRaApiFanOutTimeout() {
+        return Math.max(1L, getLongProperty("raapi.fanout.timeout", 30000L));
+    }
+
     /** @return true if TCP keep alive should be used for outgoing peer connections. */
     @Deprecated // EJBCA 6.3.0 safety for the new PeerConnector feature. Remove when default is considered stable.
     public static boolean isPeerSoKeepAlive() {
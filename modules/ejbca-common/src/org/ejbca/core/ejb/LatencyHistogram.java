@@ -0,0 +1,114 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of invocation durations, with the fixed buckets of a Prometheus histogram.
+ * <p>
+ * Each bucket counts the durations up to its upper bound in {@link #BUCKET_BOUNDS_SECONDS}, from 0.5 ms to 60 s, and the last
+ * bucket counts the longer ones. The counts are never reset, so a monitoring system computes the quantiles of any recent period
+ * from the increase of the counts during the period, instead of being given quantiles that include every invocation since the
+ * application was started. Each counter is a {@link LongAdder}, so concurrent invocations rarely contend.
+ * <p>
+ * Reading the histogram is not a perfect point in time snapshot, since invocations may be recorded at the same time.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogram {
+
+    /** The upper bounds of the buckets, in seconds. The longer durations are counted in one more bucket without an upper bound. */
+    public static final double[] BUCKET_BOUNDS_SECONDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_SECONDS.length];
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = Math.round(BUCKET_BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one invocation.
+     * @param durationNanos the duration of the invocation
+     * @param failed true if the invocation threw an exception
+     */
+    public void record(final long durationNanos, final boolean failed) {
+        final long nanos = Math.max(0L, durationNanos);
+        buckets[getBucket(nanos)].increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    /** @return the number of recorded invocations */
+    public long getCount() {
+        long count = 0;
+        for (final LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /** @return the number of recorded invocations that threw an exception */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /** @return the sum of the durations of all recorded invocations */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /** @return the longest recorded duration */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return for each upper bound in {@link #BUCKET_BOUNDS_SECONDS}, the number of invocations that were as fast or faster, followed by
+     *      the number of all invocations, like the "le" buckets of a Prometheus histogram
+     */
+    public long[] getCumulativeCounts() {
+        final long[] ret = new long[buckets.length];
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            count += buckets[i].sum();
+            ret[i] = count;
+        }
+        return ret;
+    }
+
+    /** @return the index of the bucket of the duration, which is the number of bucket bounds that are shorter than it */
+    static int getBucket(final long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_NANOS.length && nanos > BUCKET_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
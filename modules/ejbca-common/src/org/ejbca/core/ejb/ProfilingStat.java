@@ -27,12 +27,31 @@ public class ProfilingStat implements Serializable {
     private final long duration;
     private final long invocations;
     private final long average;
+    private final long errors;
+    private final long[] cumulativeCounts;
+    private final long max;
     
     public ProfilingStat(final String fullmethodName, final long duration, final long invocations) {
+        this(fullmethodName, duration, invocations, 0, new long[0], 0);
+    }
+
+    /**
+     * @param fullmethodName the class and method name
+     * @param duration the sum of the durations (µs)
+     * @param invocations the number of invocations
+     * @param errors the number of invocations that threw an exception
+     * @param cumulativeCounts the number of invocations up to each bucket bound, see {@link LatencyHistogram#getCumulativeCounts()}
+     * @param max the longest duration (µs)
+     */
+    public ProfilingStat(final String fullmethodName, final long duration, final long invocations, final long errors,
+            final long[] cumulativeCounts, final long max) {
         this.fullmethodName = fullmethodName;
         this.duration = duration;
         this.invocations = invocations;
-        this.average = duration/invocations;
+        this.average = invocations == 0 ? 0 : duration/invocations;
+        this.errors = errors;
+        this.cumulativeCounts = cumulativeCounts;
+        this.max = max;
     }
 
     public String getFullmethodName() { return fullmethodName; }
@@ -41,4 +60,8 @@ public class ProfilingStat implements Serializable {
     public long getInvocations() { return invocations; }
     public long getAverageMicroSeconds() { return average; }
     public long getAverageMilliSeconds() { return average/1000; }
+    public long getErrors() { return errors; }
+    /** @return the number of invocations up to each bound in {@link LatencyHistogram#BUCKET_BOUNDS_SECONDS}, followed by all invocations */
+    public long[] getCumulativeCounts() { return cumulativeCounts; }
+    public long getMaxMicroSeconds() { return max; }
 }
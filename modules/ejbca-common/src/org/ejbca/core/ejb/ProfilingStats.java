@@ -12,20 +12,21 @@
  *************************************************************************/
 package org.ejbca.core.ejb;
 
-import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.ejbca.config.EjbcaConfiguration;
+
 /**
+ * Invocation counts, error counts and latency histograms for each EJB method.
+ * 
  * @see org.ejbca.core.ejb.ProfileAndTraceInterceptor
+ * @see org.ejbca.core.ejb.LatencyHistogram
  * 
  * Limitations:
- * - Maximum allowed sum of duration is 292471 years.. :)
+ * - Maximum allowed sum of duration is 292 years.. :)
  * - Retrieval of stats is not a perfect point in time snapshot
  * 
  * @version $Id$
@@ -33,37 +34,27 @@ import java.util.concurrent.ConcurrentHashMap;
 public enum ProfilingStats {
     INSTANCE;
 
-    private final ConcurrentHashMap<String,Entry<Long,Long>> sums = new ConcurrentHashMap<String,Entry<Long,Long>>();
+    /** Read once, since it is checked on every EJB invocation */
+    private final boolean enabled = EjbcaConfiguration.isEjbMetricsEnabled();
+    private final ConcurrentHashMap<String,LatencyHistogram> histograms = new ConcurrentHashMap<>();
 
-    public void add(final String key, final long invocationDuration) {
-        Entry<Long, Long> expectedValue = null;
-        Entry<Long,Long> currentEntry = null;
-        // Since there are likely many parallel invocations to different methods but rarely to the same
-        // we use a ConcurrentHashMap to allow concurrent modifications.
-        // The drawback is that we another thread might have updated the map while we were doing preparations
-        // and in this case we have to retry.
-        do {
-            currentEntry = sums.get(key);
-            final Entry<Long,Long> newEntry;
-            if (currentEntry == null) {
-                // Populate with a first entry for this key. We expect that the old value should be null
-                newEntry = new SimpleImmutableEntry<Long,Long>(Long.valueOf(invocationDuration), Long.valueOf(1L));
-                expectedValue = sums.putIfAbsent(key, newEntry);
-            } else {
-                newEntry = new SimpleImmutableEntry<Long,Long>(Long.valueOf(currentEntry.getKey().longValue()+invocationDuration),
-                        Long.valueOf(currentEntry.getValue().longValue()+1L));
-                expectedValue = sums.replace(key, newEntry);
-            }
-        } while (expectedValue!=null && !expectedValue.equals(currentEntry));
+    /** @return true if invocations should be recorded even when debug logging is off, see ejb.metrics.enabled */
+    public boolean isEnabled() {
+        return enabled;
     }
 
     /**
-     * Get a shallow copy of the current invocation statistics as a Maps with full method names as keys.
-     * The key of the Entry is the sum of durations (µs) and the value is the number of invocations.
-     * Since the copy operation is non-locking, this will not be a perfect point in time snapshot.
+     * Records one invocation of a method.
+     * @param key the full class and method name
+     * @param invocationDurationNanos the duration of the invocation in nanoseconds
+     * @param failed true if the invocation threw an exception
      */
-    private Map<String,Entry<Long,Long>> getBestEffortShallowCopyOfStats() {
-        return new HashMap<String,Entry<Long,Long>>(sums);
+    public void add(final String key, final long invocationDurationNanos, final boolean failed) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+        }
+        histogram.record(invocationDurationNanos, failed);
     }
 
     /**
@@ -71,13 +62,17 @@ public enum ProfilingStats {
      * Since the copy operation is non-locking, this will not be a perfect point in time snapshot.
      */
     public List<ProfilingStat> getEjbInvocationStats() {
-        final Map<String,Entry<Long,Long>> sums = getBestEffortShallowCopyOfStats();
-        final Set<String> keys = sums.keySet();
-        final List<ProfilingStat> ret = new ArrayList<ProfilingStat>(keys.size());
-        for (final String key : keys) {
-            final Entry<Long, Long> durationAndInvocations = sums.get(key);
-            final ProfilingStat profilingStat = new ProfilingStat(key, durationAndInvocations.getKey(), durationAndInvocations.getValue());
-            ret.add(profilingStat);
+        final List<ProfilingStat> ret = new ArrayList<ProfilingStat>(histograms.size());
+        for (final Entry<String,LatencyHistogram> entry : histograms.entrySet()) {
+            final LatencyHistogram histogram = entry.getValue();
+            final long[] cumulativeCounts = histogram.getCumulativeCounts();
+            // The last bucket counts all invocations, so the count is consistent with the buckets
+            final long invocations = cumulativeCounts[cumulativeCounts.length - 1];
+            if (invocations == 0) {
+                continue;
+            }
+            ret.add(new ProfilingStat(entry.getKey(), histogram.getTotalNanos() / 1000L, invocations, histogram.getErrors(),
+                    cumulativeCounts, histogram.getMaxNanos() / 1000L));
         }
         return ret;
     }
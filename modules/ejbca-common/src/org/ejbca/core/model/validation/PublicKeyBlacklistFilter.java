@@ -0,0 +1,128 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.validation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of public key block list fingerprints (see {@link PublicKeyBlacklistEntry}), used to rule out that a public key is
+ * blocked without looking it up in the database.
+ * <p>
+ * If {@link #mightContain(String)} returns false, the fingerprint has never been added to the filter. If it returns true, the
+ * fingerprint is probably in the block list, and has to be confirmed against the database. With the default false positive
+ * probability the filter uses about 10 bits per fingerprint, compared to several hundred bytes for a cached entry object.
+ * <p>
+ * Fingerprints can be added concurrently with lookups. Fingerprints can not be removed, so removed entries remain as false positives
+ * until the filter is built again.
+ *
+ * @version $Id$
+ */
+public final class PublicKeyBlacklistFilter {
+
+    /** False positive probability used when none is specified */
+    public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final AtomicLongArray bits;
+    private final long numberOfBits;
+    private final int numberOfHashes;
+    private final long capacity;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * @param capacity the number of fingerprints the filter is sized for. More can be added, with an increasing false positive probability.
+     * @param falsePositiveProbability the probability that a fingerprint that was never added is reported as a possible match, when
+     * the filter holds capacity fingerprints
+     */
+    public PublicKeyBlacklistFilter(final long capacity, final double falsePositiveProbability) {
+        if (capacity < 1 || falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or false positive probability " + falsePositiveProbability);
+        }
+        this.capacity = capacity;
+        // Optimal number of bits m = -n*ln(p)/ln(2)^2, and hash functions k = m/n*ln(2)
+        final long optimalBits = (long) Math.ceil(-capacity * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        final long words = Math.max(1, (optimalBits + 63) / 64);
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is too large.");
+        }
+        this.bits = new AtomicLongArray((int) words);
+        this.numberOfBits = words * 64;
+        this.numberOfHashes = (int) Math.max(1, Math.round((double) numberOfBits / capacity * Math.log(2)));
+    }
+
+    /** Adds a fingerprint to the filter */
+    public void add(final String fingerprint) {
+        final long hash = hash(fingerprint);
+        final long hash1 = mix(hash);
+        final long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1L;
+        for (int i = 0; i < numberOfHashes; i++) {
+            final long bit = Long.remainderUnsigned(hash1 + i * hash2, numberOfBits);
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long current;
+            while (((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                // Another bit in the same word was set concurrently, try again
+            }
+        }
+        size.incrementAndGet();
+    }
+
+    /** @return false if the fingerprint has definitely not been added to the filter, or true if it probably has */
+    public boolean mightContain(final String fingerprint) {
+        final long hash = hash(fingerprint);
+        final long hash1 = mix(hash);
+        final long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1L;
+        for (int i = 0; i < numberOfHashes; i++) {
+            final long bit = Long.remainderUnsigned(hash1 + i * hash2, numberOfBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the number of fingerprints the filter was sized for */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of fingerprints that have been added to the filter */
+    public long getSize() {
+        return size.get();
+    }
+
+    /** @return the memory used by the bits of the filter */
+    public long getSizeInBytes() {
+        return numberOfBits / 8;
+    }
+
+    /** 64-bit FNV-1a hash of the characters of the fingerprint */
+    private static long hash(final String fingerprint) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < fingerprint.length(); i++) {
+            hash ^= fingerprint.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /** Finalization step of MurmurHash3, to spread the bits of the hash */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
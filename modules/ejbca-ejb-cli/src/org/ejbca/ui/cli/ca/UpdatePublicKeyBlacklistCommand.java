@@ -295,6 +295,10 @@ public class UpdatePublicKeyBlacklistCommand extends BaseCaAdminCommand {
                     }
                 }
             }
+            if (importOk > 0) {
+                // Build the filter now, instead of on the next lookup, so that removed entries no longer have to be looked up in the database
+                EjbRemoteHelper.INSTANCE.getRemoteSession(BlacklistSessionRemote.class).rebuildPublicKeyBlacklistFilter();
+            }
 
             printSummary(importOk, readError, redundant, constraintViolation, generalImportError, command);
         } catch (Exception e) {
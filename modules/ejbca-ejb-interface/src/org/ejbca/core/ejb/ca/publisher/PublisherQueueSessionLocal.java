@@ -98,6 +98,19 @@ public interface PublisherQueueSessionLocal {
      */
     Collection<PublisherQueueData> getPendingEntriesForPublisherWithLimitAndOffset(int publisherId, int limit, int offset);
 
+    /**
+     * Finds entries with status {@link PublisherQueueData.STATUS_PENDING} for a specific <code>publisherId</code>, that come after
+     * the given position. The results are ordered in ascending order by time created and primary key, so the position of the next
+     * page is the time created and primary key of the last entry of this page.
+     * 
+     * @param publisherId the id of a publisher to fetch pending entries for.
+     * @param limit the maximum number of results.
+     * @param afterTimeCreated time created in milliseconds of the last entry of the previous page, or {@link Long#MIN_VALUE} for the first page.
+     * @param afterPk primary key of the last entry of the previous page, or an empty string for the first page.
+     * @return List of PublisherQueueData, never null
+     */
+    List<PublisherQueueData> getPendingEntriesForPublisherAfter(int publisherId, int limit, long afterTimeCreated, String afterPk);
+
     /**
      * Finds all entries for a specific fingerprint.
      * 
@@ -117,11 +130,12 @@ public interface PublisherQueueSessionLocal {
     /**
      * Intended for use from PublishQueueProcessWorker.
      * 
-     * Publishing algorithm that is a plain fifo queue, but limited to selecting entries to republish at 100 records at a time. It will select from the database for this particular publisher id, and process 
-     * the record that is returned one by one. The records are ordered by date, descending so the oldest record is returned first. 
-     * Publishing is tried every time for every record returned, with no limit.
+     * Publishing algorithm that is a plain fifo queue, but limited to selecting entries to republish at "publish.queue.chunksize" (default 100)
+     * records at a time. It will select from the database for this particular publisher id, and process the records that are returned one by one
+     * in a new transaction for each chunk. The records are ordered by date, ascending so the oldest record is returned first, and the next chunk
+     * starts after the last record of the previous one. Publishing is tried every time for every record returned, with no limit.
      * Repeat this process as long as we actually manage to publish something this is because when publishing starts to work we want to publish everything in one go, if possible.
-     * However we don't want to publish more than 20000 certificates each time, because we want to commit to the database some time as well.
+     * However we don't want to publish more than "publish.queue.maxentriesperrun" (default 20000) certificates each time, so other publishers get their turn.
      * Now, the OCSP publisher uses a non-transactional data source so it commits every time so...
      * 
      * @param admin the administrator that must be authorized for publishing
@@ -130,6 +144,19 @@ public interface PublisherQueueSessionLocal {
      */
     PublishingResult plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(AuthenticationToken admin, BasePublisher publisher);
 
+    /**
+     * Intended for use from PublishQueueProcessWorker.
+     * 
+     * Processes the queues of several publishers with {@link #plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(AuthenticationToken, BasePublisher)},
+     * with at most "publish.queue.workers" (default 4) queues processed concurrently. A publisher that is slow or unavailable only delays the
+     * processing of its own queue.
+     * 
+     * @param admin the administrator that must be authorized for publishing
+     * @param publishers the publishers to publish to
+     * @return how many publishing operations that succeeded and failed, for all the publishers
+     */
+    PublishingResult plainFifoTryAlwaysOrderByTimeCreatedConcurrently(AuthenticationToken admin, List<BasePublisher> publishers);
+
     
     /** Publishers do not run a part of regular transactions and expect to run in auto-commit mode. */
 	boolean publishCertificateNonTransactional(BasePublisher publisher, AuthenticationToken admin, CertificateDataWrapper cert,
@@ -173,9 +200,10 @@ public interface PublisherQueueSessionLocal {
     /** Publishers digest queues in transaction-based "chunks". 
      * @param admin the administrator that must be authorized for publishing
      * @param publisher the publisher to publish to
+     * @param publisherQueueData the queue entries of this chunk
      * @return how many publishing operations that succeeded and failed 
      */
-    PublishingResult doChunk(AuthenticationToken admin, BasePublisher publisher);
+    PublishingResult doChunk(AuthenticationToken admin, BasePublisher publisher, Collection<PublisherQueueData> publisherQueueData);
 
     PublishingResult doPublish(AuthenticationToken admin, BasePublisher publisher, PublisherQueueData publisherQueueData);
 }
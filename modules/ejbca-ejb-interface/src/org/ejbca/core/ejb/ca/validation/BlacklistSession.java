@@ -77,4 +77,10 @@ public interface BlacklistSession {
      * @return a BlacklistEntry or null if a public key blacklist entry with the given fingerprint does not exist. Uses cache to get the object as quickly as possible.
      */
     BlacklistEntry getBlacklistEntry(String type, String value);
+
+    /**
+     * Builds the in memory filter of all public key block list fingerprints again, for example after a bulk import of entries.
+     * Fingerprints that the filter rules out are not looked up in the database.
+     */
+    void rebuildPublicKeyBlacklistFilter();
 }
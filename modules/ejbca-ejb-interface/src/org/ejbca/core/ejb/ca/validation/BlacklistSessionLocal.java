@@ -67,4 +67,15 @@ public interface BlacklistSessionLocal extends BlacklistSession {
      * Flushes the public key blacklist entry cache to ensure that next time they are read from database.
      */
     void flushBlacklistEntryCache();
+
+    /**
+     * Checks the value against an in memory filter of all public key block list fingerprints, without accessing the database
+     * unless the filter has to be built or checked for updates.
+     *
+     * @param type the type of block list entry
+     * @param value the fingerprint of a public key
+     * @return false if there is definitely no entry with the type and value, or true if there might be one, which has to be confirmed
+     * with {@link #getBlacklistEntryId(String, String)}. Always true for other types than public keys.
+     */
+    boolean mightBeBlacklisted(String type, String value);
 }
@@ -70,4 +70,17 @@ public interface OcspDataSession {
      * @return Serial numbers of the expired responses.
      */
     List<String> findExpiringOcpsData(Integer caId, long expirationDate, int maxNumberOfResults, int offset);
+
+    /**
+     * Returns a page of the distinct serial numbers of the responses expired at or before the given expirationDate, in the order of
+     * the serial number column. The next page is read by passing the last serial number of the previous page, so that the database
+     * does not have to skip the rows of all previous pages, as with {@link #findExpiringOcpsData(Integer, long, int, int)}.
+     *
+     * @param caId of the CA which signed the OCSP response
+     * @param expirationDate date before OCSP response expires.
+     * @param afterSerialNumber the last serial number of the previous page, or null for the first page.
+     * @param maxNumberOfResults Maximum number of results for this query.
+     * @return Serial numbers of the expired responses, or an empty list if there are no more.
+     */
+    List<String> findExpiringOcspSerialNumbers(Integer caId, long expirationDate, String afterSerialNumber, int maxNumberOfResults);
 }
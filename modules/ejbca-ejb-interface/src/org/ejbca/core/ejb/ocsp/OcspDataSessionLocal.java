@@ -12,6 +12,8 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
+import java.util.List;
+
 import javax.ejb.Local;
 
 import org.cesecore.oscp.OcspResponseData;
@@ -36,6 +38,13 @@ public interface OcspDataSessionLocal extends OcspDataSession {
      * @param ocspResponseData
      */
     void storeOcspData(final OcspResponseData ocspResponseData);
+
+    /**
+     * Saves a batch of OCSP data in the table, in a single transaction. The inserts are sent to the database in JDBC batches of the size
+     * configured with hibernate.jdbc.batch_size in the persistence unit.
+     * @param ocspResponseData the responses to store
+     */
+    void storeOcspDataBatch(final List<OcspResponseData> ocspResponseData);
     
     /**
      * Deletes all the OCSP data from table corresponding to serialNumber.
@@ -0,0 +1,97 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and outcome of a bulk pre-production of OCSP responses. Updated by the worker threads while the
+ * pre-production is running.
+ *
+ * @version $Id$
+ */
+public class OcspPreProductionResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int caId;
+    private final long total;
+    private final long startTime;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private volatile long endTime = 0;
+
+    public OcspPreProductionResult(final int caId, final long total) {
+        this.caId = caId;
+        this.total = total;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a finished chunk.
+     * @param processedInChunk the number of serial numbers in the chunk
+     * @param storedInChunk the number of responses that were stored
+     */
+    public void addChunk(final int processedInChunk, final int storedInChunk) {
+        processed.addAndGet(processedInChunk);
+        stored.addAndGet(storedInChunk);
+    }
+
+    /** Marks the pre-production as finished. */
+    public void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+    /** @return the ID of the CA the responses are produced for */
+    public int getCaId() {
+        return caId;
+    }
+
+    /** @return the number of serial numbers to produce responses for */
+    public long getTotal() {
+        return total;
+    }
+
+    /** @return the number of serial numbers processed so far */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /** @return the number of responses that were stored. Responses are not stored if they could not be produced, or if a final response exists. */
+    public long getStored() {
+        return stored.get();
+    }
+
+    /** @return true if all chunks have been processed, or the pre-production was aborted */
+    public boolean isFinished() {
+        return endTime != 0;
+    }
+
+    /** @return the time spent so far, or in total if finished, in milliseconds */
+    public long getElapsedTimeMs() {
+        return (isFinished() ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /** @return the number of processed serial numbers per second */
+    public long getThroughput() {
+        final long elapsedTimeMs = getElapsedTimeMs();
+        return elapsedTimeMs == 0 ? 0 : getProcessed() * 1000L / elapsedTimeMs;
+    }
+
+    @Override
+    public String toString() {
+        return "CA " + caId + ": processed " + getProcessed() + " of " + total + ", stored " + getStored() + " OCSP responses in "
+                + getElapsedTimeMs() + " ms (" + getThroughput() + " responses/s)";
+    }
+}
@@ -14,6 +14,7 @@ package org.ejbca.core.ejb.ocsp;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.List;
 
 import javax.ejb.Local;
 
@@ -47,4 +48,29 @@ public interface OcspResponseGeneratorSessionLocal extends OcspResponseGenerator
      * @param certIDHashAlgorithm of the certId
      */
     void preSignOcspResponse(X509Certificate cacert, BigInteger serialNr, boolean issueFinalResponse, String certIDHashAlgorithm);
+
+    /**
+     * Pre-produces OCSP responses for many certificates of the provided CA. The serial numbers are split in chunks of
+     * ocsp.preproduction.chunksize that are produced by ocsp.preproduction.threads workers in parallel, and the responses
+     * of each chunk are stored in one transaction. Progress is logged while running.
+     * 
+     * @param cacert of the CA which signs the OCSP responses
+     * @param serialNrs of the certificates to produce responses for.
+     * @param issueFinalResponse true if final responses should be produced for expired certificates
+     * @param certIDHashAlgorithm of the certIds
+     * @return the number of processed and stored responses, and the throughput
+     */
+    OcspPreProductionResult preSignOcspResponses(X509Certificate cacert, List<BigInteger> serialNrs, boolean issueFinalResponse, String certIDHashAlgorithm);
+
+    /**
+     * Pre-produces new OCSP responses for all certificates of the provided CA, whose latest stored response expires at or before the
+     * given time. 
+     * 
+     * @param cacert of the CA which signs the OCSP responses
+     * @param expirationDate responses with nextUpdate at or before this time are replaced
+     * @param certIDHashAlgorithm of the certIds
+     * @return the number of processed and stored responses, and the throughput
+     * @see #preSignOcspResponses(X509Certificate, List, boolean, String)
+     */
+    OcspPreProductionResult preSignExpiringOcspResponses(X509Certificate cacert, long expirationDate, String certIDHashAlgorithm);
 }
@@ -17,6 +17,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
 /**
@@ -31,6 +32,7 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
 
     private int maxResults = DEFAULT_MAX_RESULTS;
     private int pageNumber = 0;
+    private String pageCursor = null;
     private String orderProperty = "";
     private String orderOperation = "";
     private List<Integer> eepIds = new ArrayList<>();
@@ -64,6 +66,7 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
     public RaCertificateSearchRequestV2(final RaCertificateSearchRequestV2 request) {
         maxResults = request.maxResults;
         pageNumber = request.pageNumber;
+        pageCursor = request.pageCursor;
         orderProperty = request.orderProperty;
         orderOperation = request.orderOperation;
         eepIds.addAll(request.eepIds);
@@ -136,6 +139,24 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
         this.pageNumber = pageNumber;
     }
     
+    /**
+     * @return the cursor of the page to return, as returned in {@link RaCertificateSearchResponseV2#getNextPageCursor()}, an empty
+     * string for the first page, or null if the page number is used instead
+     */
+    public String getPageCursor() {
+        return pageCursor;
+    }
+
+    /**
+     * Use keyset pagination instead of the page number. The results are ordered by fingerprint, and the order property is ignored.
+     * Each page is found directly from the cursor, so the last page is as fast to fetch as the first.
+     *
+     * @param pageCursor the next page cursor of the previous response, an empty string for the first page, or null to use the page number
+     */
+    public void setPageCursor(final String pageCursor) {
+        this.pageCursor = pageCursor;
+    }
+
     public void resetMaxResults() {
         this.maxResults = DEFAULT_MAX_RESULTS;
     }
@@ -261,7 +282,7 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
             return false;
         }
         final RaCertificateSearchRequestV2 request = (RaCertificateSearchRequestV2) object;
-        return compareTo(request) == 0 && request.getPageNumber() == this.pageNumber;
+        return compareTo(request) == 0 && request.getPageNumber() == this.pageNumber && StringUtils.equals(request.getPageCursor(), this.pageCursor);
     }
 
     // negative = this object is less (more narrow) than other. E.g. only when other contains this and more.
@@ -273,7 +294,7 @@ public class RaCertificateSearchRequestV2 implements Serializable, Comparable<Ra
             return 1;
         }
         // First check if there is any there is any indication that this does not contain the whole other
-        if (maxResults>other.maxResults || pageNumber>other.pageNumber ||
+        if (maxResults>other.maxResults || pageNumber>other.pageNumber || !StringUtils.equals(pageCursor, other.pageCursor) ||
                 isWider(eepIds, other.eepIds) || isWider(cpIds, other.cpIds) || isWider(caIds, other.caIds) ||
                 issuedAfter<other.issuedAfter || issuedBefore>other.issuedBefore ||
                 expiresAfter<other.expiresAfter || expiresBefore>other.expiresBefore ||
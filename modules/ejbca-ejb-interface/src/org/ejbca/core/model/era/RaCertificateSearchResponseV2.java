@@ -28,12 +28,22 @@ public class RaCertificateSearchResponseV2 implements Serializable {
 
     private List<CertificateDataWrapper> cdws = new ArrayList<>();
     private long totalCount = 0;
+    private String nextPageCursor = null;
+    private boolean mightHaveMoreResults = false;
 
     public List<CertificateDataWrapper> getCdws() { return cdws; }
     public void setCdws(List<CertificateDataWrapper> cdws) { this.cdws = cdws; }
 
     public long getTotalCount() { return totalCount; }
     public void setTotalCount(long count) { totalCount = count; }
+
+    /** @return the page cursor of the next page when searching with a page cursor, or null if there are no more results */
+    public String getNextPageCursor() { return nextPageCursor; }
+    public void setNextPageCursor(final String nextPageCursor) { this.nextPageCursor = nextPageCursor; }
+
+    /** @return true if a back end did not answer, so that there might be more results than the returned ones and the total count */
+    public boolean isMightHaveMoreResults() { return mightHaveMoreResults; }
+    public void setMightHaveMoreResults(final boolean mightHaveMoreResults) { this.mightHaveMoreResults = mightHaveMoreResults; }
     
     public void merge(final RaCertificateSearchResponseV2 other) {
         final LinkedHashMap<String,CertificateDataWrapper> cdwMap = new LinkedHashMap<>();
@@ -46,5 +56,33 @@ public class RaCertificateSearchResponseV2 implements Serializable {
         this.cdws.clear();
         this.cdws.addAll(cdwMap.values());
         setTotalCount(totalCount + other.totalCount);
+        if (other.mightHaveMoreResults) {
+            mightHaveMoreResults = true;
+        }
+        // Results after the lowest next page cursor might be missing from the other responses, so they belong to a later page
+        if (other.nextPageCursor != null && (nextPageCursor == null || other.nextPageCursor.compareTo(nextPageCursor) < 0)) {
+            nextPageCursor = other.nextPageCursor;
+        }
+    }
+
+    /**
+     * Limits merged results of a search with a page cursor to one page, ordered by fingerprint like the results from each back end.
+     * Results after the next page cursor of any of the merged responses are left for the next page.
+     *
+     * @param maxResults the page size
+     */
+    public void limitToPage(final int maxResults) {
+        final List<CertificateDataWrapper> page = new ArrayList<>();
+        for (final CertificateDataWrapper cdw : cdws) {
+            if (nextPageCursor == null || cdw.getCertificateData().getFingerprint().compareTo(nextPageCursor) <= 0) {
+                page.add(cdw);
+            }
+        }
+        page.sort((cdw1, cdw2) -> cdw1.getCertificateData().getFingerprint().compareTo(cdw2.getCertificateData().getFingerprint()));
+        if (maxResults > 0 && page.size() > maxResults) {
+            page.subList(maxResults, page.size()).clear();
+            nextPageCursor = page.get(maxResults - 1).getCertificateData().getFingerprint();
+        }
+        cdws = page;
     }
 }
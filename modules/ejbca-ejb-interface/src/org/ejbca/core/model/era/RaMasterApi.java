@@ -382,6 +382,7 @@ public interface RaMasterApi {
     
     /**
      * Searches for certificates V2. Data (e.g. revocation status) of remote certificates take precedence over local ones.
+     * Page cursors ({@link RaCertificateSearchRequestV2#setPageCursor(String)}) are supported since RA Master API version 15 (EJBCA 7.11.0).
      * @return list of certificates from the specified search criteria and order plus pagination summary.
      * @since Added between Master RA API version 12 and 13 (EJBCA 7.8.0), lacks an exact API version
      */
@@ -22,12 +22,23 @@ import java.security.SecureRandom;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.ejb.Timer;
 import javax.ejb.TimerService;
+import javax.enterprise.concurrent.ManagedExecutorService;
 
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
@@ -43,6 +54,7 @@ import org.bouncycastle.cert.ocsp.CertificateID;
 import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
 import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
 import org.bouncycastle.cert.ocsp.SingleResp;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.DigestCalculator;
@@ -56,6 +68,7 @@ import org.cesecore.certificates.ca.catoken.CAToken;
 import org.cesecore.certificates.ca.catoken.CATokenConstants;
 import org.cesecore.certificates.certificate.CertificateStatus;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.certificates.ocsp.cache.OcspDataConfigCache;
 import org.cesecore.certificates.ocsp.cache.OcspDataConfigCacheEntry;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
@@ -79,6 +92,7 @@ import org.cesecore.oscp.OcspResponseData;
 import org.cesecore.util.CertTools;
 import org.easymock.EasyMock;
 import org.ejbca.core.ejb.ocsp.OcspDataSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspPreProductionResult;
 import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionBean;
 import org.ejbca.core.ejb.ocsp.OcspResponseInformation;
 import org.junit.Before;
@@ -497,6 +511,160 @@ public class OcspResponseGeneratorSessionUnitTest {
         log.trace("<badNonceEncodingTooLarge");
     }
 
+    @Test
+    public void severalCertIdsGiveSameStatusesAsOneCertIdAtATime() throws Exception {
+        log.trace(">severalCertIdsGiveSameStatusesAsOneCertIdAtATime");
+        final BigInteger goodSerial = new BigInteger("1001");
+        final BigInteger revokedSerial = new BigInteger("1002");
+        final BigInteger unknownSerial = new BigInteger("1003");
+        final CertificateStatus revokedStatus = new CertificateStatus(CertificateStatus.REVOKED.toString(), 1500000000000L,
+                RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 0);
+        final Map<BigInteger, CertificateStatus> statuses = new HashMap<>();
+        statuses.put(goodSerial, status);
+        statuses.put(revokedSerial, revokedStatus);
+        statuses.put(unknownSerial, CertificateStatus.NOT_AVAILABLE);
+        expectLoggerChecks();
+        expectOcspConfigRead();
+        // The statuses of a request with several CertIDs are read with one lookup for the issuer
+        expect(certificateStoreSessionMock.getStatuses(ISSUER_CERT_DN, new HashSet<>(Arrays.asList(goodSerial, revokedSerial, unknownSerial))))
+                .andReturn(statuses).once();
+        // The same certificates are then requested one CertID at a time
+        expect(certificateStoreSessionMock.getStatus(ISSUER_CERT_DN, goodSerial)).andReturn(status).once();
+        expect(certificateStoreSessionMock.getStatus(ISSUER_CERT_DN, revokedSerial)).andReturn(revokedStatus).once();
+        expect(certificateStoreSessionMock.getStatus(ISSUER_CERT_DN, unknownSerial)).andReturn(CertificateStatus.NOT_AVAILABLE).once();
+        replay(auditLogger, transactionLogger, caSessionMock, certificateStoreSessionMock, cryptoTokenSessionMock,
+                internalKeyBindingDataSessionMock, globalConfigurationSessionMock, timerServiceMock);
+        prepareOcspCache();
+        final OcspResponseInformation respInfo = ocspResponseGeneratorSession.getOcspResponse(
+                makeOcspRequest(getIssuerCert(), goodSerial, revokedSerial, unknownSerial), null, REQUEST_IP, null, null, auditLogger, transactionLogger, false, false);
+        final Map<BigInteger, String> batchedStatuses = extractStatuses(respInfo);
+        assertEquals("There should be one response for each CertID.", 3, batchedStatuses.size());
+        for (final BigInteger serialNumber : Arrays.asList(goodSerial, revokedSerial, unknownSerial)) {
+            final OcspResponseInformation singleRespInfo = ocspResponseGeneratorSession.getOcspResponse(
+                    makeOcspRequest(getIssuerCert(), serialNumber, OIWObjectIdentifiers.idSHA1, null), null, REQUEST_IP, null, null, auditLogger, transactionLogger, false, false);
+            assertEquals("Status of " + serialNumber + " should be the same as when requested alone.", extractStatuses(singleRespInfo).get(serialNumber),
+                    batchedStatuses.get(serialNumber));
+        }
+        verify(certificateStoreSessionMock);
+        assertEquals("good", batchedStatuses.get(goodSerial));
+        assertEquals("revoked at 1500000000000 with reason " + RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, batchedStatuses.get(revokedSerial));
+        log.trace("<severalCertIdsGiveSameStatusesAsOneCertIdAtATime");
+    }
+
+    @Test
+    public void zzzc_preSignOcspResponsesInChunks() throws Exception {
+        log.trace(">zzzc_preSignOcspResponsesInChunks");
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.PREPRODUCTION_CHUNK_SIZE, "2");
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.PREPRODUCTION_THREADS, "2");
+        final TestManagedExecutorService executorService = new TestManagedExecutorService();
+        try {
+            final List<BigInteger> serialNrs = Arrays.asList(BigInteger.valueOf(100), BigInteger.valueOf(101), BigInteger.valueOf(102),
+                    BigInteger.valueOf(103), BigInteger.valueOf(104));
+            final List<List<OcspResponseData>> storedChunks = expectPreSigning(3);
+            ocspResponseGeneratorSession.setMockedExecutorService(executorService);
+            final OcspPreProductionResult result = ocspResponseGeneratorSession.preSignOcspResponses(getIssuerCert(), serialNrs, false, "SHA1");
+            assertTrue(result.isFinished());
+            assertEquals(5, result.getProcessed());
+            assertEquals(5, result.getStored());
+            final Set<String> storedSerialNrs = new HashSet<>();
+            for (final List<OcspResponseData> chunk : storedChunks) {
+                assertTrue("Each chunk should be stored in a transaction of its own.", chunk.size() <= 2);
+                for (final OcspResponseData responseData : chunk) {
+                    storedSerialNrs.add(responseData.getSerialNumber());
+                }
+            }
+            assertEquals(new HashSet<>(Arrays.asList("100", "101", "102", "103", "104")), storedSerialNrs);
+            assertEquals("The second worker should run on the executor.", 1, executorService.getCompletedTaskCount());
+        } finally {
+            executorService.shutdown();
+            ConfigurationHolder.updateConfiguration(OcspConfiguration.PREPRODUCTION_CHUNK_SIZE, "100");
+            ConfigurationHolder.updateConfiguration(OcspConfiguration.PREPRODUCTION_THREADS, "4");
+        }
+        log.trace("<zzzc_preSignOcspResponsesInChunks");
+    }
+
+    @Test
+    public void zzzd_preSignOcspResponsesWhenExecutorIsBusy() throws Exception {
+        log.trace(">zzzd_preSignOcspResponsesWhenExecutorIsBusy");
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.PREPRODUCTION_CHUNK_SIZE, "1");
+        final TestManagedExecutorService executorService = new TestManagedExecutorService();
+        // A shut down executor rejects all tasks
+        executorService.shutdown();
+        try {
+            final List<List<OcspResponseData>> storedChunks = expectPreSigning(3);
+            ocspResponseGeneratorSession.setMockedExecutorService(executorService);
+            final OcspPreProductionResult result = ocspResponseGeneratorSession.preSignOcspResponses(getIssuerCert(),
+                    Arrays.asList(BigInteger.valueOf(100), BigInteger.valueOf(101), BigInteger.valueOf(102)), false, "SHA1");
+            assertEquals("All responses should be produced by the calling thread.", 3, result.getStored());
+            assertEquals(3, storedChunks.size());
+        } finally {
+            ConfigurationHolder.updateConfiguration(OcspConfiguration.PREPRODUCTION_CHUNK_SIZE, "100");
+        }
+        log.trace("<zzzd_preSignOcspResponsesWhenExecutorIsBusy");
+    }
+
+    @Test
+    public void zzze_preSignExpiringOcspResponsesPagesBySerialNumber() throws Exception {
+        log.trace(">zzze_preSignExpiringOcspResponsesPagesBySerialNumber");
+        final long expirationDate = System.currentTimeMillis();
+        final List<List<OcspResponseData>> storedChunks = expectPreSigning(1);
+        // The next page starts after the last serial number of the previous one
+        expect(ocspDataSessionMock.findExpiringOcspSerialNumbers(ISSUER_CAID, expirationDate, null, 10000)).andReturn(Arrays.asList("100", "101"));
+        expect(ocspDataSessionMock.findExpiringOcspSerialNumbers(ISSUER_CAID, expirationDate, "101", 10000)).andReturn(Collections.singletonList("102"));
+        expect(ocspDataSessionMock.findExpiringOcspSerialNumbers(ISSUER_CAID, expirationDate, "102", 10000)).andReturn(Collections.emptyList());
+        replay(ocspDataSessionMock);
+        ocspResponseGeneratorSession.setMockedExecutorService(new TestManagedExecutorService());
+        final OcspPreProductionResult result = ocspResponseGeneratorSession.preSignExpiringOcspResponses(getIssuerCert(), expirationDate, "SHA1");
+        verify(ocspDataSessionMock);
+        assertEquals(3, result.getTotal());
+        assertEquals(3, result.getStored());
+        assertEquals(1, storedChunks.size());
+        log.trace("<zzze_preSignExpiringOcspResponsesPagesBySerialNumber");
+    }
+
+    /**
+     * Sets up the mocks for pre-producing responses for the issuer. The OCSP data session is replayed by the caller.
+     * @param expectedChunks the number of chunks that should be stored
+     * @return the stored chunks, filled in when the responses are stored
+     */
+    private List<List<OcspResponseData>> expectPreSigning(final int expectedChunks) {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.UNTIL_NEXT_UPDATE, "60000");
+        OcspDataConfigCache.INSTANCE.stagingAdd(new OcspDataConfigCacheEntry(getIssuerCert(), ISSUER_CAID, true, false, false));
+        OcspDataConfigCache.INSTANCE.stagingCommit();
+        // The workers call the sessions in parallel, so the order of the calls is not checked
+        ocspDataSessionMock = EasyMock.createMock(OcspDataSessionLocal.class);
+        ocspResponseGeneratorSession.setOcspDataSessionLocal(ocspDataSessionMock);
+        certificateStoreSessionMock = EasyMock.createMock(CertificateStoreSessionLocal.class);
+        ocspResponseGeneratorSession.setMockedCertificateStoreSession(certificateStoreSessionMock);
+        caSessionMock = EasyMock.createMock(CaSessionLocal.class);
+        ocspResponseGeneratorSession.setMockedCaSession(caSessionMock);
+        expectOcspConfigRead();
+        expect(certificateStoreSessionMock.getStatus(EasyMock.eq(ISSUER_CERT_DN), anyObject(BigInteger.class))).andReturn(status).anyTimes();
+        expect(ocspDataSessionMock.findOcspDataByCaIdSerialNumber(EasyMock.eq(ISSUER_CAID), anyObject(String.class))).andReturn(null).anyTimes();
+        final List<List<OcspResponseData>> storedChunks = Collections.synchronizedList(new ArrayList<>());
+        ocspDataSessionMock.storeOcspDataBatch(EasyMock.<List<OcspResponseData>>anyObject());
+        EasyMock.expectLastCall().andAnswer(() -> {
+            @SuppressWarnings("unchecked")
+            final List<OcspResponseData> chunk = (List<OcspResponseData>) EasyMock.getCurrentArguments()[0];
+            storedChunks.add(new ArrayList<>(chunk));
+            return null;
+        }).times(expectedChunks);
+        final X509CAInfo caInfo = new X509CAInfoBuilder()
+                .setSubjectDn(ISSUER_CERT_DN)
+                .setCaId(ISSUER_CAID)
+                .setStatus(CAConstants.CA_ACTIVE)
+                .setCertificateChain(Collections.singletonList(getIssuerCert()))
+                .setCrlPublishers(Collections.emptyList())
+                .build();
+        expect(caSessionMock.getCAInfoInternal(ISSUER_CAID)).andReturn(caInfo).anyTimes();
+        replay(certificateStoreSessionMock, caSessionMock, globalConfigurationSessionMock);
+        if (expectedChunks > 1) {
+            replay(ocspDataSessionMock);
+        }
+        prepareOcspCache();
+        return storedChunks;
+    }
+
     // Helper methods
 
     private void expectLoggerChecks() {
@@ -551,6 +719,28 @@ public class OcspResponseGeneratorSessionUnitTest {
         return singleResp.getCertStatus();
     }
 
+    /** @return a description of the status of each serial number in the response */
+    private Map<BigInteger, String> extractStatuses(final OcspResponseInformation respInfo) throws Exception {
+        assertNotNull(respInfo);
+        assertEquals(OCSPResp.SUCCESSFUL, respInfo.getStatus());
+        final BasicOCSPResp brep = (BasicOCSPResp) new OCSPResp(respInfo.getOcspResponse()).getResponseObject();
+        final Map<BigInteger, String> ret = new HashMap<>();
+        for (final SingleResp singleResp : brep.getResponses()) {
+            final Object certStatus = singleResp.getCertStatus();
+            final String description;
+            if (certStatus == null) {
+                description = "good";
+            } else if (certStatus instanceof RevokedStatus) {
+                final RevokedStatus revoked = (RevokedStatus) certStatus;
+                description = "revoked at " + revoked.getRevocationTime().getTime() + " with reason " + revoked.getRevocationReason();
+            } else {
+                description = certStatus.getClass().getSimpleName();
+            }
+            ret.put(singleResp.getCertID().getSerialNumber(), description);
+        }
+        return ret;
+    }
+
     private void assertGoodResponse(final OcspResponseInformation respInfo) throws Exception {
         assertNull("Status was not GOOD (=null). ", extractStatus(respInfo));
     }
@@ -585,6 +775,20 @@ public class OcspResponseGeneratorSessionUnitTest {
         }
     }
 
+    private byte[] makeOcspRequest(final X509Certificate issuerCert, final BigInteger... serialNumbers) {
+        try {
+            final X509CertificateHolder issuerCertHolder = new X509CertificateHolder(issuerCert.getEncoded());
+            final DigestCalculator digestCalc = new BcDigestCalculatorProvider().get(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1));
+            final OCSPReqBuilder gen = new OCSPReqBuilder();
+            for (final BigInteger serialNumber : serialNumbers) {
+                gen.addRequest(new CertificateID(digestCalc, issuerCertHolder, serialNumber));
+            }
+            return gen.build().getEncoded();
+        } catch (IOException | GeneralSecurityException | OperatorCreationException | OCSPException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private X509Certificate getCert(final String pemData) {
         try {
             return CertTools.getCertfromByteArray(pemData.getBytes(StandardCharsets.US_ASCII), X509Certificate.class);
@@ -628,6 +832,13 @@ public class OcspResponseGeneratorSessionUnitTest {
         return getPrivKey(SAMEISSUER_OCSPSIGNER_PRIVKEY);
     }
 
+    /** Container managed executor, that runs the tasks on threads of its own */
+    private static class TestManagedExecutorService extends ThreadPoolExecutor implements ManagedExecutorService {
+        private TestManagedExecutorService() {
+            super(4, 4, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        }
+    }
+
     private class TestOcspResponseGeneratorSessionBean extends OcspResponseGeneratorSessionBean {
         @Override
         protected void setMockedCaSession(final CaSessionLocal caSession) { super.setMockedCaSession(caSession); }
@@ -643,5 +854,7 @@ public class OcspResponseGeneratorSessionUnitTest {
         protected void setMockedTimerService(final TimerService timerService) { super.setMockedTimerService(timerService); }
         @Override
         protected void setOcspDataSessionLocal(final OcspDataSessionLocal ocspDataSessionLocal) { super.setOcspDataSessionLocal(ocspDataSessionLocal); }
+        @Override
+        protected void setMockedExecutorService(final ManagedExecutorService managedExecutorService) { super.setMockedExecutorService(managedExecutorService); }
     }
 }
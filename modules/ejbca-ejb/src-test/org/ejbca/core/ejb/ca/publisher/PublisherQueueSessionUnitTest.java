@@ -20,13 +20,21 @@ import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
 import javax.persistence.EntityManager;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLocal;
 import org.easymock.EasyMock;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.ejb.ocsp.OcspDataSessionLocal;
 import org.ejbca.core.model.ca.publisher.BasePublisher;
+import org.ejbca.core.model.ca.publisher.PublisherConst;
+import org.ejbca.core.model.ca.publisher.PublisherQueueData;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -42,6 +50,8 @@ public class PublisherQueueSessionUnitTest {
     private final AuthenticationToken adminMock = EasyMock.createStrictMock(AuthenticationToken.class);
     private final BasePublisher publisherMock = EasyMock.createMock(BasePublisher.class);
     
+    private static final int CHUNK_SIZE = EjbcaConfiguration.getPublishQueueChunkSize();
+
     private final PublisherQueueSessionLocal publisherQueueSession = new PublisherQueueSessionBean(entityManagerMock, noConflictCertificateStoreSessionMock, ocspDataSessionMock, publisherQueueSessionMock);
 
     @Before
@@ -61,9 +71,19 @@ public class PublisherQueueSessionUnitTest {
         return result;
     }
 
+    /** Creates a chunk of pending queue entries, created at time 1000 + i. */
+    private List<PublisherQueueData> makeChunk(int minId, int maxId) {
+        final List<PublisherQueueData> chunk = new ArrayList<>();
+        for (int i = minId; i < maxId; i++) {
+            chunk.add(new PublisherQueueData("pk" + i, new Date(1000 + i), new Date(1000 + i), PublisherConst.STATUS_PENDING, 0,
+                    PublisherConst.PUBLISH_TYPE_CERT, "aaaa" + i, 0, null));
+        }
+        return chunk;
+    }
+
     @Test
     public void publishNothing() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 0, 0, 0));
+        expect(publisherQueueSessionMock.getPendingEntriesForPublisherAfter(0, CHUNK_SIZE, Long.MIN_VALUE, "")).andReturn(makeChunk(0, 0));
         replay(publisherQueueSessionMock);
         assertResult(0, 0, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock));
         verify(publisherQueueSessionMock);
@@ -71,43 +91,70 @@ public class PublisherQueueSessionUnitTest {
 
     @Test
     public void publishOneChunk() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 0, 0, 0));
+        final List<PublisherQueueData> chunk = makeChunk(0, 7);
+        expect(publisherQueueSessionMock.getPendingEntriesForPublisherAfter(0, CHUNK_SIZE, Long.MIN_VALUE, "")).andReturn(chunk);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), same(chunk))).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
         replay(publisherQueueSessionMock);
         assertResult(5, 2, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock));
         verify(publisherQueueSessionMock);
     }
 
+    /** Tests that the second chunk starts after the last entry of the first one. */
     @Test
     public void publishTwoChunks() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(5, 7, 0, 0)); // 2 successes
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 0, 0, 0));
+        final List<PublisherQueueData> chunk1 = makeChunk(0, CHUNK_SIZE);
+        final List<PublisherQueueData> chunk2 = makeChunk(CHUNK_SIZE, CHUNK_SIZE + 2);
+        expect(publisherQueueSessionMock.getPendingEntriesForPublisherAfter(0, CHUNK_SIZE, Long.MIN_VALUE, "")).andReturn(chunk1);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), same(chunk1))).andReturn(makePublishingResult(0, CHUNK_SIZE - 2, 0, 2));
+        expect(publisherQueueSessionMock.getPendingEntriesForPublisherAfter(0, CHUNK_SIZE, 1000L + CHUNK_SIZE - 1, "pk" + (CHUNK_SIZE - 1))).andReturn(chunk2);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), same(chunk2))).andReturn(makePublishingResult(CHUNK_SIZE, CHUNK_SIZE + 2, 0, 0));
         replay(publisherQueueSessionMock);
-        assertResult(7, 2, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock));
+        assertResult(CHUNK_SIZE, 2, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock));
         verify(publisherQueueSessionMock);
     }
 
     /** Tests that publishing only continues when there is at least one result is successful. */
     @Test
     public void publishWithFailureAtEnd() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(5, 7, 0, 0)); // 2 successes
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 0, 2, 3)); // 1 failure
+        final List<PublisherQueueData> chunk1 = makeChunk(0, CHUNK_SIZE);
+        final List<PublisherQueueData> chunk2 = makeChunk(CHUNK_SIZE, 2 * CHUNK_SIZE);
+        expect(publisherQueueSessionMock.getPendingEntriesForPublisherAfter(0, CHUNK_SIZE, Long.MIN_VALUE, "")).andReturn(chunk1);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), same(chunk1))).andReturn(makePublishingResult(0, CHUNK_SIZE, 0, 0));
+        expect(publisherQueueSessionMock.getPendingEntriesForPublisherAfter(0, CHUNK_SIZE, 1000L + CHUNK_SIZE - 1, "pk" + (CHUNK_SIZE - 1))).andReturn(chunk2);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), same(chunk2))).andReturn(makePublishingResult(0, 0, 0, 11)); // 11 failures
         replay(publisherQueueSessionMock);
-        assertResult(7, 3, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock));
+        assertResult(CHUNK_SIZE, 11, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock));
         verify(publisherQueueSessionMock);
     }
 
     /** Tests that publishing aborts after more than 20 000 successful publishings */
     @Test
     public void tooMuchToPublish() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 35_000, 0, 0)); // 35 000 successes
+        final List<PublisherQueueData> chunk = makeChunk(0, CHUNK_SIZE);
+        expect(publisherQueueSessionMock.getPendingEntriesForPublisherAfter(0, CHUNK_SIZE, Long.MIN_VALUE, "")).andReturn(chunk);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), same(chunk))).andReturn(makePublishingResult(0, 35_000, 0, 0)); // 35 000 successes
         replay(publisherQueueSessionMock);
         assertResult(35_000, 0, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock));
         verify(publisherQueueSessionMock);
     }
 
+    /** Tests that all publishers are processed, even if processing of one of them fails */
+    @Test
+    public void publishConcurrently() {
+        final BasePublisher publisherMock2 = EasyMock.createMock(BasePublisher.class);
+        final BasePublisher publisherMock3 = EasyMock.createMock(BasePublisher.class);
+        expect(publisherQueueSessionMock.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 5, 0, 0));
+        expect(publisherQueueSessionMock.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(same(adminMock), same(publisherMock2))).andThrow(new IllegalStateException("Unavailable"));
+        expect(publisherQueueSessionMock.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(same(adminMock), same(publisherMock3))).andReturn(makePublishingResult(5, 7, 0, 1));
+        // Calls are made from different threads, so the order is not known
+        EasyMock.checkOrder(publisherQueueSessionMock, false);
+        EasyMock.makeThreadSafe(publisherQueueSessionMock, true);
+        replay(publisherQueueSessionMock);
+        assertResult(7, 1, publisherQueueSession.plainFifoTryAlwaysOrderByTimeCreatedConcurrently(adminMock,
+                Arrays.asList(publisherMock, publisherMock2, publisherMock3)));
+        verify(publisherQueueSessionMock);
+    }
+
     private void assertResult(int numSuccesses, int numFailures, final PublishingResult actualResult) {
         assertNotNull("Should have a result object", actualResult);
         assertEquals("Wrong number of successful fingerprints", numSuccesses, actualResult.getSuccesses());
@@ -0,0 +1,373 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateDataSessionLocal;
+import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLocal;
+import org.cesecore.certificates.crl.CRLData;
+import org.cesecore.certificates.crl.CRLInfo;
+import org.cesecore.certificates.crl.CrlCreateSessionLocal;
+import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.easymock.EasyMock;
+import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests of the creation of base CRLs from the entries of the last base CRL, which are compared with base CRLs
+ * created from all revoked certificates in the database.
+ *
+ * @version $Id$
+ */
+public class PublishingCrlSessionUnitTest {
+
+    private static final String CA_DN = "CN=Incremental CRL CA";
+    private static final long HOUR = 3600000L;
+    private static final long DAY = 24 * HOUR;
+    /** Creation time of the last base CRL, one hour into a day */
+    private static final long LAST_BASE_CRL_DATE = 20000 * DAY + HOUR;
+    private static final long NOT_EXPIRED = LAST_BASE_CRL_DATE + 365 * DAY;
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("PublishingCrlSessionUnitTest"));
+
+    private static KeyPair caKeys;
+    private static X509Certificate caCert;
+
+    /** A certificate in the simulated database */
+    private static class CertificateRow {
+        private final BigInteger serialNumber;
+        private final String fingerprint;
+        private final long expireDate;
+        private int status = CertificateConstants.CERT_REVOKED;
+        private long revocationDate;
+        private int revocationReason;
+        private long updateTime;
+        /** true if the certificate is in NoConflictCertificateData, where it is never archived */
+        private boolean noConflict = false;
+
+        private CertificateRow(final int serialNumber, final long expireDate, final long revocationDate, final int revocationReason) {
+            this.serialNumber = BigInteger.valueOf(serialNumber);
+            this.fingerprint = "fp" + serialNumber;
+            this.expireDate = expireDate;
+            this.revocationDate = revocationDate;
+            this.revocationReason = revocationReason;
+        }
+
+        private RevokedCertInfo toRevokedCertInfo() {
+            final int reason = revocationReason == RevokedCertInfo.NOT_REVOKED ? RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL : revocationReason;
+            return new RevokedCertInfo(fingerprint.getBytes(), serialNumber.toByteArray(), revocationDate, reason, expireDate);
+        }
+    }
+
+    /** The certificates of the CA, and the changes the CRL session makes to them */
+    private final List<CertificateRow> database = new ArrayList<>();
+    private final Set<String> archived = new HashSet<>();
+    private int fullQueries = 0;
+    private int deltaQueries = 0;
+    private List<RevokedCertInfo> crlEntries;
+    private long currentTime;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        caKeys = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        caCert = CertTools.genSelfCert(CA_DN, 3650, null, caKeys.getPrivate(), caKeys.getPublic(), AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration("database.crlgenincrementalrebuildtime", "0");
+    }
+
+    @Test
+    public void testIncrementalBaseCrlMatchesFullRebuild() throws Exception {
+        final CRLInfo lastBaseCrl = createLastBaseCrl();
+        final long thisUpdate = LAST_BASE_CRL_DATE + 2 * HOUR;
+
+        final List<RevokedCertInfo> fullEntries = createBaseCrl(lastBaseCrl, thisUpdate, 0);
+        assertEquals("The full rebuild should read all revoked certificates.", 1, fullQueries);
+        final Set<String> fullArchived = new HashSet<>(archived);
+
+        final List<RevokedCertInfo> incrementalEntries = createBaseCrl(createLastBaseCrl(), thisUpdate, DAY);
+        assertEquals("The incremental base CRL should only read the changes.", 0, fullQueries);
+        assertEquals(1, deltaQueries);
+
+        assertEquals(toEntries(fullEntries), toEntries(incrementalEntries));
+        assertEquals(new HashSet<>(Arrays.asList("fp2", "fp5")), fullArchived);
+        assertEquals(fullArchived, archived);
+    }
+
+    @Test
+    public void testRemoveFromCrl() throws Exception {
+        final List<RevokedCertInfo> entries = createBaseCrl(createLastBaseCrl(), LAST_BASE_CRL_DATE + 2 * HOUR, DAY);
+        assertFalse("The reactivated certificate should be removed.", toEntries(entries).contains("\n3:"));
+        assertFalse("The reactivated certificate should not be listed as removeFromCRL on a base CRL.",
+                toEntries(entries).contains(":" + RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL + ":"));
+    }
+
+    @Test
+    public void testExpiredCertificatesAreRemovedFromNextBaseCrl() throws Exception {
+        final long thisUpdate = LAST_BASE_CRL_DATE + 2 * HOUR;
+        final List<RevokedCertInfo> entries = createBaseCrl(createLastBaseCrl(), thisUpdate, DAY);
+        assertTrue("The expired certificate must be on one base CRL.", toEntries(entries).contains("5:1:"));
+        assertTrue("The expired certificates should be archived once they are on a base CRL.", archived.containsAll(Arrays.asList("fp2", "fp5")));
+        assertFalse("Expired certificates in NoConflictCertificateData should be removed.", toEntries(entries).contains("\n7:"));
+        // The archived certificates are removed from the next base CRL
+        final CRLInfo nextLastBaseCrl = createCrl(entries, thisUpdate, 3);
+        final List<RevokedCertInfo> fullEntries = createBaseCrl(nextLastBaseCrl, thisUpdate + HOUR, 0);
+        final List<RevokedCertInfo> nextEntries = createBaseCrl(nextLastBaseCrl, thisUpdate + HOUR, DAY);
+        assertEquals(0, fullQueries);
+        assertEquals(toEntries(fullEntries), toEntries(nextEntries));
+        assertEquals("The other entries should be unchanged.", toEntries(entries).replace("2:1:" + (LAST_BASE_CRL_DATE - 2 * HOUR) / 1000 + "\n", "")
+                .replace("5:1:" + (LAST_BASE_CRL_DATE + HOUR) / 1000 + "\n", ""), toEntries(nextEntries));
+        assertTrue(archived.isEmpty());
+    }
+
+    @Test
+    public void testFullRebuildInNewRebuildPeriod() throws Exception {
+        final CRLInfo lastBaseCrl = createLastBaseCrl();
+        final List<RevokedCertInfo> fullEntries = createBaseCrl(lastBaseCrl, LAST_BASE_CRL_DATE + DAY, 0);
+        final List<RevokedCertInfo> entries = createBaseCrl(createLastBaseCrl(), LAST_BASE_CRL_DATE + DAY, DAY);
+        assertEquals("The first base CRL of a rebuild period should be created from the database.", 1, fullQueries);
+        assertEquals(0, deltaQueries);
+        assertEquals(toEntries(fullEntries), toEntries(entries));
+        // A base CRL with a this update before the last one is also created from the database
+        createBaseCrl(lastBaseCrl, LAST_BASE_CRL_DATE - HOUR, DAY);
+        assertEquals(1, fullQueries);
+    }
+
+    @Test
+    public void testFullRebuildWhenLastBaseCrlCannotBeRead() throws Exception {
+        final CRLData crlData = new CRLData(new byte[] { 0x30, 0x03, 0x02, 0x01 }, 2, CertificateConstants.NO_CRL_PARTITION, CA_DN,
+                new Date(LAST_BASE_CRL_DATE), new Date(LAST_BASE_CRL_DATE + DAY), "cafp", -1);
+        createBaseCrl(new CRLInfo(crlData), LAST_BASE_CRL_DATE + 2 * HOUR, DAY);
+        assertEquals(1, deltaQueries);
+        assertEquals(1, fullQueries);
+    }
+
+    /**
+     * Fills the database with the certificates of the tests, and creates the last base CRL:
+     * <ol>
+     * <li>Revoked before the last base CRL, on it.</li>
+     * <li>Revoked before the last base CRL, on it, expired after it was revoked but before the last base CRL.</li>
+     * <li>On hold before the last base CRL, on it, reactivated after it.</li>
+     * <li>Revoked after the last base CRL.</li>
+     * <li>Revoked after the last base CRL, expired before the last base CRL.</li>
+     * <li>In NoConflictCertificateData, revoked before the last base CRL, on it.</li>
+     * <li>In NoConflictCertificateData, revoked before the last base CRL, on it, expired before the last base CRL.</li>
+     * <li>In NoConflictCertificateData, revoked after the last base CRL, expired before the last base CRL.</li>
+     * <li>Revoked before the last base CRL, on it, archived when it was created.</li>
+     * </ol>
+     */
+    private CRLInfo createLastBaseCrl() throws Exception {
+        database.clear();
+        final long revokedBefore = LAST_BASE_CRL_DATE - 2 * HOUR;
+        final long revokedAfter = LAST_BASE_CRL_DATE + HOUR;
+        database.add(new CertificateRow(1, NOT_EXPIRED, revokedBefore, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+        database.add(new CertificateRow(2, LAST_BASE_CRL_DATE - HOUR, revokedBefore, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+        final CertificateRow onHold = new CertificateRow(3, NOT_EXPIRED, revokedBefore, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        database.add(onHold);
+        final CertificateRow noConflict = new CertificateRow(6, NOT_EXPIRED, revokedBefore, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        noConflict.noConflict = true;
+        database.add(noConflict);
+        final CertificateRow noConflictExpired = new CertificateRow(7, LAST_BASE_CRL_DATE - HOUR, revokedBefore, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        noConflictExpired.noConflict = true;
+        database.add(noConflictExpired);
+        final CertificateRow archivedRow = new CertificateRow(9, LAST_BASE_CRL_DATE - 3 * HOUR, revokedBefore - HOUR, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        archivedRow.status = CertificateConstants.CERT_ARCHIVED;
+        archivedRow.updateTime = LAST_BASE_CRL_DATE - 1000;
+        database.add(archivedRow);
+        final List<RevokedCertInfo> lastEntries = new ArrayList<>();
+        for (final CertificateRow row : database) {
+            lastEntries.add(row.toRevokedCertInfo());
+        }
+        // Changes after the last base CRL
+        onHold.status = CertificateConstants.CERT_ACTIVE;
+        onHold.revocationDate = revokedAfter;
+        onHold.revocationReason = RevokedCertInfo.NOT_REVOKED;
+        database.add(new CertificateRow(4, NOT_EXPIRED, revokedAfter, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+        database.add(new CertificateRow(5, LAST_BASE_CRL_DATE - HOUR, revokedAfter, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+        final CertificateRow noConflictRevokedAfter = new CertificateRow(8, LAST_BASE_CRL_DATE - HOUR, revokedAfter, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        noConflictRevokedAfter.noConflict = true;
+        database.add(noConflictRevokedAfter);
+        return createCrl(lastEntries, LAST_BASE_CRL_DATE, 2);
+    }
+
+    private CRLInfo createCrl(final List<RevokedCertInfo> entries, final long thisUpdate, final int crlNumber) throws Exception {
+        final X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded()), new Date(thisUpdate));
+        for (final RevokedCertInfo entry : entries) {
+            crlBuilder.addCRLEntry(entry.getUserCertificate(), entry.getRevocationDate(), entry.getReason());
+        }
+        final byte[] crlBytes = crlBuilder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(caKeys.getPrivate())).getEncoded();
+        return new CRLInfo(new CRLData(crlBytes, crlNumber, CertificateConstants.NO_CRL_PARTITION, CA_DN, new Date(thisUpdate),
+                new Date(thisUpdate + DAY), CertTools.getFingerprintAsString(caCert), -1));
+    }
+
+    /**
+     * Creates a base CRL from the simulated database.
+     * @param rebuildTime the value of database.crlgenincrementalrebuildtime, 0 for a full rebuild
+     * @return the entries the CRL was generated with
+     */
+    private List<RevokedCertInfo> createBaseCrl(final CRLInfo lastBaseCrl, final long thisUpdate, final long rebuildTime) throws Exception {
+        ConfigurationHolder.updateConfiguration("database.crlgenincrementalrebuildtime", String.valueOf(rebuildTime));
+        archived.clear();
+        fullQueries = 0;
+        deltaQueries = 0;
+        crlEntries = null;
+        currentTime = thisUpdate;
+        final long lastBaseCrlDate = lastBaseCrl.getCreateDate().getTime();
+        final NoConflictCertificateStoreSessionLocal noConflictCertificateStoreSession = EasyMock.createMock(NoConflictCertificateStoreSessionLocal.class);
+        expect(noConflictCertificateStoreSession.listRevokedCertInfo(CA_DN, false, CertificateConstants.NO_CRL_PARTITION, lastBaseCrlDate, false)).andAnswer(() -> {
+            fullQueries++;
+            final List<RevokedCertInfo> result = new ArrayList<>();
+            for (final CertificateRow row : database) {
+                if (row.status == CertificateConstants.CERT_REVOKED && (!row.noConflict || row.expireDate >= lastBaseCrlDate)) {
+                    result.add(row.toRevokedCertInfo());
+                }
+            }
+            return result;
+        }).anyTimes();
+        expect(noConflictCertificateStoreSession.listRevokedCertInfo(CA_DN, true, CertificateConstants.NO_CRL_PARTITION, lastBaseCrlDate, true)).andAnswer(() -> {
+            deltaQueries++;
+            final List<RevokedCertInfo> result = new ArrayList<>();
+            for (final CertificateRow row : database) {
+                if (row.revocationDate > lastBaseCrlDate && row.status != CertificateConstants.CERT_ARCHIVED) {
+                    result.add(row.toRevokedCertInfo());
+                }
+            }
+            return result;
+        }).anyTimes();
+        expect(noConflictCertificateStoreSession.setStatus(anyObject(AuthenticationToken.class), anyString(), eq(CertificateConstants.CERT_ARCHIVED)))
+                .andAnswer(() -> {
+                    final String fingerprint = (String) EasyMock.getCurrentArguments()[1];
+                    archived.add(fingerprint);
+                    for (final CertificateRow row : database) {
+                        if (row.fingerprint.equals(fingerprint) && !row.noConflict) {
+                            row.status = CertificateConstants.CERT_ARCHIVED;
+                            row.updateTime = currentTime;
+                        }
+                    }
+                    return true;
+                }).anyTimes();
+        expect(noConflictCertificateStoreSession.listExpiredRevokedCertInfo(eq(CA_DN), eq(CertificateConstants.NO_CRL_PARTITION), eq(lastBaseCrlDate), anyLong()))
+                .andAnswer(() -> {
+                    final long since = (Long) EasyMock.getCurrentArguments()[3];
+                    final List<RevokedCertInfo> result = new ArrayList<>();
+                    for (final CertificateRow row : database) {
+                        final RevokedCertInfo revokedCertInfo = row.toRevokedCertInfo();
+                        if (!row.noConflict && row.status == CertificateConstants.CERT_REVOKED && row.expireDate < lastBaseCrlDate) {
+                            result.add(revokedCertInfo);
+                        } else if ((!row.noConflict && row.status == CertificateConstants.CERT_ARCHIVED && row.updateTime >= since)
+                                || (row.noConflict && row.status == CertificateConstants.CERT_REVOKED && row.expireDate >= since && row.expireDate < lastBaseCrlDate)) {
+                            revokedCertInfo.setReason(RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL);
+                            result.add(revokedCertInfo);
+                        }
+                    }
+                    return result;
+                }).anyTimes();
+        final CertificateDataSessionLocal certificateDataSession = EasyMock.createMock(CertificateDataSessionLocal.class);
+        final CrlCreateSessionLocal crlCreateSession = EasyMock.createMock(CrlCreateSessionLocal.class);
+        expect(crlCreateSession.generateAndStoreCRL(anyObject(AuthenticationToken.class), anyObject(X509CA.class), eq(CertificateConstants.NO_CRL_PARTITION),
+                EasyMock.<Collection<RevokedCertInfo>>anyObject(), eq(-1), anyInt(), eq(new Date(thisUpdate)))).andAnswer(() -> {
+                    @SuppressWarnings("unchecked")
+                    final Collection<RevokedCertInfo> certs = (Collection<RevokedCertInfo>) EasyMock.getCurrentArguments()[3];
+                    crlEntries = new ArrayList<>();
+                    for (final RevokedCertInfo cert : certs) {
+                        crlEntries.add(cert);
+                    }
+                    return new byte[] { 1 };
+                });
+        final CrlStoreSessionLocal crlStoreSession = EasyMock.createNiceMock(CrlStoreSessionLocal.class);
+        final PublisherSessionLocal publisherSession = EasyMock.createNiceMock(PublisherSessionLocal.class);
+        replay(noConflictCertificateStoreSession, certificateDataSession, crlCreateSession, crlStoreSession, publisherSession);
+        final PublishingCrlSessionBean publishingCrlSession = new PublishingCrlSessionBean(certificateDataSession, crlCreateSession, crlStoreSession,
+                noConflictCertificateStoreSession, publisherSession);
+        publishingCrlSession.internalCreateCRL(admin, createCa(), CertificateConstants.NO_CRL_PARTITION, lastBaseCrl, new Date(thisUpdate));
+        return crlEntries;
+    }
+
+    private static X509CA createCa() {
+        final X509CAInfo caInfo = new X509CAInfo.X509CAInfoBuilder()
+                .setName("IncrementalCrlCA")
+                .setSubjectDn(CA_DN)
+                .setStatus(CAConstants.CA_ACTIVE)
+                .setCertificateChain(Collections.<Certificate>singletonList(caCert))
+                .setCrlPublishers(Collections.emptyList())
+                .build();
+        final X509CA ca = EasyMock.createNiceMock(X509CA.class);
+        expect(ca.getCAInfo()).andReturn(caInfo).anyTimes();
+        expect(ca.getCAType()).andReturn(CAInfo.CATYPE_X509).anyTimes();
+        expect(ca.getSubjectDN()).andReturn(CA_DN).anyTimes();
+        expect(ca.getName()).andReturn("IncrementalCrlCA").anyTimes();
+        expect(ca.getCACertificate()).andReturn(caCert).anyTimes();
+        expect(ca.getCRLPublishers()).andReturn(Collections.emptyList()).anyTimes();
+        replay(ca);
+        return ca;
+    }
+
+    /** @return the entries as lines of "serial number:reason:revocation time in seconds", sorted by serial number */
+    private static String toEntries(final Collection<RevokedCertInfo> entries) {
+        final TreeMap<BigInteger, String> sorted = new TreeMap<>();
+        for (final RevokedCertInfo entry : entries) {
+            sorted.put(entry.getUserCertificate(), entry.getUserCertificate() + ":" + entry.getReason() + ":" + entry.getRevocationDate().getTime() / 1000);
+        }
+        final StringBuilder sb = new StringBuilder("\n");
+        for (final String line : sorted.values()) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,117 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.cesecore.certificates.ocsp.exception.OcspSigningBusyException;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.util.MetricsRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test of the bounded OCSP signing scheduler.
+ *
+ * @version $Id$
+ */
+public class OcspSigningSchedulerTest {
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_THREADS, "8");
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_QUEUE_SIZE, "64");
+        OcspSigningScheduler.INSTANCE.reload();
+    }
+
+    @Test
+    public void testSign() throws Exception {
+        assertEquals("signed", OcspSigningScheduler.INSTANCE.sign("testSign", () -> "signed"));
+        for (final OcspSigningScheduler.LaneStatistics statistics : OcspSigningScheduler.INSTANCE.getStatistics()) {
+            if ("testSign".equals(statistics.getName())) {
+                assertEquals(1, statistics.getSigned());
+                return;
+            }
+        }
+        fail("No statistics for the signing key.");
+    }
+
+    @Test
+    public void testBusyWhenQueueIsFull() throws Exception {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_THREADS, "1");
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_QUEUE_SIZE, "1");
+        OcspSigningScheduler.INSTANCE.reload();
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            // One response being signed, and one waiting in the queue
+            for (int i = 0; i < 2; i++) {
+                results.add(callers.submit(() -> OcspSigningScheduler.INSTANCE.sign("testBusy", () -> {
+                    release.await();
+                    return "signed";
+                })));
+            }
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (!isLaneFull("testBusy") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            try {
+                OcspSigningScheduler.INSTANCE.sign("testBusy", () -> "signed");
+                fail("Signing should be rejected when the queue is full.");
+            } catch (OcspSigningBusyException e) {
+                // Expected
+            }
+            assertTrue("The rejection should be visible in the metrics.",
+                    getMetrics().contains("ejbca_ocsp_signing_rejected_total{key=\"testBusy\"} 1\n"));
+            assertTrue(getMetrics().contains("ejbca_ocsp_signing_queue_depth{key=\"testBusy\"} 1\n"));
+            release.countDown();
+            for (final Future<String> result : results) {
+                assertEquals("signed", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    private static String getMetrics() throws IOException {
+        final MetricsRegistry.Collector collector = new MetricsRegistry.Collector();
+        MetricsRegistry.INSTANCE.collect(collector);
+        final StringWriter out = new StringWriter();
+        collector.write(out);
+        return out.toString();
+    }
+
+    private boolean isLaneFull(final String name) {
+        for (final OcspSigningScheduler.LaneStatistics statistics : OcspSigningScheduler.INSTANCE.getStatistics()) {
+            if (name.equals(statistics.getName())) {
+                return statistics.getActiveThreads() == 1 && statistics.getQueueDepth() == 1;
+            }
+        }
+        return false;
+    }
+}
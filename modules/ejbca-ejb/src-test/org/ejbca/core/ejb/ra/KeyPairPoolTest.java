@@ -0,0 +1,116 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.cesecore.util.CryptoProviderTools;
+import org.cesecore.util.MetricsRegistry;
+import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.config.EjbcaConfigurationHolder;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test of the pool of key pairs generated in advance.
+ *
+ * @version $Id$
+ */
+public class KeyPairPoolTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+    }
+
+    @After
+    public void tearDown() {
+        EjbcaConfigurationHolder.updateConfiguration(EjbcaConfiguration.KEYPAIRPOOL_KEYSPECS, "");
+        KeyPairPool.INSTANCE.reload();
+    }
+
+    private static KeyPairPool.PoolStatistics waitUntilFilled(final String name, final int size) throws InterruptedException {
+        for (int i = 0; i < 600; i++) {
+            final List<KeyPairPool.PoolStatistics> statistics = KeyPairPool.INSTANCE.getStatistics();
+            assertEquals(1, statistics.size());
+            assertEquals(name, statistics.get(0).getName());
+            if (statistics.get(0).getAvailable() == size) {
+                return statistics.get(0);
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("Pool of " + name + " was not filled.");
+    }
+
+    @Test
+    public void testKeyPairsFromPool() throws Exception {
+        EjbcaConfigurationHolder.updateConfiguration(EjbcaConfiguration.KEYPAIRPOOL_KEYSPECS, "ECDSA_secp256r1");
+        EjbcaConfigurationHolder.updateConfiguration(EjbcaConfiguration.KEYPAIRPOOL_SIZE, "5");
+        KeyPairPool.INSTANCE.reload();
+        waitUntilFilled("EC_secp256r1", 5);
+        final Set<KeyPair> keyPairs = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            final KeyPair keyPair = KeyPairPool.INSTANCE.getKeyPair("secp256r1", "EC");
+            assertTrue(keyPair.getPublic() instanceof ECPublicKey);
+            assertTrue("A key pair must only be used once.", keyPairs.add(keyPair));
+        }
+        final KeyPairPool.PoolStatistics statistics = waitUntilFilled("EC_secp256r1", 5);
+        assertEquals(5, statistics.getHits());
+        assertEquals(0, statistics.getMisses());
+        assertEquals(100, statistics.getHitRatePercent());
+        assertEquals(10, statistics.getGenerated());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        EjbcaConfigurationHolder.updateConfiguration(EjbcaConfiguration.KEYPAIRPOOL_KEYSPECS, "EC_secp256r1");
+        EjbcaConfigurationHolder.updateConfiguration(EjbcaConfiguration.KEYPAIRPOOL_SIZE, "2");
+        KeyPairPool.INSTANCE.reload();
+        waitUntilFilled("EC_secp256r1", 2);
+        KeyPairPool.INSTANCE.getKeyPair("secp256r1", "EC");
+        waitUntilFilled("EC_secp256r1", 2);
+        final MetricsRegistry.Collector collector = new MetricsRegistry.Collector();
+        MetricsRegistry.INSTANCE.collect(collector);
+        final StringWriter out = new StringWriter();
+        collector.write(out);
+        final String metrics = out.toString();
+        assertTrue(metrics, metrics.contains("# TYPE ejbca_keypair_pool_available gauge\nejbca_keypair_pool_available{keyspec=\"EC_secp256r1\"} 2\n"));
+        assertTrue(metrics, metrics.contains("ejbca_keypair_pool_size{keyspec=\"EC_secp256r1\"} 2\n"));
+        assertTrue(metrics, metrics.contains("# TYPE ejbca_keypair_pool_hits_total counter\nejbca_keypair_pool_hits_total{keyspec=\"EC_secp256r1\"} 1\n"));
+        assertTrue(metrics, metrics.contains("ejbca_keypair_pool_misses_total{keyspec=\"EC_secp256r1\"} 0\n"));
+        assertTrue(metrics, metrics.contains("ejbca_keypair_pool_generated_total{keyspec=\"EC_secp256r1\"} 3\n"));
+    }
+
+    @Test
+    public void testKeySpecWithoutPool() throws Exception {
+        EjbcaConfigurationHolder.updateConfiguration(EjbcaConfiguration.KEYPAIRPOOL_KEYSPECS, "EC_secp256r1;invalid");
+        EjbcaConfigurationHolder.updateConfiguration(EjbcaConfiguration.KEYPAIRPOOL_SIZE, "1");
+        KeyPairPool.INSTANCE.reload();
+        final KeyPair keyPair = KeyPairPool.INSTANCE.getKeyPair("1024", "RSA");
+        assertNotNull(keyPair);
+        assertTrue(keyPair.getPublic() instanceof RSAPublicKey);
+        final KeyPairPool.PoolStatistics statistics = waitUntilFilled("EC_secp256r1", 1);
+        assertEquals("Key pairs generated without a pool should not be counted.", 0, statistics.getHits() + statistics.getMisses());
+    }
+}
@@ -0,0 +1,250 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.era;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+
+import org.cesecore.util.MetricsRegistry;
+import org.easymock.EasyMock;
+import org.ejbca.config.EjbcaConfigurationHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link RaMasterApiFanOut}.
+ *
+ * @version $Id$
+ */
+public class RaMasterApiFanOutTest {
+
+    private final RaMasterApiFanOut fanOut = RaMasterApiFanOut.INSTANCE;
+    private final Thread testThread = Thread.currentThread();
+    private final TestManagedExecutorService executorService = new TestManagedExecutorService(4);
+
+    private static class TestManagedExecutorService extends ThreadPoolExecutor implements ManagedExecutorService {
+        private TestManagedExecutorService(final int threads) {
+            super(threads, threads, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        }
+
+        private TestManagedExecutorService(final int threads, final RejectedExecutionHandler handler) {
+            super(threads, threads, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>(), handler);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        EjbcaConfigurationHolder.updateConfiguration("raapi.fanout.timeout", "30000");
+        fanOut.clearStatistics();
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+        fanOut.clearStatistics();
+    }
+
+    @Test
+    public void testBackendsAreCalledInParallel() {
+        final RaMasterApi first = mockBackend(true, 15);
+        final RaMasterApi second = mockBackend(true, 15);
+        // Each back end waits for the other one, so the calls only return if they are made at the same time
+        final CountDownLatch bothCalled = new CountDownLatch(2);
+        final RaMasterApiFanOut.Result<String> result = fanOut.invoke(executorService, new RaMasterApi[] { first, second }, 0, raMasterApi -> {
+            bothCalled.countDown();
+            try {
+                if (!bothCalled.await(10, TimeUnit.SECONDS)) {
+                    fail("Back ends were not called in parallel.");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return raMasterApi == first ? "first" : "second";
+        });
+        assertEquals("Results should be returned in the order of the back ends.", Arrays.asList("first", "second"), result.getResults());
+        assertFalse(result.isIncomplete());
+    }
+
+    @Test
+    public void testSlowBackendIsLeftOut() {
+        EjbcaConfigurationHolder.updateConfiguration("raapi.fanout.timeout", "200");
+        final RaMasterApi slow = mockBackend(true, 15);
+        final RaMasterApi fast = mockBackend(true, 15);
+        final CountDownLatch neverReleased = new CountDownLatch(1);
+        final long start = System.currentTimeMillis();
+        final RaMasterApiFanOut.Result<String> result = fanOut.invoke(executorService, new RaMasterApi[] { slow, fast }, 0, raMasterApi -> {
+            if (raMasterApi == slow) {
+                try {
+                    neverReleased.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Cancelled when the caller stopped waiting
+                }
+                return "slow";
+            }
+            return "fast";
+        });
+        assertTrue("The caller should not wait for the slow back end.", System.currentTimeMillis() - start < 5000);
+        assertEquals(Collections.singletonList("fast"), result.getResults());
+        assertTrue("A result without the slow back end might be incomplete.", result.isIncomplete());
+        long timedOut = 0;
+        for (final RaMasterApiFanOut.BackendStatistics statistics : fanOut.getStatistics()) {
+            timedOut += statistics.getTimedOut();
+        }
+        assertEquals(1, timedOut);
+    }
+
+    @Test
+    public void testUnsupportedAndUnavailableBackends() {
+        final RaMasterApi unsupported = mockBackend(true, 15);
+        final RaMasterApi unavailable = mockBackend(true, 15);
+        final RaMasterApi working = mockBackend(true, 15);
+        final RaMasterApiFanOut.Result<String> result = fanOut.invoke(executorService, new RaMasterApi[] { unsupported, unavailable, working }, 0, raMasterApi -> {
+            if (raMasterApi == unsupported) {
+                throw new UnsupportedOperationException();
+            } else if (raMasterApi == unavailable) {
+                throw new RaMasterBackendUnavailableException();
+            }
+            return "working";
+        });
+        assertEquals(Collections.singletonList("working"), result.getResults());
+        assertTrue(result.isIncomplete());
+        try {
+            fanOut.invoke(executorService, new RaMasterApi[] { unsupported, working }, 0, raMasterApi -> {
+                throw new IllegalArgumentException("bad request");
+            });
+            fail("Other exceptions should be thrown to the caller.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad request", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testOnlyAvailableBackendsWithApiVersionAreCalled() {
+        final RaMasterApi offline = mockBackend(false, 15);
+        final RaMasterApi old = mockBackend(true, 14);
+        final RaMasterApi current = mockBackend(true, 15);
+        final RaMasterApiFanOut.Result<String> result = fanOut.invoke(executorService, new RaMasterApi[] { offline, old, current }, 15, raMasterApi -> {
+            assertTrue("Only the back end with the required version should be called.", raMasterApi == current);
+            return "current";
+        });
+        assertEquals(Collections.singletonList("current"), result.getResults());
+        assertFalse(result.isIncomplete());
+    }
+
+    @Test
+    public void testBackendsAreLeftOutWhenExecutorIsBusy() {
+        final RaMasterApi first = mockBackend(true, 15);
+        final RaMasterApi second = mockBackend(true, 15);
+        // A shut down executor rejects all calls, like a busy one
+        executorService.shutdown();
+        final RaMasterApiFanOut.Result<String> result = fanOut.invoke(executorService, new RaMasterApi[] { first, second }, 0, raMasterApi -> {
+            fail("Rejected calls should not be made by the calling thread, since they could not be abandoned after the timeout.");
+            return null;
+        });
+        assertTrue(result.getResults().isEmpty());
+        assertTrue("A result without the rejected back ends might be incomplete.", result.isIncomplete());
+        long rejected = 0;
+        for (final RaMasterApiFanOut.BackendStatistics statistics : fanOut.getStatistics()) {
+            rejected += statistics.getRejected();
+        }
+        assertEquals(2, rejected);
+    }
+
+    @Test
+    public void testFailingBackendWhenExecutorIsBusy() {
+        final RaMasterApi failing = mockBackend(true, 15);
+        final RaMasterApi rejected = mockBackend(true, 15);
+        // The single thread of the executor is busy with the failing back end, which fails once the other back end has been rejected
+        final CountDownLatch rejectedLatch = new CountDownLatch(1);
+        final TestManagedExecutorService busyExecutorService = new TestManagedExecutorService(1, (runnable, executor) -> {
+            rejectedLatch.countDown();
+            throw new RejectedExecutionException("busy");
+        });
+        try {
+            fanOut.invoke(busyExecutorService, new RaMasterApi[] { failing, rejected }, 0, raMasterApi -> {
+                try {
+                    rejectedLatch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                throw new IllegalArgumentException("bad request");
+            });
+            fail("The exception of the failing back end should be thrown to the caller.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad request", e.getMessage());
+        } finally {
+            busyExecutorService.shutdownNow();
+        }
+        assertEquals(0, rejectedLatch.getCount());
+    }
+
+    @Test
+    public void testBackendsAreCalledOneAtATimeWithoutExecutor() {
+        final RaMasterApi first = mockBackend(true, 15);
+        final RaMasterApi second = mockBackend(true, 15);
+        final RaMasterApiFanOut.Result<String> result = fanOut.invoke(null, new RaMasterApi[] { first, second }, 0, raMasterApi -> {
+            assertTrue("Back ends should be called by the calling thread.", Thread.currentThread() == testThread);
+            return raMasterApi == first ? "first" : "second";
+        });
+        assertEquals(Arrays.asList("first", "second"), result.getResults());
+        assertFalse(result.isIncomplete());
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        final RaMasterApiSessionLocal local = EasyMock.createNiceMock(RaMasterApiSessionLocal.class);
+        EasyMock.expect(local.isBackendAvailable()).andReturn(true).anyTimes();
+        EasyMock.expect(local.getApiVersion()).andReturn(15).anyTimes();
+        EasyMock.replay(local);
+        final RaMasterApi first = mockBackend(true, 15);
+        final RaMasterApi second = mockBackend(true, 15);
+        fanOut.invoke(executorService, new RaMasterApi[] { local, first, second }, 0, raMasterApi -> "result");
+        final MetricsRegistry.Collector collector = new MetricsRegistry.Collector();
+        fanOut.collectMetrics(collector);
+        final StringWriter out = new StringWriter();
+        collector.write(out);
+        final String metrics = out.toString();
+        assertTrue("The local back end should have a name that does not depend on its proxy class.",
+                metrics.contains("ejbca_raapi_fanout_calls_total{backend=\"local\"} 1\n"));
+        final String backend = "{backend=\"" + first.getClass().getSimpleName() + "\"}";
+        assertTrue(metrics, metrics.contains("ejbca_raapi_fanout_calls_total" + backend + " 2\n"));
+        assertTrue(metrics, metrics.contains("ejbca_raapi_fanout_timed_out_total" + backend + " 0\n"));
+        assertTrue(metrics, metrics.contains("ejbca_raapi_fanout_rejected_total" + backend + " 0\n"));
+        assertTrue(metrics, metrics.contains("# TYPE ejbca_raapi_fanout_calls_total counter\n"));
+        assertTrue(metrics, metrics.contains("# TYPE ejbca_raapi_fanout_max_seconds gauge\n"));
+    }
+
+    private static RaMasterApi mockBackend(final boolean available, final int apiVersion) {
+        final RaMasterApi raMasterApi = EasyMock.createNiceMock(RaMasterApi.class);
+        EasyMock.expect(raMasterApi.isBackendAvailable()).andReturn(available).anyTimes();
+        EasyMock.expect(raMasterApi.getApiVersion()).andReturn(apiVersion).anyTimes();
+        EasyMock.replay(raMasterApi);
+        return raMasterApi;
+    }
+}
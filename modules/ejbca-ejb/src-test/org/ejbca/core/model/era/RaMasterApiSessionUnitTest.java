@@ -12,6 +12,8 @@
  *************************************************************************/
 package org.ejbca.core.model.era;
 
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
@@ -19,7 +21,10 @@ import static org.easymock.EasyMock.isNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.same;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
@@ -28,18 +33,36 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CADoesntExistsException;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.X509CAInfo;
 import org.cesecore.certificates.ca.IllegalNameException;
+import org.cesecore.certificates.certificate.CertificateSearchIndex;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
 import org.cesecore.certificates.certificate.exception.CertificateSerialNumberException;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.GlobalCesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.util.Base64;
 import org.cesecore.util.CryptoProviderTools;
@@ -51,6 +74,7 @@ import org.ejbca.core.ejb.ra.EndEntityExistsException;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.KeyStoreCreateSessionLocal;
 import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
+import org.ejbca.core.model.authorization.AccessRulesConstants;
 import org.ejbca.core.model.approval.ApprovalException;
 import org.ejbca.core.model.approval.WaitingForApprovalException;
 import org.ejbca.core.model.ra.CustomFieldException;
@@ -132,6 +156,100 @@ public class RaMasterApiSessionUnitTest {
         raMasterApi = mocker.construct();
     }
 
+    /** Test that a search that matches no certificate in the certificate search index is made in the database instead */
+    @Test
+    public void findInCertificateSearchIndexWithoutMatch() {
+        final CertificateSearchIndex searchIndex = CertificateSearchIndex.INSTANCE;
+        ConfigurationHolder.updateConfiguration("database.certsearchindex.enabled", "true");
+        try {
+            searchIndex.flush();
+            searchIndex.setLoaded(System.currentTimeMillis());
+            searchIndex.add("aa01", "CN=Indexed", null, "indexeduser", "12345");
+            final RaCertificateSearchRequestV2 request = new RaCertificateSearchRequestV2();
+            request.setUsernameSearchExact(true);
+            request.setUsernameSearchString("indexeduser");
+            assertEquals(new HashSet<>(Collections.singletonList("aa01")), new HashSet<>(raMasterApi.findInCertificateSearchIndex(request).getFingerprints()));
+            // For example a certificate stored by another node since the last refresh of the index
+            request.setUsernameSearchString("notindexeduser");
+            assertNull("A search without match in the index should be made in the database.", raMasterApi.findInCertificateSearchIndex(request));
+        } finally {
+            ConfigurationHolder.updateConfiguration("database.certsearchindex.enabled", "false");
+            searchIndex.flush();
+        }
+    }
+
+    /** Test that a certificate stored after the last refresh of the certificate search index is found, when the index has other matches */
+    @Test
+    public void searchFindsCertificateStoredAfterIndexRefresh() {
+        final CertificateSearchIndex searchIndex = CertificateSearchIndex.INSTANCE;
+        ConfigurationHolder.updateConfiguration("database.certsearchindex.enabled", "true");
+        try {
+            searchIndex.flush();
+            final long refreshTime = System.currentTimeMillis();
+            searchIndex.setLoaded(refreshTime);
+            searchIndex.add("aa01", "CN=Indexed", null, "indexeduser", "12345");
+            // Certificates in the database: one that is indexed, one stored by another node after the refresh, and one of another user
+            final List<Object[]> rows = Arrays.asList(new Object[] { "aa01", "INDEXEDUSER", refreshTime - 3600000L },
+                    new Object[] { "bb02", "INDEXEDUSER", refreshTime + 1000L }, new Object[] { "cc03", "OTHERUSER", refreshTime + 1000L });
+            final EntityManager entityManagerMock = EasyMock.createMock(EntityManager.class);
+            final Query queryMock = EasyMock.createNiceMock(Query.class);
+            final Map<String, Object> parameters = new HashMap<>();
+            expect(entityManagerMock.createQuery(anyString())).andAnswer(() -> {
+                final String jpql = (String) EasyMock.getCurrentArguments()[0];
+                assertTrue("Unexpected query: " + jpql, jpql.contains("(a.fingerprint IN (:fingerprints) OR a.updateTime >= :indexedUntil)"));
+                return queryMock;
+            });
+            expect(queryMock.setParameter(anyString(), anyObject())).andAnswer(() -> {
+                parameters.put((String) EasyMock.getCurrentArguments()[0], EasyMock.getCurrentArguments()[1]);
+                return queryMock;
+            }).anyTimes();
+            // Evaluates the narrowing down by the search index and the username criteria of the query
+            expect(queryMock.getResultList()).andAnswer(() -> {
+                final Collection<?> fingerprints = (Collection<?>) parameters.get("fingerprints");
+                final long indexedUntil = (Long) parameters.get("indexedUntil");
+                final List<String> result = new ArrayList<>();
+                for (final Object[] row : rows) {
+                    if ((fingerprints.contains(row[0]) || (long) row[2] >= indexedUntil) && row[1].equals(parameters.get("username"))) {
+                        result.add((String) row[0]);
+                    }
+                }
+                return result;
+            });
+            final CaSessionLocal caSessionMock = EasyMock.createNiceMock(CaSessionLocal.class);
+            expect(caSessionMock.getAuthorizedCaIds(adminMock)).andReturn(Collections.singletonList(MOCKED_CAID));
+            expect(caSessionMock.getCAInfoInternal(MOCKED_CAID)).andReturn(new X509CAInfo.X509CAInfoBuilder().setSubjectDn("CN=Test CA").build());
+            final CertificateProfileSessionLocal certificateProfileSessionMock = EasyMock.createNiceMock(CertificateProfileSessionLocal.class);
+            expect(certificateProfileSessionMock.getAuthorizedCertificateProfileIds(adminMock, 0)).andReturn(Collections.singletonList(1));
+            expect(certificateProfileSessionMock.getCertificateProfileIdToNameMap()).andReturn(Collections.singletonMap(1, "Profile"));
+            final EndEntityProfileSessionLocal endEntityProfileSessionMock = EasyMock.createNiceMock(EndEntityProfileSessionLocal.class);
+            expect(endEntityProfileSessionMock.getAuthorizedEndEntityProfileIds(adminMock, AccessRulesConstants.VIEW_END_ENTITY))
+                    .andReturn(Collections.singletonList(MOCKED_EEP_ID));
+            expect(endEntityProfileSessionMock.getEndEntityProfileIdToNameMap()).andReturn(Collections.singletonMap(MOCKED_EEP_ID, "Profile"));
+            final GlobalConfigurationSessionLocal globalConfigurationSessionMock = EasyMock.createNiceMock(GlobalConfigurationSessionLocal.class);
+            expect(globalConfigurationSessionMock.getCachedConfiguration(GlobalCesecoreConfiguration.CESECORE_CONFIGURATION_ID))
+                    .andReturn(new GlobalCesecoreConfiguration()).anyTimes();
+            final CertificateStoreSessionLocal certificateStoreSessionMock = EasyMock.createMock(CertificateStoreSessionLocal.class);
+            expect(certificateStoreSessionMock.getCertificateData("aa01")).andReturn(null);
+            expect(certificateStoreSessionMock.getCertificateData("bb02")).andReturn(null);
+            final Object[] mocks = { entityManagerMock, queryMock, caSessionMock, certificateProfileSessionMock, endEntityProfileSessionMock,
+                    globalConfigurationSessionMock, certificateStoreSessionMock };
+            replay(mocks);
+            final EjbMocker<RaMasterApiSessionBean> mocker = new EjbMocker<>(RaMasterApiSessionBean.class);
+            mocker.addMockedInjections(entityManagerMock, caSessionMock, certificateProfileSessionMock, endEntityProfileSessionMock,
+                    globalConfigurationSessionMock, certificateStoreSessionMock);
+            final RaCertificateSearchRequestV2 request = new RaCertificateSearchRequestV2();
+            request.setPageNumber(1);
+            request.setUsernameSearchExact(true);
+            request.setUsernameSearchString("indexeduser");
+            final RaCertificateSearchResponseV2 response = mocker.construct().searchForCertificatesV2(adminMock, request);
+            verify(mocks);
+            assertEquals("The indexed certificate and the one stored after the refresh should be found.", 2, response.getCdws().size());
+        } finally {
+            ConfigurationHolder.updateConfiguration("database.certsearchindex.enabled", "false");
+            searchIndex.flush();
+        }
+    }
+
     /** {@link EasyMock#expect} calls for addUserAndGenerateKeyStore, up until generateOrKeyRecoverToken */
     private void expectAddUserAndGenerateKeystorePreparations()
             throws AuthorizationDeniedException, EndEntityProfileValidationException, EndEntityExistsException, WaitingForApprovalException,
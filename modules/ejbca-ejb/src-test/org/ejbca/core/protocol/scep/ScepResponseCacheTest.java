@@ -0,0 +1,74 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.scep;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Date;
+
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ScepResponseCache}.
+ *
+ * @version $Id$
+ */
+public class ScepResponseCacheTest {
+
+    private final ScepResponseCache cache = ScepResponseCache.INSTANCE;
+
+    @After
+    public void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    public void testResponseIsCachedPerAliasOperationAndCa() {
+        final CAInfo caInfo = createCaInfo(1, 1000L);
+        final byte[] response = new byte[] { 1, 2, 3 };
+        assertSame(response, cache.put("scep", "GetCACert", caInfo, "true", response));
+        assertSame(response, cache.get("scep", "GetCACert", createCaInfo(1, 1000L), "true"));
+        assertNull(cache.get("other", "GetCACert", caInfo, "true"));
+        assertNull(cache.get("scep", "GetCACaps", caInfo, "true"));
+        assertNull(cache.get("scep", "GetCACert", createCaInfo(2, 1000L), "true"));
+    }
+
+    @Test
+    public void testChangedCaOrSettingsAreNotServedFromCache() {
+        final CAInfo caInfo = createCaInfo(1, 1000L);
+        cache.put("scep", "GetCACert", caInfo, "true", new byte[] { 1 });
+        assertNull("The CA has been renewed or edited.", cache.get("scep", "GetCACert", createCaInfo(1, 2000L), "true"));
+        assertNull("The SCEP alias settings have changed.", cache.get("scep", "GetCACert", caInfo, "false"));
+        cache.put("scep", "GetCACert", createCaInfo(1, 2000L), "true", new byte[] { 2 });
+        assertArrayEquals(new byte[] { 2 }, cache.get("scep", "GetCACert", createCaInfo(1, 2000L), "true"));
+    }
+
+    @Test
+    public void testEmptyResponsesAreNotCached() {
+        final CAInfo caInfo = createCaInfo(1, 1000L);
+        assertNull(cache.put("scep", "GetCACertChain", caInfo, null, null));
+        cache.put("scep", "GetCACertChain", caInfo, null, new byte[0]);
+        assertNull(cache.get("scep", "GetCACertChain", caInfo, null));
+    }
+
+    private static CAInfo createCaInfo(final int caId, final long updateTime) {
+        final CAInfo caInfo = new X509CAInfo.X509CAInfoBuilder().setSubjectDn("CN=Test CA " + caId).setUpdateTime(new Date(updateTime)).build();
+        caInfo.setCAId(caId);
+        return caInfo;
+    }
+}
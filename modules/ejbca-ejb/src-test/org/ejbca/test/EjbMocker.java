@@ -17,11 +17,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 import javax.ejb.EJB;
+import javax.persistence.PersistenceContext;
 
 import org.apache.log4j.Logger;
 
 /**
- * Creates a session bean with mocked &amp;EJB injections
+ * Creates a session bean with mocked &amp;EJB and &amp;PersistenceContext injections
  */
 public class EjbMocker<T> {
     
@@ -34,7 +35,7 @@ public class EjbMocker<T> {
         this.sessionBeanClass = sessionBeanClass;
     }
     
-    /** Adds objects that should be injected in &amp;EJB annotated fields */
+    /** Adds objects that should be injected in &amp;EJB or &amp;PersistenceContext annotated fields */
     public void addMockedInjections(final Object... toInject) {
         for (final Object obj : toInject) {
             for (final Class<?> iface : obj.getClass().getInterfaces()) {
@@ -68,9 +69,9 @@ public class EjbMocker<T> {
 
     private void injectAll(final T ssb) {
         for (final Field field : sessionBeanClass.getDeclaredFields()) {
-            if (field.getAnnotationsByType(EJB.class).length != 0) {
+            if (field.getAnnotationsByType(EJB.class).length != 0 || field.getAnnotationsByType(PersistenceContext.class).length != 0) {
                 if (log.isDebugEnabled()) {
-                    log.debug("Found field annotated with @EJB: " + field.getName());
+                    log.debug("Found field annotated with @EJB or @PersistenceContext: " + field.getName());
                 }
                 final Object obj = mockedInjections.get(field.getType());
                 if (obj != null) {
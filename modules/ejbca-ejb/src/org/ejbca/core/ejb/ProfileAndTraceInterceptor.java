@@ -20,11 +20,13 @@ import javax.interceptor.InvocationContext;
 import org.apache.log4j.Logger;
 
 /**
- * EJB Interceptor that is normally enabled for all EJBs when EJBCA is running in non-production mode.
+ * EJB Interceptor that is enabled for all EJBs.
  * 
  * The Interceptor will perform two tasks when active:
- * - Trace log all EJB invocations including input and output if Log4J trace-logging is enabled for the invoked methods EJB.
- * - Collect profiling statistics for all EJB invocations if Log4J debug is enabled for this class.
+ * - Trace log all EJB invocations including input and output if Log4J trace-logging is enabled for the invoked methods EJB
+ *   and Log4J debug is enabled for this class.
+ * - Collect profiling statistics for all EJB invocations if ejb.metrics.enabled is true (default) or Log4J debug is enabled for this class.
+ *   The statistics are available from the metrics servlet of the health check.
  * 
  * @version $Id$
  */
@@ -34,15 +36,15 @@ public class ProfileAndTraceInterceptor {
     
     @AroundInvoke
     public Object logger(final InvocationContext invocationContext) throws Exception {
-        if (!log.isDebugEnabled()) {
+        final boolean debug = log.isDebugEnabled();
+        if (!debug && !ProfilingStats.INSTANCE.isEnabled()) {
             return invocationContext.proceed();
         }
-        long invocationStartTime = 0;
         final String targetMethodName = invocationContext.getMethod().getName();
         final Class<?> targetMethodClass = invocationContext.getTarget().getClass();
-        final Logger targetLogger = Logger.getLogger(targetMethodClass);
-        invocationStartTime = System.currentTimeMillis();
-        if (targetLogger.isTraceEnabled()) {
+        final Logger targetLogger = debug ? Logger.getLogger(targetMethodClass) : null;
+        final boolean trace = targetLogger != null && targetLogger.isTraceEnabled();
+        if (trace) {
             StringBuilder sb = new StringBuilder("(");
             for (Object obj : invocationContext.getParameters()) {
                 if (sb.length() > 1) {
@@ -61,6 +63,7 @@ public class ProfileAndTraceInterceptor {
             sb.append(")");
             targetLogger.trace(">" + targetMethodName + sb.toString());
         }
+        final long invocationStartTime = System.nanoTime();
         Object returnValue = null;
         Exception returnException = null; 
         try {
@@ -69,14 +72,14 @@ public class ProfileAndTraceInterceptor {
             returnException = e;
             throw e;
         } finally {
-            long invocationDuration = System.currentTimeMillis() - invocationStartTime;
+            final long invocationDuration = System.nanoTime() - invocationStartTime;
             final String fullTargetIdentifier = targetMethodClass.getName() + "." + targetMethodName;
-            ProfilingStats.INSTANCE.add(fullTargetIdentifier, invocationDuration);
-            if (targetLogger.isTraceEnabled()) {
+            ProfilingStats.INSTANCE.add(fullTargetIdentifier, invocationDuration, returnException != null);
+            if (trace) {
                 if (returnException == null) {
-                    targetLogger.trace("<" + targetMethodName + " took " + invocationDuration + "micros");
+                    targetLogger.trace("<" + targetMethodName + " took " + invocationDuration / 1000L + "micros");
                 } else {
-                    targetLogger.trace("<" + targetMethodName + " took " + invocationDuration + "micros, threw " + returnException.getClass().getName() + ": " + returnException.getMessage());
+                    targetLogger.trace("<" + targetMethodName + " took " + invocationDuration / 1000L + "micros, threw " + returnException.getClass().getName() + ": " + returnException.getMessage());
                 }
             }
         }
@@ -50,6 +50,7 @@ import org.ejbca.core.ejb.ocsp.OcspResponseCleanupSessionLocal;
 import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityAccessSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
+import org.ejbca.core.ejb.ra.KeyPairPool;
 import org.ejbca.core.ejb.ra.NoSuchEndEntityException;
 import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
 import org.ejbca.core.ejb.services.ServiceSessionLocal;
@@ -136,6 +137,7 @@ public class StartupSingletonBean {
     private void shutdown() {
         String iMsg = InternalEjbcaResources.getInstance().getLocalizedMessage("startservice.shutdown");
         log.info(iMsg);
+        KeyPairPool.INSTANCE.shutdown();
         // Make a log row that EJBCA is stopping
         //final Map<String, Object> details = new LinkedHashMap<String, Object>();
         //details.put("msg", iMsg);
@@ -353,9 +355,15 @@ public class StartupSingletonBean {
         // Start CA certificate cache reload
         log.debug(">startup start CA certificate cache reload");
         certificateStoreSession.initTimers();
+        // Load the certificate search index in the background, if configured
+        log.debug(">startup load certificate search index");
+        certificateStoreSession.loadCertificateSearchIndex();
         // Start legacy background service for renewal of OCSP signers via EJBCA WS calls to CA
         log.debug(">startup start OCSP renewal background service");
         ocspKeyRenewalSession.startTimer();
+        // Start generating key pairs for server-side key generation in advance, if configured
+        log.debug(">startup start key pair pool");
+        KeyPairPool.INSTANCE.reload();
         // Verify that the EJB CLI user (if present) cannot be used to generate certificates
         log.debug(">startup verifying that EJBCA CLI user can not be used to generate a certificate");
         final String cliUsername = EjbcaConfiguration.getCliDefaultUser();
@@ -20,7 +20,10 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -179,6 +182,19 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         log.trace("<removeQueueData()");
     }
 
+    /** Removes the published entries from the publisher queue with a single statement. */
+    private void removeQueueData(final List<String> pks) {
+        if (pks.isEmpty()) {
+            return;
+        }
+        final int removed = org.ejbca.core.ejb.ca.publisher.PublisherQueueData.deleteByPks(entityManager, pks);
+        if (removed != pks.size()) {
+            log.warn("Tried to remove " + pks.size() + " published entries from the publisher queue, but " + removed + " entries were removed.");
+        } else if (log.isDebugEnabled()) {
+            log.debug("Removed " + removed + " published entries from the publisher queue.");
+        }
+    }
+
     @Override
     public Collection<PublisherQueueData> getPendingEntriesForPublisher(int publisherId) {
         if (log.isTraceEnabled()) {
@@ -255,6 +271,23 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         return ret;
     }
 
+    @Override
+    public List<PublisherQueueData> getPendingEntriesForPublisherAfter(final int publisherId, final int limit, final long afterTimeCreated,
+            final String afterPk) {
+        if (log.isTraceEnabled()) {
+            log.trace(">getPendingEntriesForPublisherAfter(publisherId: " + publisherId + ", timeCreated: " + afterTimeCreated + ", pk: " + afterPk + ")");
+        }
+        final List<PublisherQueueData> ret = new ArrayList<>();
+        final List<org.ejbca.core.ejb.ca.publisher.PublisherQueueData> publisherQueueDataList = org.ejbca.core.ejb.ca.publisher.PublisherQueueData
+                .findDataByPublisherIdAndStatusAfter(entityManager, publisherId, PublisherConst.STATUS_PENDING, afterTimeCreated, afterPk, limit);
+        for (final org.ejbca.core.ejb.ca.publisher.PublisherQueueData d : publisherQueueDataList) {
+            ret.add(new PublisherQueueData(d.getPk(), new Date(d.getTimeCreated()), new Date(d.getLastUpdate()), PublisherConst.STATUS_PENDING,
+                    d.getTryCounter(), d.getPublishType(), d.getFingerprint(), publisherId, d.getPublisherQueueVolatileData()));
+        }
+        log.trace("<getPendingEntriesForPublisherAfter()");
+        return ret;
+    }
+
     @Override
     public Collection<PublisherQueueData> getEntriesByFingerprint(String fingerprint) {
         if (log.isTraceEnabled()) {
@@ -303,24 +336,106 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
     @Override
     public PublishingResult plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(final AuthenticationToken admin, final BasePublisher publisher) {
         final PublishingResult result = new PublishingResult();
-        PublishingResult intermediateResult;
+        final int publisherId = publisher.getPublisherId();
+        final int chunkSize = EjbcaConfiguration.getPublishQueueChunkSize();
+        final int maxEntries = EjbcaConfiguration.getPublishQueueMaxEntriesPerRun();
         // Repeat this process as long as we actually manage to publish something
         // this is because when publishing starts to work we want to publish everything in one go, if possible.
-        // However we don't want to publish more than 20000 certificates each time, because we want to commit to the database some time as well.
+        // However we don't want to publish too many certificates each time, because other publishers should get their turn as well.
+        // Each chunk starts after the last entry of the previous one, so entries that could not be published are not read again.
+        long afterTimeCreated = Long.MIN_VALUE;
+        String afterPk = "";
         int totalcount = 0;
-        do {
-            intermediateResult = publisherQueueSession.doChunk(admin, publisher);
+        while (true) {
+            final List<PublisherQueueData> publisherQueueDatas = publisherQueueSession.getPendingEntriesForPublisherAfter(publisherId, chunkSize,
+                    afterTimeCreated, afterPk);
+            if (publisherQueueDatas.isEmpty()) {
+                break;
+            }
+            final PublishingResult intermediateResult = publisherQueueSession.doChunk(admin, publisher, publisherQueueDatas);
             result.append(intermediateResult);
             totalcount += intermediateResult.getSuccesses();
-        } while ((intermediateResult.getSuccesses() > 0) && (totalcount < 20000));
+            if (intermediateResult.getSuccesses() == 0) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Nothing could be published to publisher " + publisherId + ", skipping the rest of the queue for now.");
+                }
+                break;
+            }
+            if (publisherQueueDatas.size() < chunkSize || (maxEntries > 0 && totalcount >= maxEntries)) {
+                break;
+            }
+            final PublisherQueueData last = publisherQueueDatas.get(publisherQueueDatas.size() - 1);
+            afterTimeCreated = last.getTimeCreated().getTime();
+            afterPk = last.getPk();
+        }
+        return result;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    @Override
+    public PublishingResult plainFifoTryAlwaysOrderByTimeCreatedConcurrently(final AuthenticationToken admin, final List<BasePublisher> publishers) {
+        final PublishingResult result = new PublishingResult();
+        if (publishers.isEmpty()) {
+            return result;
+        }
+        // Each worker takes the next publisher from the queue when it is done with the previous one
+        final QueueWorker worker = new QueueWorker(admin, new ConcurrentLinkedQueue<>(publishers));
+        final int workers = Math.min(publishers.size(), EjbcaConfiguration.getPublishQueueWorkers());
+        final List<Future<PublishingResult>> futures = new ArrayList<>();
+        for (int i = 1; i < workers; i++) {
+            futures.add(getExecutorService().submit(worker));
+        }
+        // One of the workers runs in the calling thread
+        try {
+            result.append(worker.call());
+        } finally {
+            for (final Future<PublishingResult> future : futures) {
+                try {
+                    result.append(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.info("Interrupted while waiting for the publisher queues to be processed.");
+                } catch (ExecutionException e) {
+                    log.info("Processing the publisher queues failed: " + e.getMessage());
+                }
+            }
+        }
         return result;
     }
 
+    /** Processes the queues of publishers, until there are no more publishers to process. */
+    private class QueueWorker implements Callable<PublishingResult> {
+        private final AuthenticationToken admin;
+        private final Queue<BasePublisher> remainingPublishers;
+
+        QueueWorker(final AuthenticationToken admin, final Queue<BasePublisher> remainingPublishers) {
+            this.admin = admin;
+            this.remainingPublishers = remainingPublishers;
+        }
+
+        @Override
+        public PublishingResult call() {
+            final PublishingResult workerResult = new PublishingResult();
+            BasePublisher publisher;
+            while ((publisher = remainingPublishers.poll()) != null) {
+                try {
+                    workerResult.append(publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(admin, publisher));
+                } catch (RuntimeException e) {
+                    // Don't let one failing publisher stop the processing of the other queues
+                    log.info("Processing the queue of publisher " + publisher.getPublisherId() + " failed: " + e.getMessage());
+                    if (log.isDebugEnabled()) {
+                        log.debug("Processing the publisher queue failed", e);
+                    }
+                }
+            }
+            return workerResult;
+        }
+    }
+
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     @Override
-    public PublishingResult doChunk(AuthenticationToken admin, BasePublisher publisher) {
-        final Collection<PublisherQueueData> publisherQueueDatas = getPendingEntriesForPublisherWithLimit(publisher.getPublisherId(), 100);
-        return doPublish(admin, publisher, publisherQueueDatas);
+    public PublishingResult doChunk(AuthenticationToken admin, BasePublisher publisher, Collection<PublisherQueueData> publisherQueueData) {
+        return doPublish(admin, publisher, publisherQueueData);
     }
 
     @Override
@@ -346,6 +461,7 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
             log.debug("Found " + publisherQueueData.size() + " certificates to republish for publisher " + publisherId);
         }
         final PublishingResult result = new PublishingResult();
+        final List<String> publishedPks = new ArrayList<>();
         for (PublisherQueueData pqd : publisherQueueData) {
             String fingerprint = pqd.getFingerprint();
             int publishType = pqd.getPublishType();
@@ -445,8 +561,8 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
                     // Update with information that publishing was successful
                     updateData(pqd.getPk(), PublisherConst.STATUS_SUCCESS, pqd.getTryCounter());
                 } else {
-                    // We are done with this one.. nuke it!
-                    removeQueueData(pqd.getPk());
+                    // We are done with this one.. nuke it! (together with the others when the chunk is done)
+                    publishedPks.add(pqd.getPk());
                 }
                 result.addSuccess(fingerprint); // jipeee update success counter
             } else {
@@ -465,6 +581,7 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
                 break;
             }
         }
+        removeQueueData(publishedPks);
 
         if (log.isDebugEnabled()) {
             log.debug("Returning from publisher with " + result.getSuccesses() + " entries published successfully.");
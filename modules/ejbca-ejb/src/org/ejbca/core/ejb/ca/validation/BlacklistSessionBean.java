@@ -13,10 +13,12 @@
 
 package org.ejbca.core.ejb.ca.validation;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -24,6 +26,7 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
 
 import org.apache.log4j.Logger;
 import org.cesecore.audit.enums.EventStatus;
@@ -35,6 +38,7 @@ import org.cesecore.authorization.AuthorizationSessionLocal;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.ProfileID;
 import org.ejbca.core.ejb.audit.enums.EjbcaEventTypes;
@@ -43,6 +47,7 @@ import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.validation.BlacklistEntry;
 import org.ejbca.core.model.validation.PublicKeyBlacklistEntry;
 import org.ejbca.core.model.validation.PublicKeyBlacklistEntryCache;
+import org.ejbca.core.model.validation.PublicKeyBlacklistFilter;
 
 /**
  * Handles management of public key blacklist entries.
@@ -59,6 +64,28 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
     /** Internal localization of logs and errors */
     private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
 
+    /** Number of fingerprints to read from the database at a time when the public key block list filter is built */
+    private static final int FILTER_BATCH_SIZE = 10000;
+
+    /** The public key block list filter and the state of the database table it was built from */
+    private static final class PublicKeyBlacklistFilterState {
+        private final PublicKeyBlacklistFilter filter;
+        /** Number of entries and sums of their ids and row versions, which change when entries are added, removed or changed */
+        private final List<Object> tableState;
+        /** Time when the database table should be checked for changes */
+        private final long nextCheck;
+
+        private PublicKeyBlacklistFilterState(final PublicKeyBlacklistFilter filter, final List<Object> tableState, final long nextCheck) {
+            this.filter = filter;
+            this.tableState = tableState;
+            this.nextCheck = nextCheck;
+        }
+    }
+
+    private static volatile PublicKeyBlacklistFilterState publicKeyBlacklistFilterState = null;
+    /** Held while the database table is checked for changes and the filter is built */
+    private static final ReentrantLock publicKeyBlacklistFilterLock = new ReentrantLock();
+
     @PersistenceContext(unitName = "ejbca")
     private EntityManager entityManager;
 
@@ -129,6 +156,7 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
         if (data != null) {
             final Map<Object, Object> diff = data.getBlacklistEntry().diff(entry);
             data.setBlacklistEntry(entry);
+            addToPublicKeyBlacklistFilter(entry.getType(), entry.getValue());
             // Since loading a Blacklist is quite complex, we simple purge the cache here.
             PublicKeyBlacklistEntryCache.INSTANCE.removeEntry(data.getId());
             final String message = intres.getLocalizedMessage("blacklist.changedpublickeyblacklist", entry.getValue());
@@ -185,6 +213,109 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
         }
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public boolean mightBeBlacklisted(final String type, final String value) {
+        if (!PublicKeyBlacklistEntry.TYPE.equals(type) || value == null) {
+            return true;
+        }
+        final PublicKeyBlacklistFilter filter = getPublicKeyBlacklistFilter(false);
+        return filter == null || filter.mightContain(value);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void rebuildPublicKeyBlacklistFilter() {
+        getPublicKeyBlacklistFilter(true);
+    }
+
+    /**
+     * Gets the public key block list filter, which is built if it does not exist, or if the database table has changed since it was built.
+     * The table is checked for changes at most once per public key block list cache time.
+     *
+     * @param rebuild true to build the filter even if the table has not changed
+     * @return the filter, or null if the database has to be used, since caching is disabled or the filter is being built by another thread
+     */
+    private PublicKeyBlacklistFilter getPublicKeyBlacklistFilter(final boolean rebuild) {
+        final long cacheTime = CesecoreConfiguration.getCachePublicKeyBlacklistTime();
+        if (cacheTime <= 0) {
+            return null;
+        }
+        PublicKeyBlacklistFilterState state = publicKeyBlacklistFilterState;
+        if (!rebuild && state != null && System.currentTimeMillis() < state.nextCheck) {
+            return state.filter;
+        }
+        if (rebuild) {
+            publicKeyBlacklistFilterLock.lock();
+        } else if (!publicKeyBlacklistFilterLock.tryLock()) {
+            // Another thread is checking for changes. Until it's done, the filter might lack new entries.
+            return null;
+        }
+        try {
+            state = publicKeyBlacklistFilterState;
+            if (!rebuild && state != null && System.currentTimeMillis() < state.nextCheck) {
+                return state.filter;
+            }
+            final List<Object> tableState = getPublicKeyBlacklistTableState();
+            final long count = ((Number) tableState.get(0)).longValue();
+            if (rebuild || state == null || !state.tableState.equals(tableState) || state.filter.getSize() > state.filter.getCapacity()) {
+                final long start = System.currentTimeMillis();
+                // Leave room for entries added on this node until the filter is built again
+                final PublicKeyBlacklistFilter filter = new PublicKeyBlacklistFilter(count + count / 2 + 1024,
+                        PublicKeyBlacklistFilter.DEFAULT_FALSE_POSITIVE_PROBABILITY);
+                // Make entries added while the filter is built available to lookups
+                publicKeyBlacklistFilterState = null;
+                final long added = addPublicKeyBlacklistFingerprints(filter);
+                state = new PublicKeyBlacklistFilterState(filter, tableState, System.currentTimeMillis() + cacheTime);
+                log.info("Built public key block list filter of " + filter.getSizeInBytes() + " bytes with " + added + " fingerprints in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+            } else {
+                state = new PublicKeyBlacklistFilterState(state.filter, tableState, System.currentTimeMillis() + cacheTime);
+            }
+            publicKeyBlacklistFilterState = state;
+            return state.filter;
+        } finally {
+            publicKeyBlacklistFilterLock.unlock();
+        }
+    }
+
+    /** @return the number of public key block list entries, and the sums of their ids and row versions */
+    private List<Object> getPublicKeyBlacklistTableState() {
+        final Object[] row = entityManager.createQuery("SELECT COUNT(a.id), SUM(a.id), SUM(a.rowVersion) FROM BlacklistData a WHERE a.type=:type", Object[].class)
+                .setParameter("type", PublicKeyBlacklistEntry.TYPE).getSingleResult();
+        return Arrays.asList(row);
+    }
+
+    /**
+     * Adds the fingerprints of all public key block list entries to the filter, reading them in batches ordered by id.
+     * @return the number of fingerprints added
+     */
+    private long addPublicKeyBlacklistFingerprints(final PublicKeyBlacklistFilter filter) {
+        final TypedQuery<Object[]> query = entityManager.createQuery(
+                "SELECT a.id, a.value FROM BlacklistData a WHERE a.type=:type AND a.id>:lastId ORDER BY a.id", Object[].class)
+                .setParameter("type", PublicKeyBlacklistEntry.TYPE).setMaxResults(FILTER_BATCH_SIZE);
+        long added = 0;
+        int lastId = Integer.MIN_VALUE;
+        List<Object[]> rows;
+        do {
+            rows = query.setParameter("lastId", lastId).getResultList();
+            for (final Object[] row : rows) {
+                filter.add((String) row[1]);
+                lastId = ((Number) row[0]).intValue();
+                added++;
+            }
+        } while (rows.size() == FILTER_BATCH_SIZE);
+        return added;
+    }
+
+    /** Adds a new or changed fingerprint to the public key block list filter, so that it is found before the filter is built again */
+    private void addToPublicKeyBlacklistFilter(final String type, final String value) {
+        final PublicKeyBlacklistFilterState state = publicKeyBlacklistFilterState;
+        if (state != null && PublicKeyBlacklistEntry.TYPE.equals(type) && value != null) {
+            state.filter.add(value);
+        }
+    }
+
     @Override
     public int addBlacklistEntry(AuthenticationToken admin, BlacklistEntry entry)
             throws AuthorizationDeniedException, BlacklistExistsException {
@@ -232,6 +363,7 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
             blacklist.setID(Integer.valueOf(id));
             final BlacklistData entity = new BlacklistData(blacklist);
             entityManager.persist(entity);
+            addToPublicKeyBlacklistFilter(blacklist.getType(), blacklist.getValue());
         } else {
             final String message = intres.getLocalizedMessage("blacklist.erroraddpublickeyblacklist", blacklist.getValue());
             log.info(message);
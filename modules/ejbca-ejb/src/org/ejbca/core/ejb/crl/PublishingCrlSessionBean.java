@@ -12,12 +12,15 @@
  *************************************************************************/
 package org.ejbca.core.ejb.crl;
 
+import java.io.IOException;
+import java.math.BigInteger;
 import java.security.cert.CRLException;
 import java.security.cert.Certificate;
 import java.security.cert.X509CRL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -61,14 +64,16 @@ import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLocal;
 import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlCreateSessionLocal;
+import org.cesecore.certificates.crl.CrlEntryReader;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.util.CertTools;
-import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.CryptoProviderTools;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 
@@ -108,6 +113,19 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
 
     private PublishingCrlSessionLocal publishingCrlSession;
 
+    public PublishingCrlSessionBean() { }
+
+    /** Constructor for unit tests */
+    protected PublishingCrlSessionBean(final CertificateDataSessionLocal certificateDataSession, final CrlCreateSessionLocal crlCreateSession,
+            final CrlStoreSessionLocal crlSession, final NoConflictCertificateStoreSessionLocal noConflictCertificateStoreSession,
+            final PublisherSessionLocal publisherSession) {
+        this.certificateDataSession = certificateDataSession;
+        this.crlCreateSession = crlCreateSession;
+        this.crlSession = crlSession;
+        this.noConflictCertificateStoreSession = noConflictCertificateStoreSession;
+        this.publisherSession = publisherSession;
+    }
+
     @PostConstruct
     public void postConstruct() {
         publishingCrlSession = sessionContext.getBusinessObject(PublishingCrlSessionLocal.class);
@@ -479,87 +497,78 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             }
             // We can not create a CRL for a CA that is waiting for certificate response
             if ( caCertSubjectDN!=null && cainfo.getStatus()==CAConstants.CA_ACTIVE )  {
-                // Find all revoked certificates for a complete CRL
-                if (log.isDebugEnabled()) {
-                    final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
-                    log.debug("Listing revoked certificates. Free memory=" + freeMemory);
+                if (isIncrementalBaseCrl(ca, lastBaseCrlInfo, validFrom != null ? validFrom : now)) {
+                    revokedCertificates = getIncrementalRevokedCertInfos(caCertSubjectDN, crlPartitionIndex, lastBaseCrlInfo, keepExpiredCertsOnCrl, now);
                 }
-                revokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, false,
-                        crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl);
-
-                //if X509 CA is marked as it has gone through Name Change add certificates revoked with old names
-                if(ca.getCAType()==CAInfo.CATYPE_X509 && ((X509CA)ca).getNameChanged()){
-                    log.info("The CA with SubjectDN " + ca.getSubjectDN() + " has been gone through ICAO Name Change. Collecting all revocation information published by this CA with previous names has started.");
-                    Collection<Certificate> renewedCertificateChain = ca.getRenewedCertificateChain();
-                    Collection<RevokedCertInfo> revokedCertificatesBeforeLastCANameChange = new ArrayList<>();
-                    if(renewedCertificateChain != null){
-                        Collection<String> differentSubjectDNs = new HashSet<>();
-                        differentSubjectDNs.add(caCertSubjectDN);
-                        for(Certificate renewedCertificate : renewedCertificateChain){
-                            String renewedCertificateSubjectDN = CertTools.getSubjectDN(renewedCertificate);
-                            if(!differentSubjectDNs.contains(renewedCertificateSubjectDN)){
-                                log.info("Collecting revocation information for " + renewedCertificateSubjectDN + " and merging them with ones for " + caCertSubjectDN);
-                                differentSubjectDNs.add(renewedCertificateSubjectDN);
-                                Collection<RevokedCertInfo> revokedCertInfo = noConflictCertificateStoreSession.listRevokedCertInfo(renewedCertificateSubjectDN,
-                                        false, crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl);
-                                for(RevokedCertInfo tmp : revokedCertInfo){ //for loop is necessary because revokedCertInfo.toArray is not supported...
-                                    revokedCertificatesBeforeLastCANameChange.add(tmp);
+                if (revokedCertificates == null) {
+                    // Find all revoked certificates for a complete CRL
+                    if (log.isDebugEnabled()) {
+                        final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
+                        log.debug("Listing revoked certificates. Free memory=" + freeMemory);
+                    }
+                    revokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, false,
+                            crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl);
+
+                    //if X509 CA is marked as it has gone through Name Change add certificates revoked with old names
+                    if(ca.getCAType()==CAInfo.CATYPE_X509 && ((X509CA)ca).getNameChanged()){
+                        log.info("The CA with SubjectDN " + ca.getSubjectDN() + " has been gone through ICAO Name Change. Collecting all revocation information published by this CA with previous names has started.");
+                        Collection<Certificate> renewedCertificateChain = ca.getRenewedCertificateChain();
+                        Collection<RevokedCertInfo> revokedCertificatesBeforeLastCANameChange = new ArrayList<>();
+                        if(renewedCertificateChain != null){
+                            Collection<String> differentSubjectDNs = new HashSet<>();
+                            differentSubjectDNs.add(caCertSubjectDN);
+                            for(Certificate renewedCertificate : renewedCertificateChain){
+                                String renewedCertificateSubjectDN = CertTools.getSubjectDN(renewedCertificate);
+                                if(!differentSubjectDNs.contains(renewedCertificateSubjectDN)){
+                                    log.info("Collecting revocation information for " + renewedCertificateSubjectDN + " and merging them with ones for " + caCertSubjectDN);
+                                    differentSubjectDNs.add(renewedCertificateSubjectDN);
+                                    Collection<RevokedCertInfo> revokedCertInfo = noConflictCertificateStoreSession.listRevokedCertInfo(renewedCertificateSubjectDN,
+                                            false, crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl);
+                                    for(RevokedCertInfo tmp : revokedCertInfo){ //for loop is necessary because revokedCertInfo.toArray is not supported...
+                                        revokedCertificatesBeforeLastCANameChange.add(tmp);
+                                    }
                                 }
                             }
                         }
+                        //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
+                        Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revokedCertificates;
+                        revokedCertificates = new RevokedCertInfoCollection();
+                        if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
+                            revokedCertificates.addAll(revokedCertificatesBeforeLastCANameChange);
+                        }
+                        revokedCertificates.addAll(revokedCertificatesAfterLastCANameChange);
                     }
-                    //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
-                    Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revokedCertificates;
-                    revokedCertificates = new CompressedCollection<>(RevokedCertInfo.class);
-                    if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
-                        revokedCertificates.addAll(revokedCertificatesBeforeLastCANameChange);
-                    }
-                    revokedCertificates.addAll(revokedCertificatesAfterLastCANameChange);
-                }
 
-                if (log.isDebugEnabled()) {
-                    final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
-                    log.debug("Found "+revokedCertificates.size()+" revoked certificates. Free memory=" + freeMemory);
-                }
-                // Go through them and create a CRL, at the same time archive expired certificates, unless configured not to do so (keep expired certificates on CRL)
-                //
-                // Archiving is only done for full CRLs, not delta CRLs.
-                // RFC5280, section 3.3, states that a certificate must not be removed from the CRL until it has appeared on at least one full CRL.
-                // RFC5280, section 5: A full and complete CRL lists all unexpired certificates issued by a CA that have been revoked for any reason.
-                // See RFC5280 section 5.2.4, specifically:
-                //  If a certificate revocation notice first appears on a delta CRL, then
-                //  it is possible for the certificate validity period to expire before
-                //  the next complete CRL for the same scope is issued.  In this case,
-                //  the revocation notice MUST be included in all subsequent delta CRLs
-                //  until the revocation notice is included on at least one explicitly
-                //  issued complete CRL for this scope
-                final AuthenticationToken archiveAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSession.archive_expired"));
-                for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
-                    // We want to include certificates that were revoked after the last CRL was issued, but before this one
-                    // so the revoked certs are included in ONE CRL at least. See RFC5280 section 3.3.
-                    // If chosen to keep expired certificates on CRL, we will NOT do this but keep them (ISO 9594-8 par. 8.5.2.12)
-                    if ( !keepExpiredCertsOnCrl && revokedCertInfo.getExpireDate() != null && revokedCertInfo.getExpireDate().before(lastBaseCrlCreationDate) ) {
-                        // Certificate has expired, set status to archived in the database
-                        if (log.isDebugEnabled()) {
-                            final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
-                            log.debug("Archiving certificate with fp="+revokedCertInfo.getCertificateFingerprint()+". Free memory=" + freeMemory);
-                        }
-                        noConflictCertificateStoreSession.setStatus(archiveAdmin, revokedCertInfo.getCertificateFingerprint(), CertificateConstants.CERT_ARCHIVED);
-                    } else {
-                        if (!revokedCertInfo.isRevocationDateSet()) {
-                            revokedCertInfo.setRevocationDate(now);
-                            /*
-                             * FIXME should use noConflictCertificateStoreSession (add a new method). the method there should also update to database. 
-                             * (or can we skip this code? when can isRevocationDateSet return false?)
-                             * ECA-7992
-                             */
-//                            noConflictCertificateStoreSession.setRevocationDate(revokedCertInfo.getCertificateFingerprint(), now);
-                            CertificateData certdata = certificateDataSession.findByFingerprint(revokedCertInfo.getCertificateFingerprint());
-                            if (certdata == null) {
-                                throw new FinderException("No certificate with fingerprint " + revokedCertInfo.getCertificateFingerprint());
+                    if (log.isDebugEnabled()) {
+                        final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
+                        log.debug("Found "+revokedCertificates.size()+" revoked certificates. Free memory=" + freeMemory);
+                    }
+                    // Go through them and create a CRL, at the same time archive expired certificates, unless configured not to do so (keep expired certificates on CRL)
+                    //
+                    // Archiving is only done for full CRLs, not delta CRLs.
+                    // RFC5280, section 3.3, states that a certificate must not be removed from the CRL until it has appeared on at least one full CRL.
+                    // RFC5280, section 5: A full and complete CRL lists all unexpired certificates issued by a CA that have been revoked for any reason.
+                    // See RFC5280 section 5.2.4, specifically:
+                    //  If a certificate revocation notice first appears on a delta CRL, then
+                    //  it is possible for the certificate validity period to expire before
+                    //  the next complete CRL for the same scope is issued.  In this case,
+                    //  the revocation notice MUST be included in all subsequent delta CRLs
+                    //  until the revocation notice is included on at least one explicitly
+                    //  issued complete CRL for this scope
+                    final AuthenticationToken archiveAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSession.archive_expired"));
+                    for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
+                        // We want to include certificates that were revoked after the last CRL was issued, but before this one
+                        // so the revoked certs are included in ONE CRL at least. See RFC5280 section 3.3.
+                        // If chosen to keep expired certificates on CRL, we will NOT do this but keep them (ISO 9594-8 par. 8.5.2.12)
+                        if ( !keepExpiredCertsOnCrl && revokedCertInfo.getExpireDate() != null && revokedCertInfo.getExpireDate().before(lastBaseCrlCreationDate) ) {
+                            // Certificate has expired, set status to archived in the database
+                            if (log.isDebugEnabled()) {
+                                final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
+                                log.debug("Archiving certificate with fp="+revokedCertInfo.getCertificateFingerprint()+". Free memory=" + freeMemory);
                             }
-                            // Set revocation date in the database
-                            certdata.setRevocationDate(now);
+                            noConflictCertificateStoreSession.setStatus(archiveAdmin, revokedCertInfo.getCertificateFingerprint(), CertificateConstants.CERT_ARCHIVED);
+                        } else {
+                            setMissingRevocationDate(revokedCertInfo, now);
                         }
                     }
                 }
@@ -586,7 +595,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.error(e);
             throw new EJBException(e);
         } finally {
-            // Special treatment of our CompressedCollection to ensure that we release all resources
+            // Special treatment of our RevokedCertInfoCollection to ensure that we release all resources
             if (revokedCertificates!=null) {
                 revokedCertificates.clear();
             }
@@ -597,6 +606,143 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         return ret;
     }
 
+    /**
+     * @return true if the base CRL can be created from the entries of the last base CRL, instead of from all revoked
+     * certificates in the database. See database.crlgenincrementalrebuildtime in cesecore.properties.
+     */
+    private boolean isIncrementalBaseCrl(final CA ca, final CRLInfo lastBaseCrlInfo, final Date thisUpdate) {
+        final long rebuildTime = CesecoreConfiguration.getDatabaseIncrementalCrlRebuildTime();
+        if (rebuildTime <= 0 || lastBaseCrlInfo == null || ca.getCAType() != CAInfo.CATYPE_X509 || ((X509CA) ca).getNameChanged()) {
+            return false;
+        }
+        final long lastBaseCrlDate = lastBaseCrlInfo.getCreateDate().getTime();
+        if (thisUpdate.getTime() < lastBaseCrlDate || thisUpdate.getTime() / rebuildTime != lastBaseCrlDate / rebuildTime) {
+            if (log.isDebugEnabled()) {
+                log.debug("Creating base CRL for CA '" + ca.getName() + "' from the database, since a new rebuild period has started.");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the revocation date of a revoked certificate that has none, both in the CRL entry and in the database.
+     */
+    private void setMissingRevocationDate(final RevokedCertInfo revokedCertInfo, final Date now) throws FinderException {
+        if (!revokedCertInfo.isRevocationDateSet()) {
+            revokedCertInfo.setRevocationDate(now);
+            /*
+             * FIXME should use noConflictCertificateStoreSession (add a new method). the method there should also update to database. 
+             * (or can we skip this code? when can isRevocationDateSet return false?)
+             * ECA-7992
+             */
+//            noConflictCertificateStoreSession.setRevocationDate(revokedCertInfo.getCertificateFingerprint(), now);
+            CertificateData certdata = certificateDataSession.findByFingerprint(revokedCertInfo.getCertificateFingerprint());
+            if (certdata == null) {
+                throw new FinderException("No certificate with fingerprint " + revokedCertInfo.getCertificateFingerprint());
+            }
+            // Set revocation date in the database
+            certdata.setRevocationDate(now);
+        }
+    }
+
+    /**
+     * Lists the entries of a new base CRL, by applying the changes since the last base CRL to its entries. The changes are
+     * found with the same query as for delta CRLs. The result has the same entries as a base CRL created from all revoked
+     * certificates: revoked certificates in CertificateData that expired before the last base CRL are put on this CRL one
+     * last time and are archived, and certificates that were archived or expired (NoConflictCertificateData) when the last
+     * base CRL was created are removed.
+     * <p>
+     * Archived and expired certificates are looked up from the start of the rebuild period before the one of the last base
+     * CRL. If no base CRL was created during a whole rebuild period, certificates that expired before that are removed by the
+     * next full rebuild instead.
+     *
+     * @return the revoked certificates to put on the new base CRL, or null if the last base CRL could not be read
+     * @throws AuthorizationDeniedException if the expired certificates could not be archived
+     * @throws FinderException if a revoked certificate without revocation date could not be found
+     */
+    private Collection<RevokedCertInfo> getIncrementalRevokedCertInfos(final String caCertSubjectDN, final int crlPartitionIndex,
+            final CRLInfo lastBaseCrlInfo, final boolean keepExpiredCertsOnCrl, final Date now) throws AuthorizationDeniedException, FinderException {
+        final long lastBaseCrlDate = lastBaseCrlInfo.getCreateDate().getTime();
+        final Map<BigInteger, RevokedCertInfo> changes = new HashMap<>();
+        final Collection<RevokedCertInfo> changedCertInfos = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, true,
+                crlPartitionIndex, lastBaseCrlDate, true);
+        try {
+            for (final RevokedCertInfo revokedCertInfo : changedCertInfos) {
+                changes.put(revokedCertInfo.getUserCertificate(), revokedCertInfo);
+            }
+        } finally {
+            changedCertInfos.clear();
+        }
+        // Revoked certificates that expired before the last base CRL, which are archived, and certificates that are no longer on base CRLs
+        final Map<BigInteger, RevokedCertInfo> expired = new HashMap<>();
+        final Set<BigInteger> removed = new HashSet<>();
+        if (!keepExpiredCertsOnCrl) {
+            final long rebuildTime = CesecoreConfiguration.getDatabaseIncrementalCrlRebuildTime();
+            final long since = (lastBaseCrlDate / rebuildTime - 1) * rebuildTime;
+            final Collection<RevokedCertInfo> expiredCertInfos = noConflictCertificateStoreSession.listExpiredRevokedCertInfo(caCertSubjectDN,
+                    crlPartitionIndex, lastBaseCrlDate, since);
+            try {
+                for (final RevokedCertInfo revokedCertInfo : expiredCertInfos) {
+                    if (revokedCertInfo.getReason() == RevocationReasons.REMOVEFROMCRL.getDatabaseValue()) {
+                        removed.add(revokedCertInfo.getUserCertificate());
+                    } else {
+                        expired.put(revokedCertInfo.getUserCertificate(), revokedCertInfo);
+                    }
+                }
+            } finally {
+                expiredCertInfos.clear();
+            }
+            removed.removeAll(expired.keySet());
+        }
+        final RevokedCertInfoCollection revokedCertificates = new RevokedCertInfoCollection();
+        final int[] removedEntries = new int[1];
+        final int lastEntries;
+        try {
+            lastEntries = CrlEntryReader.forEachEntry(lastBaseCrlInfo.getCRLBytes(), entry -> {
+                final BigInteger serialNumber = entry.getUserCertificate();
+                if (changes.containsKey(serialNumber) || expired.containsKey(serialNumber)) {
+                    // Replaced or removed by the change, or added below
+                    return;
+                }
+                if (removed.contains(serialNumber)) {
+                    removedEntries[0]++;
+                } else {
+                    revokedCertificates.add(entry);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Could not read the entries of CRL number " + lastBaseCrlInfo.getLastCRLNumber() + " for '" + caCertSubjectDN
+                    + "', the base CRL will be created from the database: " + e.getMessage());
+            revokedCertificates.clear();
+            return null;
+        }
+        int reactivated = 0;
+        int revoked = 0;
+        for (final RevokedCertInfo revokedCertInfo : changes.values()) {
+            if (revokedCertInfo.getReason() == RevocationReasons.REMOVEFROMCRL.getDatabaseValue()) {
+                reactivated++;
+            } else if (!expired.containsKey(revokedCertInfo.getUserCertificate())
+                    && (keepExpiredCertsOnCrl || revokedCertInfo.getExpireDate() == null || !revokedCertInfo.getExpireDate().before(lastBaseCrlInfo.getCreateDate()))) {
+                // Certificates that expired before the last base CRL are only listed if they can be archived, as in a full CRL
+                setMissingRevocationDate(revokedCertInfo, now);
+                revokedCertificates.add(revokedCertInfo);
+                revoked++;
+            }
+        }
+        revokedCertificates.addAll(expired.values());
+        revokedCertificates.closeForWrite();
+        // The certificates are on this base CRL, so they can be archived. See RFC5280 section 3.3.
+        final AuthenticationToken archiveAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSession.archive_expired"));
+        for (final RevokedCertInfo revokedCertInfo : expired.values()) {
+            noConflictCertificateStoreSession.setStatus(archiveAdmin, revokedCertInfo.getCertificateFingerprint(), CertificateConstants.CERT_ARCHIVED);
+        }
+        log.info("Creating base CRL for '" + caCertSubjectDN + "' partition " + crlPartitionIndex + " incrementally from CRL number "
+                + lastBaseCrlInfo.getLastCRLNumber() + " with " + lastEntries + " entries: " + revoked + " revoked, " + reactivated
+                + " reactivated, " + expired.size() + " archived and " + removedEntries[0] + " removed certificates.");
+        return revokedCertificates;
+    }
+
     /**
      * Generates a new Delta CRL by looking in the database for revoked
      * certificates since the last complete CRL issued and generating a CRL with
@@ -631,7 +777,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         }
         byte[] crlBytes = null;
         Collection<RevokedCertInfo> revcertinfos = null;
-        CompressedCollection<RevokedCertInfo> certs = null;
+        RevokedCertInfoCollection certs = null;
         try {
             final Certificate cacert = getCaCertificate(cainfo);
             final String caCertSubjectDN = cacert==null ? null : CertTools.getSubjectDN(cacert);
@@ -667,7 +813,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     }
                     //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
                     Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revcertinfos;
-                    revcertinfos = new CompressedCollection<>(RevokedCertInfo.class);
+                    revcertinfos = new RevokedCertInfoCollection();
                     if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
                         revcertinfos.addAll(revokedCertificatesBeforeLastCANameChange);
                     }
@@ -678,7 +824,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     log.debug("Found "+revcertinfos.size()+" revoked certificates.");
                 }
                 // Go through them and create a CRL, i.e. add to cert list to be included in CRL
-                certs = new CompressedCollection<>(RevokedCertInfo.class);
+                certs = new RevokedCertInfoCollection();
                 for (final RevokedCertInfo ci : revcertinfos) {
                     final boolean certificateIsReleasedFromHold = ci.getReason() == RevocationReasons.REMOVEFROMCRL.getDatabaseValue();
                     final boolean certificateAppearsOnBaseCrl = lastBaseCrlInfo.getCrl().getRevokedCertificate(ci.getUserCertificate()) != null;
@@ -713,7 +859,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.error(e);
             throw new EJBException(e);
         } finally {
-            // Special treatment of our CompressedCollections to ensure that we release all resources
+            // Special treatment of our RevokedCertInfoCollections to ensure that we release all resources
             if (revcertinfos!=null) {
                 revcertinfos.clear();
             }
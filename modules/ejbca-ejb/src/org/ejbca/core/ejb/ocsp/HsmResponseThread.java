@@ -36,8 +36,6 @@ import org.cesecore.util.CertTools;
  */
 public class HsmResponseThread implements Callable<BasicOCSPResp> {
 
-    public static final long HSM_TIMEOUT_SECONDS = 30;
-
     private final BasicOCSPRespBuilder basicRes;
     private final String signingAlgorithm;
     private final PrivateKey signerKey;
@@ -51,6 +51,20 @@ public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessio
         log.trace("<persistOcspData");
     }
 
+    @Override
+    public void storeOcspDataBatch(final List<OcspResponseData> responseData) {
+        log.trace(">storeOcspDataBatch");
+        for (final OcspResponseData ocspResponseData : responseData) {
+            this.entityManager.persist(ocspResponseData);
+        }
+        // Send all inserts at the end of the chunk, in JDBC batches of hibernate.jdbc.batch_size (see persistence-ds-template.xml)
+        this.entityManager.flush();
+        if (log.isTraceEnabled()) {
+            log.trace("storeOcspDataBatch stored " + responseData.size() + " responses.");
+        }
+        log.trace("<storeOcspDataBatch");
+    }
+
     @Override
     public List<OcspResponseData> findOcspDataByCaId(final Integer caId) {
         log.trace(">findOcspDataByCaId");
@@ -118,6 +132,28 @@ public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessio
                            .collect(Collectors.toList());
     }
     
+    @Override
+    public List<String> findExpiringOcspSerialNumbers(final Integer caId, final long expirationDate, final String afterSerialNumber,
+            final int maxNumberOfResults) {
+        log.trace(">findExpiringOcspSerialNumbers");
+        final Query query;
+        if (afterSerialNumber == null) {
+            query = this.entityManager.createNamedQuery(OcspResponseData.FIND_EXPIRING_OCSP_SERIAL_NUMBERS_BY_CAID);
+        } else {
+            query = this.entityManager.createNamedQuery(OcspResponseData.FIND_EXPIRING_OCSP_SERIAL_NUMBERS_BY_CAID_AFTER_SERIAL_NUMBER);
+            query.setParameter("serialNumber", afterSerialNumber);
+        }
+        query.setParameter("caId", caId);
+        query.setParameter("expirationDate", expirationDate);
+        query.setMaxResults(maxNumberOfResults);
+        @SuppressWarnings("unchecked")
+        final List<Object> result = query.getResultList();
+        log.trace("<findExpiringOcspSerialNumbers");
+        return result.stream()
+                     .map(String::valueOf)
+                     .collect(Collectors.toList());
+    }
+
     @Override
     public void deleteOcspDataByCaId(final Integer caId) {
         log.trace(">deleteOcspDataByCaId");
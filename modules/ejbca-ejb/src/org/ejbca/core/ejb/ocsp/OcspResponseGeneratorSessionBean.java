@@ -57,10 +57,11 @@ import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -74,6 +75,7 @@ import javax.ejb.TimerConfig;
 import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -110,6 +112,7 @@ import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
 import org.bouncycastle.cert.ocsp.Req;
 import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
 import org.bouncycastle.cert.ocsp.UnknownStatus;
 import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
 import org.bouncycastle.operator.OperatorCreationException;
@@ -147,12 +150,15 @@ import org.cesecore.certificates.ocsp.cache.OcspDataConfigCache;
 import org.cesecore.certificates.ocsp.cache.OcspDataConfigCacheEntry;
 import org.cesecore.certificates.ocsp.cache.OcspExtensionsCache;
 import org.cesecore.certificates.ocsp.cache.OcspRequestSignerStatusCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.certificates.ocsp.cache.OcspStatusIndex;
 import org.cesecore.certificates.ocsp.exception.CryptoProviderException;
 import org.cesecore.certificates.ocsp.exception.IllegalNonceException;
 import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
 import org.cesecore.certificates.ocsp.exception.OcspFailureException;
+import org.cesecore.certificates.ocsp.exception.OcspSigningBusyException;
 import org.cesecore.certificates.ocsp.extension.OCSPExtension;
 import org.cesecore.certificates.ocsp.extension.OCSPExtensionType;
 import org.cesecore.certificates.ocsp.logging.AuditLogger;
@@ -210,15 +216,19 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     private static final int MAX_REQUEST_SIZE = 100000;
     /** Timer identifiers */
     private static final int TIMERID_OCSPSIGNINGCACHE = 1;
+    /** How often to log the progress of a bulk pre-production of OCSP responses */
+    private static final long PREPRODUCTION_PROGRESS_LOG_INTERVAL_MS = 10000L;
+    /** Number of serial numbers read at a time when looking for expiring pre-produced OCSP responses */
+    private static final int PREPRODUCTION_PAGE_SIZE = 10000;
 
     private static final Logger log = Logger.getLogger(OcspResponseGeneratorSessionBean.class);
 
     private static final InternalResources intres = InternalResources.getInstance();
     
-    private static volatile ExecutorService service = Executors.newCachedThreadPool();
-    
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private ManagedExecutorService managedExecutorService;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining. 
      */
@@ -254,6 +264,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     protected void setMockedGlobalConfigurationSession(final GlobalConfigurationSessionLocal globalConfigurationSession) { this.globalConfigurationSession = globalConfigurationSession; }
     protected void setMockedTimerService(final TimerService timerService) { this.timerService = timerService; }
     protected void setOcspDataSessionLocal(final OcspDataSessionLocal ocspDataSession) { this.ocspDataSession = ocspDataSession; }
+    protected void setMockedExecutorService(final ManagedExecutorService managedExecutorService) { this.managedExecutorService = managedExecutorService; }
 
     @PostConstruct
     public void init() {
@@ -493,12 +504,127 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             } finally {
                 OcspSigningCache.INSTANCE.stagingRelease();
             }
+            // Responses may have been signed with keys or settings that are no longer used
+            OcspResponseCache.INSTANCE.clear();
+            OcspSigningScheduler.INSTANCE.reload();
+            if (OcspStatusIndex.INSTANCE.isEnabled()) {
+                loadOcspStatusIndex();
+            }
         } finally {
             // Schedule a new timer of this type
             addTimer(OcspConfiguration.getSigningCertsValidTimeInMilliseconds(), TIMERID_OCSPSIGNINGCACHE);
         }
     }
     
+    /** Loads the OCSP status index for each issuer served by the OCSP signing cache, unless it has been loaded already. */
+    private void loadOcspStatusIndex() {
+        final Set<String> issuerDns = new HashSet<>();
+        for (final OcspSigningCacheEntry entry : OcspSigningCache.INSTANCE.getEntries()) {
+            issuerDns.add(CertTools.getSubjectDN(entry.getIssuerCaCertificate()));
+            for (final X509Certificate signedBehalfOfCaCertificate : entry.getSignedBehalfOfCaCerticates().values()) {
+                issuerDns.add(CertTools.getSubjectDN(signedBehalfOfCaCertificate));
+            }
+        }
+        for (final String issuerDn : issuerDns) {
+            if (!OcspStatusIndex.INSTANCE.isLoaded(issuerDn)) {
+                try {
+                    certificateStoreSession.loadOcspStatusIndex(issuerDn);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to load OCSP status index for issuer '" + issuerDn + "'. Statuses will be looked up in the database: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the status of a certificate in the OCSP status index, if enabled, and otherwise in the database.
+     * Statuses read from the database are added to the index.
+     */
+    private CertificateStatus getCertificateStatus(final String issuerDn, final BigInteger serialNumber) {
+        if (!OcspStatusIndex.INSTANCE.isEnabled()) {
+            return certificateStoreSession.getStatus(issuerDn, serialNumber);
+        }
+        refreshOcspStatusIndex(issuerDn);
+        CertificateStatus status = OcspStatusIndex.INSTANCE.getStatus(issuerDn, serialNumber);
+        if (status == null) {
+            status = certificateStoreSession.getStatus(issuerDn, serialNumber);
+            OcspStatusIndex.INSTANCE.addStatus(issuerDn, serialNumber, status);
+        }
+        return status;
+    }
+
+    /**
+     * Same as {@link #getCertificateStatus(String, BigInteger)} for several certificates of the same issuer. The statuses that
+     * are not in the OCSP status index are read from the database in one go.
+     */
+    private Map<BigInteger, CertificateStatus> getCertificateStatuses(final String issuerDn, final Collection<BigInteger> serialNumbers) {
+        if (!OcspStatusIndex.INSTANCE.isEnabled()) {
+            return certificateStoreSession.getStatuses(issuerDn, serialNumbers);
+        }
+        refreshOcspStatusIndex(issuerDn);
+        final Map<BigInteger, CertificateStatus> ret = new HashMap<>();
+        final List<BigInteger> notIndexed = new ArrayList<>();
+        for (final BigInteger serialNumber : serialNumbers) {
+            final CertificateStatus status = OcspStatusIndex.INSTANCE.getStatus(issuerDn, serialNumber);
+            if (status == null) {
+                notIndexed.add(serialNumber);
+            } else {
+                ret.put(serialNumber, status);
+            }
+        }
+        if (!notIndexed.isEmpty()) {
+            for (final Map.Entry<BigInteger, CertificateStatus> entry : certificateStoreSession.getStatuses(issuerDn, notIndexed).entrySet()) {
+                OcspStatusIndex.INSTANCE.addStatus(issuerDn, entry.getKey(), entry.getValue());
+                ret.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return ret;
+    }
+
+    /** Fetches revocations made by other nodes into the OCSP status index, if it is time to do so. */
+    private void refreshOcspStatusIndex(final String issuerDn) {
+        final long refreshStartTime = OcspStatusIndex.INSTANCE.getRefreshStartTime(issuerDn, System.currentTimeMillis());
+        if (refreshStartTime != -1) {
+            try {
+                certificateStoreSession.refreshOcspStatusIndex(issuerDn, refreshStartTime);
+            } catch (RuntimeException e) {
+                OcspStatusIndex.INSTANCE.refreshFailed(issuerDn, refreshStartTime);
+                log.warn("Failed to refresh OCSP status index for issuer '" + issuerDn + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Looks up the statuses of all certificates in a request with several CertIDs, with one lookup per issuer instead of one per
+     * CertID. Only CertIDs of issuers that are already in the OCSP signing cache, and that only need the status (no OCSP
+     * extensions that need the certificate), are included. The others are looked up one at a time as before.
+     *
+     * @return map from issuer DN to a map from serial number to status
+     */
+    private Map<String, Map<BigInteger, CertificateStatus>> prefetchCertificateStatuses(final Req[] ocspRequests) {
+        if (ocspRequests.length <= 1 || OcspConfiguration.getAlwaysSendCustomOCSPExtension() != null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Set<BigInteger>> serialNumbersByIssuer = new HashMap<>();
+        for (final Req ocspRequest : ocspRequests) {
+            final CertificateID certId = ocspRequest.getCertID();
+            final OcspSigningCacheEntry ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
+            if (ocspSigningCacheEntry == null || CertificateStatus.REVOKED.equals(ocspSigningCacheEntry.getIssuerCaCertificateStatus())
+                    || (ocspSigningCacheEntry.getOcspKeyBinding() != null && !ocspSigningCacheEntry.getOcspKeyBinding().getOcspExtensions().isEmpty())) {
+                continue;
+            }
+            final String issuerDn = CertTools.getSubjectDN(ocspSigningCacheEntry.getIssuerCaCertificate());
+            serialNumbersByIssuer.computeIfAbsent(issuerDn, dn -> new HashSet<>()).add(certId.getSerialNumber());
+        }
+        final Map<String, Map<BigInteger, CertificateStatus>> ret = new HashMap<>();
+        for (final Map.Entry<String, Set<BigInteger>> entry : serialNumbersByIssuer.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                ret.put(entry.getKey(), getCertificateStatuses(entry.getKey(), entry.getValue()));
+            }
+        }
+        return ret;
+    }
+
     private void addSignResponseOnBehalfCasToCacheEntry(OcspSigningCacheEntry ocspSigningCacheEntry, 
                                                                             OcspKeyBinding ocspKeyBinding) {
         Set<CertificateID> signedBehalfOfCaIds = ocspSigningCacheEntry.getSignedBehalfOfCaIds();
@@ -1332,6 +1458,19 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             String xForwardedFor, StringBuffer requestUrl, final AuditLogger auditLogger, final TransactionLogger transactionLogger, boolean isPreSigning, 
             boolean issueFinalResponse)
             throws MalformedRequestException, OCSPException {
+        return getOcspResponse(request, requestCertificates, remoteAddress, xForwardedFor, requestUrl, auditLogger, transactionLogger, isPreSigning,
+                issueFinalResponse, null);
+    }
+
+    /**
+     * @param preProducedResponses if not null, a response that should be stored is added to this collection instead of being
+     * stored and published, so that the caller can store many responses at once.
+     * @see #getOcspResponse(byte[], X509Certificate[], String, String, StringBuffer, AuditLogger, TransactionLogger, boolean, boolean)
+     */
+    private OcspResponseInformation getOcspResponse(final byte[] request, final X509Certificate[] requestCertificates, String remoteAddress,
+            String xForwardedFor, StringBuffer requestUrl, final AuditLogger auditLogger, final TransactionLogger transactionLogger, boolean isPreSigning,
+            boolean issueFinalResponse, final Collection<OcspResponseData> preProducedResponses)
+            throws MalformedRequestException, OCSPException {
         //Check parameters
         if (auditLogger == null) {
             throw new InvalidParameterException("Illegal to pass a null audit logger to OcspResponseSession.getOcspResponse");
@@ -1361,6 +1500,9 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         X509Certificate signerCert = null;
         String serialNrForResponseStore = null;
         int caIdForResponseStore = 0;
+        // CertID of a request that may be answered from, and whose response may be added to, the OCSP response cache
+        CertificateID certIdForResponseCache = null;
+        long responseCacheGeneration = 0;
         try {
             req = translateRequestFromByteArray(request, remoteAddress, transactionLogger);
             // Get the certificate status requests that are inside this OCSP req
@@ -1379,6 +1521,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             if (log.isDebugEnabled()) {
                 log.debug("The OCSP request contains " + ocspRequests.length + " simpleRequests.");
             }
+            if (isResponseCacheable(req, isPreSigning)) {
+                // Read before the status is looked up, so that a response with a status that has since changed is not cached
+                responseCacheGeneration = OcspResponseCache.INSTANCE.getGeneration();
+                certIdForResponseCache = ocspRequests[0].getCertID();
+            }
             if (!isPreSigning && transactionLogger.isEnabled()) {
                 transactionLogger.paramPut(TransactionLogger.NUM_CERT_ID, ocspRequests.length);
                 transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.SUCCESSFUL);
@@ -1395,6 +1542,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             // If the Extended Revoked Definition should be added for certificates that we can not find in the database, see RFC6960 4.4.8
             boolean addExtendedRevokedExtension = false;
             Date producedAt = null;
+            // Statuses of the certificates in a request with several CertIDs, fetched with one database query per issuer
+            final Map<String, Map<BigInteger, CertificateStatus>> prefetchedStatuses = prefetchCertificateStatuses(ocspRequests);
             
             for (Req ocspRequest : ocspRequests) {
                 CertificateID certId = ocspRequest.getCertID();
@@ -1449,6 +1598,14 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
 
                     }
                 }
+
+                if (certIdForResponseCache != null && ocspSigningCacheEntry != null && !ocspSigningCacheEntry.isPlaceholder()) {
+                    final OcspResponseCache.CachedResponse cachedResponse = OcspResponseCache.INSTANCE.get(certId,
+                            ocspSigningCacheEntry.getSigningCertificate());
+                    if (cachedResponse != null) {
+                        return getCachedOcspResponse(cachedResponse, ocspSigningCacheEntry, auditLogger, transactionLogger);
+                    }
+                }
                                 
                 // We only store pre-produced single responses
                 if (ocspRequests.length == 1 && ocspDataConfig != null && ocspDataConfig.isPreProductionEnabled()) {
@@ -1713,7 +1870,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         // we will also use certificate profile settings for issuing certificate
                     }
                     if (extensionOids.isEmpty()) {
-                        status = certificateStoreSession.getStatus(issuerDnOcspRequest, certId.getSerialNumber());
+                        final Map<BigInteger, CertificateStatus> issuerStatuses = prefetchedStatuses.get(issuerDnOcspRequest);
+                        status = issuerStatuses != null ? issuerStatuses.get(certId.getSerialNumber()) : null;
+                        if (status == null) {
+                            status = getCertificateStatus(issuerDnOcspRequest, certId.getSerialNumber());
+                        }
                     } else {
                         certificateStatusHolder = certificateStoreSession.getCertificateAndStatus(issuerDnOcspRequest, certId.getSerialNumber());
                         status = certificateStatusHolder.getCertificateStatus();
@@ -2021,6 +2182,22 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             if (!isPreSigning && auditLogger.isEnabled()) {
                 auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.MALFORMED_REQUEST);
             }
+        } catch (OcspSigningBusyException e) {
+            if (!isPreSigning && transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            if (!isPreSigning && auditLogger.isEnabled()) {
+                auditLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            log.info(intres.getLocalizedMessage("ocsp.errorprocessreq", e.getMessage()));
+            // RFC 2560: responseBytes are not set on error.
+            ocspResponse = responseGenerator.build(OCSPRespBuilder.TRY_LATER, null);
+            if (!isPreSigning && transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
+            if (!isPreSigning && auditLogger.isEnabled()) {
+                auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
         } catch (NoSuchAlgorithmException | CertificateException | CryptoTokenOfflineException e) {
             ocspResponse = processDefaultError(isPreSigning, responseGenerator, transactionLogger, auditLogger, e);
         }
@@ -2056,10 +2233,13 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             }
         }
         
+        if (certIdForResponseCache != null && respBytes != null && signerCert != null && ocspResponse.getStatus() == OCSPRespBuilder.SUCCESSFUL) {
+            addToResponseCache(responseCacheGeneration, certIdForResponseCache, ocspResponse, respBytes, maxAge, signerCert);
+        }
         if (serialNrForResponseStore != null && caIdForResponseStore != 0 && 
                 ocspResponse.getStatus() == OCSPRespBuilder.SUCCESSFUL) { 
             try {
-                storeOcspResponse(caIdForResponseStore, serialNrForResponseStore, ocspResponse);
+                storeOcspResponse(caIdForResponseStore, serialNrForResponseStore, ocspResponse, preProducedResponses);
             } catch (OCSPException | IOException e) {
                 // Log the error and reply anyway
                 log.warn("Error storing OCSP response for certificate with serialNr '" + serialNrForResponseStore);
@@ -2068,6 +2248,64 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         return new OcspResponseInformation(ocspResponse, maxAge, signerCert);
     }
     
+    /**
+     * A response may be taken from the OCSP response cache if it is the same for all requesters: an unsigned request for a
+     * single certificate without a nonce or any other extensions, and no OCSP extension that is always added.
+     */
+    private boolean isResponseCacheable(final OCSPReq req, final boolean isPreSigning) {
+        if (isPreSigning || !OcspResponseCache.INSTANCE.isEnabled()) {
+            return false;
+        }
+        final Req[] ocspRequests = req.getRequestList();
+        return ocspRequests.length == 1 && !req.hasExtensions() && !req.isSigned() && ocspRequests[0].getSingleRequestExtensions() == null
+                && OcspConfiguration.getAlwaysSendCustomOCSPExtension() == null;
+    }
+
+    private OcspResponseInformation getCachedOcspResponse(final OcspResponseCache.CachedResponse cachedResponse,
+            final OcspSigningCacheEntry ocspSigningCacheEntry, final AuditLogger auditLogger, final TransactionLogger transactionLogger)
+            throws OCSPException {
+        final OCSPResp ocspResp;
+        try {
+            ocspResp = new OCSPResp(cachedResponse.getResponse());
+        } catch (IOException e) {
+            // The response was encoded by this class
+            throw new IllegalStateException(e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Returning cached OCSP response signed by '" + ocspSigningCacheEntry.getSigningCertificateIssuerDn() + "'.");
+        }
+        if (auditLogger.isEnabled()) {
+            auditLogger.paramPut(AuditLogger.OCSPRESPONSE, StringTools.hex(cachedResponse.getResponse()));
+            auditLogger.writeln();
+            auditLogger.flush();
+        }
+        if (transactionLogger.isEnabled()) {
+            transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN, ocspSigningCacheEntry.getSigningCertificateIssuerDn());
+            transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN_RAW, ocspSigningCacheEntry.getSigningCertificateIssuerDnRaw());
+            final org.bouncycastle.cert.ocsp.CertificateStatus status = ((BasicOCSPResp) ocspResp.getResponseObject()).getResponses()[0].getCertStatus();
+            transactionLogger.paramPut(TransactionLogger.CERT_STATUS, fetchCertStatus(status));
+            if (status instanceof RevokedStatus && ((RevokedStatus) status).hasRevocationReason()) {
+                transactionLogger.paramPut(TransactionLogger.REV_REASON, ((RevokedStatus) status).getRevocationReason());
+            }
+            transactionLogger.writeln();
+            transactionLogger.flush();
+        }
+        return new OcspResponseInformation(ocspResp, cachedResponse.getRemainingMaxAge(System.currentTimeMillis()),
+                cachedResponse.getSignerCertificate());
+    }
+
+    private void addToResponseCache(final long generation, final CertificateID certId, final OCSPResp ocspResponse, final byte[] respBytes,
+            final long maxAge, final X509Certificate signerCert) {
+        try {
+            final SingleResp[] responses = ((BasicOCSPResp) ocspResponse.getResponseObject()).getResponses();
+            if (responses.length == 1) {
+                OcspResponseCache.INSTANCE.put(generation, certId, respBytes, maxAge, signerCert, responses[0].getNextUpdate());
+            }
+        } catch (OCSPException e) {
+            log.warn("Could not add OCSP response for certificate with serialNr '" + certId.getSerialNumber() + "' to the response cache.", e);
+        }
+    }
+
     private int fetchCertStatus(org.bouncycastle.cert.ocsp.CertificateStatus certStatus) {
         if (Objects.isNull(certStatus)) {
             return OCSPResponseItem.OCSP_GOOD;
@@ -2078,7 +2316,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
     }
 
-    private void storeOcspResponse(final int caId, final String serialNr, final OCSPResp ocspResponse) throws OCSPException, IOException {
+    private void storeOcspResponse(final int caId, final String serialNr, final OCSPResp ocspResponse, final Collection<OcspResponseData> preProducedResponses)
+            throws OCSPException, IOException {
         // Redundantly storing producedAt and nextUpdate, next to the canned response itself for faster querying. 
         // Assuming this is a single response (we don't store it otherwise), we can safely pick nextUpdate from first index.
         long producedAt = ((BasicOCSPResp)ocspResponse.getResponseObject()).getProducedAt().getTime();
@@ -2090,6 +2329,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
         nextUpdate = nextUpdateDate.getTime();
         final OcspResponseData responseData = new OcspResponseData(UUID.randomUUID().toString(), caId, serialNr, producedAt, nextUpdate, ocspResponse.getEncoded());
+        if (preProducedResponses != null) {
+            // Stored and published in bulk by the caller
+            preProducedResponses.add(responseData);
+            return;
+        }
         ocspDataSession.storeOcspData(responseData);
         publishOcspResponse(caId, responseData);
     }
@@ -2309,12 +2553,17 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     
     @Override
     public void preSignOcspResponse(X509Certificate cacert, final BigInteger serialNr, boolean issueFinalResponse, String certIDHashAlgorithm) {
+        final GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration)
+                globalConfigurationSession.getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
+        preSignOcspResponse(cacert, serialNr, issueFinalResponse, certIDHashAlgorithm, ocspConfiguration, null);
+    }
+
+    private void preSignOcspResponse(final X509Certificate cacert, final BigInteger serialNr, final boolean issueFinalResponse,
+            final String certIDHashAlgorithm, final GlobalOcspConfiguration ocspConfiguration, final Collection<OcspResponseData> preProducedResponses) {
         final OCSPReq req;
         final OCSPReqBuilder gen = new OCSPReqBuilder();
         final int localTransactionId = TransactionCounter.INSTANCE.getTransactionNumber();
         final String remoteAddress = "127.0.0.1";
-        final GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration)
-                globalConfigurationSession.getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
         AuditLogger auditLogger = new AuditLogger("", localTransactionId, GuidHolder.INSTANCE.getGlobalUid(), remoteAddress, ocspConfiguration);
         TransactionLogger transactionLogger = new TransactionLogger(localTransactionId, GuidHolder.INSTANCE.getGlobalUid(), remoteAddress, ocspConfiguration);
         CertificateID certId;
@@ -2327,7 +2576,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
 
             gen.addRequest(certId);
             req = gen.build();
-            getOcspResponse(req.getEncoded(), null, remoteAddress, null, null, auditLogger, transactionLogger, true, issueFinalResponse);
+            getOcspResponse(req.getEncoded(), null, remoteAddress, null, null, auditLogger, transactionLogger, true, issueFinalResponse, preProducedResponses);
         } catch (Throwable e) {
             final String errMsg = intres.getLocalizedMessage("ocsp.errorprocessreq", e.getMessage());
             log.info(errMsg);
@@ -2338,6 +2587,106 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public OcspPreProductionResult preSignExpiringOcspResponses(final X509Certificate cacert, final long expirationDate, final String certIDHashAlgorithm) {
+        final int caId = CertTools.getSubjectDN(cacert).hashCode();
+        // Fetch all serial numbers first, since the result of the query changes as new responses are stored
+        final List<BigInteger> serialNrs = new ArrayList<>();
+        String lastSerialNr = null;
+        for (List<String> page = ocspDataSession.findExpiringOcspSerialNumbers(caId, expirationDate, null, PREPRODUCTION_PAGE_SIZE); !page.isEmpty();
+                page = ocspDataSession.findExpiringOcspSerialNumbers(caId, expirationDate, lastSerialNr, PREPRODUCTION_PAGE_SIZE)) {
+            for (final String serialNr : page) {
+                serialNrs.add(new BigInteger(serialNr));
+            }
+            lastSerialNr = page.get(page.size() - 1);
+        }
+        return preSignOcspResponses(cacert, serialNrs, false, certIDHashAlgorithm);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public OcspPreProductionResult preSignOcspResponses(final X509Certificate cacert, final List<BigInteger> serialNrs, final boolean issueFinalResponse,
+            final String certIDHashAlgorithm) {
+        final int caId = CertTools.getSubjectDN(cacert).hashCode();
+        final OcspPreProductionResult result = new OcspPreProductionResult(caId, serialNrs.size());
+        final int chunkSize = OcspConfiguration.getPreProductionChunkSize();
+        final int threads = Math.min(OcspConfiguration.getPreProductionThreads(), (serialNrs.size() + chunkSize - 1) / chunkSize);
+        if (threads == 0) {
+            result.finish();
+            return result;
+        }
+        log.info("Pre-producing " + serialNrs.size() + " OCSP responses for CA " + caId + " using " + threads + " workers.");
+        final GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration)
+                globalConfigurationSession.getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
+        final AtomicLong lastProgressLog = new AtomicLong(System.currentTimeMillis());
+        final AtomicInteger nextChunk = new AtomicInteger();
+        // Each worker takes the next chunk until there are no more. The chunks are stored in a transaction of their own by OcspDataSession.
+        final Runnable worker = () -> {
+            for (int i = nextChunk.getAndAdd(chunkSize); i < serialNrs.size(); i = nextChunk.getAndAdd(chunkSize)) {
+                final List<BigInteger> chunk = serialNrs.subList(i, Math.min(i + chunkSize, serialNrs.size()));
+                preSignOcspResponseChunk(cacert, caId, chunk, issueFinalResponse, certIDHashAlgorithm, ocspConfiguration, result);
+                final long lastLog = lastProgressLog.get();
+                final long now = System.currentTimeMillis();
+                if (now - lastLog >= PREPRODUCTION_PROGRESS_LOG_INTERVAL_MS && lastProgressLog.compareAndSet(lastLog, now)) {
+                    log.info("OCSP pre-production progress for " + result);
+                }
+            }
+        };
+        final List<Future<?>> tasks = new ArrayList<>();
+        try {
+            // The calling thread is one of the workers, so all chunks are processed even if the container has no threads to spare
+            for (int i = 1; i < threads; i++) {
+                tasks.add(managedExecutorService.submit(worker));
+            }
+        } catch (RejectedExecutionException e) {
+            log.info("Pre-producing OCSP responses for CA " + caId + " with " + (tasks.size() + 1) + " instead of " + threads
+                    + " workers, since the executor is busy.");
+        }
+        try {
+            worker.run();
+            for (final Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("OCSP pre-production for CA " + caId + " was interrupted.");
+        } catch (ExecutionException e) {
+            log.error("OCSP pre-production for CA " + caId + " failed.", e.getCause());
+        } finally {
+            // Stop the other workers from taking more chunks, if this one was aborted
+            nextChunk.set(serialNrs.size());
+            result.finish();
+        }
+        log.info("OCSP pre-production finished for " + result);
+        return result;
+    }
+
+    /** Produces the responses of one chunk of serial numbers, and stores them in one transaction. */
+    private void preSignOcspResponseChunk(final X509Certificate cacert, final int caId, final List<BigInteger> chunk, final boolean issueFinalResponse,
+            final String certIDHashAlgorithm, final GlobalOcspConfiguration ocspConfiguration, final OcspPreProductionResult result) {
+        final List<OcspResponseData> responses = new ArrayList<>(chunk.size());
+        for (final BigInteger serialNr : chunk) {
+            preSignOcspResponse(cacert, serialNr, issueFinalResponse, certIDHashAlgorithm, ocspConfiguration, responses);
+        }
+        int stored = 0;
+        if (!responses.isEmpty()) {
+            try {
+                ocspDataSession.storeOcspDataBatch(responses);
+                stored = responses.size();
+                for (final OcspResponseData responseData : responses) {
+                    publishOcspResponse(caId, responseData);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to store " + responses.size() + " pre-produced OCSP responses for CA " + caId + ": " + e.getMessage());
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to store pre-produced OCSP responses.", e);
+                }
+            }
+        }
+        result.addChunk(chunk.size(), stored);
+    }
+
     private boolean isSHA1(String algorithmName) {
         return algorithmName.equalsIgnoreCase(HashAlgorithm.getName(HashAlgorithm.sha1));
     }
@@ -2394,24 +2743,23 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             log.debug("The response certificate chain contains " + chain.length + " certificates");
         }
         /*
-         * The below code breaks the EJB standard by creating its own thread pool and creating a single thread (of the HsmResponseThread 
-         * type). The reason for this is that the HSM may deadlock when requesting an OCSP response, which we need to guard against. Since 
-         * there is no way of performing this action within the EJB3.0 standard, we are consciously creating threads here. 
+         * The below code breaks the EJB standard by signing in threads of its own (running the HsmResponseThread type). The reason for
+         * this is that the HSM may deadlock when requesting an OCSP response, which we need to guard against. Since there is no way of
+         * performing this action within the EJB3.0 standard, we are consciously creating threads here. The threads are bounded per
+         * signing key, so that a load spike results in "tryLater" responses instead of an ever growing number of threads.
          * 
          * Note that this does in no way break the spirit of the EJB standard, which is to not interrupt EJB's transaction handling by 
          * competing with its own thread pool, since these operations have no database impact.
          */
-        final Future<BasicOCSPResp> task = service.submit(new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
+        final String signingKeyName = ocspSigningCacheEntry.getOcspKeyBinding() != null ? ocspSigningCacheEntry.getOcspKeyBinding().getName()
+                : CertTools.getSubjectDN(ocspSigningCacheEntry.getIssuerCaCertificate());
         try {
-            returnval = task.get(HsmResponseThread.HSM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            returnval = OcspSigningScheduler.INSTANCE.sign(signingKeyName, new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
         } catch (InterruptedException e) {
-            task.cancel(true);
             throw new Error("OCSP response retrieval was interrupted while running. This should not happen", e);
         } catch (ExecutionException e) {
-            task.cancel(true);
             throw new OcspFailureException("Failure encountered while retrieving OCSP response.", e);
         } catch (TimeoutException e) {
-            task.cancel(true);
             throw new CryptoTokenOfflineException("HSM timed out while trying to get OCSP response", e);
         }
         if (log.isDebugEnabled()) {
@@ -0,0 +1,235 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ocsp.exception.OcspSigningBusyException;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.util.MetricsRegistry;
+
+/**
+ * Runs OCSP response signing on a bounded pool of threads per signing key, so that a load spike can not create more
+ * threads than the HSM has sessions for.
+ * <p>
+ * Each signing key (OCSP key binding or CA) gets its own lane with ocsp.signing.threads threads and a queue of
+ * ocsp.signing.queuesize waiting responses. When the queue is full, {@link OcspSigningBusyException} is thrown at once,
+ * so that the client can be told to try later instead of piling up more work. The queue depth and the number of rejected
+ * responses of each lane are served by the metrics servlet.
+ *
+ * @version $Id$
+ */
+public enum OcspSigningScheduler {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspSigningScheduler.class);
+
+    /** Statistics for one signing key, exposed for monitoring. */
+    public static class LaneStatistics {
+        private final String name;
+        private final int queueDepth;
+        private final int activeThreads;
+        private final long signed;
+        private final long rejected;
+        private final long timedOut;
+        private final long totalWaitNanos;
+        private final long totalSignNanos;
+
+        LaneStatistics(final String name, final int queueDepth, final int activeThreads, final long signed, final long rejected,
+                final long timedOut, final long totalWaitNanos, final long totalSignNanos) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.activeThreads = activeThreads;
+            this.signed = signed;
+            this.rejected = rejected;
+            this.timedOut = timedOut;
+            this.totalWaitNanos = totalWaitNanos;
+            this.totalSignNanos = totalSignNanos;
+        }
+
+        /** @return the name of the OCSP key binding, or the subject DN of the CA signing the responses */
+        public String getName() { return name; }
+        /** @return the number of responses waiting to be signed */
+        public int getQueueDepth() { return queueDepth; }
+        /** @return the number of responses being signed right now */
+        public int getActiveThreads() { return activeThreads; }
+        /** @return the number of signed responses */
+        public long getSigned() { return signed; }
+        /** @return the number of responses rejected since the queue was full */
+        public long getRejected() { return rejected; }
+        /** @return the number of responses that were not signed within ocsp.signing.timeout */
+        public long getTimedOut() { return timedOut; }
+        /** @return the average time a response waited in the queue, in microseconds */
+        public long getAverageWaitMicros() { return signed == 0 ? 0 : totalWaitNanos / signed / 1000; }
+        /** @return the average time spent signing a response, in microseconds */
+        public long getAverageSignMicros() { return signed == 0 ? 0 : totalSignNanos / signed / 1000; }
+        /** @return the total time the signed responses waited in the queue, in nanoseconds */
+        public long getTotalWaitNanos() { return totalWaitNanos; }
+        /** @return the total time spent signing responses, in nanoseconds */
+        public long getTotalSignNanos() { return totalSignNanos; }
+
+        @Override
+        public String toString() {
+            return "'" + name + "': queue=" + queueDepth + ", active=" + activeThreads + ", signed=" + signed + ", rejected=" + rejected
+                    + ", timedOut=" + timedOut + ", avgWait=" + getAverageWaitMicros() + "us, avgSign=" + getAverageSignMicros() + "us";
+        }
+    }
+
+    private static class Lane {
+        final String name;
+        final int threads;
+        final int queueSize;
+        final ThreadPoolExecutor executor;
+        final LongAdder signed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder timedOut = new LongAdder();
+        final LongAdder totalWaitNanos = new LongAdder();
+        final LongAdder totalSignNanos = new LongAdder();
+
+        Lane(final String name, final int threads, final int queueSize) {
+            this.name = name;
+            this.threads = threads;
+            this.queueSize = queueSize;
+            final AtomicInteger threadNumber = new AtomicInteger();
+            final ThreadFactory threadFactory = runnable -> {
+                final Thread thread = new Thread(runnable, "OcspSigner-" + name + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory,
+                    new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        LaneStatistics getStatistics() {
+            return new LaneStatistics(name, executor.getQueue().size(), executor.getActiveCount(), signed.sum(), rejected.sum(), timedOut.sum(),
+                    totalWaitNanos.sum(), totalSignNanos.sum());
+        }
+    }
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    OcspSigningScheduler() {
+        MetricsRegistry.INSTANCE.register(OcspSigningScheduler.class.getName(), this::collectMetrics);
+    }
+
+    /**
+     * Signs using the lane of the given signing key, and waits at most ocsp.signing.timeout for the result.
+     *
+     * @param laneName name of the signing key, e.g. the OCSP key binding name
+     * @param signingTask the task that performs the signature
+     * @return the result of the signing task
+     * @throws OcspSigningBusyException if too many responses are already waiting for the same key
+     * @throws TimeoutException if the response was not signed in time. The signing task is interrupted.
+     * @throws ExecutionException if the signing task failed
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public <T> T sign(final String laneName, final Callable<T> signingTask) throws TimeoutException, ExecutionException, InterruptedException {
+        final long submitTime = System.nanoTime();
+        Lane lane;
+        Future<T> future = null;
+        do {
+            lane = lanes.computeIfAbsent(laneName, name -> new Lane(name, OcspConfiguration.getSigningThreads(), OcspConfiguration.getSigningQueueSize()));
+            final Lane currentLane = lane;
+            try {
+                future = lane.executor.submit(() -> {
+                    final long startTime = System.nanoTime();
+                    try {
+                        return signingTask.call();
+                    } finally {
+                        final long endTime = System.nanoTime();
+                        currentLane.totalWaitNanos.add(startTime - submitTime);
+                        currentLane.totalSignNanos.add(endTime - startTime);
+                        currentLane.signed.increment();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (!lane.executor.isShutdown()) {
+                    lane.rejected.increment();
+                    throw new OcspSigningBusyException("Too many OCSP responses waiting to be signed by '" + laneName + "'.", e);
+                }
+                // The lane was replaced by reload(), try again with the new one
+            }
+        } while (future == null);
+        try {
+            return future.get(OcspConfiguration.getSigningTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            lane.timedOut.increment();
+            future.cancel(true);
+            throw e;
+        } catch (InterruptedException | ExecutionException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    /** @return the current statistics of all signing keys */
+    public List<LaneStatistics> getStatistics() {
+        final List<LaneStatistics> ret = new ArrayList<>();
+        for (final Lane lane : lanes.values()) {
+            ret.add(lane.getStatistics());
+        }
+        return ret;
+    }
+
+    /** Adds the statistics of each signing key to the metrics served by the metrics servlet */
+    void collectMetrics(final MetricsRegistry.Collector collector) {
+        for (final LaneStatistics statistics : getStatistics()) {
+            final String name = statistics.getName();
+            collector.gauge("ejbca_ocsp_signing_queue_depth", "OCSP responses waiting to be signed.", statistics.getQueueDepth(), "key", name);
+            collector.gauge("ejbca_ocsp_signing_active", "OCSP responses being signed.", statistics.getActiveThreads(), "key", name);
+            collector.counter("ejbca_ocsp_signing_signed_total", "Signed OCSP responses.", statistics.getSigned(), "key", name);
+            collector.counter("ejbca_ocsp_signing_rejected_total", "OCSP responses answered with tryLater since the signing queue was full.",
+                    statistics.getRejected(), "key", name);
+            collector.counter("ejbca_ocsp_signing_timed_out_total", "OCSP responses that were not signed within ocsp.signing.timeout.",
+                    statistics.getTimedOut(), "key", name);
+            collector.counter("ejbca_ocsp_signing_wait_seconds_total", "Time signed OCSP responses waited in the signing queue.",
+                    statistics.getTotalWaitNanos() / 1e9, "key", name);
+            collector.counter("ejbca_ocsp_signing_sign_seconds_total", "Time spent signing OCSP responses.",
+                    statistics.getTotalSignNanos() / 1e9, "key", name);
+        }
+    }
+
+    /**
+     * Removes the lanes that were created with a different configuration than the current one, so that new lanes are created
+     * when needed. Responses that are already queued will still be signed by the old threads, which then terminate.
+     */
+    public void reload() {
+        final int threads = OcspConfiguration.getSigningThreads();
+        final int queueSize = OcspConfiguration.getSigningQueueSize();
+        for (final Lane lane : new ArrayList<>(lanes.values())) {
+            if (log.isDebugEnabled()) {
+                log.debug("OCSP signing statistics for " + lane.getStatistics());
+            }
+            if (lane.threads != threads || lane.queueSize != queueSize) {
+                lanes.remove(lane.name, lane);
+                lane.executor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ra;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.MetricsRegistry;
+import org.ejbca.config.EjbcaConfiguration;
+
+/**
+ * Key pairs for server-side key generation, generated in advance by background threads.
+ * <p>
+ * There is one pool per key specification in keypairpool.keyspecs, which is filled up to keypairpool.size key pairs by
+ * keypairpool.threads threads. Each key pair is handed out once, and a new one is generated in its place. The key pairs are only
+ * kept in memory. When the pool of a key specification is empty, or the key specification has no pool, the key pair is generated
+ * by the calling thread.
+ *
+ * @version $Id$
+ */
+public enum KeyPairPool {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(KeyPairPool.class);
+
+    /** Statistics for the key pairs of one key specification, exposed for monitoring. */
+    public static class PoolStatistics {
+        private final String name;
+        private final int available;
+        private final int size;
+        private final long hits;
+        private final long misses;
+        private final long generated;
+        private final long failed;
+
+        PoolStatistics(final String name, final int available, final int size, final long hits, final long misses, final long generated,
+                final long failed) {
+            this.name = name;
+            this.available = available;
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.generated = generated;
+            this.failed = failed;
+        }
+
+        /** @return the key specification, e.g. "RSA_4096" */
+        public String getName() { return name; }
+        /** @return the number of key pairs that are ready to be used */
+        public int getAvailable() { return available; }
+        /** @return the number of key pairs the pool is filled up to */
+        public int getSize() { return size; }
+        /** @return the number of key pairs taken from the pool */
+        public long getHits() { return hits; }
+        /** @return the number of times the pool was empty, so the key pair was generated by the caller */
+        public long getMisses() { return misses; }
+        /** @return the number of key pairs generated by the background threads */
+        public long getGenerated() { return generated; }
+        /** @return the number of times the background threads failed to generate a key pair */
+        public long getFailed() { return failed; }
+        /** @return the percentage of key pairs that were taken from the pool */
+        public int getHitRatePercent() { return hits + misses == 0 ? 0 : (int) (hits * 100 / (hits + misses)); }
+
+        @Override
+        public String toString() {
+            return "'" + name + "': available=" + available + "/" + size + ", hits=" + hits + ", misses=" + misses + ", generated=" + generated
+                    + ", failed=" + failed;
+        }
+    }
+
+    private static class Pool {
+        final String name;
+        final String keyAlg;
+        final String keySpec;
+        final int size;
+        final BlockingQueue<KeyPair> keyPairs;
+        /** Number of key pairs that are being generated, or waiting to be generated */
+        final AtomicInteger pending = new AtomicInteger();
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder generated = new LongAdder();
+        final LongAdder failed = new LongAdder();
+
+        Pool(final String name, final String keyAlg, final String keySpec, final int size) {
+            this.name = name;
+            this.keyAlg = keyAlg;
+            this.keySpec = keySpec;
+            this.size = size;
+            this.keyPairs = new ArrayBlockingQueue<>(size);
+        }
+
+        PoolStatistics getStatistics() {
+            return new PoolStatistics(name, keyPairs.size(), size, hits.sum(), misses.sum(), generated.sum(), failed.sum());
+        }
+    }
+
+    private volatile Map<String, Pool> pools = Collections.emptyMap();
+    private volatile ThreadPoolExecutor executor = null;
+
+    KeyPairPool() {
+        MetricsRegistry.INSTANCE.register(KeyPairPool.class.getName(), this::collectMetrics);
+    }
+
+    /**
+     * Gets a key pair from the pool of the key specification, or generates it if the pool is empty or there is no pool. Takes the same
+     * arguments as {@link KeyTools#genKeys(String, String)}.
+     *
+     * @param keySpec the key specification, e.g. "4096" or "secp384r1"
+     * @param keyAlg the key algorithm, e.g. "RSA" or "EC"
+     * @return a key pair that has not been returned before
+     * @throws InvalidAlgorithmParameterException if the key pair could not be generated
+     */
+    public KeyPair getKeyPair(final String keySpec, final String keyAlg) throws InvalidAlgorithmParameterException {
+        final Pool pool = keyAlg == null || keySpec == null ? null : pools.get(getName(keyAlg, keySpec));
+        if (pool != null) {
+            final KeyPair keyPair = pool.keyPairs.poll();
+            fill(pool);
+            if (keyPair != null) {
+                pool.hits.increment();
+                return keyPair;
+            }
+            pool.misses.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("No pre-generated key pair of " + pool.name + " available, generating it now.");
+            }
+        }
+        return KeyTools.genKeys(keySpec, keyAlg);
+    }
+
+    /** @return the current statistics of all key specifications */
+    public List<PoolStatistics> getStatistics() {
+        final List<PoolStatistics> ret = new ArrayList<>();
+        for (final Pool pool : pools.values()) {
+            ret.add(pool.getStatistics());
+        }
+        return ret;
+    }
+
+    /**
+     * Adds the fill level and the hits and misses of each key specification. The hit rate is the rate of hits divided by the rate of
+     * hits and misses.
+     * @param collector where to add the metrics
+     */
+    void collectMetrics(final MetricsRegistry.Collector collector) {
+        for (final PoolStatistics statistics : getStatistics()) {
+            final String name = statistics.getName();
+            collector.gauge("ejbca_keypair_pool_available", "Key pairs generated in advance that are ready to be used.", statistics.getAvailable(),
+                    "keyspec", name);
+            collector.gauge("ejbca_keypair_pool_size", "Number of key pairs the pool is filled up to.", statistics.getSize(), "keyspec", name);
+            collector.counter("ejbca_keypair_pool_hits_total", "Key pairs taken from the pool.", statistics.getHits(), "keyspec", name);
+            collector.counter("ejbca_keypair_pool_misses_total", "Key pairs generated by the caller since the pool was empty.", statistics.getMisses(),
+                    "keyspec", name);
+            collector.counter("ejbca_keypair_pool_generated_total", "Key pairs generated in advance.", statistics.getGenerated(), "keyspec", name);
+            collector.counter("ejbca_keypair_pool_failed_total", "Key pairs that could not be generated in advance.", statistics.getFailed(),
+                    "keyspec", name);
+        }
+    }
+
+    /**
+     * Discards all key pairs and starts filling new pools according to the current configuration.
+     */
+    public synchronized void reload() {
+        shutdown();
+        final int size = EjbcaConfiguration.getKeyPairPoolSize();
+        final String[] keySpecs = EjbcaConfiguration.getKeyPairPoolKeySpecs();
+        if (size == 0 || keySpecs.length == 0) {
+            return;
+        }
+        final Map<String, Pool> newPools = new HashMap<>();
+        for (final String keySpec : keySpecs) {
+            final int separator = keySpec.indexOf('_');
+            if (separator < 1 || separator == keySpec.length() - 1) {
+                log.error("Invalid key specification '" + keySpec + "' in " + EjbcaConfiguration.KEYPAIRPOOL_KEYSPECS
+                        + ", must be written as key algorithm and key specification, e.g. RSA_4096.");
+                continue;
+            }
+            final String keyAlg = keySpec.substring(0, separator);
+            final String spec = keySpec.substring(separator + 1);
+            final String name = getName(keyAlg, spec);
+            newPools.put(name, new Pool(name, keyAlg, spec, size));
+        }
+        final int threads = EjbcaConfiguration.getKeyPairPoolThreads();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, "KeyPairPool-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            // Enrollments that generate their own key pairs should not wait for the pool to be filled
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        };
+        // The queue is bounded by the number of missing key pairs, since there is at most one task per missing key pair
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        pools = Collections.unmodifiableMap(newPools);
+        for (final Pool pool : newPools.values()) {
+            fill(pool);
+        }
+        log.info("Generating " + size + " key pairs each of " + newPools.keySet() + " in advance, using " + threads + " threads.");
+    }
+
+    /** Stops generating key pairs, and discards the key pairs that are ready. */
+    public synchronized void shutdown() {
+        for (final Pool pool : pools.values()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Key pair pool statistics for " + pool.getStatistics());
+            }
+            pool.keyPairs.clear();
+        }
+        pools = Collections.emptyMap();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /** Submits one task for each key pair that is missing from the pool, and not being generated already */
+    private void fill(final Pool pool) {
+        final ThreadPoolExecutor currentExecutor = executor;
+        if (currentExecutor == null) {
+            return;
+        }
+        while (true) {
+            final int pending = pool.pending.get();
+            if (pool.keyPairs.size() + pending >= pool.size) {
+                return;
+            }
+            if (!pool.pending.compareAndSet(pending, pending + 1)) {
+                continue;
+            }
+            try {
+                currentExecutor.execute(() -> generate(pool));
+            } catch (RejectedExecutionException e) {
+                // The pool was shut down by reload() or shutdown()
+                pool.pending.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void generate(final Pool pool) {
+        try {
+            final KeyPair keyPair = KeyTools.genKeys(pool.keySpec, pool.keyAlg);
+            pool.generated.increment();
+            pool.keyPairs.offer(keyPair);
+        } catch (InvalidAlgorithmParameterException | RuntimeException e) {
+            pool.failed.increment();
+            log.error("Failed to generate key pair of " + pool.name + " in advance: " + e.getMessage());
+        } finally {
+            pool.pending.decrementAndGet();
+        }
+    }
+
+    /** @return the name of the pool of the key specification, where EC and ECDSA are the same key algorithm */
+    private static String getName(final String keyAlg, final String keySpec) {
+        final String alg = keyAlg.toUpperCase();
+        return (AlgorithmConstants.KEYALGORITHM_ECDSA.equals(alg) ? AlgorithmConstants.KEYALGORITHM_EC : alg) + "_" + keySpec;
+    }
+}
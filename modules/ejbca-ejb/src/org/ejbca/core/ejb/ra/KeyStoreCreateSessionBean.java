@@ -243,7 +243,7 @@ public class KeyStoreCreateSessionBean implements KeyStoreCreateSessionLocal, Ke
                 }
             }
             // generate new keys.
-            rsaKeys = KeyTools.genKeys(keyspec, keyalg);
+            rsaKeys = KeyPairPool.INSTANCE.getKeyPair(keyspec, keyalg);
     	}
     	X509Certificate cert = null;
     	if ((reusecertificate) && (keyData != null)) {
@@ -330,7 +330,7 @@ public class KeyStoreCreateSessionBean implements KeyStoreCreateSessionLocal, Ke
                 }
             }
             // generate new keys.
-            rsaKeys = KeyTools.genKeys(keyspec, keyalg);
+            rsaKeys = KeyPairPool.INSTANCE.getKeyPair(keyspec, keyalg);
         }
         X509Certificate cert = null;
         if ((reusecertificate) && (keyData != null)) {
@@ -0,0 +1,300 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.era;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+
+import org.apache.log4j.Logger;
+import org.cesecore.util.MetricsRegistry;
+import org.ejbca.config.EjbcaConfiguration;
+
+/**
+ * Sends a read operation to several RA API back ends in parallel, instead of waiting for each back end in turn.
+ * <p>
+ * Only back ends that are available, and support the operation, are called. When there is only one such back end it is called by
+ * the calling thread. Otherwise all back ends are called by the managed executor of the application server, and the caller waits up
+ * to raapi.fanout.timeout milliseconds for each of them. Back ends that time out, are unavailable, or could not be submitted to the
+ * executor, are left out of the result, which is then marked as incomplete.
+ * <p>
+ * Operations that change data must not use this class, since they rely on the back ends being tried one at a time, in order.
+ *
+ * @version $Id$
+ */
+public enum RaMasterApiFanOut {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(RaMasterApiFanOut.class);
+
+    /** Latency statistics for the calls to one type of back end, exposed for monitoring. */
+    public static class BackendStatistics {
+        private final String name;
+        private final long calls;
+        private final long unavailable;
+        private final long timedOut;
+        private final long rejected;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        BackendStatistics(final String name, final long calls, final long unavailable, final long timedOut, final long rejected,
+                final long totalNanos, final long maxNanos) {
+            this.name = name;
+            this.calls = calls;
+            this.unavailable = unavailable;
+            this.timedOut = timedOut;
+            this.rejected = rejected;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /** @return the name of the back end, "local" or the simple class name of a peer back end, e.g. "RaMasterApiPeerUpstreamImpl" */
+        public String getName() { return name; }
+        /** @return the number of calls that have returned or failed, including calls that returned after the caller stopped waiting */
+        public long getCalls() { return calls; }
+        /** @return the number of calls that failed because the back end became unavailable */
+        public long getUnavailable() { return unavailable; }
+        /** @return the number of times the back end was left out of the result since it did not answer in time */
+        public long getTimedOut() { return timedOut; }
+        /** @return the number of times the back end was left out of the result since the executor did not accept the call */
+        public long getRejected() { return rejected; }
+        /** @return the total time of the calls, in nanoseconds */
+        public long getTotalNanos() { return totalNanos; }
+        /** @return the average time of the calls, in microseconds */
+        public long getAverageMicros() { return calls == 0 ? 0 : totalNanos / calls / 1000L; }
+        /** @return the longest time of a call, in microseconds */
+        public long getMaxMicros() { return maxNanos / 1000L; }
+
+        @Override
+        public String toString() {
+            return "'" + name + "': calls=" + calls + ", unavailable=" + unavailable + ", timedOut=" + timedOut + ", rejected=" + rejected + ", averageMicros="
+                    + getAverageMicros() + ", maxMicros=" + getMaxMicros();
+        }
+    }
+
+    /** The results of the back ends that answered, in the same order as the back ends were given. */
+    public static class Result<T> {
+        private final List<T> results;
+        private final boolean incomplete;
+
+        Result(final List<T> results, final boolean incomplete) {
+            this.results = results;
+            this.incomplete = incomplete;
+        }
+
+        /** @return the results of the back ends that answered, in the order the back ends were given. Results may be null. */
+        public List<T> getResults() {
+            return results;
+        }
+
+        /** @return true if a back end was unavailable or did not answer in time, so that there might be more results */
+        public boolean isIncomplete() {
+            return incomplete;
+        }
+    }
+
+    private static class Latency {
+        final LongAdder calls = new LongAdder();
+        final LongAdder unavailable = new LongAdder();
+        final LongAdder timedOut = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+        void record(final long startNanos) {
+            final long nanos = System.nanoTime() - startNanos;
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+    }
+
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    RaMasterApiFanOut() {
+        MetricsRegistry.INSTANCE.register(RaMasterApiFanOut.class.getName(), this::collectMetrics);
+    }
+
+    /**
+     * Calls the operation on all back ends that are available and have at least the given API version, in parallel.
+     *
+     * @param executor the managed executor that calls the back ends, or null to call them one at a time from the calling thread
+     * @param raMasterApis the back ends, in the order the results should be merged
+     * @param minApiVersion the lowest RA API version that supports the operation
+     * @param operation the read operation to perform on each back end
+     * @return the results of the back ends that answered
+     * @throws RuntimeException any other exception than {@link UnsupportedOperationException} or {@link RaMasterBackendUnavailableException}
+     *      thrown by a back end, like when the back ends are called one at a time
+     */
+    public <T> Result<T> invoke(final ManagedExecutorService executor, final RaMasterApi[] raMasterApis, final int minApiVersion, final Function<RaMasterApi, T> operation) {
+        final List<RaMasterApi> available = new ArrayList<>(raMasterApis.length);
+        for (final RaMasterApi raMasterApi : raMasterApis) {
+            if (raMasterApi.isBackendAvailable() && (minApiVersion <= 0 || raMasterApi.getApiVersion() >= minApiVersion)) {
+                available.add(raMasterApi);
+            }
+        }
+        final List<T> results = new ArrayList<>(available.size());
+        boolean incomplete = false;
+        if (available.size() == 1 || executor == null) {
+            for (final RaMasterApi raMasterApi : available) {
+                try {
+                    results.add(call(raMasterApi, operation));
+                } catch (UnsupportedOperationException e) {
+                    // Back end does not implement the operation
+                } catch (RaMasterBackendUnavailableException e) {
+                    incomplete = true;
+                }
+            }
+            return new Result<>(results, incomplete);
+        }
+        final List<Future<T>> futures = new ArrayList<>(available.size());
+        for (final RaMasterApi raMasterApi : available) {
+            try {
+                futures.add(executor.submit(() -> call(raMasterApi, operation)));
+            } catch (RejectedExecutionException e) {
+                // The back end is not called by the calling thread instead, since such a call could not be abandoned after raapi.fanout.timeout
+                getLatency(raMasterApi).rejected.increment();
+                log.info("RA API back end " + getName(raMasterApi) + " could not be called since the executor is busy. Returning the results of the other back ends.");
+                futures.add(null);
+                incomplete = true;
+            }
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EjbcaConfiguration.getRaApiFanOutTimeout());
+        for (int i = 0; i < futures.size(); i++) {
+            final Future<T> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            try {
+                results.add(future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                getLatency(available.get(i)).timedOut.increment();
+                log.info("RA API back end " + getName(available.get(i)) + " did not answer within " + EjbcaConfiguration.getRaApiFanOutTimeout()
+                        + " ms. Returning the results of the other back ends.");
+                incomplete = true;
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof UnsupportedOperationException) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Trouble during back end invocation: " + cause.getMessage());
+                    }
+                } else if (cause instanceof RaMasterBackendUnavailableException) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Timeout during back end invocation.", cause);
+                    }
+                    incomplete = true;
+                } else if (cause instanceof RuntimeException) {
+                    cancelAll(futures);
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    cancelAll(futures);
+                    throw (Error) cause;
+                } else {
+                    cancelAll(futures);
+                    throw new IllegalStateException(cause);
+                }
+            } catch (CancellationException e) {
+                incomplete = true;
+            } catch (InterruptedException e) {
+                cancelAll(futures);
+                Thread.currentThread().interrupt();
+                incomplete = true;
+                break;
+            }
+        }
+        return new Result<>(results, incomplete);
+    }
+
+    /** @return the latency statistics of each type of back end that has been called in parallel with other back ends */
+    public List<BackendStatistics> getStatistics() {
+        final List<BackendStatistics> ret = new ArrayList<>();
+        for (final Map.Entry<String, Latency> entry : latencies.entrySet()) {
+            final Latency latency = entry.getValue();
+            ret.add(new BackendStatistics(entry.getKey(), latency.calls.sum(), latency.unavailable.sum(), latency.timedOut.sum(),
+                    latency.rejected.sum(), latency.totalNanos.sum(), latency.maxNanos.get()));
+        }
+        return ret;
+    }
+
+    /** Adds the statistics of each type of back end to the metrics served by the metrics servlet */
+    void collectMetrics(final MetricsRegistry.Collector collector) {
+        for (final BackendStatistics statistics : getStatistics()) {
+            final String name = statistics.getName();
+            collector.counter("ejbca_raapi_fanout_calls_total", "Calls to RA API back ends that have returned or failed.", statistics.getCalls(),
+                    "backend", name);
+            collector.counter("ejbca_raapi_fanout_unavailable_total", "Calls that failed since the RA API back end became unavailable.",
+                    statistics.getUnavailable(), "backend", name);
+            collector.counter("ejbca_raapi_fanout_timed_out_total", "RA API back ends left out of a result since they did not answer within raapi.fanout.timeout.",
+                    statistics.getTimedOut(), "backend", name);
+            collector.counter("ejbca_raapi_fanout_rejected_total", "RA API back ends left out of a result since the executor did not accept the call.",
+                    statistics.getRejected(), "backend", name);
+            collector.counter("ejbca_raapi_fanout_seconds_total", "Time spent in calls to RA API back ends.", statistics.getTotalNanos() / 1e9,
+                    "backend", name);
+            collector.gauge("ejbca_raapi_fanout_max_seconds", "Longest call to the RA API back end.", statistics.getMaxMicros() / 1e6,
+                    "backend", name);
+        }
+    }
+
+    /** Clears the statistics. For tests only. */
+    void clearStatistics() {
+        latencies.clear();
+    }
+
+    private <T> T call(final RaMasterApi raMasterApi, final Function<RaMasterApi, T> operation) {
+        final Latency latency = getLatency(raMasterApi);
+        final long startNanos = System.nanoTime();
+        try {
+            return operation.apply(raMasterApi);
+        } catch (RaMasterBackendUnavailableException e) {
+            latency.unavailable.increment();
+            throw e;
+        } finally {
+            latency.record(startNanos);
+        }
+    }
+
+    private Latency getLatency(final RaMasterApi raMasterApi) {
+        return latencies.computeIfAbsent(getName(raMasterApi), name -> new Latency());
+    }
+
+    /** @return a name of the back end that does not depend on the proxy classes of the application server */
+    private static String getName(final RaMasterApi raMasterApi) {
+        if (raMasterApi instanceof RaMasterApiSessionLocal) {
+            return "local";
+        }
+        // Peer back ends are plain classes, see RaMasterApiProxyBean.postConstruct
+        return raMasterApi.getClass().getSimpleName();
+    }
+
+    private static <T> void cancelAll(final List<Future<T>> futures) {
+        for (final Future<T> future : futures) {
+            // Calls that the executor rejected have no future
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+}
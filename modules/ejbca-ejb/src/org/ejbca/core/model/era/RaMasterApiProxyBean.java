@@ -43,8 +43,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.DependsOn;
@@ -55,6 +57,7 @@ import javax.ejb.Singleton;
 import javax.ejb.Startup;
 import javax.ejb.TransactionManagement;
 import javax.ejb.TransactionManagementType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
@@ -172,6 +175,8 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     /** Used to store key recovery data <b>locally</b> on this peer. Should only be used for this purpose. */
     @EJB
     private KeyRecoverySessionLocal localNodeKeyRecoverySession;
+    @Resource
+    private ManagedExecutorService managedExecutorService;
 
     /** Two arrays of Master API implementations (RA/VA/CA hosts connected over Peers).
      * You can have more than one level of proxy, i.e. "Satellite RA -> DMZ RA -> CA"
@@ -240,6 +245,14 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
         this.raMasterApisLocalFirst = implementations.toArray(new RaMasterApi[0]);
     }
 
+    /**
+     * Performs a read operation on all available back ends in parallel, see {@link RaMasterApiFanOut}.
+     * The results are returned in local first order, so they are merged in the same order as when the back ends are called one at a time.
+     */
+    private <T> RaMasterApiFanOut.Result<T> fanOut(final int minApiVersion, final Function<RaMasterApi, T> operation) {
+        return RaMasterApiFanOut.INSTANCE.invoke(managedExecutorService, raMasterApisLocalFirst, minApiVersion, operation);
+    }
+
     // Use in tests only!
     @Override
     public void deferLocalForTest() {
@@ -370,15 +383,9 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     @Override
     public List<CAInfo> getAuthorizedCas(final AuthenticationToken authenticationToken) {
         final Map<Integer, CAInfo> caInfoMap = new HashMap<>();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    for (final CAInfo caInfo : raMasterApi.getAuthorizedCas(authenticationToken)) {
-                        caInfoMap.put(caInfo.getCAId(), caInfo);
-                    }
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
+        for (final List<CAInfo> caInfos : fanOut(0, raMasterApi -> raMasterApi.getAuthorizedCas(authenticationToken)).getResults()) {
+            for (final CAInfo caInfo : caInfos) {
+                caInfoMap.put(caInfo.getCAId(), caInfo);
             }
         }
         return new ArrayList<>(caInfoMap.values());
@@ -421,15 +428,9 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     @Override
     public List<Role> getAuthorizedRoles(final AuthenticationToken authenticationToken) {
         final Map<Integer, Role> roleMap = new HashMap<>();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable() && raMasterApi.getApiVersion() >= 1) {
-                try {
-                    for (final Role role : raMasterApi.getAuthorizedRoles(authenticationToken)) {
-                        roleMap.put(role.getRoleId(), role);
-                    }
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
+        for (final List<Role> roles : fanOut(1, raMasterApi -> raMasterApi.getAuthorizedRoles(authenticationToken)).getResults()) {
+            for (final Role role : roles) {
+                roleMap.put(role.getRoleId(), role);
             }
         }
         return new ArrayList<>(roleMap.values());
@@ -455,14 +456,8 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     @Override
     public List<String> getAuthorizedRoleNamespaces(final AuthenticationToken authenticationToken, final int roleId) {
         final Set<String> namespaceSet = new HashSet<>();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable() && raMasterApi.getApiVersion() >= 1) {
-                try {
-                    namespaceSet.addAll(raMasterApi.getAuthorizedRoleNamespaces(authenticationToken, roleId));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
+        for (final List<String> namespaces : fanOut(1, raMasterApi -> raMasterApi.getAuthorizedRoleNamespaces(authenticationToken, roleId)).getResults()) {
+            namespaceSet.addAll(namespaces);
         }
         return new ArrayList<>(namespaceSet);
     }
@@ -701,14 +696,13 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaRequestsSearchResponse searchForApprovalRequests(AuthenticationToken authenticationToken,
             RaRequestsSearchRequest raRequestsSearchRequest) {
         final RaRequestsSearchResponse searchResponse = new RaRequestsSearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    searchResponse.merge(raMasterApi.searchForApprovalRequests(authenticationToken, raRequestsSearchRequest));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
+        final RaMasterApiFanOut.Result<RaRequestsSearchResponse> result = fanOut(0,
+                raMasterApi -> raMasterApi.searchForApprovalRequests(authenticationToken, raRequestsSearchRequest));
+        for (final RaRequestsSearchResponse response : result.getResults()) {
+            searchResponse.merge(response);
+        }
+        if (result.isIncomplete()) {
+            searchResponse.setMightHaveMoreResults(true);
         }
         return searchResponse;
     }
@@ -786,23 +780,14 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaCertificateSearchResponse searchForCertificates(AuthenticationToken authenticationToken,
             RaCertificateSearchRequest raCertificateSearchRequest) {
         final RaCertificateSearchResponse ret = new RaCertificateSearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    ret.merge(raMasterApi.searchForCertificates(authenticationToken, raCertificateSearchRequest));
-                } catch (UnsupportedOperationException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Trouble during back end invocation: " + e.getMessage());
-                    }
-                    // Just try next implementation
-                } catch (RaMasterBackendUnavailableException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Timeout during back end invocation.", e);
-                    }
-                    // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
-                    ret.setMightHaveMoreResults(true);
-                }
-            }
+        final RaMasterApiFanOut.Result<RaCertificateSearchResponse> result = fanOut(0,
+                raMasterApi -> raMasterApi.searchForCertificates(authenticationToken, raCertificateSearchRequest));
+        for (final RaCertificateSearchResponse response : result.getResults()) {
+            ret.merge(response);
+        }
+        if (result.isIncomplete()) {
+            // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
+            ret.setMightHaveMoreResults(true);
         }
         return ret;
     }
@@ -811,21 +796,19 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaCertificateSearchResponseV2 searchForCertificatesV2(AuthenticationToken authenticationToken,
             RaCertificateSearchRequestV2 raCertificateSearchRequest) {
         final RaCertificateSearchResponseV2 ret = new RaCertificateSearchResponseV2();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    ret.merge(raMasterApi.searchForCertificatesV2(authenticationToken, raCertificateSearchRequest));
-                } catch (UnsupportedOperationException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Trouble during back end invocation: " + e.getMessage());
-                    }
-                    // Just try next implementation
-                } catch (RaMasterBackendUnavailableException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Timeout during back end invocation.", e);
-                    }
-                }
-            }
+        final boolean usePageCursor = raCertificateSearchRequest.getPageCursor() != null && raCertificateSearchRequest.getPageNumber() != -1;
+        // Back ends before version 15 do not support certificate searches with page cursors
+        final RaMasterApiFanOut.Result<RaCertificateSearchResponseV2> result = fanOut(usePageCursor ? 15 : 0,
+                raMasterApi -> raMasterApi.searchForCertificatesV2(authenticationToken, raCertificateSearchRequest));
+        for (final RaCertificateSearchResponseV2 response : result.getResults()) {
+            ret.merge(response);
+        }
+        if (result.isIncomplete()) {
+            // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
+            ret.setMightHaveMoreResults(true);
+        }
+        if (usePageCursor) {
+            ret.limitToPage(raCertificateSearchRequest.getMaxResults());
         }
         return ret;
     }
@@ -843,14 +826,13 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaRoleSearchResponse searchForRoles(AuthenticationToken authenticationToken,
             RaRoleSearchRequest raRoleSearchRequest) {
         final RaRoleSearchResponse ret = new RaRoleSearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable() && raMasterApi.getApiVersion() >= 1) {
-                try {
-                    ret.merge(raMasterApi.searchForRoles(authenticationToken, raRoleSearchRequest));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
+        final RaMasterApiFanOut.Result<RaRoleSearchResponse> result = fanOut(1,
+                raMasterApi -> raMasterApi.searchForRoles(authenticationToken, raRoleSearchRequest));
+        for (final RaRoleSearchResponse response : result.getResults()) {
+            ret.merge(response);
+        }
+        if (result.isIncomplete()) {
+            ret.setMightHaveMoreResults(true);
         }
         return ret;
     }
@@ -859,14 +841,13 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaRoleMemberSearchResponse searchForRoleMembers(AuthenticationToken authenticationToken,
             RaRoleMemberSearchRequest raRoleMemberSearchRequest) {
         final RaRoleMemberSearchResponse ret = new RaRoleMemberSearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable() && raMasterApi.getApiVersion() >= 1) {
-                try {
-                    ret.merge(raMasterApi.searchForRoleMembers(authenticationToken, raRoleMemberSearchRequest));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
+        final RaMasterApiFanOut.Result<RaRoleMemberSearchResponse> result = fanOut(1,
+                raMasterApi -> raMasterApi.searchForRoleMembers(authenticationToken, raRoleMemberSearchRequest));
+        for (final RaRoleMemberSearchResponse response : result.getResults()) {
+            ret.merge(response);
+        }
+        if (result.isIncomplete()) {
+            ret.setMightHaveMoreResults(true);
         }
         return ret;
     }
@@ -875,23 +856,14 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaEndEntitySearchResponse searchForEndEntities(AuthenticationToken authenticationToken,
             RaEndEntitySearchRequest raEndEntitySearchRequest) {
         final RaEndEntitySearchResponse ret = new RaEndEntitySearchResponse();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    ret.merge(raMasterApi.searchForEndEntities(authenticationToken, raEndEntitySearchRequest));
-                } catch (UnsupportedOperationException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Trouble during back end invocation: " + e.getMessage());
-                    }
-                    // Just try next implementation
-                } catch (RaMasterBackendUnavailableException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Timeout during back end invocation.", e);
-                    }
-                    // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
-                    ret.setMightHaveMoreResults(true);
-                }
-            }
+        final RaMasterApiFanOut.Result<RaEndEntitySearchResponse> result = fanOut(0,
+                raMasterApi -> raMasterApi.searchForEndEntities(authenticationToken, raEndEntitySearchRequest));
+        for (final RaEndEntitySearchResponse response : result.getResults()) {
+            ret.merge(response);
+        }
+        if (result.isIncomplete()) {
+            // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
+            ret.setMightHaveMoreResults(true);
         }
         return ret;
     }
@@ -900,25 +872,15 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     public RaEndEntitySearchResponseV2 searchForEndEntitiesV2(AuthenticationToken authenticationToken, 
             RaEndEntitySearchRequestV2 raEndEntitySearchRequestV2) {
         final RaEndEntitySearchResponseV2 retMerged = new RaEndEntitySearchResponseV2();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable() && raMasterApi.getApiVersion() >= 14) {
-                try {
-                    RaEndEntitySearchResponseV2 retNode = raMasterApi.searchForEndEntitiesV2(authenticationToken, raEndEntitySearchRequestV2);
-                    retMerged.merge(retNode);
-                    retMerged.setSearchSummary(retNode.getSearchSummary());
-                } catch (UnsupportedOperationException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Trouble during back end invocation: " + e.getMessage());
-                    }
-                    // Just try next implementation
-                } catch (RaMasterBackendUnavailableException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Timeout during back end invocation.", e);
-                    }
-                    // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
-                    retMerged.setMightHaveMoreResults(true);
-                }
-            }
+        final RaMasterApiFanOut.Result<RaEndEntitySearchResponseV2> result = fanOut(14,
+                raMasterApi -> raMasterApi.searchForEndEntitiesV2(authenticationToken, raEndEntitySearchRequestV2));
+        for (final RaEndEntitySearchResponseV2 retNode : result.getResults()) {
+            retMerged.merge(retNode);
+            retMerged.setSearchSummary(retNode.getSearchSummary());
+        }
+        if (result.isIncomplete()) {
+            // If the back end timed out due to a too heavy search we want to allow the client to retry with more fine grained criteria
+            retMerged.setMightHaveMoreResults(true);
         }
         retMerged.sortMergedMembers();
         return retMerged;
@@ -928,14 +890,8 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     @Override
     public Map<Integer, String> getAuthorizedCertificateProfileIdsToNameMap(final AuthenticationToken authenticationToken) {
         final Map<Integer, String> ret = new HashMap<>();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    ret.putAll(raMasterApi.getAuthorizedCertificateProfileIdsToNameMap(authenticationToken));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
+        for (final Map<Integer, String> result : fanOut(0, raMasterApi -> raMasterApi.getAuthorizedCertificateProfileIdsToNameMap(authenticationToken)).getResults()) {
+            ret.putAll(result);
         }
         return ret;
     }
@@ -943,14 +899,8 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     @Override
     public Map<Integer, String> getAuthorizedEndEntityProfileIdsToNameMap(final AuthenticationToken authenticationToken) {
         final Map<Integer, String> ret = new HashMap<>();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    ret.putAll(raMasterApi.getAuthorizedEndEntityProfileIdsToNameMap(authenticationToken));
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
-            }
+        for (final Map<Integer, String> result : fanOut(0, raMasterApi -> raMasterApi.getAuthorizedEndEntityProfileIdsToNameMap(authenticationToken)).getResults()) {
+            ret.putAll(result);
         }
         return ret;
     }
@@ -958,16 +908,9 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     @Override
     public IdNameHashMap<EndEntityProfile> getAuthorizedEndEntityProfiles(final AuthenticationToken authenticationToken, final String endEntityAccessRule) {
         final IdNameHashMap<EndEntityProfile> ret = new IdNameHashMap<>();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    final IdNameHashMap<EndEntityProfile> result = raMasterApi.getAuthorizedEndEntityProfiles(authenticationToken, endEntityAccessRule);
-                    if (result != null) {
-                        ret.putAll(result);
-                    }
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
+        for (final IdNameHashMap<EndEntityProfile> result : fanOut(0, raMasterApi -> raMasterApi.getAuthorizedEndEntityProfiles(authenticationToken, endEntityAccessRule)).getResults()) {
+            if (result != null) {
+                ret.putAll(result);
             }
         }
         return ret;
@@ -976,16 +919,9 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     @Override
     public IdNameHashMap<CAInfo> getAuthorizedCAInfos(AuthenticationToken authenticationToken) {
         final IdNameHashMap<CAInfo> ret = new IdNameHashMap<>();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    final IdNameHashMap<CAInfo> result = raMasterApi.getAuthorizedCAInfos(authenticationToken);
-                    if (result != null) {
-                        ret.putAll(result);
-                    }
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
+        for (final IdNameHashMap<CAInfo> result : fanOut(0, raMasterApi -> raMasterApi.getAuthorizedCAInfos(authenticationToken)).getResults()) {
+            if (result != null) {
+                ret.putAll(result);
             }
         }
         return ret;
@@ -1034,16 +970,9 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
     @Override
     public IdNameHashMap<CertificateProfile> getAuthorizedCertificateProfiles(AuthenticationToken authenticationToken) {
         final IdNameHashMap<CertificateProfile> ret = new IdNameHashMap<>();
-        for (final RaMasterApi raMasterApi : raMasterApisLocalFirst) {
-            if (raMasterApi.isBackendAvailable()) {
-                try {
-                    final IdNameHashMap<CertificateProfile> result = raMasterApi.getAuthorizedCertificateProfiles(authenticationToken);
-                    if (result != null) {
-                        ret.putAll(result);
-                    }
-                } catch (UnsupportedOperationException | RaMasterBackendUnavailableException e) {
-                    // Just try next implementation
-                }
+        for (final IdNameHashMap<CertificateProfile> result : fanOut(0, raMasterApi -> raMasterApi.getAuthorizedCertificateProfiles(authenticationToken)).getResults()) {
+            if (result != null) {
+                ret.putAll(result);
             }
         }
         return ret;
@@ -101,6 +101,7 @@ import org.cesecore.certificates.certificate.CertificateCreateException;
 import org.cesecore.certificates.certificate.CertificateCreateSessionLocal;
 import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.certificate.CertificateRevokeException;
+import org.cesecore.certificates.certificate.CertificateSearchIndex;
 import org.cesecore.certificates.certificate.CertificateStatus;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.certificate.CertificateWrapper;
@@ -355,9 +356,10 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
      * <tr><th>12<td>=<td>7.5.1
      * <tr><th>13<td>=<td>7.9.0
      * <tr><th>14<td>=<td>7.10.0
+     * <tr><th>15<td>=<td>7.11.0
      * </table>
      */
-    private static final int RA_MASTER_API_VERSION = 14;
+    private static final int RA_MASTER_API_VERSION = 15;
 
     /** Cached value of an active CA, so we don't have to list through all CAs every time as this is a critical path executed every time */
     private int activeCaIdCache = -1;
@@ -1098,7 +1100,10 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         }
 
         // Copies the search certificates V1 request type to V2.
-        final Query query = createQuery(authenticationToken, new RaCertificateSearchRequestV2(request), false, issuerDns, authorizedLocalCaIds, authorizedCpIds, accessAnyCpAvailable, authorizedEepIds, accessAnyEepAvailable);
+        final RaCertificateSearchRequestV2 requestV2 = new RaCertificateSearchRequestV2(request);
+        final IndexedFingerprints indexedFingerprints = findInCertificateSearchIndex(requestV2);
+        final Query query = createQuery(authenticationToken, requestV2, false, issuerDns, authorizedLocalCaIds, authorizedCpIds, accessAnyCpAvailable, 
+                authorizedEepIds, accessAnyEepAvailable, indexedFingerprints);
         int maxResults = Math.min(getGlobalCesecoreConfiguration().getMaximumQueryCount(), request.getMaxResults());
         int offset = request.getPageNumber() * maxResults;
         query.setMaxResults(maxResults);
@@ -1201,14 +1206,19 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         }
 
         final boolean countOnly = request.getPageNumber() == -1;
-        final Query query = createQuery(authenticationToken, request, countOnly, issuerDns, authorizedLocalCaIds, authorizedCpIds, accessAnyCpAvailable, authorizedEepIds, accessAnyEepAvailable);;
+        final IndexedFingerprints indexedFingerprints = findInCertificateSearchIndex(request);
+        final Query query = createQuery(authenticationToken, request, countOnly, issuerDns, authorizedLocalCaIds, authorizedCpIds, accessAnyCpAvailable, 
+                authorizedEepIds, accessAnyEepAvailable, indexedFingerprints);
         int maxResults = -1;
         int offset = -1;
         if (!countOnly) {
             maxResults = Math.min(getGlobalCesecoreConfiguration().getMaximumQueryCount(), request.getMaxResults());
-            offset = (request.getPageNumber() - 1) * maxResults;
             query.setMaxResults(maxResults);
-            query.setFirstResult(offset);
+            // With a page cursor, the query itself starts after the last certificate of the previous page
+            if (request.getPageCursor() == null) {
+                offset = (request.getPageNumber() - 1) * maxResults;
+                query.setFirstResult(offset);
+            }
         }
 
         /* Try to use the non-portable hint (depends on DB and JDBC driver) to specify how long in milliseconds the query may run. Possible behaviors:
@@ -1233,8 +1243,12 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
                 for (final String fingerprint : fingerprints) {
                     response.getCdws().add(certificateStoreSession.getCertificateData(fingerprint));
                 }
+                if (request.getPageCursor() != null && !fingerprints.isEmpty() && fingerprints.size() == maxResults) {
+                    response.setNextPageCursor(fingerprints.get(fingerprints.size() - 1));
+                }
                 if (log.isDebugEnabled()) {
-                    log.debug("Certificate search query: page " + request.getPageNumber() + ", page size " + maxResults + ", count " + fingerprints.size() + " results. queryTimeout=" + queryTimeout + "ms");
+                    log.debug("Certificate search query: page " + (request.getPageCursor() == null ? request.getPageNumber() : "after '" + request.getPageCursor() + "'") 
+                            + ", page size " + maxResults + ", count " + fingerprints.size() + " results. queryTimeout=" + queryTimeout + "ms");
                 }
             }
         } catch (QueryTimeoutException e) {
@@ -1259,10 +1273,117 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         return response;
     }
     
+    /** Certificates found in the certificate search index */
+    static class IndexedFingerprints {
+        private final Collection<String> fingerprints;
+        private final long indexedUntil;
+
+        IndexedFingerprints(final Collection<String> fingerprints, final long indexedUntil) {
+            this.fingerprints = fingerprints;
+            this.indexedUntil = indexedUntil;
+        }
+
+        /** @return the fingerprints of a superset of the indexed certificates that match the search strings */
+        Collection<String> getFingerprints() {
+            return fingerprints;
+        }
+
+        /** @return the update time at or after which certificates might be missing from the index, and must be searched for in the database */
+        long getIndexedUntil() {
+            return indexedUntil;
+        }
+    }
+
+    /**
+     * Looks up the certificates that can match the search strings of a request in the certificate search index. This is only possible
+     * when all search strings are exact values without wildcards, since the index does not support partial matches.
+     * <p>
+     * Certificates stored by other nodes are only added to the index when it is refreshed, and certificates stored by this node after
+     * the transaction has committed, so the database query must also include the certificates updated since the last completed refresh.
+     * A search string that matches nothing in the index is searched for in the database instead of returning an empty result.
+     *
+     * @return the certificates in the index that can match the search strings, or null if the index can not be used or has no match
+     */
+    IndexedFingerprints findInCertificateSearchIndex(final RaCertificateSearchRequestV2 request) {
+        final CertificateSearchIndex searchIndex = CertificateSearchIndex.INSTANCE;
+        if (!searchIndex.isLoaded() || !StringUtils.isEmpty(request.getExternalAccountIdSearchString())) {
+            return null;
+        }
+        final String subjectDnSearchString = request.getSubjectDnSearchString();
+        final String subjectAnSearchString = request.getSubjectAnSearchString();
+        final String usernameSearchString = request.getUsernameSearchString();
+        if ((!subjectDnSearchString.isEmpty() && !isExactIndexSearch(subjectDnSearchString, request.isSubjectDnSearchExact())) ||
+                (!subjectAnSearchString.isEmpty() && !isExactIndexSearch(subjectAnSearchString, request.isSubjectAnSearchExact())) ||
+                (!usernameSearchString.isEmpty() && !isExactIndexSearch(usernameSearchString, request.isUsernameSearchExact()))) {
+            return null;
+        }
+        final String serialNumberSearchStringFromDec = request.getSerialNumberSearchStringFromDec();
+        final String serialNumberSearchStringFromHex = request.getSerialNumberSearchStringFromHex();
+        if (subjectDnSearchString.isEmpty() && subjectAnSearchString.isEmpty() && usernameSearchString.isEmpty() &&
+                serialNumberSearchStringFromDec.isEmpty() && serialNumberSearchStringFromHex.isEmpty()) {
+            // No search strings, so there is nothing to narrow down the search with
+            return null;
+        }
+        // Add certificates stored by other nodes since the last refresh, before they are looked up
+        final long now = System.currentTimeMillis();
+        final long refreshStartTime = searchIndex.getRefreshStartTime(now);
+        if (refreshStartTime >= 0) {
+            try {
+                certificateStoreSession.refreshCertificateSearchIndex(refreshStartTime);
+                searchIndex.refreshCompleted(now);
+            } catch (RuntimeException e) {
+                searchIndex.refreshFailed(refreshStartTime);
+                log.info("Failed to refresh the certificate search index, searching without it: " + e.getMessage());
+                return null;
+            }
+        }
+        // Read before the lookups, so that certificates added by a concurrent refresh are not left out by both
+        final long indexedUntil = searchIndex.getIndexedUntil();
+        final List<List<String>> results = new ArrayList<>();
+        if (!subjectDnSearchString.isEmpty()) {
+            results.add(searchIndex.findBySubjectDn(subjectDnSearchString));
+        }
+        if (!subjectAnSearchString.isEmpty()) {
+            results.add(searchIndex.findBySubjectAltName(subjectAnSearchString));
+        }
+        if (!usernameSearchString.isEmpty()) {
+            results.add(searchIndex.findByUsername(usernameSearchString));
+        }
+        if (!serialNumberSearchStringFromDec.isEmpty()) {
+            results.add(searchIndex.findBySerialNumber(serialNumberSearchStringFromDec));
+        }
+        if (!serialNumberSearchStringFromHex.isEmpty()) {
+            results.add(searchIndex.findBySerialNumber(serialNumberSearchStringFromHex));
+        }
+        // The search strings are combined with OR
+        final Set<String> fingerprints = new HashSet<>();
+        for (final List<String> result : results) {
+            if (result == null) {
+                return null;
+            }
+            fingerprints.addAll(result);
+            if (fingerprints.size() > CertificateSearchIndex.MAX_FINGERPRINTS_PER_VALUE) {
+                return null;
+            }
+        }
+        if (fingerprints.isEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug("No certificates in the certificate search index match the search strings, searching the database.");
+            }
+            return null;
+        }
+        return new IndexedFingerprints(fingerprints, indexedUntil);
+    }
+
+    /** @return true if the search string will be compared for equality by the LIKE expression of the search query */
+    private boolean isExactIndexSearch(final String searchString, final boolean exact) {
+        return exact && searchString.indexOf('%') == -1 && searchString.indexOf('_') == -1;
+    }
+
     private Query createQuery(final AuthenticationToken authenticationToken, final RaCertificateSearchRequestV2 request, final boolean countOnly, 
             final List<String> issuerDns, final List<Integer> authorizedLocalCaIds, 
             final List<Integer> authorizedCpIds, final boolean accessAnyCpAvailable, 
-            final Collection<Integer> authorizedEepIds, final boolean accessAnyEepAvailable) {
+            final Collection<Integer> authorizedEepIds, final boolean accessAnyEepAvailable, final IndexedFingerprints indexedFingerprints) {
         final String subjectDnSearchString = request.getSubjectDnSearchString();
         final String subjectAnSearchString = request.getSubjectAnSearchString();
         final String usernameSearchString = request.getUsernameSearchString();
@@ -1276,6 +1397,15 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             sb.append("a.fingerprint");
         }
         sb.append(" FROM CertificateData a WHERE (a.issuerDN IN (:issuerDN))");
+        if (indexedFingerprints != null) {
+            // Narrowed down by the certificate search index, so the database can look up the certificates by primary key.
+            // Recently updated certificates might not be indexed yet, and are found by update time.
+            sb.append(" AND (a.fingerprint IN (:fingerprints) OR a.updateTime >= :indexedUntil)");
+        }
+        final boolean usePageCursor = !countOnly && request.getPageCursor() != null;
+        if (usePageCursor && !request.getPageCursor().isEmpty()) {
+            sb.append(" AND (a.fingerprint > :pageCursor)");
+        }
         if (!subjectDnSearchString.isEmpty() || !subjectAnSearchString.isEmpty() || !usernameSearchString.isEmpty() ||
                 !serialNumberSearchStringFromDec.isEmpty() || !serialNumberSearchStringFromHex.isEmpty()
                 || !StringUtils.isEmpty(externalAccountIdSearchString)) {
@@ -1369,7 +1499,10 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         
         String orderProperty = request.getOrderProperty();
         String orderOperation = request.getOrderOperation();
-        if (!countOnly && StringUtils.isNotBlank(orderProperty) && StringUtils.isNotBlank(orderOperation)) {
+        if (usePageCursor) {
+            // Keyset pagination over the primary key
+            sb.append(" ORDER BY a.fingerprint ASC");
+        } else if (!countOnly && StringUtils.isNotBlank(orderProperty) && StringUtils.isNotBlank(orderOperation)) {
             orderOperation = orderOperation.trim();
             if("ASC".equalsIgnoreCase(orderOperation) || "DESC".equalsIgnoreCase(orderOperation)) {
                 orderProperty = mapOrderColumn(orderProperty);
@@ -1383,6 +1516,13 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         
         final Query query = entityManager.createQuery(sb.toString());
         query.setParameter("issuerDN", issuerDns);
+        if (indexedFingerprints != null) {
+            query.setParameter("fingerprints", indexedFingerprints.getFingerprints());
+            query.setParameter("indexedUntil", indexedFingerprints.getIndexedUntil());
+        }
+        if (usePageCursor && !request.getPageCursor().isEmpty()) {
+            query.setParameter("pageCursor", request.getPageCursor());
+        }
         if (!accessAnyCpAvailable || !request.getCpIds().isEmpty()) {
             query.setParameter("certificateProfileId", authorizedCpIds);
         }
@@ -41,6 +41,7 @@ import org.cesecore.certificates.ca.IllegalNameException;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.CertificateInfo;
 import org.cesecore.certificates.certificate.CertificateStoreSession;
+import org.cesecore.certificates.certificate.VerifiedSignerCache;
 import org.cesecore.certificates.certificate.exception.CertificateSerialNumberException;
 import org.cesecore.certificates.certificateprofile.CertificateProfile;
 import org.cesecore.certificates.certificateprofile.CertificateProfileSession;
@@ -339,22 +340,38 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
                 return false;
             }
 
-            // Check that extraCert is in the Database
-            final CertificateInfo certinfo = certSession.getCertificateInfo(CertTools.getFingerprintAsString(extraCert));
-            if (WebConfiguration.getRequireAdminCertificateInDatabase() && certinfo == null) {
-                this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be " +
-                            "found in the database. Start EJBCA with 'web.reqcertindb=false' to disable this check.";
-                return false;
-            }
+            final String fingerprint = CertTools.getFingerprintAsString(extraCert);
+            final VerifiedSignerCache.Entry verifiedSigner = VerifiedSignerCache.INSTANCE.get(fingerprint, cainfo.getCAId(), cainfo.getCertificateChain());
+            if (verifiedSigner != null && verifiedSigner.getAuthenticationToken() != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("The certificate in the extraCert field has already been verified with CA '" + cainfo.getName() + "'.");
+                }
+                reqAuthToken = verifiedSigner.getAuthenticationToken();
+            } else {
+                final long cacheGeneration = VerifiedSignerCache.INSTANCE.getGeneration();
+                // Check that extraCert is in the Database
+                final CertificateInfo certinfo = certSession.getCertificateInfo(fingerprint);
+                if (WebConfiguration.getRequireAdminCertificateInDatabase() && certinfo == null) {
+                    this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be " +
+                                "found in the database. Start EJBCA with 'web.reqcertindb=false' to disable this check.";
+                    return false;
+                }
 
-            if (certinfo != null && !isExtraCertActive(certinfo)) {
-                this.errorMessage = "The certificate attached to the PKI message in the extraCert field is revoked.";
-                return false;
-            }
+                if (certinfo != null && !isExtraCertActive(certinfo)) {
+                    this.errorMessage = "The certificate attached to the PKI message in the extraCert field is revoked.";
+                    return false;
+                }
 
-            // More extraCert verifications
-            if(!isCertListValidAndIssuedByCA(extraCertPath, cainfo)) {
-                return false;
+                // More extraCert verifications
+                if(!isCertListValidAndIssuedByCA(extraCertPath, cainfo)) {
+                    return false;
+                }
+
+                reqAuthToken = authenticateExtraCert();
+                if (reqAuthToken != null) {
+                    VerifiedSignerCache.INSTANCE.put(cacheGeneration, fingerprint, cainfo.getCAId(), cainfo.getCertificateChain(), extraCertPath,
+                            certinfo != null ? certinfo.getUsername() : null, reqAuthToken);
+                }
             }
 
             // Check that extraCert belong to an admin with sufficient access rights
@@ -404,20 +421,35 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
 
                 // Get the CA to use for the authentication
                 CAInfo cainfo = getCAInfoByIssuer(CertTools.getIssuerDN(extraCert));
-                // Check that extraCert is in the Database
-                CertificateInfo certinfo = certSession.getCertificateInfo(CertTools.getFingerprintAsString(extraCert));
-                if(certinfo == null) {
-                    this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be found in the database.";
-                    return false;
-                }
+                final String fingerprint = CertTools.getFingerprintAsString(extraCert);
+                final VerifiedSignerCache.Entry verifiedSigner = cainfo != null
+                        ? VerifiedSignerCache.INSTANCE.get(fingerprint, cainfo.getCAId(), cainfo.getCertificateChain()) : null;
+                if (verifiedSigner != null && verifiedSigner.getUsername() != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("The certificate in the extraCert field has already been verified with CA '" + cainfo.getName() + "'.");
+                    }
+                    extraCertUsername = verifiedSigner.getUsername();
+                } else {
+                    final long cacheGeneration = VerifiedSignerCache.INSTANCE.getGeneration();
+                    // Check that extraCert is in the Database
+                    CertificateInfo certinfo = certSession.getCertificateInfo(fingerprint);
+                    if(certinfo == null) {
+                        this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be found in the database.";
+                        return false;
+                    }
 
-                // More extraCert verifications
-                if(!isCertListValidAndIssuedByCA(extraCertPath, cainfo) || !isExtraCertActive(certinfo)) {
-                    return false;
-                }
+                    // More extraCert verifications
+                    if(!isCertListValidAndIssuedByCA(extraCertPath, cainfo) || !isExtraCertActive(certinfo)) {
+                        return false;
+                    }
 
-                // Extract the username from extraCert to use for  further authentication
-                extraCertUsername = certinfo.getUsername();
+                    // Extract the username from extraCert to use for  further authentication
+                    extraCertUsername = certinfo.getUsername();
+                    if (cainfo != null && extraCertUsername != null) {
+                        VerifiedSignerCache.INSTANCE.put(cacheGeneration, fingerprint, cainfo.getCAId(), cainfo.getCertificateChain(), extraCertPath,
+                                extraCertUsername, null);
+                    }
+                }
             }
 
             // Check if this certificate belongs to the user
@@ -603,6 +635,14 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
         return reqAuthToken;
     }
 
+    /** @return an authentication token for the extraCert certificate, or null if it is expired or not active */
+    private AuthenticationToken authenticateExtraCert() {
+        Set<X509Certificate> credentials = new HashSet<X509Certificate>();
+        credentials.add((X509Certificate) extraCert);
+        AuthenticationSubject subject = new AuthenticationSubject(null, credentials);
+        return authenticationProviderSession.authenticate(subject);
+    }
+
     /**
      * Checks if cert belongs to an administrator who is authorized to process the request.
      *
@@ -613,13 +653,6 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
      */
     private boolean isAuthorizedAdmin(final PKIMessage msg, final EndEntityInformation endentity) {
 
-        X509Certificate x509cert = (X509Certificate) extraCert;
-        Set<X509Certificate> credentials = new HashSet<X509Certificate>();
-        credentials.add(x509cert);
-
-        AuthenticationSubject subject = new AuthenticationSubject(null, credentials);
-        reqAuthToken = authenticationProviderSession.authenticate(subject);
-
         final int tagnr = msg.getBody().getType();
         if( (tagnr == CmpPKIBodyConstants.CERTIFICATAIONREQUEST) || (tagnr == CmpPKIBodyConstants.INITIALIZATIONREQUEST) ) {
 
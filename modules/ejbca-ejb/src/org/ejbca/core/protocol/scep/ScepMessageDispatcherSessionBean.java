@@ -234,7 +234,15 @@ public class ScepMessageDispatcherSessionBean implements ScepMessageDispatcherSe
             }
             Collection<Certificate> certs = null;
             CAInfo cainfo = caSession.getCAInfoInternal(-1, caname, true);
+            final String variant = String.valueOf(scepConfig.getReturnCaChainInGetCaCert(scepConfigurationAlias));
             if (cainfo != null) {
+                final byte[] cachedResponse = ScepResponseCache.INSTANCE.get(scepConfigurationAlias, operation, cainfo, variant);
+                if (cachedResponse != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Returning cached response for GetCACert for CA: " + caname);
+                    }
+                    return ScepResponseInfo.onlyResponseBytes(cachedResponse);
+                }
                 certs = cainfo.getCertificateChain();
             }
             if ((certs != null) && (certs.size() == 1) || (!scepConfig.getReturnCaChainInGetCaCert(scepConfigurationAlias) && certs.size() > 1)) {
@@ -246,7 +254,7 @@ public class ScepMessageDispatcherSessionBean implements ScepMessageDispatcherSe
                 if (log.isDebugEnabled()) {
                     log.debug("Sent certificate for CA '" + caname + "' to SCEP client.");
                 }
-                return ScepResponseInfo.onlyResponseBytes(cert.getEncoded());
+                return ScepResponseInfo.onlyResponseBytes(ScepResponseCache.INSTANCE.put(scepConfigurationAlias, operation, cainfo, variant, cert.getEncoded()));
             } else if ((certs != null) && (certs.size() > 1 && scepConfig.getReturnCaChainInGetCaCert(scepConfigurationAlias))) {
                 try {
                     if (log.isDebugEnabled()) {
@@ -259,7 +267,7 @@ public class ScepMessageDispatcherSessionBean implements ScepMessageDispatcherSe
                     if (log.isDebugEnabled()) {
                         log.debug("Sent certificates-only CMS for CA '" + caname + "' to SCEP client.");
                     }
-                    return ScepResponseInfo.onlyResponseBytes(resp);
+                    return ScepResponseInfo.onlyResponseBytes(ScepResponseCache.INSTANCE.put(scepConfigurationAlias, operation, cainfo, variant, resp));
                 } catch (ClassCastException | CMSException e) {
                     log.info("Error creating certs-only CMS message as response for GetCACert for CA: " + caname);
                     return null;
@@ -273,9 +281,13 @@ public class ScepMessageDispatcherSessionBean implements ScepMessageDispatcherSe
             log.debug("Got SCEP pkcs7 request for CA '" + caname + "'. Old client using SCEP draft 18?");
 
             CAInfo cainfo = caSession.getCAInfo(authenticationToken, caname);
+            final byte[] cachedResponse = ScepResponseCache.INSTANCE.get(scepConfigurationAlias, operation, cainfo, null);
+            if (cachedResponse != null) {
+                return ScepResponseInfo.onlyResponseBytes(cachedResponse);
+            }
             byte[] pkcs7 = signSession.createPKCS7(authenticationToken, cainfo.getCAId(), true);
             if ((pkcs7 != null) && (pkcs7.length > 0)) {
-                return ScepResponseInfo.onlyResponseBytes(pkcs7);
+                return ScepResponseInfo.onlyResponseBytes(ScepResponseCache.INSTANCE.put(scepConfigurationAlias, operation, cainfo, null, pkcs7));
             } else {
                 return null;
             }
@@ -304,12 +316,17 @@ public class ScepMessageDispatcherSessionBean implements ScepMessageDispatcherSe
             final String caname = getCaName(message, scepConfig, scepConfigurationAlias);
             final CAInfo cainfo = caSession.getCAInfoInternal(-1, caname, true);
             if (cainfo != null) {
+                final byte[] cachedResponse = ScepResponseCache.INSTANCE.get(scepConfigurationAlias, operation, cainfo, null);
+                if (cachedResponse != null) {
+                    return ScepResponseInfo.onlyResponseBytes(cachedResponse);
+                }
                 final boolean hasRolloverCert = (caSession.getFutureRolloverCertificate(cainfo.getCAId()) != null);
                 // SCEP draft 23, "4.6.1.  Get Next CA Response Message Format". 
                 // It SHOULD also remove the GetNextCACert setting from the capabilities until it does have rollover certificates.            
-                return hasRolloverCert
-                        ? ScepResponseInfo.onlyResponseBytes("POSTPKIOperation\nGetNextCACert\nRenewal\nSHA-512\nSHA-256\nSHA-1\nDES3".getBytes())
-                        : ScepResponseInfo.onlyResponseBytes("POSTPKIOperation\nRenewal\nSHA-512\nSHA-256\nSHA-1\nDES3".getBytes());
+                final byte[] caps = hasRolloverCert
+                        ? "POSTPKIOperation\nGetNextCACert\nRenewal\nSHA-512\nSHA-256\nSHA-1\nDES3".getBytes()
+                        : "POSTPKIOperation\nRenewal\nSHA-512\nSHA-256\nSHA-1\nDES3".getBytes();
+                return ScepResponseInfo.onlyResponseBytes(ScepResponseCache.INSTANCE.put(scepConfigurationAlias, operation, cainfo, null, caps));
             } else {
                 final String msg = "CA was not found: " + caname;
                 log.debug(msg);
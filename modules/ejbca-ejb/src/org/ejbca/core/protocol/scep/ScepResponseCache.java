@@ -0,0 +1,103 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.scep;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cesecore.certificates.ca.CAInfo;
+
+/**
+ * Cache of the encoded responses to the SCEP operations that only depend on the CA, like GetCACert, GetCACertChain and GetCACaps,
+ * so that clients that poll these operations do not cause a new CMS structure to be built, encoded or signed for each request.
+ * <p>
+ * Responses are cached per SCEP alias, operation and CA. A response is only used while the CA has the same update time as when
+ * the response was created, so it is created again when the CA is renewed, rolled over or edited. Settings of the SCEP alias
+ * that affect the response are passed as a variant, so that a changed SCEP configuration also creates a new response.
+ * <p>
+ * The cached byte arrays are returned to all callers, and must not be modified.
+ *
+ * @version $Id$
+ */
+public enum ScepResponseCache {
+    INSTANCE;
+
+    /** The maximum number of responses. The cache is cleared when it is full. */
+    static final int MAX_ENTRIES = 1000;
+
+    private static class Entry {
+        private final long caUpdateTime;
+        private final String variant;
+        private final byte[] response;
+
+        private Entry(final long caUpdateTime, final String variant, final byte[] response) {
+            this.caUpdateTime = caUpdateTime;
+            this.variant = variant;
+            this.response = response;
+        }
+    }
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Gets a cached response.
+     *
+     * @param alias the SCEP alias
+     * @param operation the SCEP operation, e.g. GetCACert
+     * @param caInfo the current information about the CA
+     * @param variant the settings of the SCEP alias that the response depends on
+     * @return the encoded response, or null if there is no response for the current version of the CA and settings
+     */
+    public byte[] get(final String alias, final String operation, final CAInfo caInfo, final String variant) {
+        final Entry entry = cache.get(getKey(alias, operation, caInfo));
+        if (entry == null || entry.caUpdateTime != getUpdateTime(caInfo) || !Objects.equals(entry.variant, variant)) {
+            return null;
+        }
+        return entry.response;
+    }
+
+    /**
+     * Caches a response.
+     *
+     * @param alias the SCEP alias
+     * @param operation the SCEP operation, e.g. GetCACert
+     * @param caInfo the information about the CA that was used to create the response
+     * @param variant the settings of the SCEP alias that the response depends on
+     * @param response the encoded response, or null
+     * @return the response
+     */
+    public byte[] put(final String alias, final String operation, final CAInfo caInfo, final String variant, final byte[] response) {
+        if (response == null || response.length == 0) {
+            return response;
+        }
+        if (cache.size() >= MAX_ENTRIES) {
+            cache.clear();
+        }
+        cache.put(getKey(alias, operation, caInfo), new Entry(getUpdateTime(caInfo), variant, response));
+        return response;
+    }
+
+    /** Removes all responses */
+    public void clear() {
+        cache.clear();
+    }
+
+    private static String getKey(final String alias, final String operation, final CAInfo caInfo) {
+        return alias + ";" + operation + ";" + caInfo.getCAId();
+    }
+
+    private static long getUpdateTime(final CAInfo caInfo) {
+        return caInfo.getUpdateTime() == null ? 0L : caInfo.getUpdateTime().getTime();
+    }
+}
@@ -19,6 +19,7 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
@@ -319,6 +320,46 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     	return query.getResultList();
     }
 
+    /**
+     * Lookup publisher queue data items with the specified status in the database, for the publisher specified. The results are ordered
+     * by the time they were created and then by primary key, in ascending order (i.e. oldest items first), and start after the given
+     * position. This makes it possible to page through a large queue without the increasing cost of skipping rows with an offset.
+     * 
+     * @param entityManager the entity manager used to create the query.
+     * @param publisherId the id of a publisher, only publisher queue data items for this publisher is returned.
+     * @param publishStatus one of the constants in {@link PublisherConst}, only publisher queue data items with this status is returned.
+     * @param afterTimeCreated timeCreated of the last item of the previous page, or {@link Long#MIN_VALUE} to start from the beginning.
+     * @param afterPk primary key of the last item of the previous page, or an empty string to start from the beginning.
+     * @param maxRows limits the number of rows fetched.
+     * @return return a list of publisher queue data items. 
+     */
+    @SuppressWarnings("unchecked")
+    public static List<PublisherQueueData> findDataByPublisherIdAndStatusAfter(EntityManager entityManager, int publisherId, int publishStatus,
+            long afterTimeCreated, String afterPk, int maxRows) {
+        final Query query = entityManager.createQuery("SELECT a FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND a.publishStatus=:publishStatus"
+                + " AND (a.timeCreated>:timeCreated OR (a.timeCreated=:timeCreated AND a.pk>:pk)) ORDER BY a.timeCreated ASC, a.pk ASC");
+        query.setParameter("publisherId", publisherId);
+        query.setParameter("publishStatus", publishStatus);
+        query.setParameter("timeCreated", afterTimeCreated);
+        query.setParameter("pk", afterPk);
+        query.setMaxResults(maxRows);
+        return query.getResultList();
+    }
+
+    /**
+     * Removes the publisher queue data items with the given primary keys using a single statement.
+     * 
+     * @return the number of removed items.
+     */
+    public static int deleteByPks(EntityManager entityManager, Collection<String> pks) {
+        if (pks.isEmpty()) {
+            return 0;
+        }
+        final Query query = entityManager.createQuery("DELETE FROM PublisherQueueData a WHERE a.pk IN (:pks)");
+        query.setParameter("pks", pks);
+        return query.executeUpdate();
+    }
+
 	/** @return return the count. */
 	public static long findCountOfPendingEntriesForPublisher(EntityManager entityManager, int publisherId) {
 		Query query = entityManager.createQuery("SELECT COUNT(a) FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND publishStatus=" + PublisherConst.STATUS_PENDING);
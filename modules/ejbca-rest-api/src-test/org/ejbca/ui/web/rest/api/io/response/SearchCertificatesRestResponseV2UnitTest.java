@@ -15,6 +15,7 @@ package org.ejbca.ui.web.rest.api.io.response;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateParsingException;
@@ -113,6 +114,52 @@ public class SearchCertificatesRestResponseV2UnitTest {
         assertCertificateResultList(restResponse);
     }
     
+    @Test
+    public void testConvertRaCertificateSearchResponseWithPageCursor() throws CertificateEncodingException, CertificateParsingException {
+
+        // given
+        final List<CertificateDataWrapper> list = Collections.singletonList(new CertificateDataWrapper(certificate, cd, null));
+        final RaCertificateSearchResponseV2 raResponse = new RaCertificateSearchResponseV2();
+        raResponse.setCdws(list);
+        raResponse.setNextPageCursor(fingerprint);
+        final Pagination pagination = new Pagination(1, 0);
+        pagination.setPageCursor("");
+
+        // when
+        final SearchCertificatesRestResponseV2 restResponse = SearchCertificatesRestResponseV2.converter().toRestResponse(raResponse, pagination);
+
+        // then
+        final PaginationSummary summary = restResponse.getPaginationSummary();
+        assertNotNull("PaginationSummary must not be null.", summary);
+        assertEquals("Next page cursor does not match.", fingerprint, summary.getNextPageCursor());
+        assertNull("Total count is not known when paginating with page cursors.", summary.getTotalCerts());
+        assertNull("Current page is not used when paginating with page cursors.", summary.getCurrentPage());
+        assertEquals("Size of certificates list does not match.", 1, restResponse.getCertificates().size());
+        assertCertificateResultList(restResponse);
+    }
+
+    @Test
+    public void testConvertRaCertificateSearchResponseMightHaveMoreResults() throws CertificateEncodingException, CertificateParsingException {
+
+        // given
+        final List<CertificateDataWrapper> list = new ArrayList<>(Collections.singletonList(new CertificateDataWrapper(certificate, cd, null)));
+        final RaCertificateSearchResponseV2 raResponse = new RaCertificateSearchResponseV2();
+        raResponse.setCdws(list);
+        raResponse.setTotalCount(list.size());
+        final RaCertificateSearchResponseV2 unansweredResponse = new RaCertificateSearchResponseV2();
+        unansweredResponse.setMightHaveMoreResults(true);
+        raResponse.merge(unansweredResponse);
+
+        // when
+        final SearchCertificatesRestResponseV2 pagedResponse = SearchCertificatesRestResponseV2.converter().toRestResponse(raResponse, new Pagination(10, 1));
+        final SearchCertificatesRestResponseV2 unpagedResponse = SearchCertificatesRestResponseV2.converter().toRestResponse(raResponse, null);
+
+        // then
+        assertNull("Total count is not known when a back end did not answer.", pagedResponse.getPaginationSummary().getTotalCerts());
+        assertNull("Total count is not known when a back end did not answer.", unpagedResponse.getPaginationSummary().getTotalCerts());
+        assertEquals("Size of certificates list does not match.", 1, pagedResponse.getCertificates().size());
+    }
+
     private final void assertPaginationSummary(final SearchCertificatesRestResponseV2 response, final int listSize) {
         final PaginationSummary summary = response.getPaginationSummary();
         assertNotNull("PaginationSummary must not be null.", summary); 
@@ -18,9 +18,9 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import io.swagger.annotations.ApiModelProperty;
 
 /**
- * A class representing pagination parameters with a page size and a current page.
+ * A class representing pagination parameters with a page size and a current page, or a page cursor.
  */
-@JsonPropertyOrder({ "page_size", "current_page" })
+@JsonPropertyOrder({ "page_size", "current_page", "page_cursor" })
 public class Pagination {
 
     @ApiModelProperty(value = "Number of results per page", example = "10")
@@ -33,6 +33,12 @@ public class Pagination {
     @JsonProperty("current_page")
     private int currentPage;
 
+    @ApiModelProperty(value = "Page cursor, instead of the current page number. Empty for the first page, "
+            + "and the next_page_cursor of the previous response for the following pages. Results are ordered by fingerprint.", example = "")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("page_cursor")
+    private String pageCursor;
+
     public Pagination() {
         super();
     }
@@ -58,5 +64,13 @@ public class Pagination {
     public void setCurrentPage(final int currentPage) {
         this.currentPage = currentPage;
     }
+
+    public String getPageCursor() {
+        return pageCursor;
+    }
+
+    public void setPageCursor(final String pageCursor) {
+        this.pageCursor = pageCursor;
+    }
         
 }
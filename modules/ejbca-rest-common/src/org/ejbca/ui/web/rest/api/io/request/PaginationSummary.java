@@ -19,7 +19,7 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 /**
  * JSON output for pagination summary.
  */
-@JsonPropertyOrder({ "page_size", "current_page", "total_certs" })
+@JsonPropertyOrder({ "page_size", "current_page", "total_certs", "next_page_cursor" })
 public class PaginationSummary {
 
     @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -34,6 +34,10 @@ public class PaginationSummary {
     @JsonProperty("current_page")
     private Integer currentPage;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("next_page_cursor")
+    private String nextPageCursor;
+
     public PaginationSummary() {
         super();
     }
@@ -73,6 +77,15 @@ public class PaginationSummary {
         this.currentPage = currentPage;
     }
 
+    /** @return the page cursor of the next page when paginating with page cursors, or null if there are no more results */
+    public String getNextPageCursor() {
+        return nextPageCursor;
+    }
+
+    public void setNextPageCursor(final String nextPageCursor) {
+        this.nextPageCursor = nextPageCursor;
+    }
+
 //    /**
 //     * Returns the number of pages starting at 1 or null if totalCerts is null.
 //     * 
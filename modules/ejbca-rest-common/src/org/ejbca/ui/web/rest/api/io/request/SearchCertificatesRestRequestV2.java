@@ -146,6 +146,7 @@ public class SearchCertificatesRestRequestV2 implements SearchCertificateCriteri
             if (pagination != null) {
                 raRequest.setMaxResults(pagination.getPageSize());
                 raRequest.setPageNumber(pagination.getCurrentPage());
+                raRequest.setPageCursor(pagination.getPageCursor());
             }
             final SearchCertificateSortRestRequest orderBy = restRequest.getSort();
             if (orderBy != null) {
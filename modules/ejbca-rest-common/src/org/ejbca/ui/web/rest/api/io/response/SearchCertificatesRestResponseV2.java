@@ -111,14 +111,21 @@ public class SearchCertificatesRestResponseV2 {
             final int count = raCertificateSearchResponse.getCdws().size();
             
             final PaginationSummary summary;
-            if (pagination != null) {
+            if (pagination != null && pagination.getPageCursor() != null) {
+                // The total count is not known when paginating with page cursors
+                summary = new PaginationSummary(pagination.getPageSize(), null);
+                summary.setNextPageCursor(raCertificateSearchResponse.getNextPageCursor());
+            } else if (pagination != null) {
                 final int pageSize = pagination.getPageSize();
                 final int currentPage = pagination.getCurrentPage();
                 summary = new PaginationSummary(pageSize, currentPage);
                 // Sets the totalCount if possible. totalCount == null means former hasMoreResults == true.
-                if (count > 0 && count < pageSize) {
+                if (count > 0 && count < pageSize && !raCertificateSearchResponse.isMightHaveMoreResults()) {
                     summary.setTotalCerts((long) pageSize * (currentPage - 1) + count);
                 }
+            } else if (raCertificateSearchResponse.isMightHaveMoreResults()) {
+                // A back end did not answer, so the total count is not known
+                summary = new PaginationSummary();
             } else {
                 summary = new PaginationSummary(raCertificateSearchResponse.getTotalCount());
             }
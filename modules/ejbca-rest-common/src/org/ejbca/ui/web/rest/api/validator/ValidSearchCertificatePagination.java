@@ -20,6 +20,7 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.regex.Pattern;
 
 import javax.validation.Constraint;
 import javax.validation.ConstraintValidator;
@@ -36,6 +37,7 @@ import org.ejbca.ui.web.rest.api.io.request.Pagination;
  *     <li>Not null;</li>
  *     <li>Not less than 1</li>
  * </ul>
+ * The current page is not validated when a page cursor is given, and the page cursor must be lower case hexadecimal.
  */
 @Target({TYPE, FIELD, PARAMETER})
 @Retention(RUNTIME)
@@ -51,13 +53,20 @@ public @interface ValidSearchCertificatePagination {
 
     class Validator implements ConstraintValidator<ValidSearchCertificatePagination, Pagination> {
 
+        /** Page cursors are certificate fingerprints */
+        private static final Pattern PAGE_CURSOR_PATTERN = Pattern.compile("[0-9a-f]{0,128}");
+
         @Override
         public void initialize(final ValidSearchCertificatePagination validSearchCertificatePagination) {
         }
 
         @Override
         public boolean isValid(final Pagination value, final ConstraintValidatorContext constraintValidatorContext) {
-            if(value != null && value.getCurrentPage() < 1) {
+            if(value != null && value.getPageCursor() != null && !PAGE_CURSOR_PATTERN.matcher(value.getPageCursor()).matches()) {
+                ValidationHelper.addConstraintViolation(constraintValidatorContext, "{ValidSearchCertificatePaginationPageCursor.invalid.format}");
+                return false;
+            }
+            if(value != null && value.getPageCursor() == null && value.getCurrentPage() < 1) {
                 ValidationHelper.addConstraintViolation(constraintValidatorContext, "{ValidSearchCertificatePaginationCurrentPage.invalid.overflow}");
                 return false;
             }
@@ -39,6 +39,7 @@ import org.cesecore.certificates.certificate.CertificateCreateException;
 import org.cesecore.certificates.certificate.IllegalKeyException;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.util.Base64;
+import org.cesecore.util.CertTools;
 import org.cesecore.util.CryptoProviderTools;
 import org.ejbca.config.ScepConfiguration;
 import org.ejbca.core.ejb.ra.NoSuchEndEntityException;
@@ -160,7 +161,7 @@ public class ScepServlet extends HttpServlet {
             output.write(buf, 0, n);
         }
         String message = new String(Base64.encode(output.toByteArray()));
-        service(operation, message, request.getRemoteAddr(), response, request.getPathInfo());
+        service(operation, message, request.getRemoteAddr(), response, request.getPathInfo(), null);
         log.trace("<SCEP doPost()");
     }
 
@@ -199,13 +200,17 @@ public class ScepServlet extends HttpServlet {
             message = message.replace(' ', '+');
         }
 
-        service(operation, message, request.getRemoteAddr(), response, request.getPathInfo());
+        service(operation, message, request.getRemoteAddr(), response, request.getPathInfo(), request.getHeader("If-None-Match"));
 
         log.trace("<SCEP doGet()");
     }
 
+    /**
+     * @param ifNoneMatch the If-None-Match header of a GET request, or null. Used to answer 304 Not Modified to clients that already have
+     *      the response to GetCACert, GetCACertChain or GetCACaps.
+     */
     private void service(final String operation, final String message, final String remoteAddr, final HttpServletResponse response,
-            final String pathInfo) throws IOException {
+            final String pathInfo, final String ifNoneMatch) throws IOException {
         final String alias = getAlias(pathInfo);
         if (alias == null) {
             log.info("Wrong URL format. The SCEP URL should look like: " 
@@ -312,6 +317,9 @@ public class ScepServlet extends HttpServlet {
                 // The body of the response is a DER encoded binary X.509 certificate. 
                 // For example: "Content-Type:application/x-x509-ca-cert\n\n"<BER-encoded X509>
                 if (scepResponse != null) {
+                    if (isNotModified(scepResponse, ifNoneMatch, response)) {
+                        return;
+                    }
                     log.debug("Sent CA certificate to SCEP client.");
                     RequestHelper.sendNewX509CaCert(scepResponse, response);
                     iMsg = intres.getLocalizedMessage("scep.sentresponsemsg", "GetCACert", remoteAddr);
@@ -329,6 +337,9 @@ public class ScepServlet extends HttpServlet {
                 // SignedData to carry the certificates to the end entity, with a 
                 // Content-Type of application/x-x509-ca-ra-cert-chain.
                 if (scepResponse != null) {
+                    if (isNotModified(scepResponse, ifNoneMatch, response)) {
+                        return;
+                    }
                     log.debug("Sent PKCS7 for CA to SCEP client.");
                     RequestHelper.sendBinaryBytes(scepResponse, response, "application/x-x509-ca-ra-cert-chain", null);
                     iMsg = intres.getLocalizedMessage("scep.sentresponsemsg", "GetCACertChain", remoteAddr);
@@ -364,6 +375,9 @@ public class ScepServlet extends HttpServlet {
                  "DES3"                CA Supports the Triple-DES encryption algorithm.                     
                  */
                 log.debug("Got SCEP GetCACaps request");
+                if (isNotModified(scepResponse, ifNoneMatch, response)) {
+                    return;
+                }
                 response.setContentType("text/plain");
                 response.getOutputStream().print(new String(scepResponse));
             } else {
@@ -434,6 +448,35 @@ public class ScepServlet extends HttpServlet {
         }
     }
     
+    /**
+     * Sets the ETag header of a response that only depends on the CA, and checks if the client already has it.
+     *
+     * @param scepResponse the response to send
+     * @param ifNoneMatch the If-None-Match header of the request, or null
+     * @param response the HTTP response
+     * @return true if the client has the response, according to the If-None-Match header, and 304 Not Modified has been set
+     */
+    private static boolean isNotModified(final byte[] scepResponse, final String ifNoneMatch, final HttpServletResponse response) {
+        if (scepResponse == null) {
+            return false;
+        }
+        final String eTag = "\"" + CertTools.getFingerprintAsString(scepResponse) + "\"";
+        response.setHeader("ETag", eTag);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(eTag)) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public static String getAlias(String pathInfo) {
         // PathInfo contains the alias used for SCEP configuration. 
         // The SCEP URL for custom configuration looks like: http://HOST:PORT/ejbca/publicweb/apply/scep/*
@@ -0,0 +1,57 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ejbca.core.ejb.LatencyHistogram;
+import org.ejbca.core.ejb.ProfilingStat;
+import org.junit.Test;
+
+/**
+ * Unit tests of the Prometheus text format written by {@link MetricsServlet}.
+ *
+ * @version $Id$
+ */
+public class MetricsServletTest {
+
+    @Test
+    public void testLatencyIsWrittenAsHistogram() throws IOException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(300000L, false);
+        histogram.record(2000000L, false);
+        histogram.record(120000000000L, true);
+        final List<ProfilingStat> profilingStats = new ArrayList<>();
+        profilingStats.add(new ProfilingStat("SignSessionBean.createCertificate", histogram.getTotalNanos() / 1000L, histogram.getCount(),
+                histogram.getErrors(), histogram.getCumulativeCounts(), histogram.getMaxNanos() / 1000L));
+        final StringWriter out = new StringWriter();
+        MetricsServlet.writeMetrics(profilingStats, out);
+        final String metrics = out.toString();
+        final String method = "method=\"SignSessionBean.createCertificate\"";
+        assertTrue(metrics, metrics.contains("# TYPE ejbca_ejb_invocation_seconds histogram\n"));
+        assertTrue(metrics, metrics.contains("ejbca_ejb_invocation_seconds_bucket{" + method + ",le=\"0.0005\"} 1\n"));
+        assertTrue(metrics, metrics.contains("ejbca_ejb_invocation_seconds_bucket{" + method + ",le=\"0.001\"} 1\n"));
+        assertTrue(metrics, metrics.contains("ejbca_ejb_invocation_seconds_bucket{" + method + ",le=\"0.0025\"} 2\n"));
+        assertTrue(metrics, metrics.contains("ejbca_ejb_invocation_seconds_bucket{" + method + ",le=\"60\"} 2\n"));
+        assertTrue(metrics, metrics.contains("ejbca_ejb_invocation_seconds_bucket{" + method + ",le=\"+Inf\"} 3\n"));
+        assertTrue(metrics, metrics.contains("ejbca_ejb_invocation_seconds_count{" + method + "} 3\n"));
+        assertTrue(metrics, metrics.contains("ejbca_ejb_invocation_errors_total{" + method + "} 1\n"));
+        assertFalse("Quantiles since startup should not be written.", metrics.contains("quantile="));
+    }
+}
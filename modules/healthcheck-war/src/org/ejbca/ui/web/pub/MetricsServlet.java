@@ -0,0 +1,134 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.log4j.Logger;
+import org.cesecore.util.MetricsRegistry;
+import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.core.ejb.LatencyHistogram;
+import org.ejbca.core.ejb.ProfilingStat;
+import org.ejbca.core.ejb.ProfilingStats;
+import org.ejbca.core.model.InternalEjbcaResources;
+
+/**
+ * Servlet that returns the invocation count, error count and latency histogram of each EJB method, in the Prometheus text
+ * format, so that the latency of issuance and OCSP can be broken down without turning on debug logging.
+ * <p>
+ * The statistics are collected by ProfileAndTraceInterceptor when ejb.metrics.enabled is true. They are counters, so the latency
+ * percentiles of a recent period are calculated by the monitoring system, e.g. with histogram_quantile over the rate of the
+ * buckets, rather than over all invocations since the application was started. The metrics of queues and pools that have registered with {@link MetricsRegistry}, such as the OCSP
+ * signing queues, are written after them. Access is restricted to healthcheck.authorizedips, like the health check.
+ *
+ * @version $Id$
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final Logger log = Logger.getLogger(MetricsServlet.class);
+    private static final long serialVersionUID = 1L;
+
+    /** Internal localization of logs and errors */
+    private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
+
+    private String[] authIPs = null;
+    private boolean anyIpAuthorized = false;
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        authIPs = EjbcaConfiguration.getHealthCheckAuthorizedIps().split(";");
+        anyIpAuthorized = ArrayUtils.contains(authIPs, "ANY");
+    }
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        String remoteIP = request.getRemoteAddr();
+        if (remoteIP == null || remoteIP.length()>100) {
+            remoteIP = "unknown";
+        }
+        if (!anyIpAuthorized && !ArrayUtils.contains(authIPs, remoteIP)) {
+            log.error(intres.getLocalizedMessage("healthcheck.errorauth", remoteIP));
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "ERROR : Metrics request received from an non authorized IP: " + remoteIP);
+            return;
+        }
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        final Writer out = response.getWriter();
+        writeMetrics(ProfilingStats.INSTANCE.getEjbInvocationStats(), out);
+        final MetricsRegistry.Collector collector = new MetricsRegistry.Collector();
+        MetricsRegistry.INSTANCE.collect(collector);
+        collector.write(out);
+        out.flush();
+    }
+
+    /**
+     * Writes the statistics in the Prometheus text format, one histogram with cumulative latency buckets and one counter with the
+     * number of errors for each method.
+     *
+     * @param profilingStats the statistics of each method
+     * @param out where to write the statistics
+     * @throws IOException if writing fails
+     */
+    static void writeMetrics(final List<ProfilingStat> profilingStats, final Writer out) throws IOException {
+        profilingStats.sort(Comparator.comparing(ProfilingStat::getFullmethodName));
+        out.write("# HELP ejbca_ejb_invocation_seconds Duration of EJB method invocations.\n");
+        out.write("# TYPE ejbca_ejb_invocation_seconds histogram\n");
+        for (final ProfilingStat profilingStat : profilingStats) {
+            final String method = "method=\"" + profilingStat.getFullmethodName() + "\"";
+            final long[] cumulativeCounts = profilingStat.getCumulativeCounts();
+            for (int i = 0; i < cumulativeCounts.length; i++) {
+                final String le = i < LatencyHistogram.BUCKET_BOUNDS_SECONDS.length
+                        ? BigDecimal.valueOf(LatencyHistogram.BUCKET_BOUNDS_SECONDS[i]).stripTrailingZeros().toPlainString() : "+Inf";
+                writeSample(out, "ejbca_ejb_invocation_seconds_bucket{" + method + ",le=\"" + le + "\"}", Long.toString(cumulativeCounts[i]));
+            }
+            writeSample(out, "ejbca_ejb_invocation_seconds_sum{" + method + "}", seconds(profilingStat.getDurationMicroSeconds()));
+            writeSample(out, "ejbca_ejb_invocation_seconds_count{" + method + "}", Long.toString(profilingStat.getInvocations()));
+        }
+        out.write("# HELP ejbca_ejb_invocation_max_seconds Longest duration of an EJB method invocation.\n");
+        out.write("# TYPE ejbca_ejb_invocation_max_seconds gauge\n");
+        for (final ProfilingStat profilingStat : profilingStats) {
+            writeSample(out, "ejbca_ejb_invocation_max_seconds{method=\"" + profilingStat.getFullmethodName() + "\"}",
+                    seconds(profilingStat.getMaxMicroSeconds()));
+        }
+        out.write("# HELP ejbca_ejb_invocation_errors_total EJB method invocations that threw an exception.\n");
+        out.write("# TYPE ejbca_ejb_invocation_errors_total counter\n");
+        for (final ProfilingStat profilingStat : profilingStats) {
+            writeSample(out, "ejbca_ejb_invocation_errors_total{method=\"" + profilingStat.getFullmethodName() + "\"}",
+                    Long.toString(profilingStat.getErrors()));
+        }
+    }
+
+    private static void writeSample(final Writer out, final String name, final String value) throws IOException {
+        out.write(name);
+        out.write(' ');
+        out.write(value);
+        out.write('\n');
+    }
+
+    private static String seconds(final long microSeconds) {
+        return String.format(Locale.ROOT, "%.6f", microSeconds / 1000000.0);
+    }
+}
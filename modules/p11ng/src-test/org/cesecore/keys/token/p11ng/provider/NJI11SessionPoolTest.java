@@ -0,0 +1,235 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA - Proprietary Modules: Enterprise Certificate Authority        *
+ *                                                                       *
+ *  Copyright (c), PrimeKey Solutions AB. All rights reserved.           *
+ *  The use of the Proprietary Modules are subject to specific           *
+ *  commercial license terms.                                            *
+ *                                                                       *
+ *************************************************************************/
+
+package org.cesecore.keys.token.p11ng.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.EJBException;
+
+import org.cesecore.util.MetricsRegistry;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link NJI11SessionPool}.
+ */
+public class NJI11SessionPoolTest {
+
+    /** Keeps track of the open sessions, like an HSM would */
+    private static class FakeSessionFactory implements NJI11SessionPool.SessionFactory {
+        private final AtomicLong nextId = new AtomicLong(1);
+        private final Set<Long> open = ConcurrentHashMap.newKeySet();
+        private final Set<Long> invalid = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger maxConcurrentlyOpen = new AtomicInteger();
+
+        @Override
+        public NJI11Session open() {
+            final long id = nextId.getAndIncrement();
+            open.add(id);
+            maxConcurrentlyOpen.accumulateAndGet(open.size(), Math::max);
+            return new NJI11Session(id);
+        }
+
+        @Override
+        public void close(final NJI11Session session) {
+            if (!open.remove(session.getId())) {
+                throw new EJBException("Session " + session + " is not open.");
+            }
+        }
+
+        @Override
+        public boolean isValid(final NJI11Session session) {
+            return open.contains(session.getId()) && !invalid.contains(session.getId());
+        }
+
+        void closeAll() {
+            open.clear();
+        }
+    }
+
+    @Test
+    public void testReuseIdleSession() {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("test", factory, 0, 0, false, 1000, 0);
+        final NJI11Session first = pool.acquire();
+        final NJI11Session second = pool.acquire();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getActiveSessions().size());
+        pool.release(first);
+        pool.release(second);
+        assertEquals(2, pool.getIdleSessions().size());
+        assertSame("The most recently released session should be reused.", second, pool.acquire());
+        assertEquals(2, factory.open.size());
+        assertEquals(2, pool.getOpenSessionCount());
+        assertEquals(3, pool.getStatistics().getAcquired());
+        assertEquals(2, pool.getStatistics().getOpened());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("lib slot 1", factory, 0, 0, false, 1000, 0);
+        final NJI11Session first = pool.acquire();
+        pool.acquire();
+        pool.release(first);
+        final MetricsRegistry.Collector collector = new MetricsRegistry.Collector();
+        pool.getStatistics().collectMetrics(collector);
+        final StringWriter out = new StringWriter();
+        collector.write(out);
+        final String metrics = out.toString();
+        assertTrue(metrics, metrics.contains("# TYPE ejbca_p11ng_sessions_active gauge\nejbca_p11ng_sessions_active{pool=\"lib slot 1\"} 1\n"));
+        assertTrue(metrics, metrics.contains("ejbca_p11ng_sessions_idle{pool=\"lib slot 1\"} 1\n"));
+        assertTrue(metrics, metrics.contains("# TYPE ejbca_p11ng_session_acquired_total counter\nejbca_p11ng_session_acquired_total{pool=\"lib slot 1\"} 2\n"));
+        assertTrue(metrics, metrics.contains("ejbca_p11ng_session_opened_total{pool=\"lib slot 1\"} 2\n"));
+    }
+
+    @Test
+    public void testMaxSessions() {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("test", factory, 0, 2, false, 50, 0);
+        final NJI11Session first = pool.acquire();
+        pool.acquire();
+        try {
+            pool.acquire();
+            fail("All sessions are in use.");
+        } catch (EJBException e) {
+            // Expected
+        }
+        assertEquals(1, pool.getStatistics().getExhausted());
+        assertEquals(1, pool.getStatistics().getTimedOut());
+        pool.release(first);
+        assertSame(first, pool.acquire());
+        assertEquals(2, factory.open.size());
+    }
+
+    @Test
+    public void testConcurrentAcquireWithMaxSessions() throws Exception {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("test", factory, 0, 4, true, 10000, 0);
+        final ExecutorService executorService = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < 500; j++) {
+                        pool.release(pool.acquire());
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        assertTrue("No more sessions than the maximum should be in use.", factory.maxConcurrentlyOpen.get() <= 5);
+        assertEquals(0, pool.getActiveSessions().size());
+        assertEquals(factory.open.size(), pool.getOpenSessionCount());
+        assertEquals(16 * 500, pool.getStatistics().getAcquired());
+    }
+
+    @Test
+    public void testThreadAffinity() {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("test", factory, 0, 0, true, 1000, 0);
+        final NJI11Session first = pool.acquire();
+        final NJI11Session second = pool.acquire();
+        pool.release(second);
+        pool.release(first);
+        assertSame("This thread released the first session last.", first, pool.acquire());
+    }
+
+    @Test
+    public void testCloseKeepsOneSessionOpen() {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("test", factory, 0, 1, false, 1000, 0);
+        final NJI11Session session = pool.acquire();
+        pool.close(session, true);
+        assertFalse(factory.open.contains(session.getId()));
+        assertEquals("A new session should have been opened to stay logged in.", 1, factory.open.size());
+        assertEquals(1, pool.getIdleSessions().size());
+        // The permit of the closed session should be released
+        pool.close(pool.acquire(), false);
+        assertEquals(0, factory.open.size());
+        assertEquals(0, pool.getOpenSessionCount());
+    }
+
+    @Test
+    public void testLogout() {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("test", factory, 0, 1, false, 50, 0);
+        final NJI11Session beforeLogout = pool.acquire();
+        factory.closeAll();
+        pool.clear();
+        assertEquals(0, pool.getOpenSessionCount());
+        final NJI11Session afterLogout = pool.acquire();
+        pool.release(beforeLogout);
+        assertTrue("A session closed by logout should not be returned to the pool.", pool.getIdleSessions().isEmpty());
+        pool.release(afterLogout);
+        assertSame(afterLogout, pool.acquire());
+    }
+
+    @Test
+    public void testCloseStopsHealthCheck() {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("test", factory, 2, 0, false, 1000, 60);
+        assertTrue(pool.isHealthCheckScheduled());
+        final NJI11Session idle = pool.acquire();
+        final NJI11Session active = pool.acquire();
+        pool.release(idle);
+        pool.close();
+        assertFalse("The health check should be cancelled.", pool.isHealthCheckScheduled());
+        assertFalse("Idle sessions should be closed.", factory.open.contains(idle.getId()));
+        pool.release(active);
+        assertFalse("Sessions released after close should be closed.", factory.open.contains(active.getId()));
+        assertEquals(0, pool.getOpenSessionCount());
+        // A check that was already running when the pool was closed does not open new sessions
+        pool.checkIdleSessions();
+        assertEquals(0, factory.open.size());
+    }
+
+    @Test
+    public void testHealthCheck() {
+        final FakeSessionFactory factory = new FakeSessionFactory();
+        final NJI11SessionPool pool = new NJI11SessionPool("test", factory, 3, 0, false, 1000, 0);
+        pool.checkIdleSessions();
+        assertEquals("No sessions should be opened while not logged in.", 0, pool.getOpenSessionCount());
+        final NJI11Session first = pool.acquire();
+        final NJI11Session second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+        factory.invalid.add(first.getId());
+        pool.checkIdleSessions();
+        assertFalse(pool.getIdleSessions().contains(first));
+        assertFalse(factory.open.contains(first.getId()));
+        assertEquals(1, pool.getStatistics().getInvalid());
+        assertEquals("Sessions should be opened up to the minimum.", 3, pool.getOpenSessionCount());
+        assertEquals(3, factory.open.size());
+        assertSame("The most recently used session should still be first.", second, pool.acquire());
+    }
+}
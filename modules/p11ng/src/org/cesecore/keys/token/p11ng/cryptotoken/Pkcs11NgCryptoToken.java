@@ -406,7 +406,7 @@ public class Pkcs11NgCryptoToken extends BaseCryptoToken implements P11SlotUser
     public int getTokenStatus() {
         autoActivate();
         // If there is no slot or there are no sessions to the HSM, consider it offline 
-        if (slot == null || (slot.getActiveSessions().isEmpty() && slot.getIdleSessions().isEmpty())) {
+        if (slot == null || slot.getOpenSessionCount() == 0) {
             return CryptoToken.STATUS_OFFLINE;
         }
         return CryptoToken.STATUS_ACTIVE;
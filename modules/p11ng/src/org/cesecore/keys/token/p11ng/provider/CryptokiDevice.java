@@ -90,6 +90,7 @@ import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.util.encoders.Base64;
 import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.keys.token.KeyGenParams;
 import org.cesecore.keys.token.p11ng.CK_CP5_AUTHORIZE_PARAMS;
@@ -215,14 +216,48 @@ public class CryptokiDevice {
     public class Slot {
         private final long id;
         private final String label;
-        private final LinkedList<NJI11Session> activeSessions = new LinkedList<>();
-        private final LinkedList<NJI11Session> idleSessions = new LinkedList<>();
+        private final NJI11SessionPool sessionPool;
         private final CryptokiFacade cryptoki;
         
         private Slot(final long id, final String label, CryptokiFacade cryptoki) {
             this.id = id;
             this.label = label;
             this.cryptoki = cryptoki;
+            this.sessionPool = new NJI11SessionPool(libName + " slot " + id, new NJI11SessionPool.SessionFactory() {
+                @Override
+                public NJI11Session open() {
+                    try {
+                        final long sessionId = c.OpenSession(id, CK_SESSION_INFO.CKF_RW_SESSION | CK_SESSION_INFO.CKF_SERIAL_SESSION, null, null);
+                        final NJI11Session session = new NJI11Session(sessionId);
+                        if (LOG.isTraceEnabled()) {
+                            LOG.trace("c.OpenSession: " + session + ", " + Slot.this);
+                        }
+                        return session;
+                    } catch (CKRException ex) {
+                        throw new EJBException("Failed to open session.", ex);
+                    }
+                }
+
+                @Override
+                public void close(final NJI11Session session) {
+                    try {
+                        c.CloseSession(session.getId());
+                    } catch (CKRException ex) {
+                        throw new EJBException("Could not close session " + session, ex);
+                    }
+                }
+
+                @Override
+                public boolean isValid(final NJI11Session session) {
+                    try {
+                        return c.GetSessionInfo(session.getId()).slotID == id;
+                    } catch (CKRException ex) {
+                        return false;
+                    }
+                }
+            }, CesecoreConfiguration.getPkcs11NgSessionPoolMinSessions(), CesecoreConfiguration.getPkcs11NgSessionPoolMaxSessions(),
+                    CesecoreConfiguration.isPkcs11NgSessionPoolThreadAffinity(), CesecoreConfiguration.getPkcs11NgSessionPoolAcquireTimeout(),
+                    CesecoreConfiguration.getPkcs11NgSessionPoolHealthCheckInterval());
         }
 
         public long getId() {
@@ -241,55 +276,41 @@ public class CryptokiDevice {
             return c;
         }
         
-        public LinkedList<NJI11Session> getActiveSessions() {
-            return activeSessions;
+        /** @return a snapshot of the sessions in use */
+        public List<NJI11Session> getActiveSessions() {
+            return sessionPool.getActiveSessions();
         }
         
-        public LinkedList<NJI11Session> getIdleSessions() {
-            return idleSessions;
+        /** @return a snapshot of the idle sessions */
+        public List<NJI11Session> getIdleSessions() {
+            return sessionPool.getIdleSessions();
+        }
+
+        /** @return the number of open sessions, in use or idle */
+        public int getOpenSessionCount() {
+            return sessionPool.getOpenSessionCount();
+        }
+
+        /** @return statistics of the session pool of this slot */
+        public NJI11SessionPool.Statistics getSessionPoolStatistics() {
+            return sessionPool.getStatistics();
         }
         
-        public synchronized NJI11Session aquireSession() {
-            NJI11Session session;
-            if (!idleSessions.isEmpty()) {
-                session = idleSessions.pop();
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("Popped session: " + session + ", " + this);
-                }
-            } else {
-                try {
-                    final long sessionId = c.OpenSession(id, CK_SESSION_INFO.CKF_RW_SESSION | CK_SESSION_INFO.CKF_SERIAL_SESSION, null, null);
-                    session = new NJI11Session(sessionId);
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("c.OpenSession: " + session + ", " + this);
-                    }
-                } catch (CKRException ex) {
-                    throw new EJBException("Failed to open session.", ex);
-                }
-            }
-            activeSessions.add(session);
-            
+        public NJI11Session aquireSession() {
+            final NJI11Session session = sessionPool.acquire();
             if (LOG.isTraceEnabled()) {
                 LOG.trace(this);
             }
-            
             return session;
         }
         
-        public synchronized void releaseSession(final NJI11Session session) {
+        public void releaseSession(final NJI11Session session) {
             // TODO: Checks
             if (session.hasOperationsActive()) {
                 LOG.warn("PKCS#11 session up to be released but had potentially active operation so closing instead: " + session);
                 closeSession(session);
             } else {
-                if (!activeSessions.remove(session)) {
-                    LOG.warn("Releasing session not active: " + session + ", " + this);
-                }
-                idleSessions.push(session);
-
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("Released session: " + session + ", " + this);
-                }
+                sessionPool.release(session);
             }
         }
         
@@ -301,12 +322,8 @@ public class CryptokiDevice {
          * closed and you will become logged out of the HSM
          * @param session the PKCS#11 session to close
          */
-        protected synchronized void closeSession(final NJI11Session session) {
-            if (activeSessions.size() <=1 && idleSessions.size() == 0) { // session in param is the 1
-                // Put a new session in the idle pool
-                releaseSession(aquireSession());
-            }
-            closeSessionFinal(session);
+        protected void closeSession(final NJI11Session session) {
+            sessionPool.close(session, true);
         }
 
         /**
@@ -314,21 +331,8 @@ public class CryptokiDevice {
          * it's closed an you will get logged out of the HSM
          * @param session the PKCS#11 session to close
          */
-        private synchronized void closeSessionFinal(final NJI11Session session) {
-            try {
-                c.CloseSession(session.getId());
-            } catch (CKRException ex) {
-                throw new EJBException("Could not close session " + session, ex);
-            }
-            activeSessions.remove(session);
-            if (idleSessions.contains(session)) {
-                LOG.warn("Session that was closed is marked as idle (removing): " + session + ", " + this);
-                idleSessions.remove(session);
-            }
-            
-            if (LOG.isTraceEnabled()) {
-                LOG.trace("Closed session " + session + ", " + this);
-            }
+        private void closeSessionFinal(final NJI11Session session) {
+            sessionPool.close(session, false);
         }
 
         public synchronized void login(final String pin) {
@@ -371,8 +375,7 @@ public class CryptokiDevice {
             // So there is no need to explicitly call C_Logout, which just does the same but keeps sessions open as Public sessions.
             c.CloseAllSessions(this.id);
             // After closing all sessions we don't want to keep references to them any longer, clear all our session caches
-            idleSessions.clear();
-            activeSessions.clear();
+            sessionPool.clear();
             // Clear object and attribute caches
             cryptoki.clear();
         }
@@ -552,7 +555,7 @@ public class CryptokiDevice {
         
         @Override
         public String toString() {
-            return "Slot{" + "id=" + id + ", activeSessions=" + activeSessions + ", idleSessions=" + idleSessions + '}';
+            return "Slot{" + "id=" + id + ", sessionPool=" + sessionPool + '}';
         }
         
         public SecretKey getSecretKey(String alias) {
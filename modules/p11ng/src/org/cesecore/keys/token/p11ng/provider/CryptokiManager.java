@@ -21,6 +21,7 @@ import org.cesecore.keys.token.p11ng.jacknji11.ExtendedCryptokiE;
 import org.cesecore.keys.token.p11ng.jacknji11.ExtendedCryptoki;
 import org.cesecore.keys.token.p11ng.jacknji11.ExtendedJNA;
 import org.cesecore.keys.token.p11ng.jacknji11.ExtendedJNANativeI;
+import org.cesecore.util.MetricsRegistry;
 
 /**
  * Singleton managing the various cryptoki devices available.
@@ -37,7 +38,18 @@ public class CryptokiManager {
         return INSTANCE;
     }
 
-    private CryptokiManager() {}
+    private CryptokiManager() {
+        MetricsRegistry.INSTANCE.register(CryptokiManager.class.getName(), this::collectMetrics);
+    }
+
+    /** Adds the statistics of the session pools of all slots of the loaded devices */
+    private synchronized void collectMetrics(final MetricsRegistry.Collector collector) {
+        for (final CryptokiDevice device : devices.values()) {
+            for (final CryptokiDevice.Slot slot : device.getSlots()) {
+                slot.getSessionPoolStatistics().collectMetrics(collector);
+            }
+        }
+    }
 
     public synchronized CryptokiDevice getDevice(final String libName, final String libDir, final boolean withCache) {
         if (LOG.isDebugEnabled()) {
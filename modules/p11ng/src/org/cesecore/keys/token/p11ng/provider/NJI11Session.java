@@ -19,6 +19,8 @@ public class NJI11Session {
 
     private boolean findObjectsStarted;
     private boolean signStarted;
+    /** The sessions of the pool that this session was opened in, see {@link NJI11SessionPool} */
+    private volatile Object pool;
 
     public NJI11Session(long id) {
         this.id = id;
@@ -28,6 +30,14 @@ public class NJI11Session {
         return id;
     }
 
+    Object getPool() {
+        return pool;
+    }
+
+    void setPool(final Object pool) {
+        this.pool = pool;
+    }
+
     protected void markOperationFindObjectsStarted() {
         this.findObjectsStarted = true;
     }
@@ -0,0 +1,441 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA - Proprietary Modules: Enterprise Certificate Authority        *
+ *                                                                       *
+ *  Copyright (c), PrimeKey Solutions AB. All rights reserved.           *
+ *  The use of the Proprietary Modules are subject to specific           *
+ *  commercial license terms.                                            *
+ *                                                                       *
+ *************************************************************************/
+
+package org.cesecore.keys.token.p11ng.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ejb.EJBException;
+
+import org.apache.log4j.Logger;
+import org.cesecore.util.MetricsRegistry;
+
+/**
+ * Pool of PKCS#11 sessions of a slot, that can be used concurrently without a common lock.
+ * <p>
+ * Idle sessions are kept in a lock-free stack, so the most recently used session is reused first. With thread affinity, a thread
+ * first tries to get the session it released last. The number of sessions in use can be limited, in which case callers wait for
+ * a session to be released. Idle sessions can be checked in the background, where sessions that are no longer valid are closed
+ * and new sessions are opened up to the minimum number of sessions, as long as the slot has open sessions (is logged in).
+ * <p>
+ * All sessions of the slot are closed by C_CloseAllSessions on logout. Sessions that were in use at that time are not returned
+ * to the pool when they are released.
+ */
+public class NJI11SessionPool {
+
+    private static final Logger log = Logger.getLogger(NJI11SessionPool.class);
+
+    /** Opens, closes and checks sessions of the slot. */
+    interface SessionFactory {
+        /** @return a new session */
+        NJI11Session open();
+        /** Closes the session */
+        void close(NJI11Session session);
+        /** @return true if the session can still be used */
+        boolean isValid(NJI11Session session);
+    }
+
+    /** Shared by the health checks of all pools */
+    private static ScheduledExecutorService healthCheckExecutor;
+
+    /** The sessions opened since the last logout. Replaced on logout, so sessions opened before can be recognized. */
+    private static class Generation {
+        private final ConcurrentLinkedDeque<NJI11Session> idleSessions = new ConcurrentLinkedDeque<>();
+        private final Set<NJI11Session> activeSessions = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger openSessions = new AtomicInteger();
+        private final Semaphore permits;
+
+        private Generation(final int maxSessions) {
+            this.permits = maxSessions > 0 ? new Semaphore(maxSessions) : null;
+        }
+    }
+
+    private final String name;
+    private final SessionFactory sessionFactory;
+    private final int minSessions;
+    private final int maxSessions;
+    private final long acquireTimeoutMs;
+    private final ThreadLocal<NJI11Session> lastReleased;
+    /** The periodic check of idle sessions, or null if they are not checked */
+    private final ScheduledFuture<?> healthCheck;
+    private volatile boolean poolClosed = false;
+    private volatile Generation generation;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder totalAcquireNanos = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final LongAdder exhausted = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+
+    /**
+     * @param name name of the pool, used in logging
+     * @param sessionFactory opens, closes and checks sessions
+     * @param minSessions number of sessions kept open by the health check while logged in
+     * @param maxSessions maximum number of sessions in use at the same time, or 0 for no limit
+     * @param threadAffinity true if a thread should reuse the session it released last, when it is idle
+     * @param acquireTimeoutMs maximum time to wait for a session when maxSessions are in use
+     * @param healthCheckIntervalSeconds interval between checks of the idle sessions, or 0 to not check them
+     */
+    NJI11SessionPool(final String name, final SessionFactory sessionFactory, final int minSessions, final int maxSessions, final boolean threadAffinity,
+            final long acquireTimeoutMs, final long healthCheckIntervalSeconds) {
+        this.name = name;
+        this.sessionFactory = sessionFactory;
+        this.minSessions = maxSessions > 0 ? Math.min(minSessions, maxSessions) : minSessions;
+        this.maxSessions = maxSessions;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.lastReleased = threadAffinity ? new ThreadLocal<>() : null;
+        this.generation = new Generation(maxSessions);
+        if (healthCheckIntervalSeconds > 0) {
+            this.healthCheck = getHealthCheckExecutor().scheduleWithFixedDelay(this::checkIdleSessions, healthCheckIntervalSeconds,
+                    healthCheckIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.healthCheck = null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getHealthCheckExecutor() {
+        if (healthCheckExecutor == null) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "NJI11SessionPool-HealthCheck");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            healthCheckExecutor = executor;
+        }
+        return healthCheckExecutor;
+    }
+
+    /**
+     * Gets an idle session, or opens a new one if there is none. Waits for a session to be released if the maximum number of sessions
+     * are in use.
+     *
+     * @return a session that must be released or closed by the caller
+     * @throws EJBException if no session was released in time, or a new session could not be opened
+     */
+    NJI11Session acquire() {
+        final long startTime = System.nanoTime();
+        final Generation current = generation;
+        if (current.permits != null && !current.permits.tryAcquire()) {
+            exhausted.increment();
+            boolean permitted = false;
+            try {
+                permitted = current.permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!permitted) {
+                timedOut.increment();
+                throw new EJBException("No PKCS#11 session of " + name + " was available within " + acquireTimeoutMs + " ms, all " + maxSessions
+                        + " sessions are in use.");
+            }
+        }
+        NJI11Session session = null;
+        try {
+            if (lastReleased != null) {
+                final NJI11Session preferred = lastReleased.get();
+                if (preferred != null && preferred.getPool() == current && current.idleSessions.remove(preferred)) {
+                    session = preferred;
+                }
+            }
+            if (session == null) {
+                session = current.idleSessions.pollFirst();
+            }
+            if (session == null) {
+                session = open(current);
+            } else if (log.isTraceEnabled()) {
+                log.trace("Popped session: " + session + ", " + this);
+            }
+        } finally {
+            if (session == null && current.permits != null) {
+                current.permits.release();
+            }
+        }
+        current.activeSessions.add(session);
+        final long elapsed = System.nanoTime() - startTime;
+        acquired.increment();
+        totalAcquireNanos.add(elapsed);
+        maxAcquireNanos.accumulateAndGet(elapsed, Math::max);
+        return session;
+    }
+
+    private NJI11Session open(final Generation current) {
+        final NJI11Session session = sessionFactory.open();
+        session.setPool(current);
+        current.openSessions.incrementAndGet();
+        opened.increment();
+        return session;
+    }
+
+    /** Returns a session without active operations to the pool. */
+    void release(final NJI11Session session) {
+        final Generation current = generation;
+        if (session.getPool() != current) {
+            // Closed by a logout while it was in use
+            if (log.isDebugEnabled()) {
+                log.debug("Not returning session that was open before logout to the pool: " + session + ", " + this);
+            }
+            return;
+        }
+        final boolean wasActive = current.activeSessions.remove(session);
+        if (!wasActive) {
+            log.warn("Releasing session not active: " + session + ", " + this);
+        }
+        if (poolClosed || (maxSessions > 0 && current.openSessions.get() > maxSessions)) {
+            // The pool was closed while the session was in use, or more sessions were opened concurrently than needed
+            closeQuietly(current, session);
+        } else {
+            current.idleSessions.offerFirst(session);
+            if (lastReleased != null) {
+                lastReleased.set(session);
+            }
+        }
+        // The session must be idle before the permit is released, or the next caller would find no idle session and open a new one
+        if (wasActive && current.permits != null) {
+            current.permits.release();
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Released session: " + session + ", " + this);
+        }
+    }
+
+    /**
+     * Closes a session and removes it from the pool.
+     *
+     * @param session the session to close
+     * @param keepOneOpen true if a new idle session should be opened first if this is the last open session, so that the slot stays
+     * logged in
+     * @throws EJBException if the session could not be closed
+     */
+    void close(final NJI11Session session, final boolean keepOneOpen) {
+        final Generation current = generation;
+        if (keepOneOpen && current.openSessions.get() <= 1) {
+            current.idleSessions.offerFirst(open(current));
+        }
+        remove(current, session);
+        sessionFactory.close(session);
+        closed.increment();
+        if (log.isTraceEnabled()) {
+            log.trace("Closed session " + session + ", " + this);
+        }
+    }
+
+    private void remove(final Generation current, final NJI11Session session) {
+        if (session.getPool() != current) {
+            return;
+        }
+        if (current.activeSessions.remove(session)) {
+            if (current.permits != null) {
+                current.permits.release();
+            }
+        } else if (current.idleSessions.remove(session)) {
+            log.warn("Session that was closed is marked as idle (removing): " + session + ", " + this);
+        }
+        current.openSessions.decrementAndGet();
+    }
+
+    private void closeQuietly(final Generation current, final NJI11Session session) {
+        remove(current, session);
+        try {
+            sessionFactory.close(session);
+            closed.increment();
+        } catch (RuntimeException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not close session " + session + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the health check and closes the idle sessions. Sessions in use are closed when they are released. Called when the pool
+     * or its slot is no longer used.
+     */
+    void close() {
+        poolClosed = true;
+        if (healthCheck != null) {
+            // Also removes the task from the shared executor, so it no longer references this pool
+            healthCheck.cancel(false);
+        }
+        final Generation current = generation;
+        NJI11Session session;
+        while ((session = current.idleSessions.pollFirst()) != null) {
+            closeQuietly(current, session);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Closed session pool " + this);
+        }
+    }
+
+    /** Forgets all sessions, after they have been closed by C_CloseAllSessions. */
+    void clear() {
+        generation = new Generation(maxSessions);
+    }
+
+    /**
+     * Closes the idle sessions that are no longer valid, and opens sessions up to the minimum number of sessions if the slot is logged in.
+     * Called periodically in the background.
+     */
+    void checkIdleSessions() {
+        if (poolClosed) {
+            return;
+        }
+        try {
+            final Generation current = generation;
+            for (int i = current.idleSessions.size(); i > 0; i--) {
+                // The least recently used sessions are at the end
+                final NJI11Session session = current.idleSessions.pollLast();
+                if (session == null) {
+                    break;
+                }
+                if (sessionFactory.isValid(session)) {
+                    current.idleSessions.offerLast(session);
+                } else {
+                    log.info("Closing PKCS#11 session that is no longer valid: " + session + ", " + this);
+                    invalid.increment();
+                    closeQuietly(current, session);
+                }
+            }
+            while (!poolClosed && current == generation && current.openSessions.get() > 0 && current.openSessions.get() < minSessions) {
+                current.idleSessions.offerLast(open(current));
+            }
+        } catch (RuntimeException e) {
+            // Must not propagate, or the check would not be scheduled again
+            log.warn("PKCS#11 session health check of " + name + " failed: " + e.getMessage());
+        }
+    }
+
+    /** @return true if the idle sessions are checked periodically */
+    boolean isHealthCheckScheduled() {
+        return healthCheck != null && !healthCheck.isCancelled();
+    }
+
+    /** @return the number of sessions that are open, either in use or idle */
+    int getOpenSessionCount() {
+        return generation.openSessions.get();
+    }
+
+    /** @return the sessions in use */
+    List<NJI11Session> getActiveSessions() {
+        return new ArrayList<>(generation.activeSessions);
+    }
+
+    /** @return the idle sessions */
+    List<NJI11Session> getIdleSessions() {
+        return new ArrayList<>(generation.idleSessions);
+    }
+
+    /** @return the current statistics of the pool */
+    public Statistics getStatistics() {
+        final Generation current = generation;
+        return new Statistics(name, current.activeSessions.size(), current.idleSessions.size(), acquired.sum(), totalAcquireNanos.sum(),
+                maxAcquireNanos.get(), exhausted.sum(), timedOut.sum(), opened.sum(), closed.sum(), invalid.sum());
+    }
+
+    @Override
+    public String toString() {
+        final Generation current = generation;
+        return "NJI11SessionPool{" + name + ", active=" + current.activeSessions.size() + ", idle=" + current.idleSessions.size() + "}";
+    }
+
+    /** Statistics of a session pool, for monitoring. */
+    public static class Statistics {
+        private final String name;
+        private final int activeSessions;
+        private final int idleSessions;
+        private final long acquired;
+        private final long totalAcquireNanos;
+        private final long maxAcquireNanos;
+        private final long exhausted;
+        private final long timedOut;
+        private final long opened;
+        private final long closed;
+        private final long invalid;
+
+        Statistics(final String name, final int activeSessions, final int idleSessions, final long acquired, final long totalAcquireNanos,
+                final long maxAcquireNanos, final long exhausted, final long timedOut, final long opened, final long closed, final long invalid) {
+            this.name = name;
+            this.activeSessions = activeSessions;
+            this.idleSessions = idleSessions;
+            this.acquired = acquired;
+            this.totalAcquireNanos = totalAcquireNanos;
+            this.maxAcquireNanos = maxAcquireNanos;
+            this.exhausted = exhausted;
+            this.timedOut = timedOut;
+            this.opened = opened;
+            this.closed = closed;
+            this.invalid = invalid;
+        }
+
+        public String getName() { return name; }
+        /** @return number of sessions in use */
+        public int getActiveSessions() { return activeSessions; }
+        /** @return number of open sessions that are not in use */
+        public int getIdleSessions() { return idleSessions; }
+        /** @return number of times a session was acquired */
+        public long getAcquired() { return acquired; }
+        /** @return total time spent acquiring sessions, including opening new sessions and waiting for sessions to be released */
+        public long getTotalAcquireNanos() { return totalAcquireNanos; }
+        /** @return the longest time spent acquiring a session */
+        public long getMaxAcquireNanos() { return maxAcquireNanos; }
+        /** @return number of times all sessions were in use, so the caller had to wait */
+        public long getExhausted() { return exhausted; }
+        /** @return number of times no session was released in time */
+        public long getTimedOut() { return timedOut; }
+        /** @return number of sessions opened */
+        public long getOpened() { return opened; }
+        /** @return number of sessions closed, not counting logout */
+        public long getClosed() { return closed; }
+        /** @return number of idle sessions that were found to be invalid by the health check */
+        public long getInvalid() { return invalid; }
+
+        /**
+         * Adds the statistics as metrics, labeled with the name of the pool.
+         * @param collector where to add the metrics
+         */
+        public void collectMetrics(final MetricsRegistry.Collector collector) {
+            collector.gauge("ejbca_p11ng_sessions_active", "PKCS#11 sessions in use.", activeSessions, "pool", name);
+            collector.gauge("ejbca_p11ng_sessions_idle", "Open PKCS#11 sessions that are not in use.", idleSessions, "pool", name);
+            collector.counter("ejbca_p11ng_session_acquired_total", "PKCS#11 sessions acquired from the pool.", acquired, "pool", name);
+            collector.counter("ejbca_p11ng_session_acquire_seconds_total", "Time spent acquiring PKCS#11 sessions, including waiting for a session.",
+                    totalAcquireNanos / 1e9, "pool", name);
+            collector.gauge("ejbca_p11ng_session_acquire_max_seconds", "Longest time spent acquiring a PKCS#11 session.", maxAcquireNanos / 1e9,
+                    "pool", name);
+            collector.counter("ejbca_p11ng_session_exhausted_total", "Times all PKCS#11 sessions were in use, so the caller had to wait.", exhausted,
+                    "pool", name);
+            collector.counter("ejbca_p11ng_session_timed_out_total", "Times no PKCS#11 session was released in time.", timedOut, "pool", name);
+            collector.counter("ejbca_p11ng_session_opened_total", "PKCS#11 sessions opened.", opened, "pool", name);
+            collector.counter("ejbca_p11ng_session_closed_total", "PKCS#11 sessions closed.", closed, "pool", name);
+            collector.counter("ejbca_p11ng_session_invalid_total", "Idle PKCS#11 sessions found to be invalid by the health check.", invalid,
+                    "pool", name);
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics{" + name + ", active=" + activeSessions + ", idle=" + idleSessions + ", acquired=" + acquired + ", averageAcquireMicros="
+                    + (acquired == 0 ? 0 : totalAcquireNanos / acquired / 1000) + ", maxAcquireMicros=" + maxAcquireNanos / 1000 + ", exhausted="
+                    + exhausted + ", timedOut=" + timedOut + ", opened=" + opened + ", closed=" + closed + ", invalid=" + invalid + "}";
+        }
+    }
+}
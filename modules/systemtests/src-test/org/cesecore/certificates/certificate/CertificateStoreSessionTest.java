@@ -33,6 +33,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.EJBTransactionRolledbackException;
 
@@ -40,10 +41,13 @@ import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.ExtensionsGenerator;
 import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.cert.CertIOException;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.jce.X509KeyUsage;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.cesecore.CaTestUtils;
 import org.cesecore.RoleUsingTestCase;
 import org.cesecore.authentication.tokens.AuthenticationToken;
@@ -764,6 +768,72 @@ public class CertificateStoreSessionTest extends RoleUsingTestCase {
         }
         log.trace("<" + TEST_NAME);
     }
+    @Test
+    public void testGetStatuses() throws Exception {
+        final String issuerDn = "CN=CertificateStoreSessionTest getStatuses";
+        final long now = System.currentTimeMillis();
+        final List<X509Certificate> certs = new ArrayList<>();
+        try {
+            // More certificates than the 100 serial numbers of one status query
+            for (int i = 0; i < 150; i++) {
+                final X509Certificate cert = generateCert(issuerDn, BigInteger.valueOf(1000 + i), 1);
+                internalCertStoreSession.storeCertificateNoAuth(alwaysAllowToken, cert, USERNAME, "1234", CertificateConstants.CERT_ACTIVE,
+                        CertificateConstants.CERTTYPE_ENDENTITY, CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER, EndEntityConstants.NO_END_ENTITY_PROFILE,
+                        CertificateConstants.NO_CRL_PARTITION, null, now);
+                certs.add(cert);
+            }
+            // A second row with the same issuer and serial number, but another fingerprint
+            final X509Certificate duplicate = generateCert(issuerDn, certs.get(3).getSerialNumber(), 2);
+            internalCertStoreSession.storeCertificateNoAuth(alwaysAllowToken, duplicate, USERNAME, "1234", CertificateConstants.CERT_ACTIVE,
+                    CertificateConstants.CERTTYPE_ENDENTITY, CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER, EndEntityConstants.NO_END_ENTITY_PROFILE,
+                    CertificateConstants.NO_CRL_PARTITION, null, now);
+            assertTrue(internalCertStoreSession.setRevokeStatus(roleMgmgToken, certs.get(0), new Date(), RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+            // Archived, as the CRL job does for expired certificates, without being revoked
+            certificateStoreSession.setStatus(roleMgmgToken, CertTools.getFingerprintAsString(certs.get(1)), CertificateConstants.CERT_ARCHIVED);
+            // Archived after being revoked
+            assertTrue(internalCertStoreSession.setRevokeStatus(roleMgmgToken, certs.get(2), new Date(), RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD));
+            certificateStoreSession.setStatus(roleMgmgToken, CertTools.getFingerprintAsString(certs.get(2)), CertificateConstants.CERT_ARCHIVED);
+            // Revoked in the second query
+            assertTrue(internalCertStoreSession.setRevokeStatus(roleMgmgToken, certs.get(140), new Date(), RevokedCertInfo.REVOCATION_REASON_SUPERSEDED));
+            final List<BigInteger> serialNumbers = new ArrayList<>();
+            for (final X509Certificate cert : certs) {
+                serialNumbers.add(cert.getSerialNumber());
+            }
+            final BigInteger notFound1 = BigInteger.valueOf(99998);
+            final BigInteger notFound2 = BigInteger.valueOf(99999);
+            serialNumbers.add(notFound1);
+            serialNumbers.add(notFound2);
+            // The same serial number twice in the request
+            serialNumbers.add(certs.get(0).getSerialNumber());
+
+            final Map<BigInteger, CertificateStatus> statuses = certificateStoreSession.getStatuses(issuerDn, serialNumbers);
+
+            assertEquals("There should be one status for each distinct serial number.", 152, statuses.size());
+            for (final BigInteger serialNumber : serialNumbers) {
+                final CertificateStatus expected = certificateStoreSession.getStatus(issuerDn, serialNumber);
+                final CertificateStatus status = statuses.get(serialNumber);
+                assertNotNull("No status for serial number " + serialNumber, status);
+                assertEquals("Status of serial number " + serialNumber + " should be the same as from getStatus.", expected, status);
+                assertEquals(expected.revocationReason, status.revocationReason);
+                assertEquals(expected.revocationDate, status.revocationDate);
+                assertEquals(expected.getExpirationDate(), status.getExpirationDate());
+            }
+            assertEquals(CertificateStatus.REVOKED, statuses.get(certs.get(0).getSerialNumber()));
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, statuses.get(certs.get(0).getSerialNumber()).revocationReason);
+            assertEquals("An archived certificate that was not revoked should be OK.", CertificateStatus.OK, statuses.get(certs.get(1).getSerialNumber()));
+            assertEquals("An archived certificate that was revoked should be REVOKED.", CertificateStatus.REVOKED, statuses.get(certs.get(2).getSerialNumber()));
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, statuses.get(certs.get(2).getSerialNumber()).revocationReason);
+            assertEquals("A serial number with two rows should get the status of one of them.", CertificateStatus.OK, statuses.get(certs.get(3).getSerialNumber()));
+            assertEquals(CertificateStatus.REVOKED, statuses.get(certs.get(140).getSerialNumber()));
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, statuses.get(certs.get(140).getSerialNumber()).revocationReason);
+            assertEquals(CertificateStatus.OK, statuses.get(certs.get(149).getSerialNumber()));
+            assertEquals(CertificateStatus.NOT_AVAILABLE, statuses.get(notFound1));
+            assertEquals(CertificateStatus.NOT_AVAILABLE, statuses.get(notFound2));
+        } finally {
+            internalCertStoreSession.removeCertificatesBySubject(issuerDn);
+        }
+    }
+
     private boolean isCertificatePresentInList(final List<CertificateDataWrapper> cdws, final String...expectedFingerprints) {
         final List<String> expectedFingerprintsList = Arrays.asList(expectedFingerprints);
         for (CertificateDataWrapper cdw  : cdws) {
@@ -794,6 +864,17 @@ public class CertificateStoreSessionTest extends RoleUsingTestCase {
 //		assertTrue("Result returned", result.size()>0);
 //	}
 
+    /** Creates a self signed certificate with the given serial number, valid for the given number of days */
+    private X509Certificate generateCert(final String dn, final BigInteger serialNumber, final int days) throws Exception {
+        final Date notBefore = new Date(System.currentTimeMillis() - 60000L);
+        final Date notAfter = new Date(notBefore.getTime() + days * 24L * 3600L * 1000L);
+        final X509v3CertificateBuilder certificateBuilder = new X509v3CertificateBuilder(CertTools.stringToBcX500Name(dn), serialNumber, notBefore,
+                notAfter, CertTools.stringToBcX500Name(dn), SubjectPublicKeyInfo.getInstance(keys.getPublic().getEncoded()));
+        final byte[] encoded = certificateBuilder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA)
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keys.getPrivate())).getEncoded();
+        return CertTools.getCertfromByteArray(encoded, X509Certificate.class);
+    }
+
     private X509Certificate generateCert(final AuthenticationToken admin, final int status) throws AuthorizationDeniedException, IllegalStateException,
             OperatorCreationException, CertificateException, IOException {
         // create a new self signed certificate
@@ -17,6 +17,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -65,6 +67,26 @@ public class OcspDataSessionBeanTest {
         log.trace("<testFindExpiringOcpsDataReturnsCorrectResponses");
     }
 
+    @Test
+    public void testFindExpiringOcspSerialNumbersPagesBySerialNumber() throws InterruptedException {
+        log.trace(">testFindExpiringOcspSerialNumbersPagesBySerialNumber");
+
+        final long now = System.currentTimeMillis();
+        final long hourAgo = now - 3600000L;
+        for (int i = 1; i <= 3; i++) {
+            ocspDataProxySessionRemote.storeOcspData(new OcspResponseData("test-page-id-" + i, certificateAuthOne, "test-page-sn-" + i, hourAgo, hourAgo, new byte[0]));
+        }
+        Thread.sleep(1000);
+
+        final List<String> firstPage = ocspDataSessionRemote.findExpiringOcspSerialNumbers(certificateAuthOne, now, null, 2);
+        assertEquals(Arrays.asList("test-page-sn-1", "test-page-sn-2"), firstPage);
+        final List<String> secondPage = ocspDataSessionRemote.findExpiringOcspSerialNumbers(certificateAuthOne, now, "test-page-sn-2", 2);
+        assertEquals(Collections.singletonList("test-page-sn-3"), secondPage);
+        assertTrue(ocspDataSessionRemote.findExpiringOcspSerialNumbers(certificateAuthOne, now, "test-page-sn-3", 2).isEmpty());
+
+        log.trace("<testFindExpiringOcspSerialNumbersPagesBySerialNumber");
+    }
+
     @Test
     public void testFindOcspDataByCaId() throws InterruptedException {
         log.trace(">testfindOcspDataByCaId");